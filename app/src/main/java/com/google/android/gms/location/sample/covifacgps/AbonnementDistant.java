@@ -0,0 +1,192 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Executor;
+
+/**
+ * Abonnement à l'occupation d'un ensemble de salles sur le serveur d'agrégation ({@link ServeurOccupation}).
+ * <p/>
+ * Un thread de réception ouvre sa propre connexion, envoie l'abonnement puis propose chaque changement reçu à
+ * {@link #abonnement()}, qui le signale à l'abonné comme un abonnement du {@link FluxOccupation} local : l'abonné
+ * prend les changements à son rythme, et ceux qu'il n'a pas encore pris se regroupent. Le serveur regroupe
+ * déjà les changements par fenêtre, et cesse d'envoyer à une connexion qui ne lit plus.
+ * <p/>
+ * Si la connexion est perdue, elle est rouverte après une attente qui double à chaque échec jusqu'à
+ * {@code attenteMaxMillis}, et l'abonnement renvoyé : le serveur renvoie alors l'occupation de toutes les
+ * salles, et seules celles qui ont changé pendant la coupure sont signalées.
+ */
+public final class AbonnementDistant {
+
+    private static final long ATTENTE_MIN_MILLIS = 100;
+
+    private static final int DELAI_CONNEXION_MILLIS = 5000;
+
+    private final InetSocketAddress adresse;
+    private final long attenteMaxMillis;
+    private final AbonnementOccupation abonnement;
+    private final ByteBuffer tampon = ByteBuffer.allocate(ProtocoleOccupation.TAILLE_TRAME_MAX + 4).order(ByteOrder.LITTLE_ENDIAN);
+
+    private volatile Socket socket;
+    private Thread thread;
+    private volatile boolean actif = false;
+
+    private volatile long connexions = 0;
+
+    /**
+     * @param salles Salles de l'abonnement (au plus {@link ProtocoleOccupation#SALLES_PAR_ABONNEMENT_MAX}).
+     * @param signal Exécuté par {@code executeur} au premier changement pas encore pris (voir {@link AbonnementOccupation}).
+     */
+    public AbonnementDistant(InetSocketAddress adresse, int[] salles, Executor executeur, Runnable signal, long attenteMaxMillis) {
+        this.adresse = adresse;
+        this.attenteMaxMillis = attenteMaxMillis;
+        abonnement = new AbonnementOccupation(salles, executeur, signal);
+        if (abonnement.nombreSalles() > ProtocoleOccupation.SALLES_PAR_ABONNEMENT_MAX) {
+            throw new IllegalArgumentException("Trop de salles : " + abonnement.nombreSalles());
+        }
+    }
+
+    /**
+     * Changements reçus du serveur, à prendre par l'abonné.
+     */
+    public AbonnementOccupation abonnement() {
+        return abonnement;
+    }
+
+    /**
+     * Nombre de connexions ouvertes (plus d'une après une reconnexion).
+     */
+    public long connexions() {
+        return connexions;
+    }
+
+    public synchronized void demarrer() {
+        if (actif) {
+            return;
+        }
+        actif = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                recevoir();
+            }
+        }, "abonnement-occupation");
+        thread.start();
+    }
+
+    /**
+     * Ferme la connexion et attend la fin du thread de réception.
+     */
+    public void arreter() throws InterruptedException {
+        Thread reception;
+        synchronized (this) {
+            if (!actif) {
+                return;
+            }
+            actif = false;
+            reception = thread;
+        }
+        fermer();
+        reception.interrupt();
+        reception.join();
+    }
+
+    private void recevoir() {
+        int echecs = 0;
+        while (actif) {
+            try {
+                connecter();
+                echecs = 0;
+                InputStream entree = socket.getInputStream();
+                while (actif) {
+                    lireModifications(entree);
+                }
+            } catch (IOException e) {
+                fermer();
+                if (!actif) {
+                    return;
+                }
+                long attente = Math.min(attenteMaxMillis, ATTENTE_MIN_MILLIS << Math.min(echecs, 20));
+                echecs++;
+                try {
+                    Thread.sleep(attente);
+                } catch (InterruptedException interruption) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void connecter() throws IOException {
+        Socket nouvelle = new Socket();
+        socket = nouvelle;
+        // Arrêté avant que la nouvelle connexion soit visible : 'arreter' ne l'a pas fermée
+        if (!actif) {
+            nouvelle.close();
+            throw new IOException("Abonnement arrêté");
+        }
+        nouvelle.setTcpNoDelay(true);
+        nouvelle.setKeepAlive(true);
+        nouvelle.connect(adresse, DELAI_CONNEXION_MILLIS);
+        tampon.clear();
+        ProtocoleOccupation.ecrireAbonnement(tampon, abonnement.salles(), 0, abonnement.nombreSalles());
+        OutputStream sortie = nouvelle.getOutputStream();
+        sortie.write(tampon.array(), 0, tampon.position());
+        sortie.flush();
+        connexions++;
+    }
+
+    /**
+     * Lit une trame de modifications et propose chacune à l'abonnement.
+     */
+    private void lireModifications(InputStream entree) throws IOException {
+        tampon.clear();
+        lireComplet(entree, 4);
+        int longueur = tampon.getInt(0);
+        if (longueur < ProtocoleOccupation.LONGUEUR_MODIFICATIONS_VIDE || longueur > ProtocoleOccupation.TAILLE_TRAME_MAX) {
+            throw new IOException("Trame de longueur invalide : " + longueur);
+        }
+        lireComplet(entree, 4 + longueur);
+        tampon.position(4);
+        int type = tampon.getInt();
+        int nombre = tampon.getInt();
+        if (type != ProtocoleOccupation.TYPE_MODIFICATIONS
+                || longueur != ProtocoleOccupation.LONGUEUR_MODIFICATIONS_VIDE + 8 * nombre) {
+            throw new IOException("Trame de modifications invalide : type " + type + ", " + nombre + " salles");
+        }
+        for (int i = 0; i < nombre; i++) {
+            int salle = tampon.getInt();
+            abonnement.proposer(salle, tampon.getInt());
+        }
+    }
+
+    private void lireComplet(InputStream entree, int fin) throws IOException {
+        byte[] octets = tampon.array();
+        int position = tampon.position();
+        while (position < fin) {
+            int lus = entree.read(octets, position, fin - position);
+            if (lus < 0) {
+                throw new EOFException("Connexion fermée par le serveur");
+            }
+            position += lus;
+        }
+        tampon.position(position);
+    }
+
+    private void fermer() {
+        Socket courante = socket;
+        if (courante != null) {
+            try {
+                courante.close();
+            } catch (IOException e) {
+                // La connexion est abandonnée de toute façon
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Abonnement à l'occupation d'un ensemble de salles : reçoit les nouvelles occupations de ces seules salles,
+ * publiées par un {@link FluxOccupation} (dans le même processus) ou par le serveur d'agrégation
+ * ({@link AbonnementDistant}).
+ * <p/>
+ * Les occupations reçues s'accumulent dans l'abonnement, au plus une par salle : une salle modifiée plusieurs
+ * fois avant d'être prise ne garde que sa dernière occupation, et une salle revenue à l'occupation déjà prise
+ * n'est pas signalée. Au premier changement, la tâche {@code signal} est confiée à l'exécuteur de l'abonné ;
+ * elle n'est plus confiée tant que l'abonné n'a pas pris les changements avec {@link #prendre}. Un abonné lent
+ * ne ralentit donc ni les producteurs ni les autres abonnés, et ses changements en attente ne dépassent jamais
+ * le nombre de ses salles : il reçoit moins de notifications, toujours avec les dernières occupations.
+ */
+public final class AbonnementOccupation {
+
+    // Salles de l'abonnement, triées et sans doublon
+    private final int[] salles;
+
+    // Par salle de l'abonnement : dernière occupation reçue, dernière occupation prise, modifiée depuis
+    private final int[] occupations;
+    private final int[] prises;
+    private final boolean[] modifiees;
+
+    // Indices des salles modifiées, dans l'ordre de leur première modification
+    private final int[] ordre;
+    private int nombreModifiees = 0;
+
+    private final Executor executeur;
+    private final Runnable signal;
+    private boolean signale = false;
+
+    private long recues = 0;
+    private long remplacees = 0;
+
+    AbonnementOccupation(int[] salles, Executor executeur, Runnable signal) {
+        int[] triees = salles.clone();
+        Arrays.sort(triees);
+        int nombre = 0;
+        for (int i = 0; i < triees.length; i++) {
+            if (triees[i] < 0) {
+                throw new IllegalArgumentException("Salle invalide : " + triees[i]);
+            }
+            if (nombre == 0 || triees[i] != triees[nombre - 1]) {
+                triees[nombre++] = triees[i];
+            }
+        }
+        this.salles = Arrays.copyOf(triees, nombre);
+        this.executeur = executeur;
+        this.signal = signal;
+        occupations = new int[nombre];
+        prises = new int[nombre];
+        // Aucune occupation prise : la première reçue pour chaque salle est toujours signalée
+        Arrays.fill(prises, Integer.MIN_VALUE);
+        modifiees = new boolean[nombre];
+        ordre = new int[nombre];
+    }
+
+    public int nombreSalles() {
+        return salles.length;
+    }
+
+    /**
+     * Salle {@code indice} de l'abonnement, dans l'ordre croissant des numéros de salle.
+     */
+    public int salle(int indice) {
+        return salles[indice];
+    }
+
+    /**
+     * Copie les salles dont l'occupation a changé depuis le dernier appel, et leur dernière occupation.
+     *
+     * @param sortieSalles      Tableau d'au moins {@link #nombreSalles()} éléments.
+     * @param sortieOccupations Tableau d'au moins {@link #nombreSalles()} éléments.
+     * @return Nombre de salles copiées.
+     */
+    public synchronized int prendre(int[] sortieSalles, int[] sortieOccupations) {
+        int nombre = 0;
+        for (int k = 0; k < nombreModifiees; k++) {
+            int i = ordre[k];
+            modifiees[i] = false;
+            if (occupations[i] != prises[i]) {
+                prises[i] = occupations[i];
+                sortieSalles[nombre] = salles[i];
+                sortieOccupations[nombre] = occupations[i];
+                nombre++;
+            }
+        }
+        nombreModifiees = 0;
+        signale = false;
+        return nombre;
+    }
+
+    /**
+     * Nombre d'occupations reçues pour les salles de l'abonnement.
+     */
+    public synchronized long recues() {
+        return recues;
+    }
+
+    /**
+     * Nombre d'occupations remplacées par une plus récente avant d'avoir été prises.
+     */
+    public synchronized long remplacees() {
+        return remplacees;
+    }
+
+    /**
+     * Reçoit la nouvelle occupation d'une salle ; sans effet pour une salle hors de l'abonnement.
+     */
+    synchronized void proposer(int salle, int occupation) {
+        int i = Arrays.binarySearch(salles, salle);
+        if (i < 0) {
+            return;
+        }
+        recues++;
+        if (modifiees[i]) {
+            remplacees++;
+            occupations[i] = occupation;
+            return;
+        }
+        if (occupation == prises[i]) {
+            return;
+        }
+        occupations[i] = occupation;
+        modifiees[i] = true;
+        ordre[nombreModifiees++] = i;
+        if (!signale) {
+            signale = true;
+            executeur.execute(signal);
+        }
+    }
+
+    int[] salles() {
+        return salles;
+    }
+}
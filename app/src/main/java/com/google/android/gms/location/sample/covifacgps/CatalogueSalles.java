@@ -0,0 +1,276 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Catalogue des salles d'un site, écrit par {@link EcritureCatalogue} : le fichier est projeté en mémoire
+ * en lecture seule et chaque champ est lu directement dans la projection. L'ouverture ne lit que
+ * l'en-tête ; les pages du fichier ne sont chargées par le système qu'à la première lecture, et ne
+ * comptent pas dans le tas de l'application, quel que soit le nombre de salles.
+ * <p/>
+ * Le moteur de géorepérage travaille sur un {@link RegistreSalles} : {@link #chargerAutourE7} n'y copie
+ * que les salles proches de l'usager, trouvées par une recherche dichotomique par ligne de cellules, et
+ * {@link #charger} y copie tout le catalogue. Les salles du catalogue sont numérotées de 0 à
+ * {@link #nombre()} − 1 ; {@link #numeroCatalogue} retrouve le numéro d'une salle du registre.
+ */
+public final class CatalogueSalles {
+
+    private final MappedByteBuffer tampon;
+    private final int nombre;
+    private final int nombreCellules;
+    private final int nombreSommets;
+    private final int tailleCelluleE7;
+    private final float rayonMax;
+    private final int positionCellules;
+    private final int positionDebuts;
+    private final int positionSommets;
+    private final int positionNoms;
+
+    // Sommets de la salle en cours de chargement, dimensionnés pour la plus grande salle du catalogue
+    private final double[] estSommets;
+    private final double[] nordSommets;
+
+    // Numéro dans le catalogue de chaque salle du registre chargé en dernier
+    private int[] numerosCatalogue = new int[0];
+
+    public CatalogueSalles(File fichier) throws IOException {
+        RandomAccessFile acces = new RandomAccessFile(fichier, "r");
+        try {
+            tampon = acces.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, acces.length());
+        } finally {
+            acces.close();
+        }
+        tampon.order(ByteOrder.LITTLE_ENDIAN);
+        if (tampon.capacity() < EcritureCatalogue.TAILLE_EN_TETE || tampon.getInt(0) != EcritureCatalogue.SIGNATURE
+                || tampon.getShort(6) != EcritureCatalogue.TAILLE_ENREGISTREMENT) {
+            throw new IOException("Fichier de catalogue invalide : " + fichier);
+        }
+        nombre = tampon.getInt(EcritureCatalogue.POSITION_NOMBRE);
+        nombreCellules = tampon.getInt(EcritureCatalogue.POSITION_NOMBRE_CELLULES);
+        nombreSommets = tampon.getInt(EcritureCatalogue.POSITION_NOMBRE_SOMMETS);
+        tailleCelluleE7 = tampon.getInt(EcritureCatalogue.POSITION_TAILLE_CELLULE);
+        rayonMax = tampon.getFloat(EcritureCatalogue.POSITION_RAYON_MAX);
+        int sommetsMax = tampon.getInt(EcritureCatalogue.POSITION_SOMMETS_MAX);
+        positionCellules = tampon.getInt(EcritureCatalogue.POSITION_CELLULES);
+        positionDebuts = positionCellules + 8 * nombreCellules;
+        positionSommets = tampon.getInt(EcritureCatalogue.POSITION_SOMMETS);
+        positionNoms = tampon.getInt(EcritureCatalogue.POSITION_NOMS);
+        long fin = (long) positionNoms + tampon.getInt(EcritureCatalogue.POSITION_TAILLE_NOMS);
+        if (nombre < 0 || nombreCellules < 0 || nombreSommets < 0 || sommetsMax < 0 || tailleCelluleE7 <= 0
+                || positionCellules != EcritureCatalogue.TAILLE_EN_TETE + (long) nombre * EcritureCatalogue.TAILLE_ENREGISTREMENT
+                || positionSommets != positionDebuts + 4L * (nombreCellules + 1)
+                || positionNoms != positionSommets + 8L * nombreSommets || fin > tampon.capacity()) {
+            throw new IOException("En-tête de catalogue invalide dans " + fichier);
+        }
+        estSommets = new double[sommetsMax];
+        nordSommets = new double[sommetsMax];
+    }
+
+    /**
+     * Nombre de salles du catalogue.
+     */
+    public int nombre() {
+        return nombre;
+    }
+
+    /**
+     * Latitude du centre de la salle {@code numero}, en degrés × 10^7.
+     */
+    public int latitudeE7(int numero) {
+        return tampon.getInt(position(numero) + EcritureCatalogue.CHAMP_LATITUDE);
+    }
+
+    /**
+     * Longitude du centre de la salle {@code numero}, en degrés × 10^7.
+     */
+    public int longitudeE7(int numero) {
+        return tampon.getInt(position(numero) + EcritureCatalogue.CHAMP_LONGITUDE);
+    }
+
+    /**
+     * Rayon de la salle {@code numero} (cercle circonscrit pour une salle polygonale), en mètres.
+     */
+    public float rayon(int numero) {
+        return tampon.getFloat(position(numero) + EcritureCatalogue.CHAMP_RAYON);
+    }
+
+    public int capacite(int numero) {
+        return tampon.getInt(position(numero) + EcritureCatalogue.CHAMP_CAPACITE);
+    }
+
+    /**
+     * Nombre de sommets du contour de la salle {@code numero}, 0 si la salle est un cercle.
+     */
+    public int nombreSommets(int numero) {
+        return tampon.getInt(position(numero) + EcritureCatalogue.CHAMP_NOMBRE_SOMMETS);
+    }
+
+    /**
+     * Abscisse du sommet {@code sommet} de la salle {@code numero}, en mètres vers l'est depuis son centre.
+     */
+    public float estSommet(int numero, int sommet) {
+        return tampon.getFloat(positionSommet(numero, sommet));
+    }
+
+    /**
+     * Ordonnée du sommet {@code sommet} de la salle {@code numero}, en mètres vers le nord depuis son centre.
+     */
+    public float nordSommet(int numero, int sommet) {
+        return tampon.getFloat(positionSommet(numero, sommet) + 4);
+    }
+
+    /**
+     * Nom de la salle {@code numero}, décodé à chaque appel (pour l'affichage seulement).
+     */
+    public String nom(int numero) {
+        int position = position(numero);
+        int debut = positionNoms + tampon.getInt(position + EcritureCatalogue.CHAMP_NOM);
+        byte[] octets = new byte[tampon.getInt(position + EcritureCatalogue.CHAMP_LONGUEUR_NOM)];
+        for (int i = 0; i < octets.length; i++) {
+            octets[i] = tampon.get(debut + i);
+        }
+        return new String(octets, EcritureCatalogue.UTF_8);
+    }
+
+    /**
+     * Remplace les salles du registre par toutes les salles du catalogue, dans l'ordre du catalogue.
+     * Le moteur de géorepérage du registre doit ensuite être réindexé ({@link MoteurGeofence#reindexer()}).
+     *
+     * @return Nombre de salles chargées.
+     * @throws IOException Si le contour d'une salle est invalide (le registre est alors incomplet).
+     */
+    public int charger(RegistreSalles registre) throws IOException {
+        registre.vider();
+        for (int numero = 0; numero < nombre; numero++) {
+            chargerSalle(registre, numero);
+        }
+        return registre.taille();
+    }
+
+    /**
+     * Remplace les salles du registre par les salles du catalogue qui peuvent recouvrir le cercle de centre
+     * (latitudeE7, longitudeE7) et de rayon {@code rayonMetres} : celles dont le centre est dans le carré
+     * circonscrit au cercle, élargi du plus grand rayon de salle. Seules les cellules de ce carré sont
+     * lues. Un site à cheval sur l'antiméridien n'est pas pris en charge.
+     * <p/>
+     * Le moteur de géorepérage du registre doit ensuite être réindexé ({@link MoteurGeofence#reindexer()}),
+     * et les compteurs d'occupation remis à zéro : les numéros de salles du registre changent.
+     *
+     * @return Nombre de salles chargées.
+     * @throws IOException Si le contour d'une salle à charger est invalide (le registre est alors incomplet).
+     */
+    public int chargerAutourE7(RegistreSalles registre, int latitudeE7, int longitudeE7, double rayonMetres)
+            throws IOException {
+        registre.vider();
+        double latitude = CoordonneesE7.degres(latitudeE7);
+        double marge = rayonMetres + rayonMax;
+        long ecartLatitude = (long) Math.ceil(marge / Distance.metresParDegreLatitude(latitude) * CoordonneesE7.UNITES_PAR_DEGRE);
+        long ecartLongitude = (long) Math.ceil(marge / Distance.metresParDegreLongitude(latitude) * CoordonneesE7.UNITES_PAR_DEGRE);
+        int latitudeMin = (int) Math.max(latitudeE7 - ecartLatitude, -90L * CoordonneesE7.UNITES_PAR_DEGRE);
+        int latitudeMax = (int) Math.min(latitudeE7 + ecartLatitude, 90L * CoordonneesE7.UNITES_PAR_DEGRE);
+        int longitudeMin = (int) Math.max(longitudeE7 - ecartLongitude, -180L * CoordonneesE7.UNITES_PAR_DEGRE);
+        int longitudeMax = (int) Math.min(longitudeE7 + ecartLongitude, 180L * CoordonneesE7.UNITES_PAR_DEGRE);
+
+        int colonneMin = CoordonneesE7.diviserParDefaut(longitudeMin, tailleCelluleE7);
+        int colonneMax = CoordonneesE7.diviserParDefaut(longitudeMax, tailleCelluleE7);
+        int ligneMax = CoordonneesE7.diviserParDefaut(latitudeMax, tailleCelluleE7);
+        for (int ligne = CoordonneesE7.diviserParDefaut(latitudeMin, tailleCelluleE7); ligne <= ligneMax; ligne++) {
+            // Les cellules d'une ligne sont contiguës : une recherche, puis un parcours jusqu'à la dernière colonne
+            long cleMax = EcritureCatalogue.cle(ligne, colonneMax);
+            for (int c = premiereCellule(EcritureCatalogue.cle(ligne, colonneMin));
+                 c < nombreCellules && cle(c) <= cleMax; c++) {
+                for (int numero = debut(c); numero < debut(c + 1); numero++) {
+                    int latitudeSalle = latitudeE7(numero);
+                    int longitudeSalle = longitudeE7(numero);
+                    if (latitudeSalle >= latitudeMin && latitudeSalle <= latitudeMax
+                            && longitudeSalle >= longitudeMin && longitudeSalle <= longitudeMax) {
+                        chargerSalle(registre, numero);
+                    }
+                }
+            }
+        }
+        return registre.taille();
+    }
+
+    /**
+     * Numéro dans le catalogue de la salle {@code salle} du registre rempli en dernier par
+     * {@link #charger} ou {@link #chargerAutourE7}.
+     */
+    public int numeroCatalogue(int salle) {
+        return numerosCatalogue[salle];
+    }
+
+    private void chargerSalle(RegistreSalles registre, int numero) throws IOException {
+        int position = position(numero);
+        int latitudeE7 = tampon.getInt(position + EcritureCatalogue.CHAMP_LATITUDE);
+        int longitudeE7 = tampon.getInt(position + EcritureCatalogue.CHAMP_LONGITUDE);
+        int capacite = tampon.getInt(position + EcritureCatalogue.CHAMP_CAPACITE);
+        int premier = tampon.getInt(position + EcritureCatalogue.CHAMP_PREMIER_SOMMET);
+        int nombre = tampon.getInt(position + EcritureCatalogue.CHAMP_NOMBRE_SOMMETS);
+        // Contour lu d'après l'enregistrement : il doit tenir dans les tableaux et dans les sommets du catalogue
+        if (nombre != 0 && (nombre < 3 || nombre > estSommets.length || premier < 0
+                || (long) premier + nombre > nombreSommets)) {
+            throw new IOException("Contour invalide pour la salle " + numero + " : " + nombre + " sommets à partir de "
+                    + premier);
+        }
+        int salle;
+        if (nombre == 0) {
+            salle = registre.ajouterE7(latitudeE7, longitudeE7, tampon.getFloat(position + EcritureCatalogue.CHAMP_RAYON), capacite);
+        } else {
+            int sommet = positionSommets + 8 * premier;
+            for (int i = 0; i < nombre; i++, sommet += 8) {
+                estSommets[i] = tampon.getFloat(sommet);
+                nordSommets[i] = tampon.getFloat(sommet + 4);
+            }
+            salle = registre.ajouterPolygoneE7(latitudeE7, longitudeE7, estSommets, nordSommets, nombre, capacite);
+        }
+        if (salle >= numerosCatalogue.length) {
+            numerosCatalogue = Arrays.copyOf(numerosCatalogue, Math.max(16, numerosCatalogue.length * 2));
+        }
+        numerosCatalogue[salle] = numero;
+    }
+
+    // Première cellule de clé supérieure ou égale à 'cle' (nombreCellules si aucune)
+    private int premiereCellule(long cle) {
+        int bas = 0;
+        int haut = nombreCellules;
+        while (bas < haut) {
+            int milieu = (bas + haut) >>> 1;
+            if (cle(milieu) < cle) {
+                bas = milieu + 1;
+            } else {
+                haut = milieu;
+            }
+        }
+        return bas;
+    }
+
+    private long cle(int cellule) {
+        return tampon.getLong(positionCellules + 8 * cellule);
+    }
+
+    private int debut(int cellule) {
+        return tampon.getInt(positionDebuts + 4 * cellule);
+    }
+
+    private int position(int numero) {
+        if (numero < 0 || numero >= nombre) {
+            throw new IndexOutOfBoundsException("Salle " + numero + " hors de [0, " + nombre + ")");
+        }
+        return EcritureCatalogue.TAILLE_EN_TETE + numero * EcritureCatalogue.TAILLE_ENREGISTREMENT;
+    }
+
+    private int positionSommet(int numero, int sommet) {
+        int position = position(numero);
+        if (sommet < 0 || sommet >= tampon.getInt(position + EcritureCatalogue.CHAMP_NOMBRE_SOMMETS)) {
+            throw new IndexOutOfBoundsException("Sommet " + sommet + " de la salle " + numero);
+        }
+        return positionSommets + 8 * (tampon.getInt(position + EcritureCatalogue.CHAMP_PREMIER_SOMMET) + sommet);
+    }
+}
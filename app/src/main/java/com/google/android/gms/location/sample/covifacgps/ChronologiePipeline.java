@@ -0,0 +1,221 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Chronologie des événements du traitement des localisations (appel de retour, placement des salles, entrées et
+ * sorties, rendus), pour retrouver la cause d'un affichage saccadé : contrairement aux histogrammes de
+ * {@link MesuresPipeline}, chaque événement est conservé avec son instant (nanosecondes) et son thread.
+ * <p/>
+ * Les événements sont écrits dans un anneau de taille fixe, qui ne garde que les {@link #capacite()} derniers.
+ * Écrire un événement n'alloue rien et ne prend aucun verrou : le producteur réserve une case en incrémentant
+ * atomiquement le numéro du prochain événement, y écrit ses champs puis publie la case en y écrivant son numéro
+ * (écritures ordonnées). Plusieurs threads écrivent en même temps ; l'export lit les cases publiées et
+ * écarte celles qu'un producteur a pu réécrire pendant la lecture (numéro réservé depuis l'anneau suivant).
+ * <p/>
+ * L'export ({@link #exporterTraceChrome}) produit le format {@code trace_event} de Chrome (JSON), à ouvrir dans
+ * {@code chrome://tracing} ou Perfetto : les débuts et fins (phases {@code B} et {@code E}) forment des tranches
+ * par thread, les entrées et sorties de salle sont des événements instantanés (phase {@code i}).
+ */
+public final class ChronologiePipeline {
+
+    // Types d'événements, chacun un début et une fin sauf les événements instantanés
+    public static final int APPEL_RETOUR = 0;
+    public static final int POSITIONS_SALLES = 1;
+    public static final int ENTREE = 2;
+    public static final int SORTIE = 3;
+    public static final int RENDU = 4;
+
+    private static final String[] NOMS = {"appel_retour", "positions_salles", "entree", "sortie", "rendu"};
+    private static final String[] CATEGORIES = {"localisation", "traitement", "salles", "salles", "affichage"};
+
+    // Phases, dans les 2 bits de poids faible du code d'un événement
+    static final int PHASE_DEBUT = 0;
+    static final int PHASE_FIN = 1;
+    static final int PHASE_INSTANT = 2;
+
+    private static final char[] PHASES = {'B', 'E', 'i'};
+
+    // Par case de l'anneau : numéro de l'événement + 1 une fois publié (0 si jamais écrit), instant, thread et
+    // code (thread << 32 | type << 2 | phase), argument
+    private static final int CHAMPS = 4;
+
+    private final AtomicLongArray cases;
+    private final int masque;
+    private final AtomicLong suivant = new AtomicLong();
+
+    /**
+     * @param capacite Nombre d'événements conservés, arrondi à la puissance de 2 supérieure.
+     */
+    public ChronologiePipeline(int capacite) {
+        int taille = 1;
+        while (taille < capacite) {
+            taille <<= 1;
+        }
+        cases = new AtomicLongArray(taille * CHAMPS);
+        masque = taille - 1;
+    }
+
+    public int capacite() {
+        return masque + 1;
+    }
+
+    /**
+     * Nombre d'événements écrits depuis la création (y compris ceux que l'anneau n'a pas conservés).
+     */
+    public long nombreEcrits() {
+        return suivant.get();
+    }
+
+    /**
+     * Début d'une tranche {@code type} sur le thread appelant.
+     */
+    public void debut(int type) {
+        ecrire(type << 2 | PHASE_DEBUT, 0);
+    }
+
+    /**
+     * Fin de la dernière tranche {@code type} commencée sur le thread appelant.
+     */
+    public void fin(int type) {
+        ecrire(type << 2 | PHASE_FIN, 0);
+    }
+
+    /**
+     * Événement instantané {@code type}, avec un argument (numéro de la salle pour une entrée ou une sortie).
+     */
+    public void instant(int type, long argument) {
+        ecrire(type << 2 | PHASE_INSTANT, argument);
+    }
+
+    private void ecrire(int code, long argument) {
+        long instant = System.nanoTime();
+        long thread = Thread.currentThread().getId();
+        long numero = suivant.getAndIncrement();
+        int base = (int) (numero & masque) * CHAMPS;
+        cases.lazySet(base + 1, instant);
+        cases.lazySet(base + 2, thread << 32 | code);
+        cases.lazySet(base + 3, argument);
+        // Publication : les champs sont visibles avant le numéro
+        cases.lazySet(base, numero + 1);
+    }
+
+    /**
+     * Copie les événements conservés, du plus ancien au plus récent, dans des colonnes d'au moins
+     * {@link #capacite()} éléments. Un événement en cours d'écriture, ou réécrit pendant la copie, est omis.
+     *
+     * @return Nombre d'événements copiés.
+     */
+    public int copier(long[] instants, long[] threads, int[] codes, long[] arguments) {
+        long fin = suivant.get();
+        long premier = Math.max(0, fin - capacite());
+        int nombre = 0;
+        for (long numero = premier; numero < fin; numero++) {
+            int base = (int) (numero & masque) * CHAMPS;
+            if (cases.get(base) != numero + 1) {
+                // Pas encore publié, ou déjà remplacé par un événement plus récent
+                continue;
+            }
+            long instant = cases.get(base + 1);
+            long threadEtCode = cases.get(base + 2);
+            long argument = cases.get(base + 3);
+            // Un producteur a réservé la case pour l'anneau suivant : les champs lus peuvent être les siens
+            if (suivant.get() > numero + capacite()) {
+                continue;
+            }
+            instants[nombre] = instant;
+            threads[nombre] = threadEtCode >>> 32;
+            codes[nombre] = (int) threadEtCode;
+            arguments[nombre] = argument;
+            nombre++;
+        }
+        return nombre;
+    }
+
+    /**
+     * Oublie tous les événements ; à n'appeler que lorsqu'aucun n'est en cours d'écriture.
+     */
+    public void vider() {
+        for (int i = 0; i < cases.length(); i++) {
+            cases.set(i, 0);
+        }
+        suivant.set(0);
+    }
+
+    /**
+     * Écrit les événements conservés au format {@code trace_event} de Chrome. Les instants sont en microsecondes
+     * (à la nanoseconde près) depuis le plus ancien événement ; les threads encore vivants sont nommés.
+     *
+     * @return Nombre d'événements écrits.
+     */
+    public int exporterTraceChrome(Writer sortie) throws IOException {
+        int taille = capacite();
+        long[] instants = new long[taille];
+        long[] threads = new long[taille];
+        int[] codes = new int[taille];
+        long[] arguments = new long[taille];
+        int nombre = copier(instants, threads, codes, arguments);
+
+        long origine = nombre > 0 ? instants[0] : 0;
+        for (int i = 1; i < nombre; i++) {
+            origine = Math.min(origine, instants[i]);
+        }
+        Map<Long, String> nomsThreads = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            nomsThreads.put(thread.getId(), thread.getName());
+        }
+
+        sortie.write("{\"traceEvents\":[");
+        Set<Long> threadsNommes = new HashSet<>();
+        boolean premier = true;
+        for (int i = 0; i < nombre; i++) {
+            Long thread = threads[i];
+            String nomThread = nomsThreads.get(thread);
+            if (nomThread != null && threadsNommes.add(thread)) {
+                sortie.write(premier ? "\n" : ",\n");
+                premier = false;
+                sortie.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + thread
+                        + ",\"args\":{\"name\":\"" + echapper(nomThread) + "\"}}");
+            }
+            int type = codes[i] >>> 2;
+            int phase = codes[i] & 3;
+            long ecart = instants[i] - origine;
+            sortie.write(premier ? "\n" : ",\n");
+            premier = false;
+            long nanos = ecart % 1000;
+            sortie.write("{\"name\":\"" + NOMS[type] + "\",\"cat\":\"" + CATEGORIES[type] + "\",\"ph\":\"" + PHASES[phase]
+                    + "\",\"ts\":" + ecart / 1000 + (nanos < 10 ? ".00" : nanos < 100 ? ".0" : ".") + nanos
+                    + ",\"pid\":1,\"tid\":" + thread);
+            if (phase == PHASE_INSTANT) {
+                sortie.write(",\"s\":\"t\",\"args\":{\"salle\":" + arguments[i] + "}");
+            }
+            sortie.write("}");
+        }
+        sortie.write("\n],\"displayTimeUnit\":\"ns\"}\n");
+        sortie.flush();
+        return nombre;
+    }
+
+    private static String echapper(String texte) {
+        StringBuilder resultat = new StringBuilder(texte.length());
+        for (int i = 0; i < texte.length(); i++) {
+            char c = texte.charAt(i);
+            if (c == '"' || c == '\\') {
+                resultat.append('\\').append(c);
+            } else if (c < 0x20) {
+                resultat.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                resultat.append(c);
+            }
+        }
+        return resultat.toString();
+    }
+}
@@ -0,0 +1,474 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Envoie les entrées et sorties de salles de cet appareil au serveur d'agrégation ({@link ServeurOccupation}).
+ * <p/>
+ * {@link #entree(int)} et {@link #sortie(int)} ne font qu'ajouter l'événement à une file, sans entrée-sortie :
+ * ils peuvent être appelés depuis le thread de traitement des localisations. Un thread d'envoi regroupe les
+ * événements en lots (au plus {@code tailleLot} événements, ou ceux accumulés pendant {@code delaiLotMillis}),
+ * envoie chaque lot et attend son acquittement avant le suivant. Sur une erreur (serveur injoignable,
+ * connexion coupée, acquittement trop long), la connexion est refermée et le même lot, avec le même numéro,
+ * est renvoyé après une attente qui double à chaque échec jusqu'à {@code attenteMaxMillis} : le serveur
+ * n'applique qu'une fois un lot reçu plusieurs fois. Les événements continuent de s'accumuler pendant ce temps.
+ * <p/>
+ * Le client tient aussi la liste des salles où se trouve l'appareil d'après ses événements. Il l'envoie en une
+ * présence ({@link ProtocoleOccupation#TYPE_PRESENCE}) après {@link #reprendre} (au démarrage, avec les salles relues
+ * dans le journal) et, si {@code delaiPresenceMillis} est positif, après ce délai sans aucun envoi : le serveur, qui
+ * retire les appareils silencieux, garde ainsi cet appareil, et corrige les salles qu'il lui comptait à tort (lot
+ * abandonné par un processus tué, appareil expiré pendant une coupure).
+ * <p/>
+ * {@link #lireOccupations} lit l'occupation de référence du site, sur la même connexion.
+ */
+public final class ClientOccupation {
+
+    private static final long ATTENTE_MIN_MILLIS = 100;
+
+    private static final int DELAI_CONNEXION_MILLIS = 5000;
+
+    private static final int DELAI_REPONSE_MILLIS = 5000;
+
+    private final InetSocketAddress adresse;
+    private final IdentiteAppareil identite;
+    private final int tailleLot;
+    private final long delaiLotMillis;
+    private final long delaiPresenceMillis;
+    private final long attenteMaxMillis;
+
+    // Événements pas encore placés dans un lot et salles où se trouve l'appareil, protégés par 'this'
+    private int[] attente = new int[64];
+    private int nombreAttente = 0;
+    private long instantPremierEnAttente;
+    private int[] presence = new int[8];
+    private int nombrePresence = 0;
+    private boolean presenceDemandee = false;
+    private long instantDernierEnvoi;
+
+    // Lot en cours d'envoi (thread d'envoi seulement ; 'lotPret' aussi lu sous 'this'), numéro 0 tant qu'il n'est pas réservé
+    private int[] lot;
+    private int nombreLot = 0;
+    private boolean lotPresence = false;
+    private boolean lotPret = false;
+    private long appareil = 0;
+    private long numeroLot = 0;
+
+    // Connexion, protégée par 'connexion' (thread d'envoi et lectures d'occupation) ; fermée sans verrou par 'arreter'
+    private final Object connexion = new Object();
+    private volatile Socket socket;
+    private final ByteBuffer tampon = ByteBuffer.allocate(ProtocoleOccupation.TAILLE_TRAME_MAX + 4).order(ByteOrder.LITTLE_ENDIAN);
+
+    private Thread thread;
+    private volatile boolean actif = false;
+
+    private volatile long lotsAcquittes = 0;
+    private volatile long renvois = 0;
+    private volatile long lotsRefuses = 0;
+
+    /**
+     * Client sans présence périodique, dont les numéros de lot repartent de 1.
+     *
+     * @param appareil Identifiant de l'appareil, non nul, unique sur le site.
+     */
+    public ClientOccupation(InetSocketAddress adresse, long appareil, int tailleLot, long delaiLotMillis, long attenteMaxMillis) {
+        this(adresse, new IdentiteAppareil(appareil), tailleLot, delaiLotMillis, 0, attenteMaxMillis);
+    }
+
+    /**
+     * @param adresse             Adresse du serveur d'agrégation.
+     * @param identite            Identifiant de l'appareil, unique sur le site, et numéros de ses lots.
+     * @param tailleLot           Nombre maximal d'événements par lot.
+     * @param delaiLotMillis      Durée maximale pendant laquelle un événement attend que son lot se remplisse.
+     * @param delaiPresenceMillis Durée sans envoi après laquelle la présence est renvoyée (0 pour jamais), bien plus
+     *                            courte que le délai d'expiration du serveur.
+     * @param attenteMaxMillis    Attente maximale avant de réessayer après une erreur.
+     */
+    public ClientOccupation(InetSocketAddress adresse, IdentiteAppareil identite, int tailleLot, long delaiLotMillis,
+                            long delaiPresenceMillis, long attenteMaxMillis) {
+        if (tailleLot <= 0 || tailleLot > ProtocoleOccupation.EVENEMENTS_PAR_LOT_MAX || delaiPresenceMillis < 0) {
+            throw new IllegalArgumentException("Client invalide : lots de " + tailleLot + ", présence toutes les "
+                    + delaiPresenceMillis + " ms");
+        }
+        this.adresse = adresse;
+        this.identite = identite;
+        this.tailleLot = tailleLot;
+        this.delaiLotMillis = delaiLotMillis;
+        this.delaiPresenceMillis = delaiPresenceMillis;
+        this.attenteMaxMillis = attenteMaxMillis;
+        lot = new int[tailleLot];
+    }
+
+    public void entree(int salle) {
+        ajouter(ProtocoleOccupation.entree(salle));
+    }
+
+    public void sortie(int salle) {
+        ajouter(ProtocoleOccupation.sortie(salle));
+    }
+
+    private synchronized void ajouter(int evenement) {
+        if (nombreAttente == attente.length) {
+            int[] agrandi = new int[2 * attente.length];
+            System.arraycopy(attente, 0, agrandi, 0, nombreAttente);
+            attente = agrandi;
+        }
+        if (nombreAttente == 0) {
+            instantPremierEnAttente = System.currentTimeMillis();
+        }
+        attente[nombreAttente++] = evenement;
+        if (evenement >= 0) {
+            if (nombrePresence == presence.length) {
+                int[] agrandie = new int[2 * presence.length];
+                System.arraycopy(presence, 0, agrandie, 0, nombrePresence);
+                presence = agrandie;
+            }
+            presence[nombrePresence++] = evenement;
+        } else {
+            retirerPresence(ProtocoleOccupation.salle(evenement));
+        }
+        // Le premier événement fait partir le délai du lot, le dernier le complète
+        if (nombreAttente == 1 || nombreAttente == tailleLot) {
+            notifyAll();
+        }
+    }
+
+    private void retirerPresence(int salle) {
+        for (int i = 0; i < nombrePresence; i++) {
+            if (presence[i] == salle) {
+                presence[i] = presence[--nombrePresence];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remplace les salles où se trouve l'appareil par celles de {@code occupations} (nombre de présences par salle,
+     * comme relu dans le journal au démarrage) et les envoie au serveur avant tout nouvel événement. Le serveur
+     * retire alors l'appareil des salles qu'il lui compte encore, par exemple d'après les lots d'un processus tué.
+     */
+    public synchronized void reprendre(int[] occupations) {
+        int nombre = 0;
+        for (int occupation : occupations) {
+            nombre += Math.max(0, occupation);
+        }
+        if (nombre > ProtocoleOccupation.SALLES_PAR_PRESENCE_MAX) {
+            throw new IllegalArgumentException("Présence dans trop de salles : " + nombre);
+        }
+        if (presence.length < nombre) {
+            presence = new int[nombre];
+        }
+        nombrePresence = 0;
+        for (int salle = 0; salle < occupations.length; salle++) {
+            for (int i = 0; i < occupations[salle]; i++) {
+                presence[nombrePresence++] = salle;
+            }
+        }
+        presenceDemandee = true;
+        notifyAll();
+    }
+
+    /**
+     * Démarre le thread d'envoi.
+     */
+    public synchronized void demarrer() {
+        if (actif) {
+            return;
+        }
+        actif = true;
+        instantDernierEnvoi = System.currentTimeMillis();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                envoyer();
+            }
+        }, "client-occupation");
+        thread.start();
+    }
+
+    /**
+     * Arrête le thread d'envoi et ferme la connexion. Les événements pas encore acquittés sont abandonnés.
+     */
+    public void arreter() throws InterruptedException {
+        Thread envoi;
+        synchronized (this) {
+            envoi = actif ? thread : null;
+            actif = false;
+            notifyAll();
+        }
+        if (envoi != null) {
+            // Débloque une connexion ou une lecture d'acquittement en cours
+            Socket courante = socket;
+            if (courante != null) {
+                try {
+                    courante.close();
+                } catch (IOException e) {
+                    // Fermée de toute façon
+                }
+            }
+            envoi.interrupt();
+            envoi.join();
+        }
+        synchronized (connexion) {
+            fermer();
+        }
+    }
+
+    /**
+     * Attend au plus {@code delaiMillis} que tous les événements ajoutés jusque-là soient acquittés.
+     *
+     * @return Vrai si plus aucun événement n'attend.
+     */
+    public synchronized boolean attendreEnvoi(long delaiMillis) throws InterruptedException {
+        long fin = System.currentTimeMillis() + delaiMillis;
+        notifyAll();
+        while (nombreAttente > 0 || lotPret || presenceDemandee) {
+            long reste = fin - System.currentTimeMillis();
+            if (reste <= 0) {
+                return false;
+            }
+            wait(reste);
+        }
+        return true;
+    }
+
+    public long lotsAcquittes() {
+        return lotsAcquittes;
+    }
+
+    /**
+     * Nombre de lots renvoyés après une erreur.
+     */
+    public long renvois() {
+        return renvois;
+    }
+
+    public long lotsRefuses() {
+        return lotsRefuses;
+    }
+
+    /**
+     * Copie dans {@code sortie[0..nombre[} l'occupation de référence des salles {@code premiere} à
+     * {@code premiere + nombre - 1}, lue sur le serveur (sans réessayer en cas d'erreur).
+     *
+     * @return Nombre de salles lues (moins que {@code nombre} au-delà de la dernière salle du site).
+     */
+    public int lireOccupations(int premiere, int nombre, int[] sortie) throws IOException {
+        int lues = 0;
+        synchronized (connexion) {
+            try {
+                while (lues < nombre) {
+                    int partie = Math.min(nombre - lues, ProtocoleOccupation.SALLES_PAR_LECTURE_MAX);
+                    tampon.clear();
+                    ProtocoleOccupation.ecrireLecture(tampon, premiere + lues, partie);
+                    envoyerTampon();
+                    lireTrame(ProtocoleOccupation.TYPE_OCCUPATIONS);
+                    tampon.getInt();
+                    int recues = tampon.getInt();
+                    if (recues > partie) {
+                        throw new IOException("Réponse de lecture invalide : " + recues + " salles");
+                    }
+                    for (int i = 0; i < recues; i++) {
+                        sortie[lues + i] = tampon.getInt();
+                    }
+                    lues += recues;
+                    if (recues < partie) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                fermer();
+                throw e;
+            }
+        }
+        return lues;
+    }
+
+    /**
+     * Boucle du thread d'envoi.
+     */
+    private void envoyer() {
+        int echecs = 0;
+        while (actif) {
+            try {
+                if (!lotPret && !preparerLot()) {
+                    continue;
+                }
+                if (numeroLot == 0) {
+                    // Hors du verrou : réserver un bloc de numéros écrit le fichier de l'identité
+                    appareil = identite.appareil();
+                    numeroLot = identite.numeroSuivant();
+                }
+                if (echecs > 0) {
+                    renvois++;
+                }
+                int statut = envoyerLot();
+                if (statut == ProtocoleOccupation.STATUT_REFUSE) {
+                    lotsRefuses++;
+                } else {
+                    lotsAcquittes++;
+                }
+                echecs = 0;
+                synchronized (this) {
+                    lotPret = false;
+                    numeroLot = 0;
+                    instantDernierEnvoi = System.currentTimeMillis();
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (connexion) {
+                    fermer();
+                }
+                long attente = Math.min(attenteMaxMillis, ATTENTE_MIN_MILLIS << Math.min(echecs, 20));
+                echecs++;
+                try {
+                    Thread.sleep(attente);
+                } catch (InterruptedException interruption) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Attend qu'un lot soit complet, que son délai soit écoulé ou qu'une présence soit à envoyer, puis le retire de
+     * la file d'attente.
+     *
+     * @return Faux si le client a été arrêté entre-temps.
+     */
+    private synchronized boolean preparerLot() throws InterruptedException {
+        while (actif && !presenceDemandee) {
+            if (nombreAttente >= tailleLot) {
+                break;
+            }
+            long maintenant = System.currentTimeMillis();
+            if (nombreAttente > 0) {
+                long reste = instantPremierEnAttente + delaiLotMillis - maintenant;
+                if (reste <= 0) {
+                    break;
+                }
+                wait(reste);
+            } else if (delaiPresenceMillis > 0) {
+                long reste = instantDernierEnvoi + delaiPresenceMillis - maintenant;
+                if (reste <= 0) {
+                    presenceDemandee = true;
+                    break;
+                }
+                wait(reste);
+            } else {
+                wait();
+            }
+        }
+        if (!actif) {
+            return false;
+        }
+        lotPresence = presenceDemandee;
+        if (lotPresence) {
+            presenceDemandee = false;
+            if (lot.length < nombrePresence) {
+                lot = new int[nombrePresence];
+            }
+            nombreLot = nombrePresence;
+            System.arraycopy(presence, 0, lot, 0, nombreLot);
+            // Les événements en attente sont déjà comptés dans la présence
+            nombreAttente = 0;
+        } else {
+            nombreLot = Math.min(nombreAttente, tailleLot);
+            System.arraycopy(attente, 0, lot, 0, nombreLot);
+            // Les événements restants gardent l'instant du premier en attente : ils partent dans le lot suivant
+            nombreAttente -= nombreLot;
+            System.arraycopy(attente, nombreLot, attente, 0, nombreAttente);
+        }
+        lotPret = true;
+        return true;
+    }
+
+    private int envoyerLot() throws IOException {
+        synchronized (connexion) {
+            tampon.clear();
+            if (lotPresence) {
+                ProtocoleOccupation.ecrirePresence(tampon, appareil, numeroLot, lot, 0, nombreLot);
+            } else {
+                ProtocoleOccupation.ecrireLot(tampon, appareil, numeroLot, lot, 0, nombreLot);
+            }
+            envoyerTampon();
+            lireTrame(ProtocoleOccupation.TYPE_ACQUITTEMENT);
+            long appareilAcquitte = tampon.getLong();
+            long numero = tampon.getLong();
+            int statut = tampon.getInt();
+            if (appareilAcquitte != appareil || numero != numeroLot) {
+                throw new IOException("Acquittement inattendu : lot " + numero + " au lieu de " + numeroLot);
+            }
+            return statut;
+        }
+    }
+
+    private void envoyerTampon() throws IOException {
+        if (socket == null) {
+            Socket nouvelle = new Socket();
+            try {
+                nouvelle.setTcpNoDelay(true);
+                nouvelle.setSoTimeout(DELAI_REPONSE_MILLIS);
+                nouvelle.connect(adresse, DELAI_CONNEXION_MILLIS);
+            } catch (IOException e) {
+                nouvelle.close();
+                throw e;
+            }
+            socket = nouvelle;
+        }
+        OutputStream sortie = socket.getOutputStream();
+        sortie.write(tampon.array(), 0, tampon.position());
+        sortie.flush();
+    }
+
+    /**
+     * Lit une trame de type {@code type} dans le tampon, positionné après le type.
+     */
+    private void lireTrame(int type) throws IOException {
+        InputStream entree = socket.getInputStream();
+        tampon.clear();
+        lireComplet(entree, 4);
+        int longueur = tampon.getInt(0);
+        if (longueur < 4 || longueur > ProtocoleOccupation.TAILLE_TRAME_MAX) {
+            throw new IOException("Trame de longueur invalide : " + longueur);
+        }
+        lireComplet(entree, 4 + longueur);
+        tampon.position(4);
+        int recu = tampon.getInt();
+        if (recu != type) {
+            throw new IOException("Trame de type " + recu + " au lieu de " + type);
+        }
+    }
+
+    private void lireComplet(InputStream entree, int fin) throws IOException {
+        byte[] octets = tampon.array();
+        int position = tampon.position();
+        while (position < fin) {
+            int lus = entree.read(octets, position, fin - position);
+            if (lus < 0) {
+                throw new EOFException("Connexion fermée par le serveur");
+            }
+            position += lus;
+        }
+        tampon.position(position);
+    }
+
+    private void fermer() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // La connexion est abandonnée de toute façon
+            }
+            socket = null;
+        }
+    }
+}
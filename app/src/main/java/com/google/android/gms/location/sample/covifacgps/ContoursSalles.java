@@ -0,0 +1,337 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Arrays;
+
+/**
+ * Contours polygonaux des salles qui ne sont pas des cercles (salles rectangulaires, en L, couloirs),
+ * stockés « en colonnes » comme le {@link RegistreSalles} : un contour est un numéro, et ses sommets
+ * sont rangés à la suite dans des tableaux primitifs partagés par tous les contours.
+ * <p/>
+ * Les sommets sont exprimés en mètres (est, nord) autour du centre de la salle, dans le plan tangent
+ * qu'utilise déjà le mode équirectangulaire : une localisation s'y ramène par deux multiplications
+ * ({@link MoteurGeofence}), et le contour suit la salle lorsqu'elle est déplacée.
+ * <p/>
+ * Tout ce qui ne dépend que du contour est calculé à l'ajout : boîte englobante, cercle inscrit
+ * autour du centre (un point qui y tombe est dedans sans parcourir les arêtes), convexité, et pour
+ * chaque arête sa pente (test par nombre de croisements), sa normale extérieure unitaire (test par
+ * demi-plans des contours convexes) et l'inverse du carré de sa longueur (distance au bord). Un test
+ * d'appartenance ne fait alors ni division ni racine carrée, et n'alloue rien.
+ */
+public final class ContoursSalles {
+
+    private static final int CAPACITE_INITIALE = 4;
+
+    // Premier sommet et nombre de sommets de chaque contour, convexité, boîte englobante (en mètres autour du centre)
+    private int[] premiers;
+    private int[] nombres;
+    private boolean[] convexes;
+    private double[] estMin;
+    private double[] estMax;
+    private double[] nordMin;
+    private double[] nordMax;
+    private double[] rayonsCirconscrits;
+    private double[] rayonsInscrits;
+    private int taille = 0;
+
+    // Sommets, en sens trigonométrique ; l'arête i va du sommet i au suivant (le premier après le dernier)
+    private double[] sommetsEst;
+    private double[] sommetsNord;
+
+    // Tables précalculées par arête
+    private double[] aretesEst;
+    private double[] aretesNord;
+    private double[] pentes;
+    private double[] normalesEst;
+    private double[] normalesNord;
+    private double[] limites;
+    private double[] inversesCarresLongueurs;
+    private int nombreSommets = 0;
+
+    public ContoursSalles() {
+        allouerContours(CAPACITE_INITIALE);
+        allouerSommets(CAPACITE_INITIALE * 4);
+    }
+
+    /**
+     * Ajoute un contour et retourne son numéro. Les sommets peuvent être donnés dans un sens ou dans
+     * l'autre ; le contour doit être simple (arêtes sans croisement).
+     *
+     * @param est    Abscisses des sommets, en mètres vers l'est depuis le centre de la salle.
+     * @param nord   Ordonnées des sommets, en mètres vers le nord depuis le centre de la salle.
+     * @param nombre Nombre de sommets (au moins 3).
+     */
+    public int ajouter(double[] est, double[] nord, int nombre) {
+        if (nombre < 3) {
+            throw new IllegalArgumentException("Un contour compte au moins 3 sommets : " + nombre);
+        }
+        double doubleAire = 0;
+        for (int i = 0, j = nombre - 1; i < nombre; j = i++) {
+            doubleAire += est[j] * nord[i] - est[i] * nord[j];
+        }
+        if (doubleAire == 0) {
+            throw new IllegalArgumentException("Contour d'aire nulle");
+        }
+
+        if (taille == premiers.length) {
+            agrandirContours(taille * 2);
+        }
+        if (nombreSommets + nombre > sommetsEst.length) {
+            agrandirSommets(Math.max(sommetsEst.length * 2, nombreSommets + nombre));
+        }
+        int contour = taille++;
+        int premier = nombreSommets;
+        premiers[contour] = premier;
+        nombres[contour] = nombre;
+        nombreSommets += nombre;
+
+        // Sommets recopiés en sens trigonométrique : l'intérieur est à gauche de chaque arête
+        double xMin = Double.POSITIVE_INFINITY;
+        double xMax = Double.NEGATIVE_INFINITY;
+        double yMin = Double.POSITIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        double rayonCarre = 0;
+        for (int i = 0; i < nombre; i++) {
+            int source = doubleAire > 0 ? i : nombre - 1 - i;
+            double x = est[source];
+            double y = nord[source];
+            sommetsEst[premier + i] = x;
+            sommetsNord[premier + i] = y;
+            xMin = Math.min(xMin, x);
+            xMax = Math.max(xMax, x);
+            yMin = Math.min(yMin, y);
+            yMax = Math.max(yMax, y);
+            rayonCarre = Math.max(rayonCarre, x * x + y * y);
+        }
+        estMin[contour] = xMin;
+        estMax[contour] = xMax;
+        nordMin[contour] = yMin;
+        nordMax[contour] = yMax;
+        rayonsCirconscrits[contour] = Math.sqrt(rayonCarre);
+
+        // Tables des arêtes ; le contour est convexe si l'on tourne toujours à gauche d'une arête à la suivante
+        boolean convexe = true;
+        for (int i = 0; i < nombre; i++) {
+            int k = premier + i;
+            int suivant = premier + (i + 1) % nombre;
+            double ex = sommetsEst[suivant] - sommetsEst[k];
+            double ey = sommetsNord[suivant] - sommetsNord[k];
+            double carreLongueur = ex * ex + ey * ey;
+            if (carreLongueur == 0) {
+                throw new IllegalArgumentException("Deux sommets consécutifs sont confondus : " + i);
+            }
+            double longueur = Math.sqrt(carreLongueur);
+            aretesEst[k] = ex;
+            aretesNord[k] = ey;
+            pentes[k] = ey != 0 ? ex / ey : 0;
+            normalesEst[k] = ey / longueur;
+            normalesNord[k] = -ex / longueur;
+            limites[k] = normalesEst[k] * sommetsEst[k] + normalesNord[k] * sommetsNord[k];
+            inversesCarresLongueurs[k] = 1 / carreLongueur;
+
+            int apres = premier + (i + 2) % nombre;
+            double ex2 = sommetsEst[apres] - sommetsEst[suivant];
+            double ey2 = sommetsNord[apres] - sommetsNord[suivant];
+            if (ex * ey2 - ey * ex2 < 0) {
+                convexe = false;
+            }
+        }
+        convexes[contour] = convexe;
+
+        // Plus grand cercle centré sur la salle qui tient dans le contour (aucun si le centre est dehors) ;
+        // remis à zéro d'abord, le test d'appartenance s'en servant
+        rayonsInscrits[contour] = 0;
+        rayonsInscrits[contour] = contient(contour, 0, 0, 0) ? distanceContour(premier, premier + nombre, 0, 0) : 0;
+        return contour;
+    }
+
+    /**
+     * Supprime tous les contours, sans libérer les tableaux.
+     */
+    public void vider() {
+        taille = 0;
+        nombreSommets = 0;
+    }
+
+    public int taille() {
+        return taille;
+    }
+
+    public int nombreSommets(int contour) {
+        return nombres[contour];
+    }
+
+    public boolean convexe(int contour) {
+        return convexes[contour];
+    }
+
+    /**
+     * Abscisse du sommet {@code sommet} (de 0 à {@link #nombreSommets} − 1, en sens trigonométrique)
+     * du contour, en mètres vers l'est depuis le centre de la salle.
+     */
+    public double estSommet(int contour, int sommet) {
+        return sommetsEst[premiers[contour] + sommet];
+    }
+
+    /**
+     * Ordonnée du sommet {@code sommet} du contour, en mètres vers le nord depuis le centre de la salle.
+     */
+    public double nordSommet(int contour, int sommet) {
+        return sommetsNord[premiers[contour] + sommet];
+    }
+
+    /**
+     * Distance en mètres entre le centre de la salle et son sommet le plus éloigné : le contour tient
+     * dans ce cercle, qui sert de rayon à la salle.
+     */
+    public double rayonCirconscrit(int contour) {
+        return rayonsCirconscrits[contour];
+    }
+
+    public double estMin(int contour) {
+        return estMin[contour];
+    }
+
+    public double estMax(int contour) {
+        return estMax[contour];
+    }
+
+    public double nordMin(int contour) {
+        return nordMin[contour];
+    }
+
+    public double nordMax(int contour) {
+        return nordMax[contour];
+    }
+
+    /**
+     * Indique si le point (est, nord) est à l'intérieur du contour, à plus de {@code -margeMetres} de
+     * son bord. La marge doit être négative ou nulle (contour réduit), comme dans
+     * {@link MoteurGeofence#sallesContenant(double, double, float, int[])}.
+     */
+    public boolean contient(int contour, double est, double nord, double margeMetres) {
+        // Rejet par la boîte englobante, réduite de la marge
+        if (est <= estMin[contour] - margeMetres || est >= estMax[contour] + margeMetres
+                || nord <= nordMin[contour] - margeMetres || nord >= nordMax[contour] + margeMetres) {
+            return false;
+        }
+        // Acceptation par le cercle inscrit, réduit de la marge
+        double rayonInscrit = rayonsInscrits[contour] + margeMetres;
+        if (rayonInscrit > 0 && est * est + nord * nord < rayonInscrit * rayonInscrit) {
+            return true;
+        }
+        int premier = premiers[contour];
+        int dernier = premier + nombres[contour];
+
+        // Contour convexe : intérieur de chaque demi-plan (translaté de la marge), arrêt à la première arête franchie
+        if (convexes[contour]) {
+            for (int k = premier; k < dernier; k++) {
+                if (normalesEst[k] * est + normalesNord[k] * nord >= limites[k] + margeMetres) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Contour concave : nombre de croisements d'une demi-droite vers l'est avec les arêtes (de j vers i)
+        boolean dedans = false;
+        for (int i = premier, j = dernier - 1; i < dernier; j = i++) {
+            double yj = sommetsNord[j];
+            if ((yj > nord) != (sommetsNord[i] > nord) && est < sommetsEst[j] + (nord - yj) * pentes[j]) {
+                dedans = !dedans;
+            }
+        }
+        return dedans && (margeMetres == 0 || distanceContour(premier, dernier, est, nord) > -margeMetres);
+    }
+
+    /**
+     * Distance en mètres entre le point (est, nord) et le bord du contour : négative à l'intérieur,
+     * positive à l'extérieur.
+     */
+    public double distanceBordSignee(int contour, double est, double nord) {
+        int premier = premiers[contour];
+        double distance = distanceContour(premier, premier + nombres[contour], est, nord);
+        return contient(contour, est, nord, 0) ? -distance : distance;
+    }
+
+    /**
+     * Distance en mètres entre le point (est, nord) et le bord du contour, sans signe, ou {@code plafond}
+     * si elle lui est supérieure : un point à plus de {@code plafond} de la boîte englobante est écarté
+     * sans parcourir les arêtes.
+     */
+    public double distanceBord(int contour, double est, double nord, double plafond) {
+        double dx = Math.max(Math.max(estMin[contour] - est, est - estMax[contour]), 0);
+        double dy = Math.max(Math.max(nordMin[contour] - nord, nord - nordMax[contour]), 0);
+        if (dx * dx + dy * dy >= plafond * plafond) {
+            return plafond;
+        }
+        int premier = premiers[contour];
+        return Math.min(distanceContour(premier, premier + nombres[contour], est, nord), plafond);
+    }
+
+    // Distance au segment le plus proche : projection du point sur chaque arête, bornée à ses extrémités
+    private double distanceContour(int premier, int dernier, double est, double nord) {
+        double plusPetitCarre = Double.POSITIVE_INFINITY;
+        for (int k = premier; k < dernier; k++) {
+            double dx = est - sommetsEst[k];
+            double dy = nord - sommetsNord[k];
+            double t = (dx * aretesEst[k] + dy * aretesNord[k]) * inversesCarresLongueurs[k];
+            if (t > 1) {
+                t = 1;
+            } else if (t < 0) {
+                t = 0;
+            }
+            dx -= t * aretesEst[k];
+            dy -= t * aretesNord[k];
+            plusPetitCarre = Math.min(plusPetitCarre, dx * dx + dy * dy);
+        }
+        return Math.sqrt(plusPetitCarre);
+    }
+
+    private void allouerContours(int capacite) {
+        premiers = new int[capacite];
+        nombres = new int[capacite];
+        convexes = new boolean[capacite];
+        estMin = new double[capacite];
+        estMax = new double[capacite];
+        nordMin = new double[capacite];
+        nordMax = new double[capacite];
+        rayonsCirconscrits = new double[capacite];
+        rayonsInscrits = new double[capacite];
+    }
+
+    private void allouerSommets(int capacite) {
+        sommetsEst = new double[capacite];
+        sommetsNord = new double[capacite];
+        aretesEst = new double[capacite];
+        aretesNord = new double[capacite];
+        pentes = new double[capacite];
+        normalesEst = new double[capacite];
+        normalesNord = new double[capacite];
+        limites = new double[capacite];
+        inversesCarresLongueurs = new double[capacite];
+    }
+
+    private void agrandirContours(int capacite) {
+        premiers = Arrays.copyOf(premiers, capacite);
+        nombres = Arrays.copyOf(nombres, capacite);
+        convexes = Arrays.copyOf(convexes, capacite);
+        estMin = Arrays.copyOf(estMin, capacite);
+        estMax = Arrays.copyOf(estMax, capacite);
+        nordMin = Arrays.copyOf(nordMin, capacite);
+        nordMax = Arrays.copyOf(nordMax, capacite);
+        rayonsCirconscrits = Arrays.copyOf(rayonsCirconscrits, capacite);
+        rayonsInscrits = Arrays.copyOf(rayonsInscrits, capacite);
+    }
+
+    private void agrandirSommets(int capacite) {
+        sommetsEst = Arrays.copyOf(sommetsEst, capacite);
+        sommetsNord = Arrays.copyOf(sommetsNord, capacite);
+        aretesEst = Arrays.copyOf(aretesEst, capacite);
+        aretesNord = Arrays.copyOf(aretesNord, capacite);
+        pentes = Arrays.copyOf(pentes, capacite);
+        normalesEst = Arrays.copyOf(normalesEst, capacite);
+        normalesNord = Arrays.copyOf(normalesNord, capacite);
+        limites = Arrays.copyOf(limites, capacite);
+        inversesCarresLongueurs = Arrays.copyOf(inversesCarresLongueurs, capacite);
+    }
+}
@@ -0,0 +1,88 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Coordonnées géographiques en virgule fixe E7 : une latitude ou une longitude est un {@code int} de
+ * degrés × 10^7, soit une résolution d'environ 1 cm (la précision des coordonnées Google Maps).
+ * <p/>
+ * C'est la forme dans laquelle les localisations sont arrondies, les centres des salles rangés
+ * ({@link RegistreSalles}), la grille indexée ({@link GrilleSpatiale}) et la trace enregistrée
+ * ({@link EnregistreurTrace}) : un point occupe 8 octets au lieu de 16, l'écart entre deux points se
+ * calcule en entiers, exact et sans division, et une conversion en degrés n'a lieu qu'en bout de chaîne
+ * (affichage, formule de Vincenty).
+ * <p/>
+ * Un point peut aussi être empaqueté dans un seul {@code long} ({@link #empaqueter}) : deux points
+ * égaux ont la même clé, utilisable telle quelle dans une table de hachage ou un cache.
+ */
+public final class CoordonneesE7 {
+
+    /**
+     * Nombre d'unités E7 par degré.
+     */
+    public static final int UNITES_PAR_DEGRE = 10000000;
+
+    // Demi-tour et tour complet de longitude, en unités E7
+    private static final long DEMI_TOUR = 180L * UNITES_PAR_DEGRE;
+    private static final long TOUR = 360L * UNITES_PAR_DEGRE;
+
+    private CoordonneesE7() {
+    }
+
+    /**
+     * Arrondit des degrés à l'unité E7 la plus proche.
+     */
+    public static int versE7(double degres) {
+        return (int) Math.round(degres * UNITES_PAR_DEGRE);
+    }
+
+    /**
+     * Degrés d'une coordonnée E7. La division (et non une multiplication par 10^-7) redonne exactement le
+     * {@code double} le plus proche de la valeur décimale à 7 chiffres, celui que donnerait sa lecture
+     * dans un texte.
+     */
+    public static double degres(int e7) {
+        return e7 / (double) UNITES_PAR_DEGRE;
+    }
+
+    /**
+     * Empaquette un point dans un {@code long} : latitude dans les 32 bits de poids fort, longitude dans
+     * les 32 bits de poids faible.
+     */
+    public static long empaqueter(int latitudeE7, int longitudeE7) {
+        return ((long) latitudeE7 << 32) | (longitudeE7 & 0xFFFFFFFFL);
+    }
+
+    public static int latitudeE7(long point) {
+        return (int) (point >> 32);
+    }
+
+    public static int longitudeE7(long point) {
+        return (int) point;
+    }
+
+    /**
+     * Écart de longitude {@code longitudeE7 - longitudeAncreE7}, ramené dans [-180°, 180°] pour les sites
+     * situés de part et d'autre de l'antiméridien. Calculé sur un {@code long} : l'écart brut peut
+     * atteindre 360°, hors des bornes d'un {@code int}.
+     */
+    public static long ecartLongitude(int longitudeE7, int longitudeAncreE7) {
+        long ecart = (long) longitudeE7 - longitudeAncreE7;
+        if (ecart > DEMI_TOUR) {
+            ecart -= TOUR;
+        } else if (ecart < -DEMI_TOUR) {
+            ecart += TOUR;
+        }
+        return ecart;
+    }
+
+    /**
+     * Quotient entier arrondi vers moins l'infini (équivalent de {@code Math.floorDiv}, absent des
+     * versions d'Android visées), pour découper les coordonnées négatives en cellules.
+     */
+    static int diviserParDefaut(int dividende, int diviseur) {
+        int quotient = dividende / diviseur;
+        if ((dividende % diviseur != 0) && ((dividende ^ diviseur) < 0)) {
+            quotient--;
+        }
+        return quotient;
+    }
+}
@@ -0,0 +1,155 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Calcul de distance entre deux coordonnées géographiques, en Java pur (sans dépendance Android).
+ * <p/>
+ * Reprend la formule inverse de Vincenty sur l'ellipsoïde WGS84 utilisée par
+ * {@code android.location.Location.distanceBetween}, afin que la logique des salles puisse aussi
+ * s'exécuter en dehors de l'appareil.
+ */
+public final class Distance {
+
+    // Paramètres de l'ellipsoïde WGS84
+    private static final double DEMI_GRAND_AXE = 6378137.0;
+    private static final double DEMI_PETIT_AXE = 6356752.3142;
+    private static final double APLATISSEMENT = (DEMI_GRAND_AXE - DEMI_PETIT_AXE) / DEMI_GRAND_AXE;
+    private static final double A_CARRE_MOINS_B_CARRE_SUR_B_CARRE =
+            (DEMI_GRAND_AXE * DEMI_GRAND_AXE - DEMI_PETIT_AXE * DEMI_PETIT_AXE) / (DEMI_PETIT_AXE * DEMI_PETIT_AXE);
+
+    // Nombre maximal d'itérations de la méthode de Vincenty (identique à Android)
+    private static final int ITERATIONS_MAX = 20;
+
+    // Carré de l'excentricité de l'ellipsoïde WGS84
+    private static final double EXCENTRICITE_CARRE = APLATISSEMENT * (2 - APLATISSEMENT);
+
+    private Distance() {
+    }
+
+    /**
+     * Nombre de mètres par degré de latitude au voisinage de {@code latitude} (rayon de courbure
+     * méridien de l'ellipsoïde WGS84).
+     */
+    public static double metresParDegreLatitude(double latitude) {
+        double sinLatitude = Math.sin(Math.toRadians(latitude));
+        double w = 1 - EXCENTRICITE_CARRE * sinLatitude * sinLatitude;
+        return Math.toRadians(DEMI_GRAND_AXE * (1 - EXCENTRICITE_CARRE) / (w * Math.sqrt(w)));
+    }
+
+    /**
+     * Nombre de mètres par degré de longitude au voisinage de {@code latitude} (rayon de courbure
+     * du premier vertical de l'ellipsoïde WGS84, multiplié par cos(latitude)).
+     */
+    public static double metresParDegreLongitude(double latitude) {
+        double latitudeRadians = Math.toRadians(latitude);
+        double sinLatitude = Math.sin(latitudeRadians);
+        double w = 1 - EXCENTRICITE_CARRE * sinLatitude * sinLatitude;
+        return Math.toRadians(DEMI_GRAND_AXE * Math.cos(latitudeRadians) / Math.sqrt(w));
+    }
+
+    /**
+     * Carré de la distance en mètres entre (latitude, longitude) et un point d'ancrage, par projection
+     * équirectangulaire locale. Les facteurs d'échelle de l'ancre ({@link #metresParDegreLatitude},
+     * {@link #metresParDegreLongitude}) sont calculés une fois pour toutes : le calcul ne comporte alors
+     * ni fonction trigonométrique, ni racine carrée, ni allocation.
+     * <p/>
+     * Comparer ce carré au carré d'un rayon suffit pour tester l'appartenance à un cercle. Voir
+     * {@link ModeDistance} pour les bornes d'erreur.
+     */
+    public static double carreEquirectangulaire(double latitude, double longitude,
+                                                double latitudeAncre, double longitudeAncre,
+                                                double metresParDegreLatitudeAncre, double metresParDegreLongitudeAncre) {
+        double differenceLongitude = longitude - longitudeAncre;
+        // Ramène l'écart de longitude dans [-180, 180] pour les sites situés de part et d'autre de l'antiméridien
+        if (differenceLongitude > 180) {
+            differenceLongitude -= 360;
+        } else if (differenceLongitude < -180) {
+            differenceLongitude += 360;
+        }
+        double nord = (latitude - latitudeAncre) * metresParDegreLatitudeAncre;
+        double est = differenceLongitude * metresParDegreLongitudeAncre;
+        return nord * nord + est * est;
+    }
+
+    /**
+     * Carré de la distance en mètres entre deux points E7 ({@link CoordonneesE7}), par projection
+     * équirectangulaire locale. Les écarts sont calculés en entiers, exactement, puis multipliés par les
+     * facteurs d'échelle de l'ancre exprimés en mètres par unité E7 : ni division ni conversion en degrés.
+     */
+    public static double carreEquirectangulaireE7(int latitudeE7, int longitudeE7,
+                                                  int latitudeAncreE7, int longitudeAncreE7,
+                                                  double metresParE7LatitudeAncre, double metresParE7LongitudeAncre) {
+        double nord = (double) (latitudeE7 - latitudeAncreE7) * metresParE7LatitudeAncre;
+        double est = (double) CoordonneesE7.ecartLongitude(longitudeE7, longitudeAncreE7) * metresParE7LongitudeAncre;
+        return nord * nord + est * est;
+    }
+
+    /**
+     * Distance en mètres par projection équirectangulaire locale (voir {@link #carreEquirectangulaire}).
+     */
+    public static float equirectangulaire(double latitude, double longitude,
+                                          double latitudeAncre, double longitudeAncre,
+                                          double metresParDegreLatitudeAncre, double metresParDegreLongitudeAncre) {
+        return (float) Math.sqrt(carreEquirectangulaire(latitude, longitude, latitudeAncre, longitudeAncre,
+                metresParDegreLatitudeAncre, metresParDegreLongitudeAncre));
+    }
+
+    /**
+     * Retourne la distance en mètres entre deux coordonnées géographiques (en degrés).
+     * Le résultat est identique à celui de {@code Location.distanceBetween}, sans allouer de tableau.
+     */
+    public static float entre(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double lat1 = Math.toRadians(latitude1);
+        double lat2 = Math.toRadians(latitude2);
+
+        double L = Math.toRadians(longitude2) - Math.toRadians(longitude1);
+        double A = 0.0;
+        double U1 = Math.atan((1.0 - APLATISSEMENT) * Math.tan(lat1));
+        double U2 = Math.atan((1.0 - APLATISSEMENT) * Math.tan(lat2));
+
+        double cosU1 = Math.cos(U1);
+        double cosU2 = Math.cos(U2);
+        double sinU1 = Math.sin(U1);
+        double sinU2 = Math.sin(U2);
+        double cosU1cosU2 = cosU1 * cosU2;
+        double sinU1sinU2 = sinU1 * sinU2;
+
+        double sigma = 0.0;
+        double deltaSigma = 0.0;
+        double cosSigma;
+        double sinSigma;
+
+        double lambda = L; // Première estimation
+        for (int iteration = 0; iteration < ITERATIONS_MAX; iteration++) {
+            double lambdaPrecedent = lambda;
+            double cosLambda = Math.cos(lambda);
+            double sinLambda = Math.sin(lambda);
+            double t1 = cosU2 * sinLambda;
+            double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            double sinCarreSigma = t1 * t1 + t2 * t2;
+            sinSigma = Math.sqrt(sinCarreSigma);
+            cosSigma = sinU1sinU2 + cosU1cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = (sinSigma == 0) ? 0.0 : cosU1cosU2 * sinLambda / sinSigma;
+            double cosCarreAlpha = 1.0 - sinAlpha * sinAlpha;
+            double cos2SM = (cosCarreAlpha == 0) ? 0.0 : cosSigma - 2.0 * sinU1sinU2 / cosCarreAlpha;
+
+            double uCarre = cosCarreAlpha * A_CARRE_MOINS_B_CARRE_SUR_B_CARRE;
+            A = 1 + (uCarre / 16384.0) * (4096.0 + uCarre * (-768 + uCarre * (320.0 - 175.0 * uCarre)));
+            double B = (uCarre / 1024.0) * (256.0 + uCarre * (-128.0 + uCarre * (74.0 - 47.0 * uCarre)));
+            double C = (APLATISSEMENT / 16.0) * cosCarreAlpha * (4.0 + APLATISSEMENT * (4.0 - 3.0 * cosCarreAlpha));
+            double cos2SMCarre = cos2SM * cos2SM;
+            deltaSigma = B * sinSigma * (cos2SM + (B / 4.0) * (cosSigma * (-1.0 + 2.0 * cos2SMCarre)
+                    - (B / 6.0) * cos2SM * (-3.0 + 4.0 * sinSigma * sinSigma) * (-3.0 + 4.0 * cos2SMCarre)));
+
+            lambda = L + (1.0 - C) * APLATISSEMENT * sinAlpha
+                    * (sigma + C * sinSigma * (cos2SM + C * cosSigma * (-1.0 + 2.0 * cos2SM * cos2SM)));
+
+            double delta = (lambda - lambdaPrecedent) / lambda;
+            if (Math.abs(delta) < 1.0e-12) {
+                break;
+            }
+        }
+
+        return (float) (DEMI_PETIT_AXE * A * (sigma - deltaSigma));
+    }
+}
@@ -0,0 +1,71 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Passage des {@link EtatRendu} du thread de traitement au thread principal, sans allocation.
+ * <p/>
+ * Quatre états circulent : celui que le traitement remplit, le dernier publié, le dernier affiché
+ * (l'état précédent du rendu) et une réserve. Publier échange l'état rempli avec le dernier publié ;
+ * prendre échange le dernier publié avec la réserve. Un état pris reste donc intact jusqu'à ce que
+ * l'état suivant ait été pris et affiché, ce dont le rendu a besoin pour comparer deux états.
+ * <p/>
+ * Si plusieurs états sont publiés avant que le thread principal ne les prenne, seul le plus récent est
+ * affiché : les états intermédiaires sont recyclés sans être rendus.
+ */
+public final class EchangeEtatsRendu {
+
+    // État rempli par le thread de traitement
+    private EtatRendu aRemplir;
+
+    // Dernier état publié, partagé entre les deux threads
+    private EtatRendu publie;
+    private boolean nouveau = false;
+
+    // États du thread principal : dernier état pris et réserve
+    private EtatRendu pris;
+    private EtatRendu reserve;
+
+    public EchangeEtatsRendu(int nombreSalles) {
+        aRemplir = new EtatRendu(nombreSalles);
+        publie = new EtatRendu(nombreSalles);
+        pris = new EtatRendu(nombreSalles);
+        reserve = new EtatRendu(nombreSalles);
+    }
+
+    /**
+     * État à remplir avant {@link #publier()}. Thread de traitement uniquement.
+     */
+    public EtatRendu aRemplir() {
+        return aRemplir;
+    }
+
+    /**
+     * Publie l'état rempli, qui devient le prochain état pris. Thread de traitement uniquement.
+     */
+    public void publier() {
+        synchronized (this) {
+            EtatRendu rempli = aRemplir;
+            aRemplir = publie;
+            publie = rempli;
+            nouveau = true;
+        }
+    }
+
+    /**
+     * Retourne le dernier état publié, ou null s'il n'y en a pas de nouveau depuis le précédent appel.
+     * Thread principal uniquement.
+     */
+    public EtatRendu prendre() {
+        EtatRendu etat;
+        synchronized (this) {
+            if (!nouveau) {
+                return null;
+            }
+            etat = publie;
+            publie = reserve;
+            nouveau = false;
+        }
+        reserve = pris;
+        pris = etat;
+        return etat;
+    }
+}
@@ -0,0 +1,324 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Construit un catalogue binaire des salles d'un site, lu ensuite sans copie par {@link CatalogueSalles}.
+ * Les salles sont ajoutées une à une, puis {@link #ecrire} range le catalogue par cellules et l'écrit
+ * d'un bloc.
+ * <p/>
+ * Format du fichier (petit-boutiste) :
+ * <ul>
+ * <li>en-tête de {@link #TAILLE_EN_TETE} octets : signature {@link #SIGNATURE}, version (short), taille d'un
+ * enregistrement (short), nombre de salles, nombre de cellules, nombre de sommets, taille d'une cellule
+ * (int, degrés × 10^7), plus grand rayon (float, mètres), plus grand nombre de sommets d'une salle, puis
+ * position des cellules, des sommets et des noms, et taille des noms (int, octets) ;</li>
+ * <li>salles, enregistrements de {@link #TAILLE_ENREGISTREMENT} octets : latitude et longitude E7 du centre
+ * (int), rayon (float, mètres), capacité, premier sommet et nombre de sommets (int, 0 sommet pour un
+ * cercle), position et longueur du nom (int, octets) ;</li>
+ * <li>cellules : clé de chaque cellule non vide (long, ligne × 2^32 + colonne, dans l'ordre croissant),
+ * puis numéro de sa première salle (int), suivi du nombre de salles ;</li>
+ * <li>sommets : est et nord (float, mètres autour du centre de la salle) ;</li>
+ * <li>noms des salles, en UTF-8.</li>
+ * </ul>
+ * Les salles sont rangées par cellule de {@link #TAILLE_CELLULE_E7} (d'après leur centre) : les salles
+ * d'une zone se lisent d'un seul tenant, et ne sont donc pas numérotées dans l'ordre d'ajout.
+ */
+public final class EcritureCatalogue {
+
+    /**
+     * Signature au début d'un catalogue ("CVCS").
+     */
+    public static final int SIGNATURE = 0x43564353;
+
+    public static final short VERSION = 1;
+
+    public static final int TAILLE_EN_TETE = 48;
+
+    public static final int TAILLE_ENREGISTREMENT = 32;
+
+    /**
+     * Côté d'une cellule, en degrés × 10^7 (0,001°, soit 111 m du sud au nord).
+     */
+    public static final int TAILLE_CELLULE_E7 = 10000;
+
+    // Position des champs dans l'en-tête et dans un enregistrement
+    static final int POSITION_NOMBRE = 8;
+    static final int POSITION_NOMBRE_CELLULES = 12;
+    static final int POSITION_NOMBRE_SOMMETS = 16;
+    static final int POSITION_TAILLE_CELLULE = 20;
+    static final int POSITION_RAYON_MAX = 24;
+    static final int POSITION_SOMMETS_MAX = 28;
+    static final int POSITION_CELLULES = 32;
+    static final int POSITION_SOMMETS = 36;
+    static final int POSITION_NOMS = 40;
+    static final int POSITION_TAILLE_NOMS = 44;
+    static final int CHAMP_LATITUDE = 0;
+    static final int CHAMP_LONGITUDE = 4;
+    static final int CHAMP_RAYON = 8;
+    static final int CHAMP_CAPACITE = 12;
+    static final int CHAMP_PREMIER_SOMMET = 16;
+    static final int CHAMP_NOMBRE_SOMMETS = 20;
+    static final int CHAMP_NOM = 24;
+    static final int CHAMP_LONGUEUR_NOM = 28;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int CAPACITE_INITIALE = 64;
+
+    // Salles, dans l'ordre d'ajout
+    private int[] latitudesE7;
+    private int[] longitudesE7;
+    private float[] rayons;
+    private int[] capacites;
+    private int[] premiers;
+    private int[] nombres;
+    private String[] noms;
+    private int taille = 0;
+
+    // Sommets de toutes les salles polygonales
+    private float[] sommetsEst = new float[CAPACITE_INITIALE];
+    private float[] sommetsNord = new float[CAPACITE_INITIALE];
+    private int nombreSommets = 0;
+
+    public EcritureCatalogue() {
+        this(CAPACITE_INITIALE);
+    }
+
+    /**
+     * @param capaciteInitiale Nombre de salles prévu.
+     */
+    public EcritureCatalogue(int capaciteInitiale) {
+        int capacite = Math.max(capaciteInitiale, 1);
+        latitudesE7 = new int[capacite];
+        longitudesE7 = new int[capacite];
+        rayons = new float[capacite];
+        capacites = new int[capacite];
+        premiers = new int[capacite];
+        nombres = new int[capacite];
+        noms = new String[capacite];
+    }
+
+    public int taille() {
+        return taille;
+    }
+
+    /**
+     * Ajoute une salle circulaire de centre E7.
+     */
+    public void ajouterSalleE7(String nom, int latitudeE7, int longitudeE7, float rayonMetres, int capacite) {
+        if (taille == latitudesE7.length) {
+            agrandir(taille * 2);
+        }
+        latitudesE7[taille] = latitudeE7;
+        longitudesE7[taille] = longitudeE7;
+        rayons[taille] = rayonMetres;
+        capacites[taille] = capacite;
+        premiers[taille] = nombreSommets;
+        nombres[taille] = 0;
+        noms[taille] = nom;
+        taille++;
+    }
+
+    /**
+     * Ajoute une salle polygonale de centre E7, dont les sommets sont donnés en mètres autour du centre
+     * (voir {@link ContoursSalles#ajouter}). Ils sont rangés en {@code float}, au micromètre près.
+     */
+    public void ajouterPolygoneE7(String nom, int latitudeE7, int longitudeE7, double[] estSommets, double[] nordSommets,
+                                  int nombre, int capacite) {
+        if (nombre < 3) {
+            throw new IllegalArgumentException("Un contour compte au moins 3 sommets : " + nombre);
+        }
+        if (nombreSommets + nombre > sommetsEst.length) {
+            int capaciteSommets = Math.max(sommetsEst.length * 2, nombreSommets + nombre);
+            sommetsEst = Arrays.copyOf(sommetsEst, capaciteSommets);
+            sommetsNord = Arrays.copyOf(sommetsNord, capaciteSommets);
+        }
+        int premier = nombreSommets;
+        double rayonCarre = 0;
+        for (int i = 0; i < nombre; i++) {
+            float est = (float) estSommets[i];
+            float nord = (float) nordSommets[i];
+            sommetsEst[premier + i] = est;
+            sommetsNord[premier + i] = nord;
+            rayonCarre = Math.max(rayonCarre, (double) est * est + (double) nord * nord);
+        }
+        // Rayon du cercle circonscrit, arrondi au float supérieur comme dans le registre
+        ajouterSalleE7(nom, latitudeE7, longitudeE7, Math.nextUp((float) Math.sqrt(rayonCarre)), capacite);
+        premiers[taille - 1] = premier;
+        nombres[taille - 1] = nombre;
+        nombreSommets += nombre;
+    }
+
+    /**
+     * Ajoute toutes les salles d'un registre, nommées {@code prefixeNom} suivi de leur numéro à partir de 1.
+     */
+    public void ajouterRegistre(RegistreSalles registre, String prefixeNom) {
+        ContoursSalles contours = registre.contours();
+        double[] est = new double[0];
+        double[] nord = new double[0];
+        for (int salle = 0; salle < registre.taille(); salle++) {
+            String nom = prefixeNom + (salle + 1);
+            int contour = registre.contour(salle);
+            if (contour < 0) {
+                ajouterSalleE7(nom, registre.latitudeE7(salle), registre.longitudeE7(salle),
+                        registre.rayon(salle), registre.capacite(salle));
+                continue;
+            }
+            int nombre = contours.nombreSommets(contour);
+            if (nombre > est.length) {
+                est = new double[nombre];
+                nord = new double[nombre];
+            }
+            for (int i = 0; i < nombre; i++) {
+                est[i] = contours.estSommet(contour, i);
+                nord[i] = contours.nordSommet(contour, i);
+            }
+            ajouterPolygoneE7(nom, registre.latitudeE7(salle), registre.longitudeE7(salle), est, nord, nombre,
+                    registre.capacite(salle));
+        }
+    }
+
+    /**
+     * Écrit le catalogue dans {@code fichier} (remplacé s'il existe).
+     */
+    public void ecrire(File fichier) throws IOException {
+        // Cellules non vides, dans l'ordre croissant des clés
+        long[] clesSalles = new long[taille];
+        for (int salle = 0; salle < taille; salle++) {
+            clesSalles[salle] = cleCellule(latitudesE7[salle], longitudesE7[salle]);
+        }
+        long[] cles = Arrays.copyOf(clesSalles, taille);
+        Arrays.sort(cles);
+        int nombreCellules = 0;
+        for (int i = 0; i < taille; i++) {
+            if (i == 0 || cles[i] != cles[i - 1]) {
+                cles[nombreCellules++] = cles[i];
+            }
+        }
+
+        // Tri par dénombrement des salles par cellule (l'ordre d'ajout est conservé dans une cellule)
+        int[] cellules = new int[taille];
+        int[] debuts = new int[nombreCellules + 1];
+        for (int salle = 0; salle < taille; salle++) {
+            cellules[salle] = Arrays.binarySearch(cles, 0, nombreCellules, clesSalles[salle]);
+            debuts[cellules[salle] + 1]++;
+        }
+        for (int c = 0; c < nombreCellules; c++) {
+            debuts[c + 1] += debuts[c];
+        }
+        int[] ordre = new int[taille];
+        int[] suivantes = Arrays.copyOf(debuts, nombreCellules);
+        for (int salle = 0; salle < taille; salle++) {
+            ordre[suivantes[cellules[salle]]++] = salle;
+        }
+
+        byte[][] nomsUtf8 = new byte[taille][];
+        int tailleNoms = 0;
+        float rayonMax = 0;
+        int sommetsMax = 0;
+        for (int salle = 0; salle < taille; salle++) {
+            nomsUtf8[salle] = noms[salle] == null ? new byte[0] : noms[salle].getBytes(UTF_8);
+            tailleNoms += nomsUtf8[salle].length;
+            rayonMax = Math.max(rayonMax, rayons[salle]);
+            sommetsMax = Math.max(sommetsMax, nombres[salle]);
+        }
+
+        long positionCellules = TAILLE_EN_TETE + (long) taille * TAILLE_ENREGISTREMENT;
+        long positionSommets = positionCellules + 8L * nombreCellules + 4L * (nombreCellules + 1);
+        long positionNoms = positionSommets + 8L * nombreSommets;
+        long tailleFichier = positionNoms + tailleNoms;
+        if (tailleFichier > Integer.MAX_VALUE) {
+            throw new IOException("Catalogue trop grand : " + tailleFichier + " octets");
+        }
+
+        RandomAccessFile acces = new RandomAccessFile(fichier, "rw");
+        try {
+            acces.setLength(tailleFichier);
+            MappedByteBuffer tampon = acces.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, tailleFichier);
+            tampon.order(ByteOrder.LITTLE_ENDIAN);
+            tampon.putInt(SIGNATURE);
+            tampon.putShort(VERSION);
+            tampon.putShort((short) TAILLE_ENREGISTREMENT);
+            tampon.putInt(taille);
+            tampon.putInt(nombreCellules);
+            tampon.putInt(nombreSommets);
+            tampon.putInt(TAILLE_CELLULE_E7);
+            tampon.putFloat(rayonMax);
+            tampon.putInt(sommetsMax);
+            tampon.putInt((int) positionCellules);
+            tampon.putInt((int) positionSommets);
+            tampon.putInt((int) positionNoms);
+            tampon.putInt(tailleNoms);
+
+            // Salles dans l'ordre des cellules ; leurs sommets et leurs noms dans le même ordre
+            int sommet = 0;
+            int positionNom = 0;
+            for (int i = 0; i < taille; i++) {
+                int salle = ordre[i];
+                tampon.putInt(latitudesE7[salle]);
+                tampon.putInt(longitudesE7[salle]);
+                tampon.putFloat(rayons[salle]);
+                tampon.putInt(capacites[salle]);
+                tampon.putInt(sommet);
+                tampon.putInt(nombres[salle]);
+                tampon.putInt(positionNom);
+                tampon.putInt(nomsUtf8[salle].length);
+                sommet += nombres[salle];
+                positionNom += nomsUtf8[salle].length;
+            }
+            for (int c = 0; c < nombreCellules; c++) {
+                tampon.putLong(cles[c]);
+            }
+            for (int c = 0; c <= nombreCellules; c++) {
+                tampon.putInt(debuts[c]);
+            }
+            for (int i = 0; i < taille; i++) {
+                int salle = ordre[i];
+                for (int k = premiers[salle]; k < premiers[salle] + nombres[salle]; k++) {
+                    tampon.putFloat(sommetsEst[k]);
+                    tampon.putFloat(sommetsNord[k]);
+                }
+            }
+            for (int i = 0; i < taille; i++) {
+                tampon.put(nomsUtf8[ordre[i]]);
+            }
+            tampon.force();
+        } finally {
+            acces.close();
+        }
+    }
+
+    /**
+     * Clé de la cellule contenant (latitudeE7, longitudeE7) : ligne × 2^32 + colonne, croissante avec la
+     * ligne puis avec la colonne.
+     */
+    static long cleCellule(int latitudeE7, int longitudeE7) {
+        return cle(CoordonneesE7.diviserParDefaut(latitudeE7, TAILLE_CELLULE_E7),
+                CoordonneesE7.diviserParDefaut(longitudeE7, TAILLE_CELLULE_E7));
+    }
+
+    /**
+     * Clé de la cellule d'indices ({@code ligne}, {@code colonne}).
+     */
+    static long cle(int ligne, int colonne) {
+        return ((long) ligne << 32) + colonne;
+    }
+
+    private void agrandir(int capacite) {
+        latitudesE7 = Arrays.copyOf(latitudesE7, capacite);
+        longitudesE7 = Arrays.copyOf(longitudesE7, capacite);
+        rayons = Arrays.copyOf(rayons, capacite);
+        capacites = Arrays.copyOf(capacites, capacite);
+        premiers = Arrays.copyOf(premiers, capacite);
+        nombres = Arrays.copyOf(nombres, capacite);
+        noms = Arrays.copyOf(noms, capacite);
+    }
+}
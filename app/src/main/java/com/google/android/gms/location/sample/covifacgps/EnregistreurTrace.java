@@ -0,0 +1,245 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Enregistre chaque localisation reçue dans une trace binaire, pour pouvoir rejouer ou exporter les
+ * localisations d'un problème constaté sur le terrain.
+ * <p/>
+ * La trace est une suite de segments de taille fixe ({@code trace-00000001.bin}, {@code trace-00000002.bin}...)
+ * dans un répertoire. Chaque segment est projeté en mémoire ({@link MappedByteBuffer}) : enregistrer une
+ * localisation n'est qu'une écriture de {@link #TAILLE_ENREGISTREMENT} octets en mémoire, sans appel
+ * système ni allocation, et le système écrit les pages sur le disque. Une localisation enregistrée
+ * survit donc à l'arrêt brutal de l'application (mais pas forcément à une coupure de courant).
+ * <p/>
+ * Format d'un segment (petit-boutiste) :
+ * <ul>
+ * <li>en-tête de {@link #TAILLE_EN_TETE} octets : signature {@link #SIGNATURE}, version (short), taille d'un
+ * enregistrement (short), nombre d'enregistrements valides (int, écrit après chaque enregistrement), réservé (int) ;</li>
+ * <li>enregistrements de {@link #TAILLE_ENREGISTREMENT} octets : heure (long, millisecondes), latitude et
+ * longitude E7 (int, degrés × 10^7), précision (float, mètres, NaN si inconnue), vitesse (float, mètres
+ * par seconde, NaN si inconnue).</li>
+ * </ul>
+ * Lorsque le segment courant est plein, un nouveau segment est créé ; les plus anciens sont supprimés
+ * pour que la trace ne dépasse pas le budget disque. Les segments se lisent sans copie avec {@link LectureTrace}.
+ * <p/>
+ * Un enregistreur n'est utilisé que par un seul thread (celui qui traite les localisations).
+ */
+public final class EnregistreurTrace {
+
+    /**
+     * Signature au début de chaque segment ("CVTR").
+     */
+    public static final int SIGNATURE = 0x43565452;
+
+    public static final short VERSION = 1;
+
+    public static final int TAILLE_EN_TETE = 16;
+
+    public static final int TAILLE_ENREGISTREMENT = 24;
+
+    // Position des champs dans l'en-tête et dans un enregistrement
+    static final int POSITION_NOMBRE = 8;
+    static final int CHAMP_INSTANT = 0;
+    static final int CHAMP_LATITUDE = 8;
+    static final int CHAMP_LONGITUDE = 12;
+    static final int CHAMP_PRECISION = 16;
+    static final int CHAMP_VITESSE = 20;
+
+    static final String PREFIXE = "trace-";
+    static final String SUFFIXE = ".bin";
+
+    private final File repertoire;
+    private final int tailleSegment;
+    private final int capaciteSegment;
+    private final int nombreSegmentsMax;
+
+    // Segment courant, projeté en mémoire, et nombre d'enregistrements qu'il contient
+    private MappedByteBuffer segment;
+    private long numeroSegment;
+    private int nombre;
+
+    // Numéros des segments présents sur le disque, du plus ancien au plus récent
+    private long[] numeros;
+    private int nombreNumeros;
+
+    /**
+     * Ouvre la trace du répertoire (créé si besoin) et continue le dernier segment s'il n'est pas plein.
+     *
+     * @param tailleSegmentOctets Taille d'un segment, en octets (en-tête compris).
+     * @param budgetOctets        Taille maximale de la trace sur le disque, en octets (au moins deux segments).
+     */
+    public EnregistreurTrace(File repertoire, int tailleSegmentOctets, long budgetOctets) throws IOException {
+        if (tailleSegmentOctets < TAILLE_EN_TETE + TAILLE_ENREGISTREMENT || budgetOctets < 2L * tailleSegmentOctets) {
+            throw new IllegalArgumentException("Taille de segment ou budget invalide : " + tailleSegmentOctets + ", " + budgetOctets);
+        }
+        if (!repertoire.isDirectory() && !repertoire.mkdirs()) {
+            throw new IOException("Impossible de créer " + repertoire);
+        }
+        this.repertoire = repertoire;
+        this.capaciteSegment = (tailleSegmentOctets - TAILLE_EN_TETE) / TAILLE_ENREGISTREMENT;
+        this.tailleSegment = TAILLE_EN_TETE + capaciteSegment * TAILLE_ENREGISTREMENT;
+        this.nombreSegmentsMax = (int) Math.min(Integer.MAX_VALUE, budgetOctets / tailleSegment);
+
+        numeros = numerosSegments(repertoire);
+        nombreNumeros = numeros.length;
+        if (nombreNumeros > 0) {
+            numeroSegment = numeros[nombreNumeros - 1];
+            segment = projeter(fichierSegment(repertoire, numeroSegment), false);
+            // Taille et signature vérifiées avant de lire le moindre champ de l'en-tête
+            if (segment.capacity() < TAILLE_EN_TETE || segment.getInt(0) != SIGNATURE
+                    || segment.getShort(6) != TAILLE_ENREGISTREMENT) {
+                // Segment vide ou tronqué (arrêt entre la création du fichier et sa mise à la taille), illisible :
+                // il est réécrit en place
+                segment = null;
+                numeroSegment--;
+                nombreNumeros--;
+                nouveauSegment();
+            } else {
+                nombre = segment.getInt(POSITION_NOMBRE);
+                if (nombre < 0 || nombre > capaciteSegment || segment.capacity() != tailleSegment) {
+                    // Segment d'une autre taille : il est gardé, on commence un nouveau segment
+                    nombre = capaciteSegment;
+                }
+            }
+        } else {
+            numeroSegment = 0;
+            nombre = capaciteSegment;
+        }
+    }
+
+    /**
+     * Nombre d'enregistrements que peut contenir un segment.
+     */
+    public int capaciteSegment() {
+        return capaciteSegment;
+    }
+
+    /**
+     * Enregistre une localisation.
+     *
+     * @param instant         Heure de la localisation, en millisecondes.
+     * @param precisionMetres Précision en mètres, ou {@code Float.NaN} si inconnue.
+     * @param vitesse         Vitesse en mètres par seconde, ou {@code Float.NaN} si inconnue.
+     */
+    public void enregistrer(long instant, double latitude, double longitude, float precisionMetres, float vitesse)
+            throws IOException {
+        enregistrerE7(instant, CoordonneesE7.versE7(latitude), CoordonneesE7.versE7(longitude), precisionMetres, vitesse);
+    }
+
+    /**
+     * Enregistre une localisation déjà réduite en unités E7 ({@link CoordonneesE7}), telle quelle.
+     */
+    public void enregistrerE7(long instant, int latitudeE7, int longitudeE7, float precisionMetres, float vitesse)
+            throws IOException {
+        if (nombre == capaciteSegment) {
+            nouveauSegment();
+        }
+        int position = TAILLE_EN_TETE + nombre * TAILLE_ENREGISTREMENT;
+        segment.putLong(position + CHAMP_INSTANT, instant);
+        segment.putInt(position + CHAMP_LATITUDE, latitudeE7);
+        segment.putInt(position + CHAMP_LONGITUDE, longitudeE7);
+        segment.putFloat(position + CHAMP_PRECISION, precisionMetres);
+        segment.putFloat(position + CHAMP_VITESSE, vitesse);
+        // Le nombre est écrit après l'enregistrement : un enregistrement compté est toujours complet
+        segment.putInt(POSITION_NOMBRE, ++nombre);
+    }
+
+    /**
+     * Demande au système d'écrire le segment courant sur le disque (par exemple avant un export).
+     */
+    public void forcer() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    private void nouveauSegment() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        numeroSegment++;
+        segment = projeter(fichierSegment(repertoire, numeroSegment), true);
+        segment.putInt(0, SIGNATURE);
+        segment.putShort(4, VERSION);
+        segment.putShort(6, (short) TAILLE_ENREGISTREMENT);
+        segment.putInt(POSITION_NOMBRE, 0);
+        nombre = 0;
+
+        if (nombreNumeros == numeros.length) {
+            numeros = Arrays.copyOf(numeros, Math.max(4, 2 * numeros.length));
+        }
+        numeros[nombreNumeros++] = numeroSegment;
+
+        // Budget disque : les segments les plus anciens sont supprimés
+        int aSupprimer = nombreNumeros - nombreSegmentsMax;
+        if (aSupprimer > 0) {
+            for (int i = 0; i < aSupprimer; i++) {
+                File ancien = fichierSegment(repertoire, numeros[i]);
+                if (ancien.exists() && !ancien.delete()) {
+                    throw new IOException("Impossible de supprimer " + ancien);
+                }
+            }
+            System.arraycopy(numeros, aSupprimer, numeros, 0, nombreNumeros - aSupprimer);
+            nombreNumeros -= aSupprimer;
+        }
+    }
+
+    private MappedByteBuffer projeter(File fichier, boolean nouveau) throws IOException {
+        RandomAccessFile acces = new RandomAccessFile(fichier, "rw");
+        try {
+            if (nouveau) {
+                acces.setLength(tailleSegment);
+            }
+            MappedByteBuffer tampon = acces.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, acces.length());
+            tampon.order(ByteOrder.LITTLE_ENDIAN);
+            return tampon;
+        } finally {
+            // La projection reste valide après la fermeture du fichier
+            acces.close();
+        }
+    }
+
+    static File fichierSegment(File repertoire, long numero) {
+        return new File(repertoire, PREFIXE + String.format(Locale.ROOT, "%08d", numero) + SUFFIXE);
+    }
+
+    /**
+     * Numéros des segments du répertoire, par ordre croissant.
+     */
+    static long[] numerosSegments(File repertoire) {
+        return numerosSegments(repertoire, PREFIXE, SUFFIXE);
+    }
+
+    /**
+     * Numéros des fichiers {@code prefixe}numéro{@code suffixe} du répertoire, par ordre croissant.
+     */
+    static long[] numerosSegments(File repertoire, String prefixe, String suffixe) {
+        String[] noms = repertoire.list();
+        if (noms == null) {
+            return new long[0];
+        }
+        long[] numeros = new long[noms.length];
+        int nombre = 0;
+        for (String nom : noms) {
+            if (nom.startsWith(prefixe) && nom.endsWith(suffixe)) {
+                try {
+                    long numero = Long.parseLong(nom.substring(prefixe.length(), nom.length() - suffixe.length()));
+                    numeros[nombre++] = numero;
+                } catch (NumberFormatException e) {
+                    // Fichier étranger à la suite de segments
+                }
+            }
+        }
+        numeros = Arrays.copyOf(numeros, nombre);
+        Arrays.sort(numeros);
+        return numeros;
+    }
+}
@@ -0,0 +1,127 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Tout ce que l'écran doit afficher après une mise à jour de localisation (ou à l'arrêt de la
+ * localisation) : l'état de rendu d'une « image ».
+ * <p/>
+ * Un état est rempli une seule fois par {@link TraitementLocalisation}, puis n'est plus que lu : le
+ * {@code RenduSalles} le compare à l'état précédent pour ne modifier que les vues qui ont changé. Pour
+ * ne rien allouer à chaque localisation, les états sont recyclés par l'appelant, qui ne doit jamais
+ * remplir un état encore utilisé comme état précédent par le rendu.
+ */
+public final class EtatRendu {
+
+    // Localisation en cours ou arrêtée
+    private boolean localisationActive;
+
+    // Ma localisation et l'heure de la mise à jour (millisecondes depuis le 1er janvier 1970)
+    private double latitude;
+    private double longitude;
+    private long instant;
+
+    // État de chaque salle affichée
+    private final double[] latitudesSalles;
+    private final double[] longitudesSalles;
+    private final float[] distances;
+    private final int[] usagersSimules;
+    private final int[] compteurs;
+    private final int[] capacites;
+    private final boolean[] pleines;
+    private final boolean[] dedans;
+
+    public EtatRendu(int nombreSalles) {
+        latitudesSalles = new double[nombreSalles];
+        longitudesSalles = new double[nombreSalles];
+        distances = new float[nombreSalles];
+        usagersSimules = new int[nombreSalles];
+        compteurs = new int[nombreSalles];
+        capacites = new int[nombreSalles];
+        pleines = new boolean[nombreSalles];
+        dedans = new boolean[nombreSalles];
+    }
+
+    public int nombreSalles() {
+        return compteurs.length;
+    }
+
+    public boolean localisationActive() {
+        return localisationActive;
+    }
+
+    public double latitude() {
+        return latitude;
+    }
+
+    public double longitude() {
+        return longitude;
+    }
+
+    public long instant() {
+        return instant;
+    }
+
+    public double latitudeSalle(int salle) {
+        return latitudesSalles[salle];
+    }
+
+    public double longitudeSalle(int salle) {
+        return longitudesSalles[salle];
+    }
+
+    /**
+     * Distance entre ma localisation et le centre de la salle (sans objet si la localisation est arrêtée).
+     */
+    public float distance(int salle) {
+        return distances[salle];
+    }
+
+    /**
+     * Usagers simulés de la salle, déjà comptés dans {@link #compteur(int)}.
+     */
+    public int usagersSimules(int salle) {
+        return usagersSimules[salle];
+    }
+
+    public int compteur(int salle) {
+        return compteurs[salle];
+    }
+
+    /**
+     * Capacité de la salle, pour comparer une autre occupation que {@link #compteur(int)} (celle d'un flux).
+     */
+    public int capacite(int salle) {
+        return capacites[salle];
+    }
+
+    /**
+     * La salle est affichée en rouge (indisponible) : je suis dedans et elle a dépassé sa capacité.
+     */
+    public boolean pleine(int salle) {
+        return pleines[salle];
+    }
+
+    public boolean dedans(int salle) {
+        return dedans[salle];
+    }
+
+    // Remplissage, réservé à 'TraitementLocalisation'
+
+    void fixerLocalisation(boolean localisationActive, double latitude, double longitude, long instant) {
+        this.localisationActive = localisationActive;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.instant = instant;
+    }
+
+    void fixerSalle(int salle, double latitudeSalle, double longitudeSalle, float distance, int usagersSimules,
+                    int compteur, int capacite, boolean pleine, boolean dedans) {
+        latitudesSalles[salle] = latitudeSalle;
+        longitudesSalles[salle] = longitudeSalle;
+        distances[salle] = distance;
+        this.usagersSimules[salle] = usagersSimules;
+        compteurs[salle] = compteur;
+        capacites[salle] = capacite;
+        pleines[salle] = pleine;
+        this.dedans[salle] = dedans;
+    }
+}
@@ -0,0 +1,157 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Filtre de Kalman position / vitesse des localisations brutes, appliqué avant la recherche des salles.
+ * <p/>
+ * Les localisations sont projetées en mètres (est, nord) autour de la première localisation reçue. Sur
+ * chaque axe, l'état est une position et une vitesse (modèle à vitesse constante, accélération aléatoire
+ * d'écart type {@link #fixerBruitAcceleration}). Chaque localisation est pondérée par sa précision : une
+ * localisation précise déplace fortement l'estimation, une localisation imprécise très peu.
+ * <p/>
+ * La précision d'une localisation Android ({@code Location.getAccuracy()}) est le rayon qui contient la
+ * position réelle avec une probabilité de 68 % ; pour un bruit gaussien de même écart type σ sur chaque
+ * axe, ce rayon vaut environ 1,5 σ. Les deux axes ayant alors le même bruit de mesure et le même modèle,
+ * leurs matrices de covariance sont identiques : une seule est tenue à jour (trois termes).
+ * <p/>
+ * Une mise à jour ne fait qu'une vingtaine d'opérations en virgule flottante, sans fonction
+ * trigonométrique ni allocation. Le filtre repart de la localisation reçue après un trou de plus de
+ * {@link #TROU_MAX} ou si l'heure recule.
+ */
+public final class FiltreKalman {
+
+    /**
+     * Écart type par défaut de l'accélération d'un piéton, en mètres par seconde².
+     */
+    public static final double BRUIT_ACCELERATION_DEFAUT = 0.5;
+
+    /**
+     * Précision supposée d'une localisation dont la précision est inconnue, en mètres.
+     */
+    public static final float PRECISION_INCONNUE_METRES = 10f;
+
+    /**
+     * Trou entre deux localisations au-delà duquel le filtre repart de zéro, en millisecondes.
+     */
+    public static final long TROU_MAX = 60000;
+
+    // Rapport entre la précision à 68 % d'une localisation et l'écart type du bruit sur chaque axe
+    private static final double PRECISION_SUR_ECART_TYPE = 1.515;
+
+    // Écart type initial de la vitesse (marche rapide), en mètres par seconde
+    private static final double ECART_TYPE_VITESSE_INITIALE = 2.0;
+
+    private double varianceAcceleration = BRUIT_ACCELERATION_DEFAUT * BRUIT_ACCELERATION_DEFAUT;
+
+    private boolean initialise = false;
+
+    // Projection locale, ancrée sur la première localisation
+    private final ProjectionLocale projection = new ProjectionLocale();
+
+    // État : position (mètres) et vitesse (mètres par seconde) sur chaque axe
+    private double est;
+    private double nord;
+    private double vitesseEst;
+    private double vitesseNord;
+
+    // Covariance commune aux deux axes : variance de la position, covariance position / vitesse, variance de la vitesse
+    private double p00;
+    private double p01;
+    private double p11;
+
+    private long instantPrecedent;
+
+    /**
+     * Choisit l'écart type de l'accélération, en mètres par seconde² : petit, le filtre lisse davantage
+     * mais suit les changements de direction avec plus de retard.
+     */
+    public void fixerBruitAcceleration(double ecartTypeMetresParSeconde2) {
+        if (!(ecartTypeMetresParSeconde2 > 0)) {
+            throw new IllegalArgumentException("Bruit d'accélération invalide : " + ecartTypeMetresParSeconde2);
+        }
+        varianceAcceleration = ecartTypeMetresParSeconde2 * ecartTypeMetresParSeconde2;
+    }
+
+    /**
+     * Oublie les localisations précédentes : la prochaine est prise telle quelle.
+     */
+    public void reinitialiser() {
+        initialise = false;
+    }
+
+    /**
+     * Intègre une localisation brute.
+     *
+     * @param precisionMetres Précision de la localisation (rayon à 68 %), en mètres ; {@code Float.NaN} ou 0 si inconnue.
+     * @param instant         Heure de la localisation, en millisecondes.
+     */
+    public void mettreAJour(double latitude, double longitude, float precisionMetres, long instant) {
+        double ecartType = (precisionMetres > 0 ? precisionMetres : PRECISION_INCONNUE_METRES) / PRECISION_SUR_ECART_TYPE;
+        double varianceMesure = ecartType * ecartType;
+
+        long ecart = instant - instantPrecedent;
+        if (!initialise || ecart < 0 || ecart > TROU_MAX) {
+            projection.ancrer(latitude, longitude);
+            est = 0;
+            nord = 0;
+            vitesseEst = 0;
+            vitesseNord = 0;
+            p00 = varianceMesure;
+            p01 = 0;
+            p11 = ECART_TYPE_VITESSE_INITIALE * ECART_TYPE_VITESSE_INITIALE;
+            instantPrecedent = instant;
+            initialise = true;
+            return;
+        }
+        instantPrecedent = instant;
+
+        // Prédiction : la position avance à la vitesse estimée, l'incertitude croît avec l'accélération possible
+        double dt = ecart / 1000.0;
+        double dt2 = dt * dt;
+        est += vitesseEst * dt;
+        nord += vitesseNord * dt;
+        p00 += dt * (2 * p01 + dt * p11) + varianceAcceleration * dt2 * dt2 / 4;
+        p01 += dt * p11 + varianceAcceleration * dt2 * dt / 2;
+        p11 += varianceAcceleration * dt2;
+
+        // Correction par la mesure, pondérée par sa variance
+        double gainPosition = p00 / (p00 + varianceMesure);
+        double gainVitesse = p01 / (p00 + varianceMesure);
+        double innovationEst = projection.est(longitude) - est;
+        double innovationNord = projection.nord(latitude) - nord;
+        est += gainPosition * innovationEst;
+        nord += gainPosition * innovationNord;
+        vitesseEst += gainVitesse * innovationEst;
+        vitesseNord += gainVitesse * innovationNord;
+        p11 -= gainVitesse * p01;
+        p01 -= gainPosition * p01;
+        p00 -= gainPosition * p00;
+    }
+
+    /**
+     * Latitude estimée, en degrés (celle de la dernière localisation tant que le filtre n'a rien reçu d'autre).
+     */
+    public double latitude() {
+        return projection.latitude(nord);
+    }
+
+    /**
+     * Longitude estimée, en degrés.
+     */
+    public double longitude() {
+        return projection.longitude(est);
+    }
+
+    /**
+     * Vitesse estimée, en mètres par seconde.
+     */
+    public double vitesse() {
+        return Math.sqrt(vitesseEst * vitesseEst + vitesseNord * vitesseNord);
+    }
+
+    /**
+     * Écart type estimé de la position sur chaque axe, en mètres.
+     */
+    public double ecartTypePosition() {
+        return Math.sqrt(p00);
+    }
+}
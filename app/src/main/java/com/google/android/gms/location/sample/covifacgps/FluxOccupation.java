@@ -0,0 +1,246 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publie les changements d'occupation d'un {@link OccupationSalles} aux abonnés de chaque salle
+ * ({@link AbonnementOccupation}), regroupés par fenêtre de temps.
+ * <p/>
+ * Les producteurs appellent {@link #signaler(int)} après avoir modifié une salle : sans verrou ni allocation,
+ * la salle est marquée et, si elle ne l'était pas déjà, ajoutée à une file des salles modifiées. Le thread du
+ * flux attend la première salle marquée, laisse passer la fenêtre, puis lit l'occupation de chaque salle de la
+ * file et la propose aux seuls abonnés de cette salle. Une rafale d'entrées et de sorties dans la fenêtre ne
+ * produit donc qu'une notification par salle, et le coût d'une publication ne dépend que du nombre de salles
+ * modifiées et de leurs abonnés, jamais du nombre total de salles.
+ * <p/>
+ * Les abonnés de chaque salle sont rangés dans un tableau remplacé (copié) à chaque abonnement ou résiliation,
+ * rares : la publication les lit sans verrou.
+ */
+public final class FluxOccupation {
+
+    private static final AbonnementOccupation[] AUCUN_ABONNE = new AbonnementOccupation[0];
+
+    private final OccupationSalles occupation;
+    private final long fenetreMillis;
+
+    // 1 pour une salle déjà dans la file des salles modifiées
+    private final AtomicIntegerArray marquees;
+
+    // File des salles modifiées (numéro + 1, 0 pour une case libre), de capacité au moins le nombre de salles :
+    // une salle n'y est jamais deux fois. Plusieurs producteurs, un seul consommateur ('publier').
+    private final AtomicIntegerArray file;
+    private final int masque;
+    private final AtomicInteger queue = new AtomicInteger();
+    private int tete = 0;
+    private final AtomicInteger nombreMarquees = new AtomicInteger();
+
+    private final AtomicReferenceArray<AbonnementOccupation[]> abonnes;
+
+    private volatile Thread thread;
+    private volatile boolean actif = false;
+
+    private volatile long publiees = 0;
+    private volatile long fenetres = 0;
+
+    /**
+     * @param fenetreMillis Durée pendant laquelle les changements sont regroupés avant d'être publiés.
+     */
+    public FluxOccupation(OccupationSalles occupation, long fenetreMillis) {
+        this.occupation = occupation;
+        this.fenetreMillis = fenetreMillis;
+        int nombreSalles = occupation.nombreSalles();
+        marquees = new AtomicIntegerArray(nombreSalles);
+        int capacite = 1;
+        while (capacite < nombreSalles) {
+            capacite <<= 1;
+        }
+        file = new AtomicIntegerArray(capacite);
+        masque = capacite - 1;
+        abonnes = new AtomicReferenceArray<>(nombreSalles);
+    }
+
+    public OccupationSalles occupation() {
+        return occupation;
+    }
+
+    /**
+     * L'occupation de la salle {@code salle} vient d'être modifiée. Peut être appelé par plusieurs threads.
+     */
+    public void signaler(int salle) {
+        if (marquees.get(salle) != 0 || !marquees.compareAndSet(salle, 0, 1)) {
+            return;
+        }
+        file.set(queue.getAndIncrement() & masque, salle + 1);
+        if (nombreMarquees.incrementAndGet() == 1) {
+            Thread publication = thread;
+            if (publication != null) {
+                LockSupport.unpark(publication);
+            }
+        }
+    }
+
+    /**
+     * L'occupation de toutes les salles a pu changer (reprise d'un journal, remise à zéro).
+     */
+    public void signalerTout() {
+        for (int salle = 0; salle < marquees.length(); salle++) {
+            signaler(salle);
+        }
+    }
+
+    /**
+     * Abonne {@code signal} aux salles {@code salles} : il sera exécuté par {@code executeur} au premier changement
+     * d'une de ces salles pas encore pris. L'occupation actuelle de chaque salle est proposée tout de suite.
+     */
+    public AbonnementOccupation abonner(int[] salles, Executor executeur, Runnable signal) {
+        AbonnementOccupation abonnement = new AbonnementOccupation(salles, executeur, signal);
+        for (int salle : abonnement.salles()) {
+            if (salle >= abonnes.length()) {
+                throw new IllegalArgumentException("Salle invalide : " + salle);
+            }
+        }
+        synchronized (abonnes) {
+            for (int salle : abonnement.salles()) {
+                AbonnementOccupation[] actuels = abonnesDe(salle);
+                AbonnementOccupation[] nouveaux = new AbonnementOccupation[actuels.length + 1];
+                System.arraycopy(actuels, 0, nouveaux, 0, actuels.length);
+                nouveaux[actuels.length] = abonnement;
+                abonnes.set(salle, nouveaux);
+            }
+        }
+        for (int salle : abonnement.salles()) {
+            abonnement.proposer(salle, occupation.occupation(salle));
+        }
+        return abonnement;
+    }
+
+    /**
+     * Retire l'abonnement : plus aucune occupation ne lui est proposée.
+     */
+    public void resilier(AbonnementOccupation abonnement) {
+        synchronized (abonnes) {
+            for (int salle : abonnement.salles()) {
+                AbonnementOccupation[] actuels = abonnesDe(salle);
+                int position = -1;
+                for (int i = 0; i < actuels.length; i++) {
+                    if (actuels[i] == abonnement) {
+                        position = i;
+                    }
+                }
+                if (position < 0) {
+                    continue;
+                }
+                AbonnementOccupation[] nouveaux = new AbonnementOccupation[actuels.length - 1];
+                System.arraycopy(actuels, 0, nouveaux, 0, position);
+                System.arraycopy(actuels, position + 1, nouveaux, position, nouveaux.length - position);
+                abonnes.set(salle, nouveaux.length == 0 ? null : nouveaux);
+            }
+        }
+    }
+
+    private AbonnementOccupation[] abonnesDe(int salle) {
+        AbonnementOccupation[] actuels = abonnes.get(salle);
+        return actuels != null ? actuels : AUCUN_ABONNE;
+    }
+
+    /**
+     * Propose aux abonnés l'occupation de chaque salle modifiée depuis la publication précédente. Appelé par le
+     * thread du flux à la fin de chaque fenêtre, ou directement si le flux n'est pas démarré.
+     *
+     * @return Nombre de salles publiées.
+     */
+    public synchronized int publier() {
+        int nombre = 0;
+        while (true) {
+            int indice = tete & masque;
+            int valeur = file.get(indice);
+            // Case vide, ou salle réservée par un producteur pas encore écrite : publiée à la fenêtre suivante
+            if (valeur == 0) {
+                break;
+            }
+            file.set(indice, 0);
+            tete++;
+            int salle = valeur - 1;
+            // Démarquée avant la lecture : une modification concurrente sera publiée à la fenêtre suivante
+            marquees.set(salle, 0);
+            nombreMarquees.decrementAndGet();
+            AbonnementOccupation[] abonnesSalle = abonnes.get(salle);
+            if (abonnesSalle != null) {
+                int valeurSalle = occupation.occupation(salle);
+                for (AbonnementOccupation abonnement : abonnesSalle) {
+                    abonnement.proposer(salle, valeurSalle);
+                }
+            }
+            nombre++;
+        }
+        publiees += nombre;
+        fenetres++;
+        return nombre;
+    }
+
+    /**
+     * Nombre de salles publiées depuis la création du flux (une par salle modifiée et par fenêtre).
+     */
+    public long publiees() {
+        return publiees;
+    }
+
+    public long fenetres() {
+        return fenetres;
+    }
+
+    /**
+     * Démarre le thread qui publie les changements à la fin de chaque fenêtre.
+     */
+    public synchronized void demarrer() {
+        if (actif) {
+            return;
+        }
+        actif = true;
+        Thread publication = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boucler();
+            }
+        }, "flux-occupation");
+        thread = publication;
+        publication.start();
+    }
+
+    /**
+     * Arrête le thread de publication ; les changements pas encore publiés ne le sont pas.
+     */
+    public void arreter() throws InterruptedException {
+        Thread publication;
+        synchronized (this) {
+            if (!actif) {
+                return;
+            }
+            actif = false;
+            publication = thread;
+            thread = null;
+        }
+        publication.interrupt();
+        publication.join();
+    }
+
+    private void boucler() {
+        while (actif) {
+            if (nombreMarquees.get() == 0) {
+                LockSupport.park(this);
+                continue;
+            }
+            // La fenêtre commence au premier changement pas encore publié
+            try {
+                Thread.sleep(fenetreMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            publier();
+        }
+    }
+}
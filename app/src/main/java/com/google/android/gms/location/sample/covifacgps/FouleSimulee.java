@@ -0,0 +1,360 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Foule d'usagers virtuels qui se déplacent de salle en salle, pour alimenter les compteurs
+ * d'{@link OccupationSalles} et les contrôles de capacité comme le ferait un bâtiment réel.
+ * <p/>
+ * Chaque usager séjourne dans une salle (durée tirée entre le séjour minimal et maximal), la quitte,
+ * marche jusqu'à une salle de destination choisie selon le modèle de {@link Mobilite}, puis y entre si
+ * elle n'est pas pleine. Une salle pleine est refusée : l'usager repart vers une autre salle. Au départ,
+ * tous les usagers arrivent dans le bâtiment au cours des dix premières minutes.
+ * <p/>
+ * Les usagers sont rangés en colonnes (salle, destination, heure du prochain événement) et partagés en
+ * tranches contiguës. À chaque pas de temps, les tranches sont traitées en parallèle par un
+ * {@link ExecutorService}, chacune avec son propre générateur pseudo-aléatoire SplitMix64 (l'algorithme
+ * de {@code SplittableRandom}, écrit ici car {@code SplittableRandom} et {@code ForkJoinPool} n'existent
+ * pas sur toutes les versions d'Android visées) : aucune donnée n'est partagée entre tranches, hormis les
+ * compteurs d'occupation, conçus pour des écritures concurrentes. Le contrôle de capacité lit
+ * l'occupation puis entre sans verrou : deux usagers peuvent entrer en même temps dans la dernière place,
+ * ce que mesurent les dépassements.
+ * <p/>
+ * Un pas de temps n'alloue rien, sauf pour soumettre les tranches à l'{@link ExecutorService}.
+ */
+public final class FouleSimulee {
+
+    /**
+     * Choix de la salle de destination d'un usager.
+     */
+    public enum Mobilite {
+        /**
+         * Toutes les salles ont la même probabilité.
+         */
+        ALEATOIRE,
+
+        /**
+         * La salle de rang k est choisie avec une probabilité proportionnelle à 1 / (k + 1) (loi de Zipf) :
+         * quelques salles (amphithéâtres, cafétéria) attirent la plupart des usagers.
+         */
+        PREFERENTIELLE
+    }
+
+    /**
+     * Vitesse de marche d'une salle à l'autre, en mètres par seconde.
+     */
+    public static final double VITESSE_MARCHE = 1.4;
+
+    // Durée minimale d'un trajet (escaliers, portes), en secondes
+    private static final int TRAJET_MIN = 10;
+
+    // Durée pendant laquelle les usagers arrivent dans le bâtiment, en secondes
+    private static final int ARRIVEES = 600;
+
+    // Incrément du générateur SplitMix64
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final RegistreSalles registre;
+    private final OccupationSalles occupation;
+    private final int nombreUsagers;
+
+    private Mobilite mobilite = Mobilite.ALEATOIRE;
+    private int sejourMin = 300;
+    private int sejourMax = 2700;
+
+    // Probabilités cumulées de chaque salle pour la mobilité préférentielle
+    private final double[] cumuls;
+
+    // Par usager : salle où il se trouve (-1 en trajet), salle vers laquelle il marche, heure de son prochain événement (secondes)
+    private final int[] salles;
+    private final int[] destinations;
+    private final int[] prochains;
+
+    private final Tranche[] tranches;
+    private final List<Tranche> listeTranches;
+
+    // Heure simulée, en secondes depuis le début
+    private int temps = 0;
+
+    // Totaux cumulés de toutes les tranches
+    private long mouvements = 0;
+    private long refus = 0;
+    private long depassements = 0;
+
+    /**
+     * @param occupation     Compteurs des salles du registre, que la foule alimente (supposés nuls au départ).
+     * @param nombreTranches Nombre de tranches d'usagers traitées en parallèle (au moins le nombre de threads utilisés).
+     * @param graine         Graine des générateurs pseudo-aléatoires : une même graine donne la même foule.
+     */
+    public FouleSimulee(RegistreSalles registre, OccupationSalles occupation, int nombreUsagers, int nombreTranches, long graine) {
+        if (registre.taille() == 0 || nombreUsagers < 0 || nombreTranches < 1) {
+            throw new IllegalArgumentException("Foule invalide : " + registre.taille() + " salles, " + nombreUsagers
+                    + " usagers, " + nombreTranches + " tranches");
+        }
+        this.registre = registre;
+        this.occupation = occupation;
+        this.nombreUsagers = nombreUsagers;
+
+        int nombreSalles = registre.taille();
+        cumuls = new double[nombreSalles];
+        double somme = 0;
+        for (int salle = 0; salle < nombreSalles; salle++) {
+            somme += 1.0 / (salle + 1);
+            cumuls[salle] = somme;
+        }
+        for (int salle = 0; salle < nombreSalles; salle++) {
+            cumuls[salle] /= somme;
+        }
+
+        salles = new int[nombreUsagers];
+        destinations = new int[nombreUsagers];
+        prochains = new int[nombreUsagers];
+        tranches = new Tranche[nombreTranches];
+        listeTranches = new ArrayList<>(nombreTranches);
+        for (int i = 0; i < nombreTranches; i++) {
+            // Chaque tranche a son propre flux pseudo-aléatoire, comme après un SplittableRandom.split()
+            tranches[i] = new Tranche((int) ((long) nombreUsagers * i / nombreTranches),
+                    (int) ((long) nombreUsagers * (i + 1) / nombreTranches), melanger(graine + (i + 1) * GAMMA));
+            listeTranches.add(tranches[i]);
+        }
+        for (Tranche tranche : tranches) {
+            tranche.placer();
+        }
+    }
+
+    /**
+     * Choisit le modèle de mobilité des prochains déplacements.
+     */
+    public void fixerMobilite(Mobilite mobilite) {
+        this.mobilite = mobilite;
+    }
+
+    /**
+     * Choisit les durées de séjour minimale et maximale dans une salle, en secondes.
+     */
+    public void fixerSejours(int sejourMinSecondes, int sejourMaxSecondes) {
+        if (sejourMinSecondes < 1 || sejourMaxSecondes < sejourMinSecondes) {
+            throw new IllegalArgumentException("Séjours invalides : " + sejourMinSecondes + ", " + sejourMaxSecondes);
+        }
+        sejourMin = sejourMinSecondes;
+        sejourMax = sejourMaxSecondes;
+    }
+
+    /**
+     * Fait avancer la foule de {@code dureeSecondes}, par pas de {@code pasSecondes}, sur le thread appelant.
+     */
+    public void avancer(int dureeSecondes, int pasSecondes) {
+        verifierPas(pasSecondes);
+        int fin = temps + dureeSecondes;
+        while (temps < fin) {
+            temps = Math.min(temps + pasSecondes, fin);
+            for (Tranche tranche : tranches) {
+                tranche.call();
+            }
+            cumuler();
+        }
+    }
+
+    /**
+     * Fait avancer la foule de {@code dureeSecondes}, par pas de {@code pasSecondes}, en traitant les
+     * tranches en parallèle : chaque pas commence une fois toutes les tranches du pas précédent terminées.
+     */
+    public void avancer(int dureeSecondes, int pasSecondes, ExecutorService executeur) throws InterruptedException {
+        verifierPas(pasSecondes);
+        int fin = temps + dureeSecondes;
+        while (temps < fin) {
+            temps = Math.min(temps + pasSecondes, fin);
+            try {
+                for (Future<Void> resultat : executeur.invokeAll(listeTranches)) {
+                    resultat.get();
+                }
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            cumuler();
+        }
+    }
+
+    /**
+     * Heure simulée, en secondes depuis le début.
+     */
+    public int temps() {
+        return temps;
+    }
+
+    public int nombreUsagers() {
+        return nombreUsagers;
+    }
+
+    /**
+     * Nombre d'usagers en trajet entre deux salles (ou pas encore arrivés dans le bâtiment).
+     */
+    public int enTrajet() {
+        int nombre = 0;
+        for (int salle : salles) {
+            if (salle < 0) {
+                nombre++;
+            }
+        }
+        return nombre;
+    }
+
+    /**
+     * Nombre d'entrées et de sorties de salles effectuées.
+     */
+    public long mouvements() {
+        return mouvements;
+    }
+
+    /**
+     * Nombre d'entrées refusées parce que la salle était pleine.
+     */
+    public long refus() {
+        return refus;
+    }
+
+    /**
+     * Nombre d'entrées qui ont porté une salle au-delà de sa capacité (contrôle de capacité dépassé par
+     * des entrées simultanées).
+     */
+    public long depassements() {
+        return depassements;
+    }
+
+    private static void verifierPas(int pasSecondes) {
+        if (pasSecondes < 1) {
+            throw new IllegalArgumentException("Pas invalide : " + pasSecondes);
+        }
+    }
+
+    // Ajoute aux totaux les compteurs du pas de chaque tranche
+    private void cumuler() {
+        for (Tranche tranche : tranches) {
+            mouvements += tranche.mouvements;
+            refus += tranche.refus;
+            depassements += tranche.depassements;
+            tranche.mouvements = 0;
+            tranche.refus = 0;
+            tranche.depassements = 0;
+        }
+    }
+
+    private static long melanger(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Usagers [debut, fin), traités par un seul thread à chaque pas de temps.
+     */
+    private final class Tranche implements Callable<Void> {
+
+        private final int debut;
+        private final int fin;
+
+        // État du générateur SplitMix64 de la tranche
+        private long graine;
+
+        // Compteurs du pas de temps, ajoutés aux totaux une fois toutes les tranches terminées
+        long mouvements;
+        long refus;
+        long depassements;
+
+        Tranche(int debut, int fin, long graine) {
+            this.debut = debut;
+            this.fin = fin;
+            this.graine = graine;
+        }
+
+        void placer() {
+            for (int usager = debut; usager < fin; usager++) {
+                salles[usager] = -1;
+                destinations[usager] = destination();
+                prochains[usager] = entier(ARRIVEES);
+            }
+        }
+
+        @Override
+        public Void call() {
+            int maintenant = temps;
+            for (int usager = debut; usager < fin; usager++) {
+                if (prochains[usager] > maintenant) {
+                    continue;
+                }
+                int salle = salles[usager];
+                if (salle >= 0) {
+                    // Fin du séjour : l'usager sort et marche vers une autre salle
+                    occupation.sortir(salle);
+                    mouvements++;
+                    int destination = destination();
+                    salles[usager] = -1;
+                    destinations[usager] = destination;
+                    prochains[usager] = maintenant + trajet(salle, destination);
+                    continue;
+                }
+
+                int destination = destinations[usager];
+                if (occupation.occupation(destination) >= registre.capacite(destination)) {
+                    // Salle pleine : l'usager repart vers une autre salle
+                    refus++;
+                    int autre = destination();
+                    destinations[usager] = autre;
+                    prochains[usager] = maintenant + trajet(destination, autre);
+                    continue;
+                }
+                occupation.entrer(destination);
+                mouvements++;
+                if (occupation.occupation(destination) > registre.capacite(destination)) {
+                    depassements++;
+                }
+                salles[usager] = destination;
+                prochains[usager] = maintenant + sejourMin + entier(sejourMax - sejourMin + 1);
+            }
+            return null;
+        }
+
+        private int destination() {
+            if (mobilite == Mobilite.ALEATOIRE) {
+                return entier(registre.taille());
+            }
+            // Recherche dichotomique dans les probabilités cumulées
+            double tirage = (suivant() >>> 11) * 0x1.0p-53;
+            int bas = 0;
+            int haut = cumuls.length - 1;
+            while (bas < haut) {
+                int milieu = (bas + haut) >>> 1;
+                if (cumuls[milieu] < tirage) {
+                    bas = milieu + 1;
+                } else {
+                    haut = milieu;
+                }
+            }
+            return bas;
+        }
+
+        // Durée du trajet à pied entre les centres de deux salles, en secondes
+        private int trajet(int depart, int arrivee) {
+            float metres = (float) Math.sqrt(Distance.carreEquirectangulaireE7(
+                    registre.latitudeE7(depart), registre.longitudeE7(depart),
+                    registre.latitudeE7(arrivee), registre.longitudeE7(arrivee),
+                    registre.metresParE7Latitude()[arrivee], registre.metresParE7Longitude()[arrivee]));
+            return TRAJET_MIN + (int) (metres / VITESSE_MARCHE);
+        }
+
+        // Entier uniforme dans [0, borne)
+        private int entier(int borne) {
+            return (int) (((suivant() >>> 32) * borne) >>> 32);
+        }
+
+        private long suivant() {
+            graine += GAMMA;
+            return melanger(graine);
+        }
+    }
+}
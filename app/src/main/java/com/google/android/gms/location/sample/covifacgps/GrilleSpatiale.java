@@ -0,0 +1,214 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Index spatial en grille uniforme : chaque cellule (de taille fixe en mètres) référence les salles
+ * dont l'emprise la recouvre. Pour une localisation donnée, seules les salles de la cellule
+ * correspondante sont à tester, au lieu de l'ensemble des salles du site.
+ * <p/>
+ * Les cellules sont stockées dans une table de hachage à adressage ouvert sur des clés {@code long},
+ * ce qui évite toute allocation lors d'une recherche. Les coordonnées sont en unités E7
+ * ({@link CoordonneesE7}) : la cellule d'une localisation se trouve par deux divisions entières.
+ */
+public final class GrilleSpatiale {
+
+    // Nombre de mètres pour un degré de latitude (approximation suffisante pour découper la grille)
+    private static final double METRES_PAR_DEGRE_LATITUDE = 111320.0;
+
+    // Capacité initiale de la table des cellules (puissance de 2)
+    private static final int CAPACITE_INITIALE = 64;
+
+    private final double tailleCelluleMetres;
+
+    // Dimensions d'une cellule en unités E7, fixées à partir de la latitude de la première salle insérée
+    private int hauteurCelluleE7;
+    private int largeurCelluleE7;
+    private boolean referenceFixee = false;
+
+    // Table de hachage : clé de cellule -> identifiants des salles de la cellule
+    private long[] cles;
+    private int[][] identifiants;
+    private int[] nombres;
+    private int nombreCellules;
+
+    public GrilleSpatiale(double tailleCelluleMetres) {
+        if (tailleCelluleMetres <= 0) {
+            throw new IllegalArgumentException("La taille d'une cellule doit être positive : " + tailleCelluleMetres);
+        }
+        this.tailleCelluleMetres = tailleCelluleMetres;
+        allouer(CAPACITE_INITIALE);
+    }
+
+    /**
+     * Supprime toutes les cellules. La latitude de référence sera recalculée à la prochaine insertion.
+     */
+    public void vider() {
+        allouer(CAPACITE_INITIALE);
+        referenceFixee = false;
+    }
+
+    /**
+     * Référence la salle {@code id} dans toutes les cellules recouvertes par le cercle de centre
+     * (latitudeE7, longitudeE7) et de rayon {@code rayonMetres}.
+     */
+    public void inserer(int id, int latitudeE7, int longitudeE7, double rayonMetres) {
+        insererRectangle(id, latitudeE7, longitudeE7, -rayonMetres, rayonMetres, -rayonMetres, rayonMetres);
+    }
+
+    /**
+     * Référence la salle {@code id} dans toutes les cellules recouvertes par le rectangle
+     * [estMin, estMax] × [nordMin, nordMax], en mètres autour de (latitudeE7, longitudeE7) : la boîte
+     * englobante d'une salle polygonale, plus étroite que son cercle circonscrit pour un couloir.
+     */
+    public void insererRectangle(int id, int latitudeE7, int longitudeE7,
+                                 double estMin, double estMax, double nordMin, double nordMax) {
+        double latitude = CoordonneesE7.degres(latitudeE7);
+        if (!referenceFixee) {
+            hauteurCelluleE7 = enE7(tailleCelluleMetres / METRES_PAR_DEGRE_LATITUDE);
+            largeurCelluleE7 = enE7(tailleCelluleMetres / metresParDegreLongitude(latitude));
+            referenceFixee = true;
+        }
+
+        double metresParDegreLongitude = metresParDegreLongitude(latitude);
+        int yMin = ligne(latitudeE7 - enE7(-nordMin / METRES_PAR_DEGRE_LATITUDE));
+        int yMax = ligne(latitudeE7 + enE7(nordMax / METRES_PAR_DEGRE_LATITUDE));
+        int xMin = colonne(longitudeE7 - enE7(-estMin / metresParDegreLongitude));
+        int xMax = colonne(longitudeE7 + enE7(estMax / metresParDegreLongitude));
+
+        for (int y = yMin; y <= yMax; y++) {
+            for (int x = xMin; x <= xMax; x++) {
+                ajouter(cle(x, y), id);
+            }
+        }
+    }
+
+    /**
+     * Retourne l'emplacement de la cellule contenant (latitudeE7, longitudeE7), ou -1 si aucune salle
+     * ne la recouvre. L'emplacement permet ensuite de lire les salles candidates sans allocation.
+     */
+    public int celluleE7(int latitudeE7, int longitudeE7) {
+        if (!referenceFixee) {
+            return -1;
+        }
+        return chercher(cle(colonne(longitudeE7), ligne(latitudeE7)));
+    }
+
+    /**
+     * Retourne l'emplacement de la cellule d'indices ({@code colonne}, {@code ligne}), ou -1 si aucune
+     * salle ne la recouvre. Permet de parcourir les cellules voisines d'une localisation.
+     */
+    public int cellule(int colonne, int ligne) {
+        if (!referenceFixee) {
+            return -1;
+        }
+        return chercher(cle(colonne, ligne));
+    }
+
+    /**
+     * Indice de la ligne de cellules contenant {@code latitudeE7} (significatif une fois une salle insérée).
+     */
+    public int ligne(int latitudeE7) {
+        return CoordonneesE7.diviserParDefaut(latitudeE7, hauteurCelluleE7);
+    }
+
+    /**
+     * Indice de la colonne de cellules contenant {@code longitudeE7} (significatif une fois une salle insérée).
+     */
+    public int colonne(int longitudeE7) {
+        return CoordonneesE7.diviserParDefaut(longitudeE7, largeurCelluleE7);
+    }
+
+    /**
+     * Identifiants des salles de la cellule {@code emplacement}. Seuls les {@link #nombre(int)}
+     * premiers éléments sont significatifs ; le tableau ne doit pas être modifié.
+     */
+    public int[] identifiants(int emplacement) {
+        return identifiants[emplacement];
+    }
+
+    /**
+     * Nombre de salles référencées dans la cellule {@code emplacement}.
+     */
+    public int nombre(int emplacement) {
+        return nombres[emplacement];
+    }
+
+    // Dimension en degrés arrondie à l'unité E7 supérieure (au moins 1)
+    private static int enE7(double degres) {
+        return Math.max(1, (int) Math.ceil(degres * CoordonneesE7.UNITES_PAR_DEGRE));
+    }
+
+    private static double metresParDegreLongitude(double latitude) {
+        // On borne le cosinus pour ne pas diviser par zéro aux pôles
+        return METRES_PAR_DEGRE_LATITUDE * Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+    }
+
+    private static long cle(int x, int y) {
+        return ((long) y << 32) | (x & 0xFFFFFFFFL);
+    }
+
+    private static int hacher(long cle) {
+        long h = cle * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int chercher(long cle) {
+        int masque = cles.length - 1;
+        int i = hacher(cle) & masque;
+        while (identifiants[i] != null) {
+            if (cles[i] == cle) {
+                return i;
+            }
+            i = (i + 1) & masque;
+        }
+        return -1;
+    }
+
+    private void ajouter(long cle, int id) {
+        if ((nombreCellules + 1) * 2 > cles.length) {
+            agrandir();
+        }
+        int masque = cles.length - 1;
+        int i = hacher(cle) & masque;
+        while (identifiants[i] != null && cles[i] != cle) {
+            i = (i + 1) & masque;
+        }
+        if (identifiants[i] == null) {
+            cles[i] = cle;
+            identifiants[i] = new int[2];
+            nombreCellules++;
+        } else if (nombres[i] == identifiants[i].length) {
+            int[] agrandi = new int[identifiants[i].length * 2];
+            System.arraycopy(identifiants[i], 0, agrandi, 0, nombres[i]);
+            identifiants[i] = agrandi;
+        }
+        identifiants[i][nombres[i]++] = id;
+    }
+
+    private void agrandir() {
+        long[] anciennesCles = cles;
+        int[][] anciensIdentifiants = identifiants;
+        int[] anciensNombres = nombres;
+        allouer(cles.length * 2);
+
+        int masque = cles.length - 1;
+        for (int j = 0; j < anciennesCles.length; j++) {
+            if (anciensIdentifiants[j] != null) {
+                int i = hacher(anciennesCles[j]) & masque;
+                while (identifiants[i] != null) {
+                    i = (i + 1) & masque;
+                }
+                cles[i] = anciennesCles[j];
+                identifiants[i] = anciensIdentifiants[j];
+                nombres[i] = anciensNombres[j];
+                nombreCellules++;
+            }
+        }
+    }
+
+    private void allouer(int capacite) {
+        cles = new long[capacite];
+        identifiants = new int[capacite][];
+        nombres = new int[capacite];
+        nombreCellules = 0;
+    }
+}
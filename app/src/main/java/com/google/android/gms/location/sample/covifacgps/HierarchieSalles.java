@@ -0,0 +1,392 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Arrays;
+
+/**
+ * Index hiérarchique des salles : site → bâtiments → étages → zones, chaque salle étant rattachée à
+ * un nœud de l'arbre. Chaque nœud porte l'emprise (en unités E7) de ses salles et de ses descendants,
+ * recalculée par {@link #indexer} : une localisation ne descend que dans les branches dont l'emprise
+ * la contient, et un étage autre que l'étage courant ({@link #fixerEtage}) est écarté d'emblée, même
+ * si ses salles recouvrent horizontalement celles de l'étage où je me trouve.
+ * <p/>
+ * Le dernier nœud retenu à chaque profondeur est mémorisé, avec la liste de ses frères dont l'emprise
+ * chevauche la sienne. Tant que je reste dans le même bâtiment (ou le même étage, la même zone), seuls
+ * ce nœud et ces quelques frères sont testés : un autre frère qui me contiendrait chevaucherait
+ * forcément le nœud mémorisé. Les autres bâtiments du site ne sont pas parcourus.
+ * <p/>
+ * Comme la {@link GrilleSpatiale}, l'index ne fournit que des salles candidates (celles dont l'emprise
+ * contient la localisation) : le {@link MoteurGeofence} auquel il est confié
+ * ({@link MoteurGeofence#fixerHierarchie}) les teste ensuite une à une. Les nœuds sont stockés « en
+ * colonnes », et une recherche n'alloue rien.
+ */
+public final class HierarchieSalles {
+
+    /**
+     * Numéro du nœud racine (le site), créé avec la hiérarchie.
+     */
+    public static final int SITE = 0;
+
+    /**
+     * Étage d'un nœud qui n'est pas un étage (site, bâtiment), ou étage courant inconnu.
+     */
+    public static final int AUCUN_ETAGE = Integer.MIN_VALUE;
+
+    private static final int CAPACITE_INITIALE = 8;
+
+    // Structure de l'arbre : parent, profondeur (0 pour le site), premier enfant, dernier enfant et frère suivant (-1 si aucun)
+    private int[] parents;
+    private int[] profondeurs;
+    private int[] premiersEnfants;
+    private int[] derniersEnfants;
+    private int[] freresSuivants;
+    private String[] noms;
+    private int[] etages;
+    private int nombreNoeuds = 0;
+
+    // Emprise de chaque nœud en unités E7, vide (minimum > maximum) s'il ne contient aucune salle
+    private int[] latitudesMinE7;
+    private int[] latitudesMaxE7;
+    private int[] longitudesMinE7;
+    private int[] longitudesMaxE7;
+
+    // Frères dont l'emprise chevauche celle du nœud n, aux indices [premiersChevauchants[n], premiersChevauchants[n + 1])
+    private int[] premiersChevauchants = new int[1];
+    private int[] chevauchants = new int[0];
+
+    // Nœud de rattachement de chaque salle (-1 : rattachée au site)
+    private int[] noeudsSalles = new int[CAPACITE_INITIALE];
+
+    // Salles rangées par nœud, reconstruites par 'indexer' : celles du nœud n sont aux indices [premieresSalles[n], premieresSalles[n + 1])
+    private int[] premieresSalles = new int[1];
+    private int[] sallesRangees = new int[0];
+
+    // Emprise de chaque salle en unités E7, dans l'ordre de 'sallesRangees'
+    private int[] latitudesMinSallesE7 = new int[0];
+    private int[] latitudesMaxSallesE7 = new int[0];
+    private int[] longitudesMinSallesE7 = new int[0];
+    private int[] longitudesMaxSallesE7 = new int[0];
+
+    // Dernier nœud retenu à chaque profondeur
+    private int[] derniers = new int[CAPACITE_INITIALE];
+
+    // Étage courant, AUCUN_ETAGE si inconnu (tous les étages sont alors parcourus)
+    private int etageCourant = AUCUN_ETAGE;
+
+    // Salles candidates de la dernière recherche
+    private int[] candidates = new int[0];
+
+    public HierarchieSalles(String nomSite) {
+        int capacite = CAPACITE_INITIALE;
+        parents = new int[capacite];
+        profondeurs = new int[capacite];
+        premiersEnfants = new int[capacite];
+        derniersEnfants = new int[capacite];
+        freresSuivants = new int[capacite];
+        noms = new String[capacite];
+        etages = new int[capacite];
+        latitudesMinE7 = new int[capacite];
+        latitudesMaxE7 = new int[capacite];
+        longitudesMinE7 = new int[capacite];
+        longitudesMaxE7 = new int[capacite];
+        Arrays.fill(noeudsSalles, -1);
+        Arrays.fill(derniers, -1);
+        creerNoeud(-1, nomSite, AUCUN_ETAGE);
+    }
+
+    /**
+     * Ajoute un bâtiment au site et retourne son numéro de nœud.
+     */
+    public int ajouterBatiment(String nom) {
+        return creerNoeud(SITE, nom, AUCUN_ETAGE);
+    }
+
+    /**
+     * Ajoute l'étage numéro {@code etage} au bâtiment {@code batiment} et retourne son numéro de nœud.
+     */
+    public int ajouterEtage(int batiment, String nom, int etage) {
+        if (etage == AUCUN_ETAGE) {
+            throw new IllegalArgumentException("Numéro d'étage réservé : " + etage);
+        }
+        return creerNoeud(batiment, nom, etage);
+    }
+
+    /**
+     * Ajoute une zone (aile, plateau, groupe de salles) sous le nœud {@code parent} et retourne son
+     * numéro de nœud.
+     */
+    public int ajouterZone(int parent, String nom) {
+        return creerNoeud(parent, nom, AUCUN_ETAGE);
+    }
+
+    /**
+     * Rattache la salle {@code salle} du registre au nœud {@code noeud}. Une salle jamais rattachée
+     * l'est au site. L'index doit ensuite être reconstruit ({@link MoteurGeofence#reindexer()}).
+     */
+    public void rattacher(int salle, int noeud) {
+        if (noeud < 0 || noeud >= nombreNoeuds) {
+            throw new IllegalArgumentException("Nœud inconnu : " + noeud);
+        }
+        if (salle >= noeudsSalles.length) {
+            int ancienneTaille = noeudsSalles.length;
+            noeudsSalles = Arrays.copyOf(noeudsSalles, Math.max(ancienneTaille * 2, salle + 1));
+            Arrays.fill(noeudsSalles, ancienneTaille, noeudsSalles.length, -1);
+        }
+        noeudsSalles[salle] = noeud;
+    }
+
+    /**
+     * Fixe l'étage où je me trouve (baromètre, Wi-Fi, choix de l'usager) : les étages portant un autre
+     * numéro sont écartés des recherches. {@link #AUCUN_ETAGE} les parcourt tous.
+     */
+    public void fixerEtage(int etage) {
+        etageCourant = etage;
+    }
+
+    public int etageCourant() {
+        return etageCourant;
+    }
+
+    public int nombreNoeuds() {
+        return nombreNoeuds;
+    }
+
+    public int parent(int noeud) {
+        return parents[noeud];
+    }
+
+    public String nom(int noeud) {
+        return noms[noeud];
+    }
+
+    /**
+     * Numéro d'étage du nœud, ou {@link #AUCUN_ETAGE} s'il ne s'agit pas d'un étage.
+     */
+    public int etage(int noeud) {
+        return etages[noeud];
+    }
+
+    /**
+     * Nœud auquel la salle est rattachée.
+     */
+    public int noeud(int salle) {
+        return salle < noeudsSalles.length && noeudsSalles[salle] >= 0 ? noeudsSalles[salle] : SITE;
+    }
+
+    /**
+     * Recalcule l'emprise de chaque nœud à partir des salles du registre (cercle, ou boîte englobante
+     * d'un polygone), puis range les salles par nœud. Appelé par {@link MoteurGeofence#reindexer()}.
+     */
+    public void indexer(RegistreSalles registre) {
+        int taille = registre.taille();
+        Arrays.fill(latitudesMinE7, 0, nombreNoeuds, Integer.MAX_VALUE);
+        Arrays.fill(latitudesMaxE7, 0, nombreNoeuds, Integer.MIN_VALUE);
+        Arrays.fill(longitudesMinE7, 0, nombreNoeuds, Integer.MAX_VALUE);
+        Arrays.fill(longitudesMaxE7, 0, nombreNoeuds, Integer.MIN_VALUE);
+
+        // Rangement des salles par nœud (tri par dénombrement)
+        premieresSalles = new int[nombreNoeuds + 1];
+        for (int salle = 0; salle < taille; salle++) {
+            premieresSalles[noeud(salle) + 1]++;
+        }
+        for (int noeud = 0; noeud < nombreNoeuds; noeud++) {
+            premieresSalles[noeud + 1] += premieresSalles[noeud];
+        }
+        if (sallesRangees.length < taille) {
+            sallesRangees = new int[taille];
+            latitudesMinSallesE7 = new int[taille];
+            latitudesMaxSallesE7 = new int[taille];
+            longitudesMinSallesE7 = new int[taille];
+            longitudesMaxSallesE7 = new int[taille];
+            candidates = new int[taille];
+        }
+        int[] suivantes = Arrays.copyOf(premieresSalles, nombreNoeuds);
+
+        // Emprise de chaque salle (cercle, ou boîte englobante d'un polygone), qui étend celle de son nœud
+        ContoursSalles contours = registre.contours();
+        for (int salle = 0; salle < taille; salle++) {
+            int noeud = noeud(salle);
+            int rang = suivantes[noeud]++;
+            double estMin;
+            double estMax;
+            double nordMin;
+            double nordMax;
+            int contour = registre.contour(salle);
+            if (contour >= 0) {
+                estMin = contours.estMin(contour);
+                estMax = contours.estMax(contour);
+                nordMin = contours.nordMin(contour);
+                nordMax = contours.nordMax(contour);
+            } else {
+                estMax = nordMax = registre.rayon(salle);
+                estMin = nordMin = -estMax;
+            }
+            double metresParE7Latitude = registre.metresParE7Latitude()[salle];
+            double metresParE7Longitude = registre.metresParE7Longitude()[salle];
+            int latitudeE7 = registre.latitudeE7(salle);
+            int longitudeE7 = registre.longitudeE7(salle);
+            sallesRangees[rang] = salle;
+            latitudesMinSallesE7[rang] = latitudeE7 + (int) Math.floor(nordMin / metresParE7Latitude);
+            latitudesMaxSallesE7[rang] = latitudeE7 + (int) Math.ceil(nordMax / metresParE7Latitude);
+            longitudesMinSallesE7[rang] = longitudeE7 + (int) Math.floor(estMin / metresParE7Longitude);
+            longitudesMaxSallesE7[rang] = longitudeE7 + (int) Math.ceil(estMax / metresParE7Longitude);
+            etendre(noeud, latitudesMinSallesE7[rang], latitudesMaxSallesE7[rang],
+                    longitudesMinSallesE7[rang], longitudesMaxSallesE7[rang]);
+        }
+
+        // Emprises remontées des enfants vers les parents (un enfant est toujours créé après son parent)
+        for (int noeud = nombreNoeuds - 1; noeud > SITE; noeud--) {
+            etendre(parents[noeud], latitudesMinE7[noeud], latitudesMaxE7[noeud],
+                    longitudesMinE7[noeud], longitudesMaxE7[noeud]);
+        }
+
+        // Frères chevauchants de chaque nœud : dénombrement, puis rangement
+        premiersChevauchants = new int[nombreNoeuds + 1];
+        for (int passe = 0; passe < 2; passe++) {
+            int[] suivants = passe == 0 ? null : Arrays.copyOf(premiersChevauchants, nombreNoeuds);
+            for (int a = 1; a < nombreNoeuds; a++) {
+                for (int b = premiersEnfants[parents[a]]; b >= 0; b = freresSuivants[b]) {
+                    if (b != a && chevauchent(a, b)) {
+                        if (passe == 0) {
+                            premiersChevauchants[a + 1]++;
+                        } else {
+                            chevauchants[suivants[a]++] = b;
+                        }
+                    }
+                }
+            }
+            if (passe == 0) {
+                for (int noeud = 0; noeud < nombreNoeuds; noeud++) {
+                    premiersChevauchants[noeud + 1] += premiersChevauchants[noeud];
+                }
+                chevauchants = new int[premiersChevauchants[nombreNoeuds]];
+            }
+        }
+    }
+
+    /**
+     * Recherche les salles candidates pour (latitudeE7, longitudeE7) : celles des nœuds dont l'emprise
+     * contient la localisation, sur l'étage courant. Elles sont lues ensuite dans {@link #candidates()}.
+     *
+     * @return Le nombre de salles candidates.
+     */
+    public int rechercherE7(int latitudeE7, int longitudeE7) {
+        if (!contient(SITE, latitudeE7, longitudeE7)) {
+            return 0;
+        }
+        return parcourir(SITE, latitudeE7, longitudeE7, 0);
+    }
+
+    /**
+     * Salles candidates de la dernière recherche ; seuls les {@link #rechercherE7} premiers éléments
+     * sont significatifs, et le tableau ne doit pas être modifié.
+     */
+    public int[] candidates() {
+        return candidates;
+    }
+
+    // Ajoute les salles du nœud dont l'emprise contient la localisation, puis descend dans ses enfants
+    private int parcourir(int noeud, int latitudeE7, int longitudeE7, int nombre) {
+        for (int i = premieresSalles[noeud]; i < premieresSalles[noeud + 1]; i++) {
+            if (latitudeE7 >= latitudesMinSallesE7[i] && latitudeE7 <= latitudesMaxSallesE7[i]
+                    && longitudeE7 >= longitudesMinSallesE7[i] && longitudeE7 <= longitudesMaxSallesE7[i]) {
+                candidates[nombre++] = sallesRangees[i];
+            }
+        }
+        if (premiersEnfants[noeud] < 0) {
+            return nombre;
+        }
+
+        // Cas courant : je suis resté dans l'enfant mémorisé ; tout autre enfant qui me contient chevauche celui-ci
+        int profondeurEnfant = profondeurs[noeud] + 1;
+        int memorise = derniers[profondeurEnfant];
+        if (memorise >= 0 && parents[memorise] == noeud && admis(memorise) && contient(memorise, latitudeE7, longitudeE7)) {
+            nombre = parcourir(memorise, latitudeE7, longitudeE7, nombre);
+            for (int i = premiersChevauchants[memorise]; i < premiersChevauchants[memorise + 1]; i++) {
+                int voisin = chevauchants[i];
+                if (admis(voisin) && contient(voisin, latitudeE7, longitudeE7)) {
+                    nombre = parcourir(voisin, latitudeE7, longitudeE7, nombre);
+                }
+            }
+            return nombre;
+        }
+
+        for (int enfant = premiersEnfants[noeud]; enfant >= 0; enfant = freresSuivants[enfant]) {
+            if (admis(enfant) && contient(enfant, latitudeE7, longitudeE7)) {
+                derniers[profondeurEnfant] = enfant;
+                nombre = parcourir(enfant, latitudeE7, longitudeE7, nombre);
+            }
+        }
+        return nombre;
+    }
+
+    private boolean admis(int noeud) {
+        return etageCourant == AUCUN_ETAGE || etages[noeud] == AUCUN_ETAGE || etages[noeud] == etageCourant;
+    }
+
+    private boolean contient(int noeud, int latitudeE7, int longitudeE7) {
+        return latitudeE7 >= latitudesMinE7[noeud] && latitudeE7 <= latitudesMaxE7[noeud]
+                && longitudeE7 >= longitudesMinE7[noeud] && longitudeE7 <= longitudesMaxE7[noeud];
+    }
+
+    private boolean chevauchent(int a, int b) {
+        return latitudesMinE7[a] <= latitudesMaxE7[b] && latitudesMinE7[b] <= latitudesMaxE7[a]
+                && longitudesMinE7[a] <= longitudesMaxE7[b] && longitudesMinE7[b] <= longitudesMaxE7[a];
+    }
+
+    private void etendre(int noeud, int latitudeMinE7, int latitudeMaxE7, int longitudeMinE7, int longitudeMaxE7) {
+        latitudesMinE7[noeud] = Math.min(latitudesMinE7[noeud], latitudeMinE7);
+        latitudesMaxE7[noeud] = Math.max(latitudesMaxE7[noeud], latitudeMaxE7);
+        longitudesMinE7[noeud] = Math.min(longitudesMinE7[noeud], longitudeMinE7);
+        longitudesMaxE7[noeud] = Math.max(longitudesMaxE7[noeud], longitudeMaxE7);
+    }
+
+    private int creerNoeud(int parent, String nom, int etage) {
+        if (parent >= nombreNoeuds) {
+            throw new IllegalArgumentException("Nœud parent inconnu : " + parent);
+        }
+        if (nombreNoeuds == parents.length) {
+            agrandir(nombreNoeuds * 2);
+        }
+        int noeud = nombreNoeuds++;
+        parents[noeud] = parent;
+        profondeurs[noeud] = parent < 0 ? 0 : profondeurs[parent] + 1;
+        premiersEnfants[noeud] = -1;
+        derniersEnfants[noeud] = -1;
+        freresSuivants[noeud] = -1;
+        noms[noeud] = nom;
+        etages[noeud] = etage;
+        latitudesMinE7[noeud] = Integer.MAX_VALUE;
+        latitudesMaxE7[noeud] = Integer.MIN_VALUE;
+        longitudesMinE7[noeud] = Integer.MAX_VALUE;
+        longitudesMaxE7[noeud] = Integer.MIN_VALUE;
+        if (parent >= 0) {
+            // Enfants chaînés dans leur ordre de création
+            if (premiersEnfants[parent] < 0) {
+                premiersEnfants[parent] = noeud;
+            } else {
+                freresSuivants[derniersEnfants[parent]] = noeud;
+            }
+            derniersEnfants[parent] = noeud;
+        }
+        if (profondeurs[noeud] >= derniers.length) {
+            int ancienneTaille = derniers.length;
+            derniers = Arrays.copyOf(derniers, ancienneTaille * 2);
+            Arrays.fill(derniers, ancienneTaille, derniers.length, -1);
+        }
+        return noeud;
+    }
+
+    private void agrandir(int capacite) {
+        parents = Arrays.copyOf(parents, capacite);
+        profondeurs = Arrays.copyOf(profondeurs, capacite);
+        premiersEnfants = Arrays.copyOf(premiersEnfants, capacite);
+        derniersEnfants = Arrays.copyOf(derniersEnfants, capacite);
+        freresSuivants = Arrays.copyOf(freresSuivants, capacite);
+        noms = Arrays.copyOf(noms, capacite);
+        etages = Arrays.copyOf(etages, capacite);
+        latitudesMinE7 = Arrays.copyOf(latitudesMinE7, capacite);
+        latitudesMaxE7 = Arrays.copyOf(latitudesMaxE7, capacite);
+        longitudesMinE7 = Arrays.copyOf(longitudesMinE7, capacite);
+        longitudesMaxE7 = Arrays.copyOf(longitudesMaxE7, capacite);
+    }
+}
@@ -0,0 +1,146 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de durées (nanosecondes) à classes logarithmiques, de taille fixe : chaque puissance de 2 est
+ * découpée en {@link #SOUS_CLASSES} classes égales, si bien qu'une durée est retrouvée à moins de 1/16
+ * (6,25 %) près, de 1 ns à plus de 30 minutes ({@link #DUREE_MAX_NANOS}, au-delà les durées sont comptées
+ * dans la dernière classe).
+ * <p/>
+ * Enregistrer une durée n'alloue rien et ne prend aucun verrou : la classe est calculée avec
+ * {@link Long#numberOfLeadingZeros}, puis son compteur est incrémenté. Un seul thread enregistre dans un
+ * histogramme (celui de son étape) : les compteurs sont incrémentés par des écritures ordonnées
+ * ({@code lazySet}), sans instruction atomique, et d'autres threads peuvent lire les percentiles pendant
+ * ce temps. Une lecture pendant un enregistrement peut voir la durée dans sa classe mais pas encore dans
+ * le nombre total ou le maximum, sans conséquence pour un percentile.
+ */
+public final class HistogrammeLatences {
+
+    /**
+     * Classes par puissance de 2 (4 bits de mantisse).
+     */
+    public static final int SOUS_CLASSES = 16;
+
+    private static final int BITS_SOUS_CLASSES = 4;
+
+    // Exposant de la dernière puissance de 2 découpée en classes
+    private static final int EXPOSANT_MAX = 40;
+
+    /**
+     * Nombre de classes de l'histogramme : les durées de 0 à 15 ns ont chacune la leur.
+     */
+    public static final int NOMBRE_CLASSES = (EXPOSANT_MAX - BITS_SOUS_CLASSES + 2) * SOUS_CLASSES;
+
+    /**
+     * Plus grande durée distinguée (environ 36 minutes).
+     */
+    public static final long DUREE_MAX_NANOS = (1L << (EXPOSANT_MAX + 1)) - 1;
+
+    private final AtomicLongArray classes = new AtomicLongArray(NOMBRE_CLASSES);
+    private final AtomicLong nombre = new AtomicLong();
+    private final AtomicLong somme = new AtomicLong();
+    private final AtomicLong maximum = new AtomicLong();
+
+    /**
+     * Classe d'une durée : la durée elle-même en dessous de {@link #SOUS_CLASSES}, sinon l'exposant de sa
+     * puissance de 2 et ses 4 bits suivant le bit de poids fort.
+     */
+    static int classe(long nanos) {
+        if (nanos < SOUS_CLASSES) {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+        if (nanos > DUREE_MAX_NANOS) {
+            return NOMBRE_CLASSES - 1;
+        }
+        int exposant = 63 - Long.numberOfLeadingZeros(nanos);
+        int sousClasse = (int) (nanos >>> (exposant - BITS_SOUS_CLASSES)) & (SOUS_CLASSES - 1);
+        return (exposant - BITS_SOUS_CLASSES + 1) * SOUS_CLASSES + sousClasse;
+    }
+
+    /**
+     * Plus grande durée comptée dans la classe {@code classe}.
+     */
+    static long borneSuperieure(int classe) {
+        if (classe < SOUS_CLASSES) {
+            return classe;
+        }
+        int exposant = classe / SOUS_CLASSES + BITS_SOUS_CLASSES - 1;
+        long sousClasse = classe & (SOUS_CLASSES - 1);
+        long largeur = 1L << (exposant - BITS_SOUS_CLASSES);
+        return (1L << exposant) + (sousClasse + 1) * largeur - 1;
+    }
+
+    /**
+     * Compte une durée ; une durée négative est comptée comme nulle. Toujours sur le même thread.
+     */
+    public void enregistrer(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int classe = classe(nanos);
+        classes.lazySet(classe, classes.get(classe) + 1);
+        somme.lazySet(somme.get() + nanos);
+        nombre.lazySet(nombre.get() + 1);
+        if (nanos > maximum.get()) {
+            maximum.lazySet(nanos);
+        }
+    }
+
+    public long nombre() {
+        return nombre.get();
+    }
+
+    /**
+     * Durée moyenne exacte, en nanosecondes (0 sans durée).
+     */
+    public long moyenne() {
+        long n = nombre.get();
+        return n == 0 ? 0 : somme.get() / n;
+    }
+
+    /**
+     * Plus grande durée enregistrée, exacte.
+     */
+    public long maximum() {
+        return maximum.get();
+    }
+
+    /**
+     * Durée sous laquelle se trouve la fraction {@code quantile} des durées enregistrées (0.5 pour la médiane,
+     * 0.999 pour p999) : borne supérieure de sa classe, jamais plus que le maximum. 0 sans durée.
+     */
+    public long percentile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < NOMBRE_CLASSES; i++) {
+            total += classes.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        // Rang de la durée cherchée, de 1 à total
+        long rang = Math.max(1, (long) Math.ceil(quantile * total));
+        long cumul = 0;
+        for (int i = 0; i < NOMBRE_CLASSES; i++) {
+            cumul += classes.get(i);
+            if (cumul >= rang) {
+                return Math.min(borneSuperieure(i), maximum.get());
+            }
+        }
+        return maximum.get();
+    }
+
+    /**
+     * Oublie toutes les durées enregistrées ; une durée enregistrée pendant la remise à zéro peut être
+     * en partie conservée.
+     */
+    public void remettreAZero() {
+        for (int i = 0; i < NOMBRE_CLASSES; i++) {
+            classes.set(i, 0);
+        }
+        nombre.set(0);
+        somme.set(0);
+        maximum.set(0);
+    }
+}
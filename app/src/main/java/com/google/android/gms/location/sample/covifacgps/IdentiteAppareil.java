@@ -0,0 +1,153 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.SecureRandom;
+
+/**
+ * Identifiant d'un appareil pour le serveur d'agrégation et numéros de ses lots ({@link ClientOccupation}).
+ * <p/>
+ * Gardés dans un fichier, ils survivent à la mort du processus : le serveur retrouve l'appareil au lieu d'en
+ * inscrire un nouveau à chaque démarrage, et un numéro déjà envoyé n'est jamais réutilisé (le serveur prendrait le
+ * lot pour un doublon et l'ignorerait). Les numéros sont réservés par blocs : le fichier n'est réécrit qu'au début
+ * de chaque bloc, et un redémarrage reprend après le dernier bloc réservé, quitte à en sauter la fin. Le fichier est
+ * écrit sur le disque puis remplacé par renommage ; un fichier illisible est remplacé par un nouvel identifiant, que
+ * le serveur voit comme un nouvel appareil (l'ancien expire).
+ * <p/>
+ * Format (petit-boutiste) : signature {@link #SIGNATURE}, version, inutilisé (short), identifiant (long), dernier
+ * numéro réservé (long).
+ * <p/>
+ * Une identité n'est utilisée que par un seul thread (celui qui envoie les lots).
+ */
+public final class IdentiteAppareil {
+
+    /**
+     * Signature au début du fichier ("CVAP").
+     */
+    public static final int SIGNATURE = 0x43564150;
+
+    public static final short VERSION = 1;
+
+    static final int TAILLE = 24;
+
+    private final File fichier;
+    private final int bloc;
+
+    // Identifiant (0 tant que le fichier n'est pas lu), prochain numéro et dernier numéro réservé dans le fichier
+    private long appareil;
+    private long prochain;
+    private long reserve;
+
+    /**
+     * Identité sans fichier : les numéros repartent de 1 à chaque création.
+     *
+     * @param appareil Identifiant de l'appareil, non nul.
+     */
+    public IdentiteAppareil(long appareil) {
+        if (appareil == 0) {
+            throw new IllegalArgumentException("Identifiant d'appareil nul");
+        }
+        fichier = null;
+        bloc = 0;
+        this.appareil = appareil;
+        prochain = 1;
+        reserve = Long.MAX_VALUE;
+    }
+
+    /**
+     * Identité gardée dans {@code fichier}, lu (ou créé) au premier appel de {@link #appareil()} ou de
+     * {@link #numeroSuivant()}, sur le thread d'envoi.
+     *
+     * @param bloc Nombre de numéros réservés à chaque écriture du fichier.
+     */
+    public IdentiteAppareil(File fichier, int bloc) {
+        if (bloc <= 0) {
+            throw new IllegalArgumentException("Bloc de numéros invalide : " + bloc);
+        }
+        this.fichier = fichier;
+        this.bloc = bloc;
+    }
+
+    public long appareil() throws IOException {
+        if (appareil == 0) {
+            charger();
+        }
+        return appareil;
+    }
+
+    /**
+     * Numéro du prochain lot, plus grand que tous ceux retournés jusque-là, y compris avant un redémarrage.
+     */
+    public long numeroSuivant() throws IOException {
+        if (appareil == 0) {
+            charger();
+        }
+        if (prochain > reserve) {
+            ecrire(prochain + bloc - 1);
+        }
+        return prochain++;
+    }
+
+    private void charger() throws IOException {
+        long lu = 0;
+        long fin = 0;
+        if (fichier.exists()) {
+            RandomAccessFile acces = new RandomAccessFile(fichier, "r");
+            try {
+                byte[] octets = new byte[(int) Math.min(acces.length(), TAILLE)];
+                acces.readFully(octets);
+                ByteBuffer tampon = ByteBuffer.wrap(octets).order(ByteOrder.LITTLE_ENDIAN);
+                if (octets.length == TAILLE && tampon.getInt(0) == SIGNATURE && tampon.getLong(16) >= 0) {
+                    lu = tampon.getLong(8);
+                    fin = tampon.getLong(16);
+                }
+            } finally {
+                acces.close();
+            }
+        }
+        if (lu == 0) {
+            SecureRandom aleatoire = new SecureRandom();
+            do {
+                lu = aleatoire.nextLong();
+            } while (lu == 0);
+            fin = 0;
+        }
+        appareil = lu;
+        reserve = fin;
+        // Les numéros du dernier bloc ont peut-être été envoyés : le suivant est réservé avant d'être utilisé
+        prochain = fin + 1;
+    }
+
+    private void ecrire(long fin) throws IOException {
+        ByteBuffer tampon = ByteBuffer.allocate(TAILLE).order(ByteOrder.LITTLE_ENDIAN);
+        tampon.putInt(SIGNATURE);
+        tampon.putShort(VERSION);
+        tampon.putShort((short) 0);
+        tampon.putLong(appareil);
+        tampon.putLong(fin);
+        tampon.flip();
+        File repertoire = fichier.getAbsoluteFile().getParentFile();
+        if (repertoire != null && !repertoire.isDirectory() && !repertoire.mkdirs()) {
+            throw new IOException("Impossible de créer " + repertoire);
+        }
+        // Le fichier est complet sur le disque avant de remplacer l'ancien : une interruption laisse l'un ou l'autre
+        File temporaire = new File(fichier.getPath() + ".tmp");
+        FileOutputStream sortie = new FileOutputStream(temporaire);
+        try {
+            while (tampon.hasRemaining()) {
+                sortie.getChannel().write(tampon);
+            }
+            sortie.getChannel().force(true);
+        } finally {
+            sortie.close();
+        }
+        if (!temporaire.renameTo(fichier)) {
+            throw new IOException("Impossible de remplacer " + fichier);
+        }
+        reserve = fin;
+    }
+}
@@ -0,0 +1,376 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * Journal des entrées et sorties de salles, pour retrouver l'occupation après l'arrêt brutal de
+ * l'application (le {@code Bundle} de l'activité ne survit pas à la mort du processus).
+ * <p/>
+ * Chaque événement est ajouté à la fin d'un segment projeté en mémoire, comme une localisation dans
+ * {@link EnregistreurTrace} : une écriture de {@link #TAILLE_ENREGISTREMENT} octets, sans appel système
+ * ni allocation. L'écriture sur le disque ({@link MappedByteBuffer#force()}, l'équivalent d'un
+ * {@code fsync}) est groupée : elle n'a lieu qu'une fois par lot d'événements, ou au premier événement
+ * après le délai de forçage, et à chaque appel de {@link #forcer()}. Un arrêt brutal de l'application ne
+ * perd aucun événement (les pages projetées appartiennent au système) ; une coupure de courant perd au
+ * plus les événements du lot en cours.
+ * <p/>
+ * Lorsque le segment est plein, le journal est compacté : l'occupation de toutes les salles est écrite
+ * dans un instantané ({@code instantane.bin}, remplacé atomiquement par renommage), puis un nouveau
+ * segment, de génération suivante, remplace l'ancien. À l'ouverture, l'occupation est relue depuis
+ * l'instantané, puis les événements des segments de génération au moins égale sont rejoués : au plus un
+ * segment, quel que soit le nombre total d'événements journalisés.
+ * <p/>
+ * Format d'un segment ({@code journal-00000001.bin}..., petit-boutiste) : en-tête de {@link #TAILLE_EN_TETE}
+ * octets (signature {@link #SIGNATURE}, version, taille d'un enregistrement, nombre d'enregistrements,
+ * génération), puis enregistrements : heure (long, millisecondes), événement (int : numéro de la salle
+ * pour une entrée, −1 − numéro pour une sortie), contrôle (int, calculé sur l'heure et l'événement). Le
+ * rejeu s'arrête au premier enregistrement dont le contrôle est faux (écriture interrompue).
+ * <p/>
+ * Format de l'instantané : signature {@link #SIGNATURE_INSTANTANE}, version, taille d'une valeur (4),
+ * nombre de salles, génération, puis occupation de chaque salle (int).
+ * <p/>
+ * Un journal n'est utilisé que par un seul thread (celui qui traite les localisations).
+ */
+public final class JournalOccupation {
+
+    /**
+     * Signature au début de chaque segment ("CVJO").
+     */
+    public static final int SIGNATURE = 0x43564A4F;
+
+    /**
+     * Signature au début de l'instantané ("CVIO").
+     */
+    public static final int SIGNATURE_INSTANTANE = 0x4356494F;
+
+    public static final short VERSION = 1;
+
+    public static final int TAILLE_EN_TETE = 16;
+
+    public static final int TAILLE_ENREGISTREMENT = 16;
+
+    // Position des champs dans l'en-tête et dans un enregistrement
+    static final int POSITION_NOMBRE = 8;
+    static final int POSITION_GENERATION = 12;
+    static final int CHAMP_INSTANT = 0;
+    static final int CHAMP_EVENEMENT = 8;
+    static final int CHAMP_CONTROLE = 12;
+
+    static final String PREFIXE = "journal-";
+    static final String SUFFIXE = ".bin";
+    static final String INSTANTANE = "instantane.bin";
+    private static final String INSTANTANE_TEMPORAIRE = "instantane.tmp";
+
+    private final File repertoire;
+    private final int tailleSegment;
+    private final int capaciteSegment;
+    private final int lotForcage;
+    private final long delaiForcageNanos;
+
+    // Occupation de chaque salle après le dernier événement journalisé
+    private final int[] occupations;
+
+    // Segment courant, sa génération et son nombre d'enregistrements
+    private MappedByteBuffer segment;
+    private int generation;
+    private int nombre;
+
+    // Événements écrits depuis le dernier forçage, et heure de ce forçage (System.nanoTime)
+    private int nonForces = 0;
+    private long dernierForcage;
+
+    // Événements rejoués à l'ouverture (statistique)
+    private final int rejoues;
+
+    /**
+     * Ouvre le journal du répertoire (créé si besoin) et relit l'occupation de chaque salle.
+     *
+     * @param tailleSegmentOctets Taille d'un segment, en octets (en-tête compris) : au plus un segment est rejoué à l'ouverture.
+     * @param lotForcage          Nombre d'événements écrits sur le disque en une fois (1 : à chaque événement).
+     * @param delaiForcageMillis  Délai au-delà duquel l'événement suivant force l'écriture, même si le lot n'est pas complet.
+     */
+    public JournalOccupation(File repertoire, int nombreSalles, int tailleSegmentOctets, int lotForcage,
+                             long delaiForcageMillis) throws IOException {
+        if (nombreSalles < 0 || tailleSegmentOctets < TAILLE_EN_TETE + TAILLE_ENREGISTREMENT || lotForcage < 1
+                || delaiForcageMillis < 0) {
+            throw new IllegalArgumentException("Paramètres du journal invalides : " + nombreSalles + " salles, segment de "
+                    + tailleSegmentOctets + " octets, lot de " + lotForcage + ", délai de " + delaiForcageMillis + " ms");
+        }
+        if (!repertoire.isDirectory() && !repertoire.mkdirs()) {
+            throw new IOException("Impossible de créer " + repertoire);
+        }
+        this.repertoire = repertoire;
+        this.capaciteSegment = (tailleSegmentOctets - TAILLE_EN_TETE) / TAILLE_ENREGISTREMENT;
+        this.tailleSegment = TAILLE_EN_TETE + capaciteSegment * TAILLE_ENREGISTREMENT;
+        this.lotForcage = lotForcage;
+        this.delaiForcageNanos = delaiForcageMillis * 1000000L;
+        this.occupations = new int[nombreSalles];
+
+        // Instantané, puis événements des segments qui le suivent ; les segments plus anciens y sont déjà comptés
+        generation = lireInstantane();
+        long[] generations = EnregistreurTrace.numerosSegments(repertoire, PREFIXE, SUFFIXE);
+        int evenements = 0;
+        int segmentsRejoues = 0;
+        for (long g : generations) {
+            File fichier = fichierSegment(repertoire, g);
+            if (g < generation) {
+                supprimer(fichier);
+                continue;
+            }
+            segment = projeter(fichier, false);
+            nombre = rejouer(segment);
+            evenements += nombre;
+            generation = (int) g;
+            segmentsRejoues++;
+        }
+        rejoues = evenements;
+        if (segment == null || segment.capacity() != tailleSegment || segment.getInt(0) != SIGNATURE || segmentsRejoues > 1) {
+            // Premier démarrage, dernier segment d'un autre format ou plusieurs segments rejoués : l'occupation
+            // relue passe dans un instantané, qui rend les segments rejoués inutiles
+            compacter();
+        } else {
+            // Le segment continue après le dernier événement valide
+            segment.putInt(POSITION_NOMBRE, nombre);
+        }
+        dernierForcage = System.nanoTime();
+    }
+
+    public int nombreSalles() {
+        return occupations.length;
+    }
+
+    /**
+     * Nombre d'événements que peut contenir un segment avant compactage.
+     */
+    public int capaciteSegment() {
+        return capaciteSegment;
+    }
+
+    /**
+     * Nombre d'événements rejoués après l'instantané à l'ouverture du journal.
+     */
+    public int rejoues() {
+        return rejoues;
+    }
+
+    /**
+     * Génération du segment courant (incrémentée à chaque compactage).
+     */
+    public int generation() {
+        return generation;
+    }
+
+    /**
+     * Occupation de la salle {@code salle} après le dernier événement journalisé.
+     */
+    public int occupation(int salle) {
+        return occupations[salle];
+    }
+
+    /**
+     * Copie l'occupation de toutes les salles dans {@code sortie} (au moins {@link #nombreSalles()} éléments).
+     */
+    public void copierOccupations(int[] sortie) {
+        System.arraycopy(occupations, 0, sortie, 0, occupations.length);
+    }
+
+    /**
+     * Journalise l'entrée d'un usager dans la salle {@code salle}.
+     *
+     * @param instant Heure de l'entrée, en millisecondes.
+     */
+    public void entree(long instant, int salle) throws IOException {
+        verifier(salle);
+        ajouter(instant, salle);
+        occupations[salle]++;
+    }
+
+    /**
+     * Journalise la sortie d'un usager de la salle {@code salle}.
+     */
+    public void sortie(long instant, int salle) throws IOException {
+        verifier(salle);
+        ajouter(instant, -1 - salle);
+        occupations[salle]--;
+    }
+
+    /**
+     * Écrit sur le disque les événements qui ne le sont pas encore (à la mise en pause de l'application).
+     */
+    public void forcer() {
+        if (nonForces > 0) {
+            segment.force();
+            nonForces = 0;
+        }
+        dernierForcage = System.nanoTime();
+    }
+
+    /**
+     * Écrit l'occupation de toutes les salles dans un nouvel instantané et repart d'un segment vide.
+     * Appelé automatiquement lorsque le segment est plein.
+     */
+    public void compacter() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        File ancien = segment != null ? fichierSegment(repertoire, generation) : null;
+        int suivante = segment != null ? generation + 1 : generation;
+
+        // L'instantané est complet sur le disque avant de remplacer l'ancien : une interruption laisse l'un ou l'autre
+        ByteBuffer tampon = ByteBuffer.allocate(TAILLE_EN_TETE + 4 * occupations.length).order(ByteOrder.LITTLE_ENDIAN);
+        tampon.putInt(SIGNATURE_INSTANTANE);
+        tampon.putShort(VERSION);
+        tampon.putShort((short) 4);
+        tampon.putInt(occupations.length);
+        tampon.putInt(suivante);
+        for (int occupation : occupations) {
+            tampon.putInt(occupation);
+        }
+        tampon.flip();
+        File temporaire = new File(repertoire, INSTANTANE_TEMPORAIRE);
+        FileOutputStream sortie = new FileOutputStream(temporaire);
+        try {
+            while (tampon.hasRemaining()) {
+                sortie.getChannel().write(tampon);
+            }
+            sortie.getChannel().force(true);
+        } finally {
+            sortie.close();
+        }
+        if (!temporaire.renameTo(new File(repertoire, INSTANTANE))) {
+            throw new IOException("Impossible de remplacer l'instantané de " + repertoire);
+        }
+
+        // Les événements de l'ancien segment sont dans l'instantané : il peut disparaître
+        File fichier = fichierSegment(repertoire, suivante);
+        supprimer(fichier);
+        segment = projeter(fichier, true);
+        segment.putInt(0, SIGNATURE);
+        segment.putShort(4, VERSION);
+        segment.putShort(6, (short) TAILLE_ENREGISTREMENT);
+        segment.putInt(POSITION_NOMBRE, 0);
+        segment.putInt(POSITION_GENERATION, suivante);
+        segment.force();
+        generation = suivante;
+        nombre = 0;
+        nonForces = 0;
+        if (ancien != null && !ancien.equals(fichier)) {
+            supprimer(ancien);
+        }
+    }
+
+    // L'occupation n'est modifiée qu'après l'appel : un compactage déclenché ici ne compte pas l'événement deux fois
+    private void ajouter(long instant, int evenement) throws IOException {
+        if (nombre == capaciteSegment) {
+            compacter();
+        }
+        int position = TAILLE_EN_TETE + nombre * TAILLE_ENREGISTREMENT;
+        segment.putLong(position + CHAMP_INSTANT, instant);
+        segment.putInt(position + CHAMP_EVENEMENT, evenement);
+        segment.putInt(position + CHAMP_CONTROLE, controle(instant, evenement));
+        // Le nombre est écrit après l'enregistrement, comme dans la trace
+        segment.putInt(POSITION_NOMBRE, ++nombre);
+
+        // Écriture groupée : un seul forçage pour tout un lot d'événements
+        if (++nonForces >= lotForcage || System.nanoTime() - dernierForcage >= delaiForcageNanos) {
+            forcer();
+        }
+    }
+
+    /**
+     * Applique les enregistrements valides d'un segment à l'occupation et retourne leur nombre.
+     */
+    private int rejouer(MappedByteBuffer tampon) {
+        if (tampon.capacity() < TAILLE_EN_TETE || tampon.getInt(0) != SIGNATURE
+                || tampon.getShort(6) != TAILLE_ENREGISTREMENT) {
+            return 0;
+        }
+        int annonces = Math.min(tampon.getInt(POSITION_NOMBRE), (tampon.capacity() - TAILLE_EN_TETE) / TAILLE_ENREGISTREMENT);
+        for (int i = 0; i < annonces; i++) {
+            int position = TAILLE_EN_TETE + i * TAILLE_ENREGISTREMENT;
+            long instant = tampon.getLong(position + CHAMP_INSTANT);
+            int evenement = tampon.getInt(position + CHAMP_EVENEMENT);
+            if (tampon.getInt(position + CHAMP_CONTROLE) != controle(instant, evenement)) {
+                return i;
+            }
+            int salle = evenement >= 0 ? evenement : -1 - evenement;
+            // Une salle qui n'existe plus (registre réduit) est ignorée
+            if (salle < occupations.length) {
+                occupations[salle] += evenement >= 0 ? 1 : -1;
+            }
+        }
+        return Math.max(annonces, 0);
+    }
+
+    /**
+     * Relit l'instantané dans 'occupations' et retourne sa génération (0 s'il n'y en a pas).
+     */
+    private int lireInstantane() throws IOException {
+        File fichier = new File(repertoire, INSTANTANE);
+        if (!fichier.exists()) {
+            return 0;
+        }
+        RandomAccessFile acces = new RandomAccessFile(fichier, "r");
+        try {
+            byte[] octets = new byte[(int) acces.length()];
+            acces.readFully(octets);
+            ByteBuffer tampon = ByteBuffer.wrap(octets).order(ByteOrder.LITTLE_ENDIAN);
+            int nombreSalles = octets.length >= TAILLE_EN_TETE ? tampon.getInt(POSITION_NOMBRE) : -1;
+            if (octets.length < TAILLE_EN_TETE || tampon.getInt(0) != SIGNATURE_INSTANTANE
+                    || nombreSalles < 0 || octets.length < TAILLE_EN_TETE + 4L * nombreSalles) {
+                throw new IOException("Instantané d'occupation invalide : " + fichier);
+            }
+            for (int salle = 0; salle < Math.min(nombreSalles, occupations.length); salle++) {
+                occupations[salle] = tampon.getInt(TAILLE_EN_TETE + 4 * salle);
+            }
+            return tampon.getInt(POSITION_GENERATION);
+        } finally {
+            acces.close();
+        }
+    }
+
+    private MappedByteBuffer projeter(File fichier, boolean nouveau) throws IOException {
+        RandomAccessFile acces = new RandomAccessFile(fichier, "rw");
+        try {
+            if (nouveau) {
+                acces.setLength(tailleSegment);
+            }
+            MappedByteBuffer tampon = acces.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, acces.length());
+            tampon.order(ByteOrder.LITTLE_ENDIAN);
+            return tampon;
+        } finally {
+            acces.close();
+        }
+    }
+
+    // Contrôle d'un enregistrement : jamais nul, pour qu'une page jamais écrite soit rejetée
+    static int controle(long instant, int evenement) {
+        int h = (int) (instant ^ (instant >>> 32)) * 0x9E3779B1 + evenement * 0x85EBCA6B;
+        h ^= h >>> 15;
+        return h | 1;
+    }
+
+    static File fichierSegment(File repertoire, long generation) {
+        return new File(repertoire, PREFIXE + String.format(Locale.ROOT, "%08d", generation) + SUFFIXE);
+    }
+
+    private static void supprimer(File fichier) throws IOException {
+        if (fichier.exists() && !fichier.delete()) {
+            throw new IOException("Impossible de supprimer " + fichier);
+        }
+    }
+
+    private void verifier(int salle) {
+        if (salle < 0 || salle >= occupations.length) {
+            throw new IndexOutOfBoundsException("Salle " + salle + " hors de [0, " + occupations.length + ")");
+        }
+    }
+}
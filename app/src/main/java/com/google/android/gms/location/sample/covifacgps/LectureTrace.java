@@ -0,0 +1,185 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Lecture sans copie d'une trace écrite par {@link EnregistreurTrace} : les segments sont projetés en
+ * mémoire en lecture seule, et chaque champ est lu directement dans la projection, sans objet par
+ * localisation. Les localisations sont numérotées de 0 à {@link #nombre()} − 1, de la plus ancienne à
+ * la plus récente.
+ * <p/>
+ * La lecture porte sur les segments présents à l'ouverture. Un fichier exporté par {@link #exporter}
+ * est un segment unique, qui se relit aussi avec cette classe.
+ */
+public final class LectureTrace implements SourceLocalisations {
+
+    private final MappedByteBuffer[] segments;
+
+    // Numéro de la première localisation de chaque segment (plus le nombre total en dernière position)
+    private final long[] debuts;
+
+    // Segment de la dernière localisation lue : une lecture dans l'ordre ne fait aucune recherche
+    private int segmentCourant = 0;
+
+    /**
+     * Ouvre une trace : un répertoire de segments ou un seul fichier (segment ou export).
+     */
+    public LectureTrace(File trace) throws IOException {
+        File[] fichiers;
+        if (trace.isDirectory()) {
+            long[] numeros = EnregistreurTrace.numerosSegments(trace);
+            fichiers = new File[numeros.length];
+            for (int i = 0; i < numeros.length; i++) {
+                fichiers[i] = EnregistreurTrace.fichierSegment(trace, numeros[i]);
+            }
+        } else {
+            fichiers = new File[]{trace};
+        }
+
+        segments = new MappedByteBuffer[fichiers.length];
+        debuts = new long[fichiers.length + 1];
+        for (int i = 0; i < fichiers.length; i++) {
+            segments[i] = projeter(fichiers[i]);
+            debuts[i + 1] = debuts[i] + segments[i].getInt(EnregistreurTrace.POSITION_NOMBRE);
+        }
+    }
+
+    /**
+     * Nombre de localisations de la trace.
+     */
+    @Override
+    public long nombre() {
+        return debuts[segments.length];
+    }
+
+    /**
+     * Heure de la localisation {@code i}, en millisecondes.
+     */
+    @Override
+    public long instant(long i) {
+        return tampon(i).getLong(position(i) + EnregistreurTrace.CHAMP_INSTANT);
+    }
+
+    /**
+     * Latitude de la localisation {@code i}, en degrés × 10^7.
+     */
+    public int latitudeE7(long i) {
+        return tampon(i).getInt(position(i) + EnregistreurTrace.CHAMP_LATITUDE);
+    }
+
+    /**
+     * Longitude de la localisation {@code i}, en degrés × 10^7.
+     */
+    public int longitudeE7(long i) {
+        return tampon(i).getInt(position(i) + EnregistreurTrace.CHAMP_LONGITUDE);
+    }
+
+    @Override
+    public double latitude(long i) {
+        return CoordonneesE7.degres(latitudeE7(i));
+    }
+
+    @Override
+    public double longitude(long i) {
+        return CoordonneesE7.degres(longitudeE7(i));
+    }
+
+    /**
+     * Précision de la localisation {@code i}, en mètres ({@code Float.NaN} si inconnue).
+     */
+    @Override
+    public float precision(long i) {
+        return tampon(i).getFloat(position(i) + EnregistreurTrace.CHAMP_PRECISION);
+    }
+
+    /**
+     * Vitesse de la localisation {@code i}, en mètres par seconde ({@code Float.NaN} si inconnue).
+     */
+    public float vitesse(long i) {
+        return tampon(i).getFloat(position(i) + EnregistreurTrace.CHAMP_VITESSE);
+    }
+
+    /**
+     * Écrit toute la trace dans {@code sortie} sous la forme d'un segment unique (en-tête puis
+     * enregistrements). Les enregistrements sont écrits directement depuis les projections, sans copie
+     * intermédiaire.
+     */
+    public void exporter(WritableByteChannel sortie) throws IOException {
+        if (nombre() > (Integer.MAX_VALUE - EnregistreurTrace.TAILLE_EN_TETE) / EnregistreurTrace.TAILLE_ENREGISTREMENT) {
+            throw new IOException("Trace trop longue pour un seul segment : " + nombre());
+        }
+        ByteBuffer enTete = ByteBuffer.allocate(EnregistreurTrace.TAILLE_EN_TETE).order(ByteOrder.LITTLE_ENDIAN);
+        enTete.putInt(EnregistreurTrace.SIGNATURE);
+        enTete.putShort(EnregistreurTrace.VERSION);
+        enTete.putShort((short) EnregistreurTrace.TAILLE_ENREGISTREMENT);
+        enTete.putInt((int) nombre());
+        enTete.putInt(0);
+        enTete.flip();
+        ecrire(sortie, enTete);
+        for (int s = 0; s < segments.length; s++) {
+            ByteBuffer enregistrements = segments[s].duplicate();
+            enregistrements.position(EnregistreurTrace.TAILLE_EN_TETE);
+            enregistrements.limit(EnregistreurTrace.TAILLE_EN_TETE
+                    + (int) (debuts[s + 1] - debuts[s]) * EnregistreurTrace.TAILLE_ENREGISTREMENT);
+            ecrire(sortie, enregistrements);
+        }
+    }
+
+    private ByteBuffer tampon(long i) {
+        if (i < 0 || i >= nombre()) {
+            throw new IndexOutOfBoundsException("Localisation " + i + " hors de [0, " + nombre() + ")");
+        }
+        if (i < debuts[segmentCourant] || i >= debuts[segmentCourant + 1]) {
+            // Recherche dichotomique du segment qui contient la localisation
+            int bas = 0;
+            int haut = segments.length - 1;
+            while (bas < haut) {
+                int milieu = (bas + haut + 1) >>> 1;
+                if (debuts[milieu] <= i) {
+                    bas = milieu;
+                } else {
+                    haut = milieu - 1;
+                }
+            }
+            segmentCourant = bas;
+        }
+        return segments[segmentCourant];
+    }
+
+    // Appelé après 'tampon(i)', qui a choisi le segment de la localisation
+    private int position(long i) {
+        return EnregistreurTrace.TAILLE_EN_TETE + (int) (i - debuts[segmentCourant]) * EnregistreurTrace.TAILLE_ENREGISTREMENT;
+    }
+
+    private static void ecrire(WritableByteChannel sortie, ByteBuffer tampon) throws IOException {
+        while (tampon.hasRemaining()) {
+            sortie.write(tampon);
+        }
+    }
+
+    private static MappedByteBuffer projeter(File fichier) throws IOException {
+        RandomAccessFile acces = new RandomAccessFile(fichier, "r");
+        try {
+            MappedByteBuffer tampon = acces.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, acces.length());
+            tampon.order(ByteOrder.LITTLE_ENDIAN);
+            if (tampon.capacity() < EnregistreurTrace.TAILLE_EN_TETE || tampon.getInt(0) != EnregistreurTrace.SIGNATURE
+                    || tampon.getShort(6) != EnregistreurTrace.TAILLE_ENREGISTREMENT) {
+                throw new IOException("Fichier de trace invalide : " + fichier);
+            }
+            int nombre = tampon.getInt(EnregistreurTrace.POSITION_NOMBRE);
+            if (nombre < 0 || EnregistreurTrace.TAILLE_EN_TETE + (long) nombre * EnregistreurTrace.TAILLE_ENREGISTREMENT > tampon.capacity()) {
+                throw new IOException("Nombre d'enregistrements invalide dans " + fichier + " : " + nombre);
+            }
+            return tampon;
+        } finally {
+            acces.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Arrays;
+
+/**
+ * Liste d'entrées et de sorties de salles, dans l'ordre chronologique, stockée en colonnes comme le
+ * {@link RegistreSalles} : les transitions attendues d'une suite de localisations, ou celles confirmées
+ * par {@link TransitionsSalles} lors d'un {@link RejeuLocalisations}.
+ * <p/>
+ * Une transition attendue peut être incertaine : un passage trop bref dans une salle, que l'automate
+ * peut légitimement confirmer ou ignorer selon le bruit des localisations. Elle n'est alors comptée ni
+ * comme manquée si elle n'est pas détectée, ni comme inattendue si elle l'est.
+ */
+public final class ListeTransitions {
+
+    private static final int CAPACITE_INITIALE = 64;
+
+    private int[] salles = new int[CAPACITE_INITIALE];
+    private long[] instants = new long[CAPACITE_INITIALE];
+    private boolean[] entrees = new boolean[CAPACITE_INITIALE];
+    private boolean[] certaines = new boolean[CAPACITE_INITIALE];
+    private int taille = 0;
+
+    /**
+     * Ajoute une transition, postérieure ou simultanée à la précédente.
+     *
+     * @param entree   Vrai pour une entrée, faux pour une sortie.
+     * @param certaine Faux si la transition peut légitimement ne pas être détectée.
+     */
+    public void ajouter(int salle, long instant, boolean entree, boolean certaine) {
+        if (taille == salles.length) {
+            int capacite = taille * 2;
+            salles = Arrays.copyOf(salles, capacite);
+            instants = Arrays.copyOf(instants, capacite);
+            entrees = Arrays.copyOf(entrees, capacite);
+            certaines = Arrays.copyOf(certaines, capacite);
+        }
+        salles[taille] = salle;
+        instants[taille] = instant;
+        entrees[taille] = entree;
+        certaines[taille] = certaine;
+        taille++;
+    }
+
+    /**
+     * Rend incertaine une transition déjà ajoutée (la durée d'un passage n'est connue qu'à sa sortie).
+     */
+    public void rendreIncertaine(int i) {
+        certaines[i] = false;
+    }
+
+    /**
+     * Supprime toutes les transitions, sans libérer les tableaux.
+     */
+    public void vider() {
+        taille = 0;
+    }
+
+    public int taille() {
+        return taille;
+    }
+
+    public int salle(int i) {
+        return salles[i];
+    }
+
+    public long instant(int i) {
+        return instants[i];
+    }
+
+    public boolean entree(int i) {
+        return entrees[i];
+    }
+
+    public boolean certaine(int i) {
+        return certaines[i];
+    }
+
+    /**
+     * Indices des transitions regroupées par salle (salles croissantes), dans l'ordre chronologique au
+     * sein de chaque salle : tri par dénombrement, stable.
+     *
+     * @param nombreSalles Nombre de salles (toutes les salles de la liste doivent être inférieures).
+     * @param debuts       Reçoit, pour chaque salle, la position de sa première transition dans le résultat
+     *                     (plus le nombre total en dernière position) : au moins {@code nombreSalles + 1} cases.
+     */
+    int[] indicesParSalle(int nombreSalles, int[] debuts) {
+        Arrays.fill(debuts, 0, nombreSalles + 1, 0);
+        for (int i = 0; i < taille; i++) {
+            debuts[salles[i] + 1]++;
+        }
+        for (int salle = 0; salle < nombreSalles; salle++) {
+            debuts[salle + 1] += debuts[salle];
+        }
+        int[] indices = new int[taille];
+        int[] suivantes = Arrays.copyOf(debuts, nombreSalles);
+        for (int i = 0; i < taille; i++) {
+            indices[suivantes[salles[i]]++] = i;
+        }
+        return indices;
+    }
+}
@@ -5,14 +5,7 @@ public class Localisation {
     public static double latitudeTempsT;
     public static double longitudeTempsT;
 
-    // Initialise le champs du temps de mise à jour de la localisation comme un String vide
-    public static String updatetime = "";
-
     // Permet de rédéclencher la méthode 'fixerPositionsSalles' entre chaque mise à jour de localisation en appuyant sur le bouton 'regenererPositionsSalles'
-    public static boolean valeursLongLatAttribuees = true;
-
-    // Identifie si je suis dans la Salle 1 ou la Salle 2
-    public static boolean estDansSalle1 = false;
-    public static boolean estDansSalle2 = false;
+    public static volatile boolean valeursLongLatAttribuees = true;
 
 }
\ No newline at end of file
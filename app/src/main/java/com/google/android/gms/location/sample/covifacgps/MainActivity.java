@@ -24,7 +24,10 @@ import android.content.pm.PackageManager;
 import android.location.Location;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
 import android.provider.Settings;
 import androidx.annotation.NonNull;
 
@@ -36,7 +39,6 @@ import androidx.appcompat.app.AppCompatActivity;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
-import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -56,10 +58,18 @@ import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 
-import java.text.DateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.Random;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -96,11 +106,107 @@ public class MainActivity extends AppCompatActivity {
     private static final long METTRE_A_JOUR_INTERVALLE_EN_MILLISECONDES = 10000; // Paramètre par défaut : 1 seconde
 
     /**
-     * Le taux le plus rapide pour les mises à jour de la localisation. Exact.
-     * Les mises à jour ne seront jamais plus fréquentes que cette valeur.
+     * Mode de traitement des localisations : sur un thread dédié (seul l'affichage reste sur le thread principal),
+     * ou entièrement sur le thread principal.
      */
-    private static final long MISE_A_JOUR_PLUS_RAPIDE_INTERVALLE_EN_MILLISECONDES =
-            METTRE_A_JOUR_INTERVALLE_EN_MILLISECONDES / 2; // Paramètre par défaut : Chaque demi-seconde
+    private static final boolean TRAITEMENT_HORS_THREAD_PRINCIPAL = true;
+
+    /**
+     * Mode de livraison groupée : le fournisseur de localisation peut retenir les localisations jusqu'à ce délai
+     * et les livrer en un seul lot, ce qui réveille moins souvent l'application. Désactivé : les mises à jour sont
+     * arrêtées dans 'onPause', l'application ne reçoit donc de localisations qu'au premier plan, où un lot ne ferait
+     * que retarder l'affichage et la détection des entrées et sorties (jusqu'à ce délai). Les localisations d'un
+     * lot sont toujours toutes traitées (voir 'createLocationCallback').
+     */
+    private static final boolean LIVRAISON_GROUPEE = false;
+    private static final long ATTENTE_MAX_LOT_EN_MILLISECONDES = 5 * METTRE_A_JOUR_INTERVALLE_EN_MILLISECONDES;
+
+    /**
+     * Mode d'échantillonnage adaptatif : l'intervalle et la priorité des demandes de localisation dépendent de la distance
+     * au bord de salle le plus proche et de la vitesse (voir 'PlanificateurLocalisation').
+     */
+    private static final boolean ECHANTILLONNAGE_ADAPTATIF = true;
+
+    /**
+     * Intervalle maximal loin de toute salle en échantillonnage adaptatif.
+     */
+    private static final long INTERVALLE_MAX_EN_MILLISECONDES = 16 * METTRE_A_JOUR_INTERVALLE_EN_MILLISECONDES;
+
+    /**
+     * Mode de filtrage des localisations : chaque localisation brute passe par un filtre de Kalman pondéré par sa
+     * précision avant la recherche des salles (voir 'FiltreKalman'). Il évite les fausses sorties pendant un séjour
+     * dans une salle, mais désactivé par défaut : arrêté juste hors du bord d'une salle, l'erreur de l'estimation
+     * varie lentement, dure plus que la durée d'entrée de l'automate et produit plus de fausses entrées que les
+     * localisations brutes (voir 'RejeuLocalisationsTest').
+     */
+    private static final boolean FILTRAGE_LOCALISATIONS = false;
+
+    /**
+     * Mode d'enregistrement de la trace : chaque localisation reçue est ajoutée à une trace binaire dans le répertoire
+     * 'traces' de l'application (voir 'EnregistreurTrace'), pour rejouer ou exporter les localisations d'un problème.
+     */
+    private static final boolean ENREGISTREMENT_TRACE = true;
+    private static final int TAILLE_SEGMENT_TRACE_EN_OCTETS = 1024 * 1024;
+    private static final long BUDGET_TRACE_EN_OCTETS = 8 * 1024 * 1024;
+
+    /**
+     * Mode de journalisation de l'occupation : chaque entrée et sortie de salle est ajoutée à un journal dans le
+     * répertoire 'occupation' de l'application (voir 'JournalOccupation'), relu au démarrage : l'occupation et les
+     * salles où je suis survivent à la mort du processus. Les écritures sur le disque sont groupées par lot.
+     */
+    private static final boolean JOURNAL_OCCUPATION = true;
+    private static final int TAILLE_SEGMENT_JOURNAL_EN_OCTETS = 256 * 1024;
+    private static final int LOT_FORCAGE_JOURNAL = 16;
+    private static final long DELAI_FORCAGE_JOURNAL_EN_MILLISECONDES = 2000;
+
+    /**
+     * Mode d'agrégation de l'occupation : chaque entrée et sortie de salle est aussi envoyée, par lots, au serveur
+     * d'agrégation du site (voir 'ServeurOccupation', lancé par la tâche ':benchmark:serveurOccupation'), qui
+     * additionne celles de tous les appareils. 10.0.2.2 est la machine hôte vue depuis l'émulateur. L'identifiant de
+     * l'appareil et les numéros de lot sont gardés dans 'occupation/appareil.bin' (voir 'IdentiteAppareil'), et la
+     * présence est renvoyée bien avant que le serveur ne retire l'appareil (10 minutes sans contact).
+     */
+    private static final boolean AGREGATION_OCCUPATION = false;
+    private static final String HOTE_AGREGATION = "10.0.2.2";
+    private static final String FICHIER_IDENTITE_AGREGATION = "appareil.bin";
+    private static final int BLOC_NUMEROS_AGREGATION = 256;
+    private static final int TAILLE_LOT_AGREGATION = 64;
+    private static final long DELAI_LOT_AGREGATION_EN_MILLISECONDES = 1000;
+    private static final long DELAI_PRESENCE_AGREGATION_EN_MILLISECONDES = 60000;
+    private static final long ATTENTE_MAX_AGREGATION_EN_MILLISECONDES = 60000;
+
+    /**
+     * Flux de l'occupation (voir 'FluxOccupation') : les compteurs affichés ne sont mis à jour que lorsque l'occupation
+     * d'une salle affichée change, au plus une fois par fenêtre, sans recalculer l'état de toutes les salles. Avec
+     * l'agrégation, ils affichent l'occupation du site reçue du serveur.
+     */
+    private static final boolean FLUX_OCCUPATION = true;
+    private static final long FENETRE_FLUX_EN_MILLISECONDES = 250;
+
+    /**
+     * Mesure de la durée de chaque étape du traitement des localisations (voir 'MesuresPipeline'), assez légère pour
+     * rester active : rapport par 'adb shell dumpsys activity <paquet>/.MainActivity' (ajouter '--json' pour du JSON,
+     * '--reinitialiser' pour repartir de zéro). La surcouche de débogage affiche les percentiles chaque seconde.
+     */
+    private static final boolean MESURES_PIPELINE = true;
+    private static final boolean SURCOUCHE_MESURES = false;
+    private static final long RAFRAICHISSEMENT_SURCOUCHE_EN_MILLISECONDES = 1000;
+
+    /**
+     * Chronologie des derniers événements du traitement (voir 'ChronologiePipeline') : exportée au format trace_event
+     * de Chrome dans 'files/chronologie.json' par 'adb shell dumpsys activity <paquet>/.MainActivity --chronologie',
+     * puis récupérée par 'adb exec-out run-as <paquet> cat files/chronologie.json > chronologie.json'.
+     */
+    private static final boolean CHRONOLOGIE_PIPELINE = true;
+    private static final int TAILLE_CHRONOLOGIE = 8192;
+    private static final String FICHIER_CHRONOLOGIE = "chronologie.json";
+
+    /**
+     * Foule simulée par le bouton 'genererNombreUsagesParSalle' (voir 'FouleSimulee') : nombre d'usagers virtuels
+     * et durée simulée de leurs déplacements entre les salles.
+     */
+    private static final int NOMBRE_USAGERS_FOULE = 15;
+    private static final int DUREE_FOULE_EN_SECONDES = 3600;
 
     // Clés pour stocker les états de l'activité dans le bundle.
     private final static String KEY_DEMANDER_MISE_A_JOUR_LOCALISATION = "requesting-location-updates";
@@ -136,21 +242,129 @@ public class MainActivity extends AppCompatActivity {
     /**
      * Represente la coordonnée géographique de la localisation de l'utilisateur.
      */
-    private Location mLocalisationActuelle;
+    private volatile Location mLocalisationActuelle;
+
+    /**
+     * Traitement de chaque mise à jour de localisation : géorepérage des salles et compteurs d'usagers.
+     */
+    private final TraitementLocalisation mTraitement = new TraitementLocalisation(new MoteurGeofence(Salle.registre), Salle.occupation);
+
+    /**
+     * États de rendu utilisés à tour de rôle : l'un est rempli pendant que l'autre reste l'état
+     * précédent du rendu, ce qui évite d'allouer un état à chaque mise à jour.
+     */
+    private final EtatRendu[] mEtatsRendu = {
+            new EtatRendu(RenduSalles.NOMBRE_SALLES_AFFICHEES), new EtatRendu(RenduSalles.NOMBRE_SALLES_AFFICHEES)
+    };
+    private int mIndexEtatRendu = 0;
+
+    /**
+     * Affiche les états de rendu dans les vues, en ne modifiant que ce qui a changé.
+     */
+    private RenduSalles mRendu;
+
+    /**
+     * Thread de traitement des localisations, et traitement exécuté dessus (null si 'TRAITEMENT_HORS_THREAD_PRINCIPAL' est faux).
+     */
+    private HandlerThread mThreadTraitement;
+    private TraitementHorsThreadPrincipal mTraitementHorsThreadPrincipal;
+
+    /**
+     * Choisit l'intervalle et la priorité des demandes de localisation (null si 'ECHANTILLONNAGE_ADAPTATIF' est faux).
+     */
+    private PlanificateurLocalisation mPlanificateur;
+
+    /**
+     * Trace des localisations reçues (null si 'ENREGISTREMENT_TRACE' est faux ou si la trace n'a pas pu être ouverte).
+     * Ouverte et utilisée uniquement sur le thread de traitement.
+     */
+    private EnregistreurTrace mEnregistreurTrace;
+
+    /**
+     * Journal des entrées et sorties de salles (null si 'JOURNAL_OCCUPATION' est faux ou si le journal n'a pas pu
+     * être ouvert). Ouvert et utilisé uniquement sur le thread de traitement.
+     */
+    private JournalOccupation mJournalOccupation;
+
+    /**
+     * Envoi des entrées et sorties de salles au serveur d'agrégation (null si 'AGREGATION_OCCUPATION' est faux).
+     */
+    private ClientOccupation mClientOccupation;
+
+    /**
+     * Flux de l'occupation des salles de cet appareil (null si 'FLUX_OCCUPATION' est faux ou avec l'agrégation), ou
+     * abonnement au serveur d'agrégation (null sans l'agrégation), et abonnement des compteurs affichés.
+     */
+    private FluxOccupation mFluxOccupation;
+    private AbonnementDistant mAbonnementDistant;
+    private AbonnementOccupation mAbonnementOccupation;
+    private final int[] mSallesModifiees = new int[RenduSalles.NOMBRE_SALLES_AFFICHEES];
+    private final int[] mOccupationsModifiees = new int[RenduSalles.NOMBRE_SALLES_AFFICHEES];
+
+    /**
+     * Durées des étapes du traitement (null si 'MESURES_PIPELINE' est faux), et surcouche qui en affiche les
+     * percentiles (null si 'SURCOUCHE_MESURES' est faux).
+     */
+    private final MesuresPipeline mMesures = MESURES_PIPELINE ? new MesuresPipeline() : null;
+    private TextView mSurcoucheMesures;
+    private Handler mHandlerSurcouche;
+    private final TamponTexte mTexteMesures = new TamponTexte(512);
+
+    /**
+     * Chronologie des événements du traitement (null si 'CHRONOLOGIE_PIPELINE' est faux).
+     */
+    private final ChronologiePipeline mChronologie = CHRONOLOGIE_PIPELINE ? new ChronologiePipeline(TAILLE_CHRONOLOGIE) : null;
+
+    /**
+     * Rafraîchit la surcouche des mesures, puis se reprogramme, sur le thread principal.
+     */
+    private final Runnable mRafraichirSurcouche = new Runnable() {
+        @Override
+        public void run() {
+            mMesures.ecrireResume(mTexteMesures);
+            mSurcoucheMesures.setText(mTexteMesures.caracteres(), 0, mTexteMesures.longueur());
+            mHandlerSurcouche.postDelayed(this, RAFRAICHISSEMENT_SURCOUCHE_EN_MILLISECONDES);
+        }
+    };
+
+    /**
+     * Affiche les occupations modifiées des salles affichées, sur le thread principal.
+     */
+    private final Runnable mAfficherOccupations = new Runnable() {
+        @Override
+        public void run() {
+            int nombre = mAbonnementOccupation.prendre(mSallesModifiees, mOccupationsModifiees);
+            for (int i = 0; i < nombre; i++) {
+                mRendu.afficherOccupation(mSallesModifiees[i], mOccupationsModifiees[i]);
+            }
+        }
+    };
+
+    /**
+     * Réémet la demande de localisation avec le réglage du planificateur, sur le thread principal.
+     */
+    private final Runnable mReemettreDemande = new Runnable() {
+        @Override
+        public void run() {
+            if (mDemandeMiseAJourLocalisation) {
+                appliquerReglage(mPlanificateur.intervalle(), mPlanificateur.attenteMaxLot(), mPlanificateur.hautePrecision());
+                //noinspection MissingPermission
+                mFusedLocationClient.requestLocationUpdates(mDemandeLocalisation,
+                        mAppelRetourLocalisation, looperLocalisation());
+            }
+        }
+    };
+
+    /**
+     * Instant de la dernière mise à jour de localisation (millisecondes depuis le 1er janvier 1970), 0 si aucune.
+     */
+    private volatile long mInstantDerniereMiseAJour = 0;
 
     // Widgets de l'UI.
     private Button mCommencerLocalisationBouton;
     private Button mArreterLocalisationBouton;
     private Button RegenererPositionSalles;
     private Button GenererUnNombreUsagers;
-    private TextView mLastUpdateTimeTextView;
-    private TextView mLatitudeTextView;
-    private TextView mLongitudeTextView;
-
-    // Labels.
-    private String mLatitudeLabel;
-    private String mLongitudeLabel;
-    private String mLastUpdateTimeLabel;
 
     /**
      * Récupère le statut de la demande de localisation. La valeur change quand l'utilisateur appuie sur :
@@ -158,52 +372,132 @@ public class MainActivity extends AppCompatActivity {
      */
     private Boolean mDemandeMiseAJourLocalisation;
 
-    /**
-     * Time when the location was updated represented as a String.
-     */
-    private String mLastUpdateTime;
-
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main_activity);
 
-        // Objets d'interface Android qui sont définis visibles / invisibles pour une localisation pas encore démarrée
-        ImageView imgv1 = findViewById(R.id.imageViewSalleRouge1);
-        ImageView imgv2 = findViewById(R.id.imageViewSalleVerte1);
-        ImageView imgv3 = findViewById(R.id.moi1);
-        ImageView imgv4 = findViewById(R.id.imageViewSalleRouge2);
-        ImageView imgv5 = findViewById(R.id.imageViewSalleVerte2);
-        ImageView imgv6 = findViewById(R.id.moi2);
-
-        // Masque au démarrage de l'application les salles rouges et l'icône de localisation de l'utilisateur
-        View[] views1 = { imgv1, imgv3, imgv4, imgv6 };
-        for (View view : views1) {
-            view.setVisibility(View.INVISIBLE);
-        }
-
-        // Affiche au démarrage de l'application les salles en vert
-        View[] views2 = { imgv2, imgv5 };
-        for (View view : views2) {
-            view.setVisibility(View.VISIBLE);
-        }
-
         // Localiser les widgets de l'UI.
         mCommencerLocalisationBouton = (Button) findViewById(R.id.commencer_localisation_bouton);
         mArreterLocalisationBouton = (Button) findViewById(R.id.arreter_localisation_bouton);
         RegenererPositionSalles = (Button) findViewById(R.id.regenererPositionsSalles);
         GenererUnNombreUsagers = (Button) findViewById(R.id.generernombrealeatoire);
-        mLatitudeTextView = (TextView) findViewById(R.id.latitude_text);
-        mLongitudeTextView = (TextView) findViewById(R.id.longitude_text);
-        mLastUpdateTimeTextView = (TextView) findViewById(R.id.last_update_time_text);
 
-        // Définir les labels.
-        mLatitudeLabel = getResources().getString(R.string.latitude_label);
-        mLongitudeLabel = getResources().getString(R.string.longitude_label);
-        mLastUpdateTimeLabel = getResources().getString(R.string.last_update_time_label);
+        // Les vues des salles et de ma localisation sont gérées par le rendu
+        mRendu = new RenduSalles(this);
+
+        // Chaque étape du traitement, de l'appel de retour à l'affichage, est mesurée
+        if (mMesures != null) {
+            mTraitement.fixerMesures(mMesures);
+            mRendu.fixerMesures(mMesures);
+            if (SURCOUCHE_MESURES) {
+                mSurcoucheMesures = findViewById(R.id.mesures_pipeline);
+                mSurcoucheMesures.setVisibility(View.VISIBLE);
+                mHandlerSurcouche = new Handler(Looper.getMainLooper());
+                mHandlerSurcouche.post(mRafraichirSurcouche);
+            }
+        }
+        if (mChronologie != null) {
+            mTraitement.fixerChronologie(mChronologie);
+            mRendu.fixerChronologie(mChronologie);
+        }
+
+        // Les localisations sont livrées et traitées sur un thread dédié, qui ne poste au thread principal que l'état à afficher
+        if (TRAITEMENT_HORS_THREAD_PRINCIPAL) {
+            mThreadTraitement = new HandlerThread("traitement-localisation", Process.THREAD_PRIORITY_DEFAULT);
+            mThreadTraitement.start();
+            mTraitementHorsThreadPrincipal = new TraitementHorsThreadPrincipal(mTraitement, RenduSalles.NOMBRE_SALLES_AFFICHEES,
+                    executeur(new Handler(mThreadTraitement.getLooper())), executeur(new Handler(Looper.getMainLooper())), mRendu);
+        }
+
+        if (ECHANTILLONNAGE_ADAPTATIF) {
+            mPlanificateur = new PlanificateurLocalisation(mTraitement.moteur(),
+                    METTRE_A_JOUR_INTERVALLE_EN_MILLISECONDES, INTERVALLE_MAX_EN_MILLISECONDES,
+                    LIVRAISON_GROUPEE ? ATTENTE_MAX_LOT_EN_MILLISECONDES : 0);
+        }
+
+        if (ENREGISTREMENT_TRACE) {
+            final File repertoireTraces = new File(getFilesDir(), "traces");
+            executerTraitement(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mEnregistreurTrace = new EnregistreurTrace(repertoireTraces,
+                                TAILLE_SEGMENT_TRACE_EN_OCTETS, BUDGET_TRACE_EN_OCTETS);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Trace des localisations impossible à ouvrir", e);
+                    }
+                }
+            });
+        }
+
+        // Les compteurs affichés suivent le flux, créé avant la reprise du journal qui le signale
+        if (FLUX_OCCUPATION) {
+            abonnerCompteurs();
+        }
+
+        // Le client est créé avant l'ouverture du journal, qui lui donne les salles où je suis
+        final File repertoireJournal = new File(getFilesDir(), "occupation");
+        if (AGREGATION_OCCUPATION) {
+            IdentiteAppareil identite = new IdentiteAppareil(new File(repertoireJournal, FICHIER_IDENTITE_AGREGATION),
+                    BLOC_NUMEROS_AGREGATION);
+            mClientOccupation = new ClientOccupation(new InetSocketAddress(HOTE_AGREGATION, ProtocoleOccupation.PORT_DEFAUT),
+                    identite, TAILLE_LOT_AGREGATION, DELAI_LOT_AGREGATION_EN_MILLISECONDES,
+                    DELAI_PRESENCE_AGREGATION_EN_MILLISECONDES, ATTENTE_MAX_AGREGATION_EN_MILLISECONDES);
+            if (!JOURNAL_OCCUPATION) {
+                // Sans journal, je ne suis dans aucune salle au démarrage : le serveur ne doit plus m'y compter
+                mClientOccupation.reprendre(new int[0]);
+            }
+            mClientOccupation.demarrer();
+        }
+
+        if (JOURNAL_OCCUPATION) {
+            executerTraitement(new Runnable() {
+                @Override
+                public void run() {
+                    ouvrirJournal(repertoireJournal);
+                }
+            });
+        }
+
+        // Les transitions sont journalisées et envoyées au serveur, après l'ouverture du journal sur le même thread
+        executerTraitement(new Runnable() {
+            @Override
+            public void run() {
+                mTraitement.fixerEcouteur(new TransitionsSalles.Ecouteur() {
+                    @Override
+                    public void entree(int salle, long instant) {
+                        journaliser(salle, instant, true);
+                        if (mClientOccupation != null) {
+                            mClientOccupation.entree(salle);
+                        }
+                        if (mFluxOccupation != null) {
+                            mFluxOccupation.signaler(salle);
+                        }
+                    }
+
+                    @Override
+                    public void sortie(int salle, long instant) {
+                        journaliser(salle, instant, false);
+                        if (mClientOccupation != null) {
+                            mClientOccupation.sortie(salle);
+                        }
+                        if (mFluxOccupation != null) {
+                            mFluxOccupation.signaler(salle);
+                        }
+                    }
+                });
+            }
+        });
 
         mDemandeMiseAJourLocalisation = false;
-        mLastUpdateTime = "";
+
+        // À l'échelle d'une salle, la projection équirectangulaire est aussi précise que la formule de Vincenty (voir 'ModeDistance')
+        mTraitement.moteur().fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        mTraitement.fixerFiltrage(FILTRAGE_LOCALISATIONS);
+
+        // Salles en vert et icônes de ma localisation masquées pour une localisation pas encore démarrée
+        rendreEtatArrete();
 
         // Mettre à jour les valeurs en utilisant les données stockées dans le Bundle.
         updateValuesFromBundle(savedInstanceState);
@@ -239,8 +533,9 @@ public class MainActivity extends AppCompatActivity {
             }
 
             // Met à jour les valeurs de mLastUpdateTime du Bundle et met à jour l'UI.
-            if (savedInstanceState.keySet().contains(KEY_DERNIER_MISE_A_JOUR_TEMPS_STRING)) {
-                mLastUpdateTime = savedInstanceState.getString(KEY_DERNIER_MISE_A_JOUR_TEMPS_STRING);
+            String derniereMiseAJour = savedInstanceState.getString(KEY_DERNIER_MISE_A_JOUR_TEMPS_STRING);
+            if (derniereMiseAJour != null) {
+                mRendu.fixerDerniereMiseAJour(derniereMiseAJour);
             }
             mettreAjourUI();
         }
@@ -266,13 +561,119 @@ public class MainActivity extends AppCompatActivity {
         // inexacte. Vous pourrez ne recevoir aucune localisation s'il y a pas de données de localisation disponibles;
         // ou vous pourrez les recevoir plus tardivement que prévu. Vous pourrez aussi recevoir ces données plus rapidement
         // que prévu si d'autres applications demandent une localisation à un intervall de temps plus rapide.
-        mDemandeLocalisation.setInterval(METTRE_A_JOUR_INTERVALLE_EN_MILLISECONDES);
+        appliquerReglage(METTRE_A_JOUR_INTERVALLE_EN_MILLISECONDES, ATTENTE_MAX_LOT_EN_MILLISECONDES, true);
+    }
 
-        // Met à jour l'intervalle le plus rapide pour les mises à jour de localisation. Cet intervalle est exact, et votre
-        // application ne recevra jamais de valeurs plus rapides que celle-ci.
-        mDemandeLocalisation.setFastestInterval(MISE_A_JOUR_PLUS_RAPIDE_INTERVALLE_EN_MILLISECONDES);
+    /**
+     * Règle l'intervalle et la priorité de la demande de localisation.
+     * En livraison groupée, le fournisseur peut retenir les localisations jusqu'à {@code attenteMaxLot} : cette
+     * attente est bornée indépendamment de l'intervalle adaptatif (voir 'PlanificateurLocalisation').
+     */
+    private void appliquerReglage(long intervalle, long attenteMaxLot, boolean hautePrecision) {
+        mDemandeLocalisation.setInterval(intervalle);
+
+        // Met à jour l'intervalle le plus rapide pour les mises à jour de localisation (la moitié de l'intervalle). Cet
+        // intervalle est exact, et votre application ne recevra jamais de valeurs plus rapides que celle-ci.
+        mDemandeLocalisation.setFastestInterval(intervalle / 2);
+        mDemandeLocalisation.setPriority(hautePrecision
+                ? LocationRequest.PRIORITY_HIGH_ACCURACY : LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
+
+        // Autorise le fournisseur à livrer les localisations par lots (toutes sont traitées, voir 'createLocationCallback')
+        if (LIVRAISON_GROUPEE) {
+            mDemandeLocalisation.setMaxWaitTime(attenteMaxLot);
+        }
+    }
 
-        mDemandeLocalisation.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
+    /**
+     * Looper sur lequel les localisations sont livrées : celui du thread de traitement s'il y en a un.
+     */
+    private Looper looperLocalisation() {
+        return mThreadTraitement != null ? mThreadTraitement.getLooper() : Looper.getMainLooper();
+    }
+
+    /**
+     * Ajoute une localisation à la trace ; en cas d'erreur d'écriture, l'enregistrement est abandonné.
+     */
+    private void enregistrer(Location localisation) {
+        if (mEnregistreurTrace == null) {
+            return;
+        }
+        try {
+            mEnregistreurTrace.enregistrer(localisation.getTime(), localisation.getLatitude(), localisation.getLongitude(),
+                    localisation.hasAccuracy() ? localisation.getAccuracy() : Float.NaN,
+                    localisation.hasSpeed() ? localisation.getSpeed() : Float.NaN);
+        } catch (IOException e) {
+            Log.e(TAG, "Enregistrement de la trace des localisations abandonné", e);
+            mEnregistreurTrace = null;
+        }
+    }
+
+    /**
+     * Ouvre le journal d'occupation et reprend l'occupation qu'il contient. Sur le thread de traitement.
+     */
+    private void ouvrirJournal(File repertoire) {
+        try {
+            mJournalOccupation = new JournalOccupation(repertoire, Salle.registre.taille(),
+                    TAILLE_SEGMENT_JOURNAL_EN_OCTETS, LOT_FORCAGE_JOURNAL, DELAI_FORCAGE_JOURNAL_EN_MILLISECONDES);
+        } catch (IOException e) {
+            Log.e(TAG, "Journal d'occupation impossible à ouvrir", e);
+            if (mClientOccupation != null) {
+                mClientOccupation.reprendre(new int[0]);
+            }
+            return;
+        }
+        int[] occupations = new int[mJournalOccupation.nombreSalles()];
+        mJournalOccupation.copierOccupations(occupations);
+        mTraitement.restaurer(occupations);
+        // Le serveur compte de nouveau cet appareil dans ces salles, et seulement dans celles-là
+        if (mClientOccupation != null) {
+            mClientOccupation.reprendre(occupations);
+        }
+        if (mFluxOccupation != null) {
+            mFluxOccupation.signalerTout();
+        }
+    }
+
+    /**
+     * Abonne les compteurs affichés à l'occupation des salles affichées : celle de cet appareil, ou celle du site
+     * avec l'agrégation. Les changements sont pris et affichés sur le thread principal.
+     */
+    private void abonnerCompteurs() {
+        int[] sallesAffichees = new int[RenduSalles.NOMBRE_SALLES_AFFICHEES];
+        for (int salle = 0; salle < sallesAffichees.length; salle++) {
+            sallesAffichees[salle] = salle;
+        }
+        mRendu.afficherCompteursParFlux();
+        Executor threadPrincipal = executeur(new Handler(Looper.getMainLooper()));
+        if (AGREGATION_OCCUPATION) {
+            mAbonnementDistant = new AbonnementDistant(new InetSocketAddress(HOTE_AGREGATION, ProtocoleOccupation.PORT_DEFAUT),
+                    sallesAffichees, threadPrincipal, mAfficherOccupations, ATTENTE_MAX_AGREGATION_EN_MILLISECONDES);
+            mAbonnementOccupation = mAbonnementDistant.abonnement();
+            mAbonnementDistant.demarrer();
+        } else {
+            mFluxOccupation = new FluxOccupation(Salle.occupation, FENETRE_FLUX_EN_MILLISECONDES);
+            mAbonnementOccupation = mFluxOccupation.abonner(sallesAffichees, threadPrincipal, mAfficherOccupations);
+            mFluxOccupation.demarrer();
+        }
+    }
+
+    /**
+     * Ajoute une entrée ou une sortie au journal ; en cas d'erreur d'écriture, la journalisation est abandonnée.
+     */
+    private void journaliser(int salle, long instant, boolean entree) {
+        if (mJournalOccupation == null) {
+            return;
+        }
+        try {
+            if (entree) {
+                mJournalOccupation.entree(instant, salle);
+            } else {
+                mJournalOccupation.sortie(instant, salle);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Journalisation de l'occupation abandonnée", e);
+            mJournalOccupation = null;
+        }
     }
 
     /**
@@ -283,10 +684,56 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onLocationResult(LocationResult locationResult) {
                 super.onLocationResult(locationResult);
+                if (mChronologie != null) {
+                    mChronologie.debut(ChronologiePipeline.APPEL_RETOUR);
+                }
+
+                // Chaque localisation du lot passe par le moteur de géorepérage, dans l'ordre : aucune entrée ni sortie
+                // de salle n'est manquée. Le callback s'exécute sur le thread de traitement s'il y en a un.
+                // La réception d'une localisation est le travail de l'appel de retour hors de son traitement
+                long debutLot = MesuresPipeline.maintenant();
+                if (mMesures != null) {
+                    mMesures.debutLot(debutLot);
+                }
+                List<Location> localisations = locationResult.getLocations();
+                boolean reglageChange = false;
+                for (int i = 0; i < localisations.size(); i++) {
+                    long debutReception = MesuresPipeline.maintenant();
+                    Location localisation = localisations.get(i);
+                    enregistrer(localisation);
+                    long debutTraitement = MesuresPipeline.maintenant();
+                    mTraitement.appliquer(localisation.getLatitude(), localisation.getLongitude(),
+                            localisation.hasAccuracy() ? localisation.getAccuracy() : Float.NaN, localisation.getTime());
+                    long dureeTraitement = MesuresPipeline.maintenant() - debutTraitement;
+                    if (mPlanificateur != null) {
+                        reglageChange |= mPlanificateur.mettreAJour(localisation.getLatitude(), localisation.getLongitude(),
+                                localisation.hasAccuracy() ? localisation.getAccuracy() : 0f,
+                                localisation.hasSpeed() ? localisation.getSpeed() : Float.NaN, localisation.getTime());
+                    }
+                    if (mMesures != null) {
+                        mMesures.enregistrerDuree(MesuresPipeline.RECEPTION,
+                                MesuresPipeline.maintenant() - debutReception - dureeTraitement);
+                    }
+                }
+
+                // L'intervalle ou la priorité adaptés ont changé : la demande de localisation est réémise
+                if (reglageChange) {
+                    runOnUiThread(mReemettreDemande);
+                }
 
+                // Un seul affichage par lot, celui de la dernière localisation
                 mLocalisationActuelle = locationResult.getLastLocation();
-                mLastUpdateTime = DateFormat.getTimeInstance().format(new Date());
-                mettreAjourUILocalisation();
+                mInstantDerniereMiseAJour = System.currentTimeMillis();
+                if (mTraitementHorsThreadPrincipal != null) {
+                    mTraitementHorsThreadPrincipal.afficherEtat(mInstantDerniereMiseAJour);
+                } else {
+                    EtatRendu etat = prochainEtatRendu();
+                    mTraitement.remplirEtat(mInstantDerniereMiseAJour, etat);
+                    mRendu.rendre(etat);
+                }
+                if (mChronologie != null) {
+                    mChronologie.fin(ChronologiePipeline.APPEL_RETOUR);
+                }
             }
         };
     }
@@ -350,6 +797,17 @@ public class MainActivity extends AppCompatActivity {
      * la permission de localisation n'ait été accordée.
      */
     private void commencerLocalisation() {
+        // L'échantillonnage adaptatif repart du réglage de base, le plus fréquent
+        if (mPlanificateur != null) {
+            appliquerReglage(METTRE_A_JOUR_INTERVALLE_EN_MILLISECONDES, ATTENTE_MAX_LOT_EN_MILLISECONDES, true);
+            executerTraitement(new Runnable() {
+                @Override
+                public void run() {
+                    mPlanificateur.reinitialiser();
+                }
+            });
+        }
+
         // Commence par vérifier si l'appareil a les permissions nécessaires pour la localisation.
         mParametresClient.checkLocationSettings(mParametresDemandeLocalisation)
                 .addOnSuccessListener(this, new OnSuccessListener<LocationSettingsResponse>() {
@@ -359,7 +817,7 @@ public class MainActivity extends AppCompatActivity {
 
                         //noinspection MissingPermission
                         mFusedLocationClient.requestLocationUpdates(mDemandeLocalisation,
-                                mAppelRetourLocalisation, Looper.myLooper());
+                                mAppelRetourLocalisation, looperLocalisation());
 
                         mettreAjourUI();
                     }
@@ -430,76 +888,20 @@ public class MainActivity extends AppCompatActivity {
             mCommencerLocalisationBouton.setEnabled(true);
             GenererUnNombreUsagers.setEnabled(true);
 
-            // Objets d'interface Android qui sont définis visibles / invisibles pour une localisation remise à zéro (pas de localisation)
-            ImageView imgv1 = findViewById(R.id.imageViewSalleRouge2);
-            ImageView imgv2 = findViewById(R.id.imageViewSalleRouge1);
-            ImageView imgv3 = findViewById(R.id.moi1);
-            ImageView imgv4 = findViewById(R.id.imageViewSalleVerte1);
-            ImageView imgv5 = findViewById(R.id.imageViewSalleVerte2);
-            ImageView imgv6 = findViewById(R.id.moi2);
-            TextView tv1 = findViewById(R.id.nombreUsagersActuelSalle1);
-            tv1.setText(String.valueOf(Salle.compteurUsagersSalle1));
-            TextView tv2 = findViewById(R.id.nombreUsagersActuelSalle2);
-            tv2.setText(String.valueOf(Salle.compteurUsagersSalle2));
-            TextView tv3 = findViewById(R.id.librepaslibre1);
-            TextView tv4 = findViewById(R.id.librepaslibre2);
-
-            // Remet à zéro comme au démarrage de l'application le fait de masquer les salles rouges et l'icône de localisation de l'utilisateur
-            View[] views1 = { imgv1, imgv2, imgv3, imgv6 };
-            for (View view : views1) {
-                view.setVisibility(View.INVISIBLE);
-            }
-
-            // Remet à zéro comme au démarrage de l'application les salles en vert
-            View[] views2 = { imgv4, imgv5 };
-            for (View view : views2) {
-                view.setVisibility(View.VISIBLE);
-            }
-
-            // Rétablit les labels indiquant que les salles sont libres
-            tv3.setText(getString(R.string.estLibre1_label));
-            tv4.setText(getString(R.string.estLibre2_label));
-
-            // Remet à zéro le fait que je ne sois PAS dans la Salle 1 ou la Salle 2
-            TextView tv5 = findViewById(R.id.mapositionsalle1);
-            tv5.setText(getString(R.string.pasSalle1_label));
-            TextView tv6 = findViewById(R.id.mapositionsalle2);
-            tv6.setText(getString(R.string.pasSalle2_label));
-
-            // Remet à zéro le nombre d'usagers dans chaque salle
-            Salle.compteurUsagersSalle1 = 0;
-            Salle.compteurUsagersSalle2 = 0;
-            TextView tv7 = findViewById(R.id.nombreUsagersActuelSalle1);
-            tv7.setText(String.valueOf(Salle.compteurUsagersSalle1));
-            TextView tv8 = findViewById(R.id.nombreUsagersActuelSalle2);
-            tv8.setText(String.valueOf(Salle.compteurUsagersSalle2));
-
-            // Remet à zéro le nombre aléatoire pour générer un certain nombre d'usagers dans chaque salle
-            Salle.randomUsagersSalle1 = 0;
-            Salle.randomUsagersSalle2 = 0;
+            // Remet à zéro le nombre aléatoire pour générer un certain nombre d'usagers dans chaque salle ; l'occupation réelle,
+            // journalisée, est conservée jusqu'au redémarrage de la localisation
+            executerTraitement(new Runnable() {
+                @Override
+                public void run() {
+                    mTraitement.suspendre();
+                }
+            });
 
-            // Remet à zéro l'affichage des calculs de distance
-            TextView tv9 = findViewById(R.id.maDistanceSalle1);
-            tv9.setText(getString(R.string.distanceSalle1_label));
-            TextView tv10 = findViewById(R.id.maDistanceSalle2);
-            tv10.setText(getString(R.string.distanceSalle2_label));
+            // Remet l'affichage comme au démarrage de l'application : salles en vert, icônes de ma localisation masquées, distances par défaut
+            rendreEtatArrete();
         }
     }
 
-    private void fixerPositionsSalles() {
-            // Mes coordonnées géographiques en temps réel récupérés à un temps t lorsqu'on appuie sur le bouton 'regenererPositionsSalles'
-            final double latitudeTempsTConstant = Localisation.latitudeTempsT;
-            final double longitudeTempsTConstant = Localisation.longitudeTempsT;
-
-            // Les coordonnées géographiques de la Salle 1 sont fixés à ma position lorsque j'appuie sur le bouton 'regenererPositionsSalles'
-            Salle.latitudeCentreSalleUneDynamique=latitudeTempsTConstant;
-            Salle.longitudeCentreSalleUneDynamique=longitudeTempsTConstant;
-
-            // Les coordonnées géographiques de la Salle 2 sont fixés à ma position + 15 mètres vers l'Est lorsque j'appuie sur le bouton 'regenererPositionsSalles'
-            Salle.latitudeCentreSalleDeuxDynamique=latitudeTempsTConstant + Salle.quinzeMetresLatitude;
-            Salle.longitudeCentreSalleDeuxDynamique=longitudeTempsTConstant + Salle.quinzeMetresLongitude;
-    }
-
     // Méthode qui permet de rédéclencher la méthode fixerPositionsSalles entre chaque mise à jour de localisation
     public void regenererPositionsSalles(View view) {
         Localisation.valeursLongLatAttribuees = true;
@@ -510,256 +912,94 @@ public class MainActivity extends AppCompatActivity {
      * - La localisation (latitude, longitude) et temps de dernière localisation en temps réel.
      * - Nombres d'individus par salle
      * - Couleur des salles (rouge et vert)
+     * <p/>
+     * Appelée à la reprise de l'activité et après les réglages : l'état actuel est seulement réaffiché. La dernière
+     * localisation n'est pas traitée à nouveau, sans quoi le filtre la recevrait deux fois et l'automate avancerait
+     * ses durées de séjour (jusqu'à confirmer une entrée ou une sortie) sans nouvelle localisation.
      */
     private void mettreAjourUILocalisation() {
-        if (mLocalisationActuelle != null) {
-
-            /* -------------------------------------------------------------------------------------------------------------------------------------*/
-            /* ----------------------------------------- GESTION AFFICHAGE PROPRE A LA LOCALISATION AUTOMATIQUE DE L'UTILISATEUR -------------------*/
-            /* -------------------------------------------------------------------------------------------------------------------------------------*/
-
-            // Permet de rédéclencher le bouton 'regenererPositionsSalles' entre chaque mise à jour de localisation
-            if (Localisation.valeursLongLatAttribuees) {
-                fixerPositionsSalles();
-                Localisation.valeursLongLatAttribuees = false;
-            }
-
-            // Latitude et longitude récupérée à chaque mise à jour de localisation
-            mLatitudeTextView.setText(String.format(Locale.ENGLISH, "%s: %f", mLatitudeLabel, mLocalisationActuelle.getLatitude()));
-            mLongitudeTextView.setText(String.format(Locale.ENGLISH, "%s: %f", mLongitudeLabel, mLocalisationActuelle.getLongitude()));
-
-            Localisation.updatetime = mLastUpdateTime;
-
-            // Temps de la dernière mise à jour de localisation récupérée à chaque mise à jour de localisation
-            mLastUpdateTimeTextView.setText(String.format(Locale.ENGLISH, "%s: %s", mLastUpdateTimeLabel, mLastUpdateTime));
-
-            /* -------------------------------------------------------------------------------------------------------------------------------------*/
-            /* ----------------------------------------- STOCKAGE COORDONNES DES SALLES ------------------------------------------------------------*/
-            /* -------------------------------------------------------------------------------------------------------------------------------------*/
-
-            final double longitudeCentreSalleConstant1 = Salle.longitudeCentreSalleUneDynamique; // Centre salle (x) (Fixé à la même position que l'utilisateur)
-            final double latitudeCentreSalleConstant1 = Salle.latitudeCentreSalleUneDynamique; // Centre salle (y) (Fixé à la même position que l'utilisateur)
-
-            final double longitudeCentreSalleConstant2 = Salle.longitudeCentreSalleDeuxDynamique; // Centre salle (x) (Calculé à partir de la coordonnée de l'utilisateur + 15 mètres converti en une distance en latitude)
-            final double latitudeCentreSalleConstant2 = Salle.latitudeCentreSalleDeuxDynamique; // Centre salle (y) (Calculé à partir de la coordonnée de l'utilisateur + 15 mètres converti en une distance en longitude)
-
-            /* Pour éviter des problèmes de calcul de distance entre ma position (> 7 chiffres à la virgule)
-            et celle d'une coordonnée géographique Google Maps (7 chiffres après la virgule) :
-            - On réduit la précision de la géolocalisation à 7 chiffres après la virgules (précision acceptable).
-            - Cette précision est obtenue en faisant une division de la coordonnée par un entier de 7 chiffres après la virgule,
-              qui est ensuite divisée par un nombre décimal afin d'obtenir un chiffre à virgules (double).
-             */
-            // Réduit la précision de ma latitude
-            double maLatitudeTresPrecise = mLocalisationActuelle.getLatitude();
-            double maLatitudeMoinsPrecise = (int)(Math.round(maLatitudeTresPrecise * 10000000))/10000000.0; // Récupérer le résultat de ma localisation (latitude) 7 chiffres après la virgule
-            Localisation.longitudeTempsT = maLatitudeMoinsPrecise;
-
-            // Réduit la précision de ma longitude
-            double maLongitudeTresPrecise = mLocalisationActuelle.getLongitude();
-            double maLongitudeMoinsPrecise = (int)(Math.round(maLongitudeTresPrecise * 10000000))/10000000.0; // Récupérer le résultat de ma localisation (longitude) 7 chiffres après la virgule
-            Localisation.latitudeTempsT = maLongitudeMoinsPrecise;
-
-            // La simulation des salles est simplifiée en considérant la forme de celles-ci comme des cercles plutôt que des rectangles ou des carrés
-            int rayonSalle = 10; // Le rayon d'une salle en mètres
-
-            // Le résultat des distances s'exprime sous la forme d'un tableau de float
-            float[] distanceSalle1 = new float[1];
-            float[] distanceSalle2 = new float[1];
-
-            /* -------------------------------------------------------------------------------------------------------------------------------------*/
-            /* ----------------------------------------- GESTION AFFICHAGE PROPRE A LA SALLE 1 -----------------------------------------------------*/
-            /* -------------------------------------------------------------------------------------------------------------------------------------*/
-
-            // On récupère la longitude de la Salle 1 qui a été définie en appuyant sur le bouton 'fixerPositionsSalles'
-            TextView tv1 = findViewById(R.id.longitudeValeurSalle1);
-            tv1.setText(String.valueOf(longitudeCentreSalleConstant1));
-
-            // On récupère la latitude de la Salle 2 qui a été définie en appuyant sur le bouton 'fixerPositionsSalles'
-            TextView tv2 = findViewById(R.id.latitudeValeurSalle1);
-            tv2.setText(String.valueOf(latitudeCentreSalleConstant1));
-
-            // Calcul de distance entre ma localisation et celle du centre de la salle 1
-            Location.distanceBetween(
-                    maLongitudeMoinsPrecise, // Latitude de départ (Moi)
-                    maLatitudeMoinsPrecise, // Longitude de départ (Moi)
-                    latitudeCentreSalleConstant1, // Latitude du centre de la Salle 1
-                    longitudeCentreSalleConstant1, // Longitude du centre de la Salle 1
-                    distanceSalle1); // Résultat = distance entre deux coordonnées géographiques
-
-            // Affichage de la distance précédemment calculée
-            TextView tv8 = findViewById(R.id.maDistanceSalle1);
-            tv8.setText("Je suis à environ " + distanceSalle1[0]/2 + " mètres du centre de celle-ci");
-
-            // Si la distance entre ma localisation et celle du centre de la Salle 1 est inférieure au rayon de la Salle 1... alors je me trouve dans cette salle
-            if (distanceSalle1[0] < rayonSalle && !(Localisation.estDansSalle2)) { // On vérifie que je ne suis pas déjà dans la salle 2 : évite les doublons d'icône de position
-                // On récupère le nombre d'usagers actuels générés aléatoirement via le bouton 'genererNombreUsagesParSalle'
-                Salle.compteurUsagersSalle1 = Salle.randomUsagersSalle1;
-
-                // Je me trouve dans cette salle, on augmente donc le nombre d'usagers actuels de 1
-                Salle.compteurUsagersSalle1++; /* /!\ Remarque : je n'ai pas réussi à identifier comment programmer le cas où l'utilisateur quitte la salle pour décrémenter ce compteur /!\ -> Mettre un while sur la condition fait crasher l'application */
-                TextView tv0 = findViewById(R.id.nombreUsagersActuelSalle1);
-                tv0.setText(String.valueOf(Salle.compteurUsagersSalle1));
-
-                // La limite maximale du nombre d'usagers que peut contenir cette salle
-                Integer limiteNombreUsagersSalle1 = 10;
-
-                // Si le nombre d'usagers actuels dans la salle 1 a dépassé son quota maximal
-                if (Salle.compteurUsagersSalle1 > limiteNombreUsagersSalle1) {
-                    // On affiche la salle en rouge
-                    ImageView imgv2 = findViewById(R.id.imageViewSalleRouge1);
-                    imgv2.setVisibility(View.VISIBLE);
-                    // On l'empêche de devenir verte
-                    ImageView imgv1 = findViewById(R.id.imageViewSalleVerte1);
-                    imgv1.setVisibility(View.INVISIBLE);
-                    // On indique que la salle est indisponible
-                    TextView tv3 = findViewById(R.id.librepaslibre1);
-                    tv3.setText(getString(R.string.estPasLibre1_label));
-                }
-                // Si le nombre d'usagers actuels dans la salle 1 est inférieur au quota maximal
-                if (Salle.compteurUsagersSalle1 <= limiteNombreUsagersSalle1) {
-                    // On affiche la salle en vert
-                    ImageView imgv1 = findViewById(R.id.imageViewSalleVerte1);
-                    imgv1.setVisibility(View.VISIBLE);
-                    // On l'empêche de devenir rouge
-                    ImageView imgv2 = findViewById(R.id.imageViewSalleRouge1);
-                    imgv2.setVisibility(View.INVISIBLE);
-                    // On indique que la salle est libre
-                    TextView tv3 = findViewById(R.id.librepaslibre1);
-                    tv3.setText(getString(R.string.estLibre1_label));
-                }
-
-                // On rend visible l'icône de ma localisation
-                ImageView imgv3 = findViewById(R.id.moi1);
-                imgv3.setVisibility(View.VISIBLE);
-
-                // On indique que je suis dans la Salle 1 (et donc pas dans la Salle 2)
-                TextView tv4 = findViewById(R.id.mapositionsalle1);
-                tv4.setText(getString(R.string.dansSalle1_label));
-                Localisation.estDansSalle1 = true;
-                Localisation.estDansSalle2 = false;
-            }
-            // Si la distance entre ma localisation et celle du centre de la Salle 1 est supérieure au rayon de la Salle 1... alors je ne me trouve PAS dans cette salle
-            if (distanceSalle1[0] > rayonSalle) {
-                // On affiche la salle en vert (elle est à nouveau disponible)
-                ImageView imgv1 = findViewById(R.id.imageViewSalleVerte1);
-                imgv1.setVisibility(View.VISIBLE);
-                // On empêche la salle de devenir rouge
-                ImageView imgv2 = findViewById(R.id.imageViewSalleRouge1);
-                imgv2.setVisibility(View.INVISIBLE);
-                // On masque l'icône de ma localisation
-                ImageView imgv3 = findViewById(R.id.moi1);
-                imgv3.setVisibility(View.INVISIBLE);
-                // On indique que je ne suis PAS dans la Salle 1
-                TextView tv4 = findViewById(R.id.mapositionsalle1);
-                tv4.setText(getString(R.string.pasSalle1_label));
-                Localisation.estDansSalle1 = false;
+        final Location localisation = mLocalisationActuelle;
+        if (localisation != null) {
+            final long instant = mInstantDerniereMiseAJour;
+            if (mTraitementHorsThreadPrincipal != null) {
+                mTraitementHorsThreadPrincipal.executer(new Runnable() {
+                    @Override
+                    public void run() {
+                        mTraitement.reprendreLocalisation(localisation.getLatitude(), localisation.getLongitude());
+                        mTraitementHorsThreadPrincipal.afficherEtat(instant);
+                    }
+                });
+                return;
             }
 
+            // Le rendu ne modifie que les vues qui ont changé
+            mTraitement.reprendreLocalisation(localisation.getLatitude(), localisation.getLongitude());
+            EtatRendu etat = prochainEtatRendu();
+            mTraitement.remplirEtat(instant, etat);
+            mRendu.rendre(etat);
+        }
+    }
 
-            /* -------------------------------------------------------------------------------------------------------------------------------------*/
-            /* ----------------------------------------- GESTION AFFICHAGE PROPRE A LA SALLE 2 -----------------------------------------------------*/
-            /* -------------------------------------------------------------------------------------------------------------------------------------*/
-
-            // On récupère la longitude de la Salle 2 qui a été définie en appuyant sur le bouton 'fixerPositionsSalles'
-            TextView tv3 = findViewById(R.id.longitudeValeurSalle2);
-            tv3.setText(String.valueOf(longitudeCentreSalleConstant2));
-
-            // On récupère la latitude de la Salle 2 qui a été définie en appuyant sur le bouton 'fixerPositionsSalles'
-            TextView tv4 = findViewById(R.id.latitudeValeurSalle2);
-            tv4.setText(String.valueOf(latitudeCentreSalleConstant2));
-
-            // Calcul de distance entre ma localisation et celle du centre de la salle 2
-            Location.distanceBetween(
-                    maLongitudeMoinsPrecise, // Latitude de départ (Moi)
-                    maLatitudeMoinsPrecise, // Longitude de départ (Moi)
-                    latitudeCentreSalleConstant2, // Latitude du centre de la Salle 2
-                    longitudeCentreSalleConstant2, // Longitude du centre de la Salle 2
-                    distanceSalle2); // Résultat = distance entre deux coordonnées géographiques
-
-            // Affichage de la distance précédemment calculée
-            TextView tv7 = findViewById(R.id.maDistanceSalle2);
-            tv7.setText("Je suis à environ " + distanceSalle2[0]/2 + " mètres du centre de celle-ci");
-
-            // Si la distance entre ma localisation et celle du centre de la Salle 2 est inférieure au rayon de la Salle 2... alors je me trouve dans cette salle
-            if (distanceSalle2[0] < rayonSalle && !(Localisation.estDansSalle1)) { // On vérifie que je ne suis pas déjà dans la salle 1 : évite les doublons d'icône de position
-                // On récupère le nombre d'usagers actuels générés aléatoirement via le bouton 'genererNombreUsagesParSalle'
-                Salle.compteurUsagersSalle2 = Salle.randomUsagersSalle2;
-
-                // Je me trouve dans cette salle, on augmente donc le nombre d'usagers actuels de 1
-                Salle.compteurUsagersSalle2++; /* /!\ Remarque : je n'ai pas réussi à identifier comment programmer le cas où l'utilisateur quitte la salle pour décrémenter ce compteur /!\ -> Mettre un while sur la condition fait crasher l'application */
-                TextView tv0 = findViewById(R.id.nombreUsagersActuelSalle2);
-                tv0.setText(String.valueOf(Salle.compteurUsagersSalle2));
-
-                // La limite maximale du nombre d'usagers que peut contenir cette salle
-                Integer limiteNombreUsagersSalle2 = 10;
-
-                // Si le nombre d'usagers actuels dans la salle 2 a dépassé son quota maximal
-                if (Salle.compteurUsagersSalle2 > limiteNombreUsagersSalle2) {
-                    // On affiche la salle en rouge
-                    ImageView imgv3 = findViewById(R.id.imageViewSalleRouge2);
-                    imgv3.setVisibility(View.VISIBLE);
-                    // On l'empêche de devenir verte
-                    ImageView imgv2 = findViewById(R.id.imageViewSalleVerte2);
-                    imgv2.setVisibility(View.INVISIBLE);
-                    // On indique que la salle est indisponible
-                    TextView tv5 = findViewById(R.id.librepaslibre2);
-                    tv5.setText(getString(R.string.estPasLibre2_label));
-                }
-                // Si le nombre d'usagers actuels dans la salle 2 est inférieur au quota maximal
-                if (Salle.compteurUsagersSalle2 <= limiteNombreUsagersSalle2) {
-                    // On affiche la salle en vert
-                    ImageView imgv2 = findViewById(R.id.imageViewSalleVerte2);
-                    imgv2.setVisibility(View.VISIBLE);
-                    // On l'empêche de devenir rouge
-                    ImageView imgv3 = findViewById(R.id.imageViewSalleRouge2);
-                    imgv3.setVisibility(View.INVISIBLE);
-                    // On indique que la salle est libre
-                    TextView tv5 = findViewById(R.id.librepaslibre2);
-                    tv5.setText(getString(R.string.estLibre2_label));
-                }
+    /**
+     * Affiche l'état d'une localisation arrêtée (nombre d'usagers simulés, aucune salle occupée).
+     */
+    private void rendreEtatArrete() {
+        if (mTraitementHorsThreadPrincipal != null) {
+            mTraitementHorsThreadPrincipal.afficherEtatArrete();
+            return;
+        }
+        EtatRendu etat = prochainEtatRendu();
+        mTraitement.remplirEtatArrete(etat);
+        mRendu.rendre(etat);
+    }
 
-                // On rend visible l'icône de ma localisation
-                ImageView imgv4 = findViewById(R.id.moi2);
-                imgv4.setVisibility(View.VISIBLE);
+    /**
+     * Exécute une tâche qui modifie les salles sur le thread qui traite les localisations.
+     */
+    private void executerTraitement(Runnable tache) {
+        if (mTraitementHorsThreadPrincipal != null) {
+            mTraitementHorsThreadPrincipal.executer(tache);
+        } else {
+            tache.run();
+        }
+    }
 
-                // On indique que je suis dans la Salle 2 (et donc pas dans la Salle 1)
-                TextView tv6 = findViewById(R.id.mapositionsalle2);
-                tv6.setText(getString(R.string.dansSalle2_label));
-                Localisation.estDansSalle2 = true;
-                Localisation.estDansSalle1 = false;
-            }
-            // Si la distance entre ma localisation et celle du centre de la Salle 2 est supérieure au rayon de la Salle 2... alors je ne me trouve PAS dans cette salle
-            if (distanceSalle2[0] > rayonSalle) {
-                // On affiche la salle en vert (elle est à nouveau disponible)
-                ImageView imgv2 = findViewById(R.id.imageViewSalleVerte2);
-                imgv2.setVisibility(View.VISIBLE);
-                // On empêche la salle de devenir rouge
-                ImageView imgv3 = findViewById(R.id.imageViewSalleRouge2);
-                imgv3.setVisibility(View.INVISIBLE);
-                // On masque l'icône de ma localisation
-                ImageView imgv4 = findViewById(R.id.moi2);
-                imgv4.setVisibility(View.INVISIBLE);
-                // On indique que je ne suis PAS dans la salle 2
-                TextView tv6 = findViewById(R.id.mapositionsalle2);
-                tv6.setText(getString(R.string.pasSalle2_label));
-                Localisation.estDansSalle2 = false;
+    private static Executor executeur(final Handler handler) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable tache) {
+                handler.post(tache);
             }
+        };
+    }
 
-        }
+    /**
+     * Retourne l'état de rendu qui n'est pas l'état précédent du rendu, pour le remplir.
+     */
+    private EtatRendu prochainEtatRendu() {
+        mIndexEtatRendu = 1 - mIndexEtatRendu;
+        return mEtatsRendu[mIndexEtatRendu];
     }
 
     public void genererNombreUsagesParSalle(View view) {
-        // Génère deux nombres compris entre 1 et 10 pour les affecter à des variables propres à la salle 1 et à la salle 2
-        Salle.randomUsagersSalle1 = new Random().nextInt(10) + 1; // [0, 1] + 1 => [1, 2] : Minimum 1 (si [0] + 1) et maximum 10 (si [1] + 1)
-        Salle.randomUsagersSalle2 = new Random().nextInt(10) + 1; // [0, 1] + 1 => [1, 2] : Minimum 1 (si [0] + 1) et maximum 10 (si [1] + 1)
-        
-        // Délègue l'affichage du nombre obtenu pour la salle 1
-        TextView tv1 = findViewById(R.id.nombreUsagersActuelSalle1);
-        tv1.setText(String.valueOf(Salle.randomUsagersSalle1));
+        // Une foule d'usagers virtuels se déplace entre les salles pendant une heure simulée, en respectant leur capacité :
+        // le nombre d'usagers obtenu dans chaque salle devient son nombre d'usagers simulés
+        final long graine = System.nanoTime();
+        executerTraitement(new Runnable() {
+            @Override
+            public void run() {
+                RegistreSalles registre = Salle.registre;
+                OccupationSalles occupationFoule = new OccupationSalles(registre.taille(), 1);
+                FouleSimulee foule = new FouleSimulee(registre, occupationFoule, NOMBRE_USAGERS_FOULE, 1, graine);
+                foule.avancer(DUREE_FOULE_EN_SECONDES, 10);
+                for (int salle = 0; salle < registre.taille(); salle++) {
+                    registre.fixerUsagersSimules(salle, occupationFoule.occupation(salle));
+                }
+            }
+        });
 
-        // Délègue l'affichage du nombre obtenu pour la salle 2
-        TextView tv2 = findViewById(R.id.nombreUsagersActuelSalle2);
-        tv2.setText(String.valueOf(Salle.randomUsagersSalle2));
+        // Délègue l'affichage des nombres obtenus pour chaque salle
+        rendreEtatArrete();
     }
 
     /**
@@ -798,11 +1038,117 @@ public class MainActivity extends AppCompatActivity {
         mettreAjourUI();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // La trace et le journal sont écrits sur le disque sans attendre le système. Dernière tâche du thread de
+        // traitement, qui s'arrête ensuite : les tâches postées avant elle sont terminées (quitSafely() demande
+        // l'API 18)
+        final HandlerThread threadTraitement = mThreadTraitement;
+        executerTraitement(new Runnable() {
+            @Override
+            public void run() {
+                if (mEnregistreurTrace != null) {
+                    mEnregistreurTrace.forcer();
+                }
+                if (mJournalOccupation != null) {
+                    mJournalOccupation.forcer();
+                }
+                if (threadTraitement != null) {
+                    threadTraitement.quit();
+                }
+            }
+        });
+        if (mHandlerSurcouche != null) {
+            mHandlerSurcouche.removeCallbacks(mRafraichirSurcouche);
+        }
+        try {
+            if (mClientOccupation != null) {
+                mClientOccupation.arreter();
+            }
+            if (mAbonnementDistant != null) {
+                mAbonnementDistant.arreter();
+            }
+            if (mFluxOccupation != null) {
+                mFluxOccupation.arreter();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ajoute le rapport des mesures du traitement à 'adb shell dumpsys activity' : en texte, ou en JSON avec
+     * l'argument '--json' ; '--reinitialiser' oublie ensuite les durées enregistrées. Avec '--chronologie', la
+     * chronologie des événements est aussi exportée dans 'files/chronologie.json'.
+     */
+    @Override
+    public void dump(String prefixe, FileDescriptor descripteur, PrintWriter sortie, String[] arguments) {
+        super.dump(prefixe, descripteur, sortie, arguments);
+        boolean json = false;
+        boolean reinitialiser = false;
+        boolean chronologie = false;
+        if (arguments != null) {
+            for (String argument : arguments) {
+                json |= "--json".equals(argument);
+                reinitialiser |= "--reinitialiser".equals(argument);
+                chronologie |= "--chronologie".equals(argument);
+            }
+        }
+        if (mMesures != null) {
+            sortie.print(prefixe);
+            sortie.println(json ? "Mesures du traitement des localisations (ns) :" : "Mesures du traitement des localisations (µs) :");
+            sortie.println(json ? mMesures.rapportJson() : mMesures.rapportTexte());
+            if (reinitialiser) {
+                mMesures.remettreAZero();
+            }
+        }
+        if (chronologie && mChronologie != null) {
+            sortie.print(prefixe);
+            sortie.println(exporterChronologie());
+        }
+    }
+
+    /**
+     * Exporte la chronologie des événements au format trace_event de Chrome dans 'files/chronologie.json'.
+     *
+     * @return Compte rendu de l'export, pour 'dumpsys'.
+     */
+    private String exporterChronologie() {
+        File fichier = new File(getFilesDir(), FICHIER_CHRONOLOGIE);
+        Writer sortie = null;
+        try {
+            sortie = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fichier), Charset.forName("UTF-8")));
+            int nombre = mChronologie.exporterTraceChrome(sortie);
+            return "Chronologie : " + nombre + " événements sur " + mChronologie.nombreEcrits() + " dans " + fichier;
+        } catch (IOException e) {
+            Log.e(TAG, "Chronologie impossible à exporter", e);
+            return "Chronologie impossible à exporter : " + e;
+        } finally {
+            if (sortie != null) {
+                try {
+                    sortie.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Chronologie mal fermée", e);
+                }
+            }
+        }
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
         // Enlèves les mises à jour de localisation pour économiser de la batterie.
         arreterLocalisation();
+        // Le processus peut être tué après la pause : le dernier lot du journal est écrit sur le disque
+        executerTraitement(new Runnable() {
+            @Override
+            public void run() {
+                if (mJournalOccupation != null) {
+                    mJournalOccupation.forcer();
+                }
+            }
+        });
     }
 
     /**
@@ -811,7 +1157,7 @@ public class MainActivity extends AppCompatActivity {
     public void onSaveInstanceState(Bundle savedInstanceState) {
         savedInstanceState.putBoolean(KEY_DEMANDER_MISE_A_JOUR_LOCALISATION, mDemandeMiseAJourLocalisation);
         savedInstanceState.putParcelable(KEY_LOCALISATION, mLocalisationActuelle);
-        savedInstanceState.putString(KEY_DERNIER_MISE_A_JOUR_TEMPS_STRING, mLastUpdateTime);
+        savedInstanceState.putString(KEY_DERNIER_MISE_A_JOUR_TEMPS_STRING, mRendu.derniereMiseAJour().toString());
         super.onSaveInstanceState(savedInstanceState);
     }
 
@@ -0,0 +1,184 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durées de chaque étape du traitement des localisations, de l'appel de retour du fournisseur de
+ * localisation à la fin de l'affichage, dans un {@link HistogrammeLatences} par étape :
+ * <ul>
+ * <li>{@link #RECEPTION} : travail de l'appel de retour pour une localisation, hors traitement (trace, planificateur) ;</li>
+ * <li>{@link #ARRONDI_FILTRAGE} : filtre de Kalman et réduction de la précision en unités E7 ;</li>
+ * <li>{@link #CONTENANCE} : distances au bord des salles suivies, recherche des salles contenant la localisation
+ * et automate des transitions, sans les mises à jour de l'occupation ;</li>
+ * <li>{@link #OCCUPATION} : une entrée ou une sortie confirmée (compteurs, journal, client d'agrégation, flux) ;</li>
+ * <li>{@link #RENDU} : affichage d'un état dans les vues, sur le thread principal ;</li>
+ * <li>{@link #BOUT_EN_BOUT} : de l'entrée dans l'appel de retour à la fin de l'affichage qui en montre le
+ * résultat (attente du thread principal comprise ; plusieurs lots affichés ensemble comptent pour le plus ancien).</li>
+ * </ul>
+ * Les étapes encadrent leur travail avec {@link #maintenant()} et {@link #enregistrer(int, long)} : deux lectures
+ * de {@code System.nanoTime()} et quelques écritures ordonnées, sans allocation ni instruction atomique, assez
+ * peu pour rester actives dans l'application publiée. Chaque étape est enregistrée par un seul thread : la
+ * réception et le traitement sur le thread qui reçoit les localisations, le rendu et le bout en bout sur le
+ * thread principal. Le lot en attente d'affichage passe de l'un à l'autre de la même façon, par des compteurs
+ * qui n'ont chacun qu'un thread écrivain ({@link #debutLot(long)}, {@link #finAffichage(long)}). Les percentiles
+ * (p50, p99, p999) sont lus par la surcouche de débogage et par les rapports texte et JSON.
+ */
+public final class MesuresPipeline {
+
+    public static final int RECEPTION = 0;
+    public static final int ARRONDI_FILTRAGE = 1;
+    public static final int CONTENANCE = 2;
+    public static final int OCCUPATION = 3;
+    public static final int RENDU = 4;
+    public static final int BOUT_EN_BOUT = 5;
+
+    public static final int NOMBRE_ETAPES = 6;
+
+    private static final String[] NOMS = {
+            "reception", "arrondi_filtrage", "contenance", "occupation", "rendu", "bout_en_bout"
+    };
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final String[] NOMS_QUANTILES = {"p50", "p99", "p999"};
+
+    private final HistogrammeLatences[] histogrammes = new HistogrammeLatences[NOMBRE_ETAPES];
+
+    // Entrée dans l'appel de retour du plus ancien lot pas encore affiché, valable si lotsAttendus != lotsAffiches ;
+    // écrits par le thread qui reçoit les localisations
+    private final AtomicLong debutLot = new AtomicLong();
+    private final AtomicLong lotsAttendus = new AtomicLong();
+    // Nombre de lots en attente déjà affichés, écrit par le thread principal
+    private final AtomicLong lotsAffiches = new AtomicLong();
+
+    public MesuresPipeline() {
+        for (int etape = 0; etape < NOMBRE_ETAPES; etape++) {
+            histogrammes[etape] = new HistogrammeLatences();
+        }
+    }
+
+    /**
+     * Horloge des mesures, en nanosecondes (monotone, sans rapport avec l'heure).
+     */
+    public static long maintenant() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Enregistre la durée de l'étape {@code etape} commencée à {@code debut} ({@link #maintenant()}).
+     *
+     * @return La fin de l'étape, début possible de la suivante.
+     */
+    public long enregistrer(int etape, long debut) {
+        long fin = System.nanoTime();
+        histogrammes[etape].enregistrer(fin - debut);
+        return fin;
+    }
+
+    /**
+     * Enregistre une durée déjà mesurée pour l'étape {@code etape}.
+     */
+    public void enregistrerDuree(int etape, long nanos) {
+        histogrammes[etape].enregistrer(nanos);
+    }
+
+    public HistogrammeLatences histogramme(int etape) {
+        return histogrammes[etape];
+    }
+
+    public static String nom(int etape) {
+        return NOMS[etape];
+    }
+
+    /**
+     * Entrée dans l'appel de retour d'un lot de localisations, sur le thread qui les reçoit : ne remplace
+     * pas le début d'un lot précédent pas encore affiché.
+     */
+    public void debutLot(long debut) {
+        long attendus = lotsAttendus.get();
+        if (attendus == lotsAffiches.get()) {
+            // Le thread principal a lu le début précédent avant de compter son lot affiché : il peut être remplacé
+            debutLot.lazySet(debut);
+            lotsAttendus.lazySet(attendus + 1);
+        }
+    }
+
+    /**
+     * Fin d'un affichage, sur le thread principal : enregistre la durée de bout en bout du lot en attente.
+     */
+    public void finAffichage(long fin) {
+        long attendus = lotsAttendus.get();
+        if (attendus != lotsAffiches.get()) {
+            histogrammes[BOUT_EN_BOUT].enregistrer(fin - debutLot.get());
+            lotsAffiches.lazySet(attendus);
+        }
+    }
+
+    /**
+     * Oublie toutes les durées enregistrées. Un lot en attente d'affichage est encore enregistré à son affichage.
+     */
+    public void remettreAZero() {
+        for (HistogrammeLatences histogramme : histogrammes) {
+            histogramme.remettreAZero();
+        }
+    }
+
+    /**
+     * Écrit une ligne par étape (nombre, p50, p99, p999 et maximum, en microsecondes) dans {@code texte},
+     * sans allocation : pour la surcouche de débogage, rafraîchie pendant la localisation.
+     */
+    public TamponTexte ecrireResume(TamponTexte texte) {
+        texte.vider();
+        for (int etape = 0; etape < NOMBRE_ETAPES; etape++) {
+            HistogrammeLatences histogramme = histogrammes[etape];
+            if (etape > 0) {
+                texte.ajouter('\n');
+            }
+            texte.ajouter(NOMS[etape]).ajouter(" n=").ajouter(histogramme.nombre());
+            for (int q = 0; q < QUANTILES.length; q++) {
+                texte.ajouter(' ').ajouter(NOMS_QUANTILES[q]).ajouter('=')
+                        .ajouter(histogramme.percentile(QUANTILES[q]) / 1e3, 1);
+            }
+            texte.ajouter(" max=").ajouter(histogramme.maximum() / 1e3, 1).ajouter(" µs");
+        }
+        return texte;
+    }
+
+    /**
+     * Rapport texte, une ligne par étape, durées en microsecondes.
+     */
+    public String rapportTexte() {
+        StringBuilder rapport = new StringBuilder();
+        rapport.append(String.format(Locale.ROOT, "%-17s %10s %10s %10s %10s %10s %10s%n",
+                "etape", "nombre", "moyenne", "p50", "p99", "p999", "max"));
+        for (int etape = 0; etape < NOMBRE_ETAPES; etape++) {
+            HistogrammeLatences histogramme = histogrammes[etape];
+            rapport.append(String.format(Locale.ROOT, "%-17s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    NOMS[etape], histogramme.nombre(), histogramme.moyenne() / 1e3,
+                    histogramme.percentile(0.5) / 1e3, histogramme.percentile(0.99) / 1e3,
+                    histogramme.percentile(0.999) / 1e3, histogramme.maximum() / 1e3));
+        }
+        return rapport.toString();
+    }
+
+    /**
+     * Rapport JSON : un objet par étape, durées en nanosecondes.
+     * <pre>{"reception":{"nombre":12,"moyenne_ns":…,"p50_ns":…,"p99_ns":…,"p999_ns":…,"max_ns":…},…}</pre>
+     */
+    public String rapportJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (int etape = 0; etape < NOMBRE_ETAPES; etape++) {
+            HistogrammeLatences histogramme = histogrammes[etape];
+            if (etape > 0) {
+                json.append(',');
+            }
+            json.append('"').append(NOMS[etape]).append("\":{\"nombre\":").append(histogramme.nombre())
+                    .append(",\"moyenne_ns\":").append(histogramme.moyenne());
+            for (int q = 0; q < QUANTILES.length; q++) {
+                json.append(",\"").append(NOMS_QUANTILES[q]).append("_ns\":").append(histogramme.percentile(QUANTILES[q]));
+            }
+            json.append(",\"max_ns\":").append(histogramme.maximum()).append('}');
+        }
+        return json.append('}').toString();
+    }
+}
@@ -0,0 +1,39 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Méthode de calcul de distance utilisée par le {@link MoteurGeofence}.
+ * <p/>
+ * Les bornes d'erreur ci-dessous ont été mesurées par rapport à la formule de Vincenty
+ * ({@link Distance#entre}) sur une grille couvrant tout le globe (latitudes de 1 en 1 degré,
+ * longitudes de 7,5 en 7,5 degrés, 16 directions par point). L'erreur vaut environ
+ * d² × tan|latitude| / (6 × 6 371 km) pour une distance d :
+ * <ul>
+ * <li>d ≤ 100 m : moins de 2 mm jusqu'à 80° de latitude, moins de 4 mm jusqu'à 85° ;</li>
+ * <li>d ≤ 1 km : moins de 5 cm jusqu'à 60°, moins de 16 cm jusqu'à 80°, moins de 32 cm jusqu'à 85° ;</li>
+ * <li>d ≤ 10 km : moins de 0,05 % jusqu'à 60°, moins de 0,16 % jusqu'à 80°.</li>
+ * </ul>
+ * À l'échelle d'une salle (10 à 15 m), l'écart est inférieur au dixième de millimètre : bien en deçà
+ * de la précision d'une localisation GPS.
+ */
+public enum ModeDistance {
+
+    /**
+     * Formule itérative de Vincenty sur l'ellipsoïde WGS84, identique à
+     * {@code Location.distanceBetween}. Référence exacte, mais la plus coûteuse (trigonométrie à chaque
+     * itération).
+     */
+    VINCENTY,
+
+    /**
+     * Projection équirectangulaire locale autour du centre de chaque salle, dont les facteurs
+     * d'échelle (qui dépendent de cos(latitude)) sont mis en cache dans le {@link RegistreSalles}.
+     * Une multiplication par axe et une racine carrée.
+     */
+    EQUIRECTANGULAIRE,
+
+    /**
+     * Même projection que {@link #EQUIRECTANGULAIRE}, mais l'appartenance à une salle compare
+     * directement les carrés (distance² &lt; rayon²), sans racine carrée. Mêmes bornes d'erreur.
+     */
+    CARRE_EQUIRECTANGULAIRE
+}
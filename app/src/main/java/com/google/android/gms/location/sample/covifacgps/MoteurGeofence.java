@@ -0,0 +1,319 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Moteur de géorepérage : détermine, pour une localisation, toutes les salles qui la contiennent.
+ * <p/>
+ * Les salles sont des cercles (centre + rayon) ou des polygones ({@link ContoursSalles}), lues dans
+ * un {@link RegistreSalles}. Un polygone est toujours testé dans le plan tangent à son centre, quel
+ * que soit le {@link ModeDistance} : boîte englobante, puis demi-plans s'il est convexe ou nombre de
+ * croisements sinon. Elles sont indexées dans une {@link GrilleSpatiale} de sorte qu'une mise à jour de
+ * localisation ne teste que les quelques salles proches, quel que soit le nombre total de salles du site.
+ * Une {@link HierarchieSalles} (bâtiments, étages, zones) peut remplacer la grille pour la recherche des
+ * salles contenant une localisation ({@link #fixerHierarchie}).
+ * <p/>
+ * Chaque recherche existe en degrés et en unités E7 ({@link CoordonneesE7}) ; la première arrondit la
+ * localisation au centimètre puis appelle la seconde, qui calcule les écarts aux centres en entiers.
+ * Seul {@link #distance} reste calculé en degrés, sans arrondi de la localisation.
+ */
+public final class MoteurGeofence {
+
+    /**
+     * Taille par défaut d'une cellule de la grille, en mètres (de l'ordre de la taille d'une salle).
+     */
+    public static final double TAILLE_CELLULE_DEFAUT_METRES = 50.0;
+
+    private final RegistreSalles registre;
+    private final GrilleSpatiale grille;
+
+    // Index hiérarchique utilisé à la place de la grille par 'sallesContenantE7' (null si aucun)
+    private HierarchieSalles hierarchie;
+
+    // Méthode de calcul de distance, modifiable à tout moment
+    private ModeDistance modeDistance = ModeDistance.VINCENTY;
+
+    public MoteurGeofence(RegistreSalles registre) {
+        this(registre, TAILLE_CELLULE_DEFAUT_METRES);
+    }
+
+    /**
+     * Crée un moteur sur les salles du registre et les indexe.
+     */
+    public MoteurGeofence(RegistreSalles registre, double tailleCelluleMetres) {
+        this.registre = registre;
+        grille = new GrilleSpatiale(tailleCelluleMetres);
+        reindexer();
+    }
+
+    public RegistreSalles registre() {
+        return registre;
+    }
+
+    public ModeDistance modeDistance() {
+        return modeDistance;
+    }
+
+    /**
+     * Choisit la méthode de calcul de distance (voir {@link ModeDistance} pour la précision de chacune).
+     */
+    public void fixerModeDistance(ModeDistance modeDistance) {
+        this.modeDistance = modeDistance;
+    }
+
+    public HierarchieSalles hierarchie() {
+        return hierarchie;
+    }
+
+    /**
+     * Confie la recherche des salles contenant une localisation à {@code hierarchie} (ou de nouveau à
+     * la grille si {@code null}), et l'indexe. La grille reste utilisée par
+     * {@link #distanceBordLePlusProche}.
+     */
+    public void fixerHierarchie(HierarchieSalles hierarchie) {
+        this.hierarchie = hierarchie;
+        if (hierarchie != null) {
+            hierarchie.indexer(registre);
+        }
+    }
+
+    /**
+     * Ajoute une salle circulaire au registre, l'indexe et retourne son numéro.
+     */
+    public int ajouterSalle(double latitude, double longitude, float rayonMetres, int capacite) {
+        int salle = registre.ajouter(latitude, longitude, rayonMetres, capacite);
+        indexer(salle);
+        if (hierarchie != null) {
+            hierarchie.indexer(registre);
+        }
+        return salle;
+    }
+
+    /**
+     * Ajoute une salle polygonale au registre (voir {@link RegistreSalles#ajouterPolygoneE7}), l'indexe
+     * et retourne son numéro.
+     */
+    public int ajouterPolygoneE7(int latitudeE7, int longitudeE7, double[] estSommets, double[] nordSommets,
+                                 int nombreSommets, int capacite) {
+        int salle = registre.ajouterPolygoneE7(latitudeE7, longitudeE7, estSommets, nordSommets, nombreSommets, capacite);
+        indexer(salle);
+        if (hierarchie != null) {
+            hierarchie.indexer(registre);
+        }
+        return salle;
+    }
+
+    /**
+     * Reconstruit l'index à partir du registre, après que des salles ont été déplacées ou supprimées.
+     */
+    public void reindexer() {
+        grille.vider();
+        for (int salle = 0; salle < registre.taille(); salle++) {
+            indexer(salle);
+        }
+        if (hierarchie != null) {
+            hierarchie.indexer(registre);
+        }
+    }
+
+    // Une salle polygonale est indexée par sa boîte englobante, une salle circulaire par son cercle
+    private void indexer(int salle) {
+        int contour = registre.contour(salle);
+        if (contour < 0) {
+            grille.inserer(salle, registre.latitudeE7(salle), registre.longitudeE7(salle), registre.rayon(salle));
+        } else {
+            ContoursSalles contours = registre.contours();
+            grille.insererRectangle(salle, registre.latitudeE7(salle), registre.longitudeE7(salle),
+                    contours.estMin(contour), contours.estMax(contour), contours.nordMin(contour), contours.nordMax(contour));
+        }
+    }
+
+    /**
+     * Distance en mètres entre (latitude, longitude) et le centre de la salle {@code salle}.
+     */
+    public float distance(int salle, double latitude, double longitude) {
+        if (modeDistance == ModeDistance.VINCENTY) {
+            return Distance.entre(latitude, longitude, registre.latitude(salle), registre.longitude(salle));
+        }
+        return Distance.equirectangulaire(latitude, longitude, registre.latitude(salle), registre.longitude(salle),
+                registre.metresParDegreLatitude(salle), registre.metresParDegreLongitude(salle));
+    }
+
+    /**
+     * Distance en mètres entre (latitudeE7, longitudeE7) et le centre de la salle {@code salle}.
+     */
+    public float distanceE7(int salle, int latitudeE7, int longitudeE7) {
+        if (modeDistance == ModeDistance.VINCENTY) {
+            return Distance.entre(CoordonneesE7.degres(latitudeE7), CoordonneesE7.degres(longitudeE7),
+                    registre.latitude(salle), registre.longitude(salle));
+        }
+        return (float) Math.sqrt(Distance.carreEquirectangulaireE7(latitudeE7, longitudeE7,
+                registre.latitudeE7(salle), registre.longitudeE7(salle),
+                registre.metresParE7Latitude()[salle], registre.metresParE7Longitude()[salle]));
+    }
+
+    /**
+     * Distance en mètres entre (latitudeE7, longitudeE7) et le bord de la salle {@code salle} : négative
+     * à l'intérieur, positive à l'extérieur. Pour un cercle, c'est {@link #distanceE7} moins le rayon.
+     */
+    public float distanceBordE7(int salle, int latitudeE7, int longitudeE7) {
+        int contour = registre.contour(salle);
+        if (contour < 0) {
+            return distanceE7(salle, latitudeE7, longitudeE7) - registre.rayon(salle);
+        }
+        double nord = (double) (latitudeE7 - registre.latitudeE7(salle)) * registre.metresParE7Latitude()[salle];
+        double est = (double) CoordonneesE7.ecartLongitude(longitudeE7, registre.longitudeE7(salle))
+                * registre.metresParE7Longitude()[salle];
+        return (float) registre.contours().distanceBordSignee(contour, est, nord);
+    }
+
+    /**
+     * Distance en mètres entre (latitude, longitude) et le bord de salle le plus proche, que l'on soit
+     * dans la salle (distance avant d'en sortir) ou à l'extérieur (distance avant d'y entrer). Seules
+     * les salles dont le bord est à moins de {@code rayonRechercheMetres} sont examinées.
+     *
+     * @return La distance au bord le plus proche, ou {@code rayonRechercheMetres} si aucun bord n'est plus proche.
+     */
+    public float distanceBordLePlusProche(double latitude, double longitude, float rayonRechercheMetres) {
+        return distanceBordLePlusProcheE7(CoordonneesE7.versE7(latitude), CoordonneesE7.versE7(longitude),
+                rayonRechercheMetres);
+    }
+
+    /**
+     * {@link #distanceBordLePlusProche} pour une localisation en unités E7.
+     */
+    public float distanceBordLePlusProcheE7(int latitudeE7, int longitudeE7, float rayonRechercheMetres) {
+        // Toutes les cellules qui recouvrent le carré de demi-côté 'rayonRechercheMetres' autour de la localisation
+        double latitude = CoordonneesE7.degres(latitudeE7);
+        int demiHauteur = (int) Math.ceil(rayonRechercheMetres / Distance.metresParDegreLatitude(latitude)
+                * CoordonneesE7.UNITES_PAR_DEGRE);
+        int demiLargeur = (int) Math.ceil(rayonRechercheMetres / Distance.metresParDegreLongitude(latitude)
+                * CoordonneesE7.UNITES_PAR_DEGRE);
+        int ligneMin = grille.ligne(latitudeE7 - demiHauteur);
+        int ligneMax = grille.ligne(latitudeE7 + demiHauteur);
+        int colonneMin = grille.colonne(longitudeE7 - demiLargeur);
+        int colonneMax = grille.colonne(longitudeE7 + demiLargeur);
+
+        float[] rayons = registre.rayons();
+        int[] numerosContours = registre.numerosContours();
+        ContoursSalles contours = registre.contours();
+        float plusProche = rayonRechercheMetres;
+        for (int ligne = ligneMin; ligne <= ligneMax; ligne++) {
+            for (int colonne = colonneMin; colonne <= colonneMax; colonne++) {
+                int emplacement = grille.cellule(colonne, ligne);
+                if (emplacement < 0) {
+                    continue;
+                }
+                // Une salle recouvrant plusieurs cellules est examinée plusieurs fois, sans effet sur le minimum
+                int[] candidates = grille.identifiants(emplacement);
+                int nombreCandidates = grille.nombre(emplacement);
+                for (int i = 0; i < nombreCandidates; i++) {
+                    int salle = candidates[i];
+                    int contour = numerosContours[salle];
+                    float bord;
+                    if (contour < 0) {
+                        bord = Math.abs(distanceE7(salle, latitudeE7, longitudeE7) - rayons[salle]);
+                    } else {
+                        // Polygone écarté par sa boîte englobante s'il ne peut pas être plus proche
+                        double nord = (double) (latitudeE7 - registre.latitudeE7(salle)) * registre.metresParE7Latitude()[salle];
+                        double est = (double) CoordonneesE7.ecartLongitude(longitudeE7, registre.longitudeE7(salle))
+                                * registre.metresParE7Longitude()[salle];
+                        bord = (float) contours.distanceBord(contour, est, nord, plusProche);
+                    }
+                    if (bord < plusProche) {
+                        plusProche = bord;
+                    }
+                }
+            }
+        }
+        return plusProche;
+    }
+
+    /**
+     * Recherche toutes les salles contenant (latitude, longitude), c'est-à-dire dont la distance au
+     * centre est strictement inférieure au rayon.
+     *
+     * @param sortie Tableau réutilisable qui reçoit les numéros des salles trouvées.
+     * @return Le nombre de salles trouvées (au plus {@code sortie.length}).
+     */
+    public int sallesContenant(double latitude, double longitude, int[] sortie) {
+        return sallesContenant(latitude, longitude, 0f, sortie);
+    }
+
+    /**
+     * Recherche toutes les salles dont la distance au centre est strictement inférieure au rayon
+     * augmenté de {@code margeMetres}. La marge doit être négative ou nulle (salles réduites) : la
+     * grille n'indexe une salle que dans les cellules couvertes par son rayon.
+     *
+     * @param sortie Tableau réutilisable qui reçoit les numéros des salles trouvées.
+     * @return Le nombre de salles trouvées (au plus {@code sortie.length}).
+     */
+    public int sallesContenant(double latitude, double longitude, float margeMetres, int[] sortie) {
+        return sallesContenantE7(CoordonneesE7.versE7(latitude), CoordonneesE7.versE7(longitude), margeMetres, sortie);
+    }
+
+    /**
+     * {@link #sallesContenant(double, double, float, int[])} pour une localisation en unités E7 : en
+     * mode équirectangulaire, aucune conversion en degrés ni division.
+     */
+    public int sallesContenantE7(int latitudeE7, int longitudeE7, float margeMetres, int[] sortie) {
+        if (margeMetres > 0f) {
+            throw new IllegalArgumentException("Marge positive : " + margeMetres);
+        }
+        int[] candidates;
+        int nombreCandidates;
+        if (hierarchie != null) {
+            nombreCandidates = hierarchie.rechercherE7(latitudeE7, longitudeE7);
+            candidates = hierarchie.candidates();
+        } else {
+            int emplacement = grille.celluleE7(latitudeE7, longitudeE7);
+            if (emplacement < 0) {
+                return 0;
+            }
+            candidates = grille.identifiants(emplacement);
+            nombreCandidates = grille.nombre(emplacement);
+        }
+
+        int[] latitudes = registre.latitudesE7();
+        int[] longitudes = registre.longitudesE7();
+        float[] rayons = registre.rayons();
+        double[] metresParE7Latitude = registre.metresParE7Latitude();
+        double[] metresParE7Longitude = registre.metresParE7Longitude();
+        int[] numerosContours = registre.numerosContours();
+        ContoursSalles contours = registre.contours();
+
+        int trouvees = 0;
+        for (int i = 0; i < nombreCandidates && trouvees < sortie.length; i++) {
+            int salle = candidates[i];
+            float rayon = rayons[salle] + margeMetres;
+            if (rayon <= 0f) {
+                continue;
+            }
+            boolean contient;
+            int contour = numerosContours[salle];
+            if (contour >= 0) {
+                double nord = (double) (latitudeE7 - latitudes[salle]) * metresParE7Latitude[salle];
+                double est = (double) CoordonneesE7.ecartLongitude(longitudeE7, longitudes[salle]) * metresParE7Longitude[salle];
+                contient = contours.contient(contour, est, nord, margeMetres);
+            } else {
+                switch (modeDistance) {
+                    case EQUIRECTANGULAIRE:
+                        contient = (float) Math.sqrt(Distance.carreEquirectangulaireE7(latitudeE7, longitudeE7,
+                                latitudes[salle], longitudes[salle],
+                                metresParE7Latitude[salle], metresParE7Longitude[salle])) < rayon;
+                        break;
+                    case CARRE_EQUIRECTANGULAIRE:
+                        contient = Distance.carreEquirectangulaireE7(latitudeE7, longitudeE7, latitudes[salle], longitudes[salle],
+                                metresParE7Latitude[salle], metresParE7Longitude[salle]) < (double) rayon * rayon;
+                        break;
+                    default:
+                        contient = Distance.entre(CoordonneesE7.degres(latitudeE7), CoordonneesE7.degres(longitudeE7),
+                                CoordonneesE7.degres(latitudes[salle]), CoordonneesE7.degres(longitudes[salle])) < rayon;
+                        break;
+                }
+            }
+            if (contient) {
+                sortie[trouvees++] = salle;
+            }
+        }
+        return trouvees;
+    }
+}
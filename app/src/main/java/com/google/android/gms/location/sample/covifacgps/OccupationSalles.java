@@ -0,0 +1,231 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Nombre d'usagers présents dans chaque salle, alimenté par les entrées et les sorties de nombreux
+ * producteurs concurrents (traitement des localisations, agrégation de plusieurs appareils...).
+ * <p/>
+ * Chaque compteur est réparti en bandes, comme un {@code LongAdder} : un producteur modifie la bande
+ * de son thread, et des threads de bandes différentes n'écrivent jamais dans la même ligne de cache.
+ * L'occupation d'une salle est la somme de ses bandes. Les bandes sont rangées dans un seul
+ * {@link AtomicIntegerArray} (une ligne de salles par bande), sans aucun objet par salle.
+ * <p/>
+ * {@link #occupation(int)} lit une salle sans bloquer personne, mais peut observer une modification
+ * en cours. {@link #instantane(int[])} retourne un état cohérent de toutes les salles (aucune
+ * modification à moitié appliquée, un déplacement d'une salle à l'autre jamais vu à moitié) : il
+ * suspend les nouvelles modifications le temps d'attendre la fin de celles en cours et de copier les
+ * compteurs. En dehors des instantanés, une modification ne prend aucun verrou et ne fait que trois
+ * opérations atomiques dans sa bande.
+ */
+public final class OccupationSalles {
+
+    // Écart, en éléments, entre deux valeurs qui ne doivent pas partager une ligne de cache (128 octets)
+    private static final int ECART_INT = 32;
+    private static final int ECART_LONG = 16;
+
+    private final int nombreSalles;
+    private final int nombreBandes;
+    private final int masqueBandes;
+
+    // Longueur d'une ligne de salles, arrondie pour que chaque bande commence sur sa propre ligne de cache
+    private final int pas;
+
+    // Bandes des compteurs : l'occupation de la salle s dans la bande b est à l'indice b * pas + s
+    private final AtomicIntegerArray bandes;
+
+    // Par bande : nombre de modifications commencées et terminées, pour détecter les modifications en cours
+    private final AtomicLongArray commencees;
+    private final AtomicLongArray terminees;
+
+    // Vrai pendant un instantané : les nouvelles modifications attendent
+    private volatile boolean gel = false;
+
+    /**
+     * Crée les compteurs avec une bande par cœur de processeur (arrondi à une puissance de 2).
+     */
+    public OccupationSalles(int nombreSalles) {
+        this(nombreSalles, Runtime.getRuntime().availableProcessors());
+    }
+
+    public OccupationSalles(int nombreSalles, int nombreBandesMin) {
+        if (nombreSalles < 0 || nombreBandesMin <= 0) {
+            throw new IllegalArgumentException("Dimensions invalides : " + nombreSalles + " salles, " + nombreBandesMin + " bandes");
+        }
+        int nombre = 1;
+        while (nombre < nombreBandesMin) {
+            nombre <<= 1;
+        }
+        this.nombreSalles = nombreSalles;
+        this.nombreBandes = nombre;
+        this.masqueBandes = nombre - 1;
+        this.pas = ((nombreSalles + ECART_INT - 1) / ECART_INT + 1) * ECART_INT;
+        bandes = new AtomicIntegerArray(nombre * pas);
+        commencees = new AtomicLongArray(nombre * ECART_LONG);
+        terminees = new AtomicLongArray(nombre * ECART_LONG);
+    }
+
+    public int nombreSalles() {
+        return nombreSalles;
+    }
+
+    public int nombreBandes() {
+        return nombreBandes;
+    }
+
+    /**
+     * Un usager entre dans la salle {@code salle}.
+     */
+    public void entrer(int salle) {
+        modifier(salle, 1, -1, 0);
+    }
+
+    /**
+     * Un usager sort de la salle {@code salle}.
+     */
+    public void sortir(int salle) {
+        modifier(salle, -1, -1, 0);
+    }
+
+    /**
+     * Un usager passe directement de la salle {@code depart} à la salle {@code arrivee}, en une seule
+     * modification : aucun instantané ne le voit dans les deux salles ou dans aucune.
+     */
+    public void deplacer(int depart, int arrivee) {
+        modifier(depart, -1, arrivee, 1);
+    }
+
+    /**
+     * Occupation de la salle {@code salle}, lue sans attendre : exacte en l'absence de modification
+     * concurrente, sinon peut inclure une partie des modifications en cours.
+     */
+    public int occupation(int salle) {
+        verifier(salle);
+        int somme = 0;
+        for (int b = 0; b < nombreBandes; b++) {
+            somme += bandes.get(b * pas + salle);
+        }
+        return somme;
+    }
+
+    /**
+     * Copie dans {@code sortie} l'occupation de toutes les salles, telle qu'elle était à un même instant.
+     *
+     * @param sortie Tableau d'au moins {@link #nombreSalles()} éléments.
+     */
+    public void instantane(int[] sortie) {
+        if (sortie.length < nombreSalles) {
+            throw new IllegalArgumentException("Tableau trop petit : " + sortie.length + " < " + nombreSalles);
+        }
+        synchronized (this) {
+            geler();
+            try {
+                for (int salle = 0; salle < nombreSalles; salle++) {
+                    sortie[salle] = 0;
+                }
+                for (int b = 0; b < nombreBandes; b++) {
+                    int debut = b * pas;
+                    for (int salle = 0; salle < nombreSalles; salle++) {
+                        sortie[salle] += bandes.get(debut + salle);
+                    }
+                }
+            } finally {
+                gel = false;
+            }
+        }
+    }
+
+    /**
+     * Remet l'occupation de toutes les salles à zéro, de façon cohérente avec les instantanés.
+     */
+    public void remettreAZero() {
+        synchronized (this) {
+            geler();
+            try {
+                for (int i = 0; i < bandes.length(); i++) {
+                    bandes.set(i, 0);
+                }
+            } finally {
+                gel = false;
+            }
+        }
+    }
+
+    /**
+     * Remplace l'occupation de toutes les salles par {@code occupations} (relue d'un journal au démarrage),
+     * de façon cohérente avec les instantanés. Les salles au-delà de {@code occupations} sont remises à zéro.
+     */
+    public void restaurer(int[] occupations) {
+        synchronized (this) {
+            geler();
+            try {
+                for (int i = 0; i < bandes.length(); i++) {
+                    bandes.set(i, 0);
+                }
+                for (int salle = 0; salle < Math.min(nombreSalles, occupations.length); salle++) {
+                    bandes.set(salle, occupations[salle]);
+                }
+            } finally {
+                gel = false;
+            }
+        }
+    }
+
+    /**
+     * Applique {@code delta} à la salle {@code salle} et, si {@code autreSalle} est positif, {@code autreDelta}
+     * à la salle {@code autreSalle}, dans la bande du thread courant.
+     */
+    private void modifier(int salle, int delta, int autreSalle, int autreDelta) {
+        verifier(salle);
+        if (autreSalle >= 0) {
+            verifier(autreSalle);
+        }
+        int bande = bandeCourante();
+        int compteur = bande * ECART_LONG;
+        while (true) {
+            // La modification est annoncée avant de lire 'gel' : un instantané qui commence ensuite l'attendra
+            commencees.incrementAndGet(compteur);
+            if (!gel) {
+                break;
+            }
+            // Un instantané est en cours : on retire l'annonce et on attend qu'il se termine
+            commencees.decrementAndGet(compteur);
+            while (gel) {
+                Thread.yield();
+            }
+        }
+        int debut = bande * pas;
+        bandes.addAndGet(debut + salle, delta);
+        if (autreSalle >= 0) {
+            bandes.addAndGet(debut + autreSalle, autreDelta);
+        }
+        terminees.incrementAndGet(compteur);
+    }
+
+    /**
+     * Suspend les nouvelles modifications puis attend la fin de celles en cours. Appelé sous le verrou de l'instance.
+     */
+    private void geler() {
+        gel = true;
+        for (int b = 0; b < nombreBandes; b++) {
+            int compteur = b * ECART_LONG;
+            // 'terminees' est lu avant 'commencees' : l'égalité garantit qu'aucune modification n'était en cours
+            while (terminees.get(compteur) != commencees.get(compteur)) {
+                LockSupport.parkNanos(1000);
+            }
+        }
+    }
+
+    private int bandeCourante() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & masqueBandes;
+    }
+
+    private void verifier(int salle) {
+        if (salle < 0 || salle >= nombreSalles) {
+            throw new IndexOutOfBoundsException("Salle " + salle + " hors de [0, " + nombreSalles + ")");
+        }
+    }
+}
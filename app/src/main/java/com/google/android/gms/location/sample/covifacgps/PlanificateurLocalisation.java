@@ -0,0 +1,178 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Planificateur adaptatif des demandes de localisation.
+ * <p/>
+ * Une entrée ou une sortie de salle ne peut se produire qu'au bord d'une salle. Après chaque
+ * localisation, le planificateur estime le temps minimal avant d'atteindre le bord le plus proche
+ * (distance au bord, diminuée de la précision de la localisation, divisée par la vitesse récente) et
+ * choisit l'intervalle suivant pour que la localisation suivante arrive avant ce bord. Loin de toute
+ * salle, l'intervalle s'allonge et la priorité passe en économie d'énergie ; près d'un bord, on revient
+ * à l'intervalle de base en haute précision. Le délai de détection d'une entrée ou d'une sortie reste
+ * donc celui de l'intervalle de base.
+ * <p/>
+ * Les intervalles sont des multiples de l'intervalle de base par une puissance de 2, et la priorité
+ * change avec une hystérésis : la demande de localisation n'est réémise que lorsque le réglage change
+ * réellement.
+ * <p/>
+ * En livraison groupée, le planificateur ne voit les localisations qu'à la livraison du lot : un lot qui
+ * dure plus longtemps que le temps avant le bord retarderait d'autant l'entrée ou la sortie. L'attente
+ * maximale d'un lot ({@link #attenteMaxLot()}) ne suit donc pas l'intervalle : à l'intervalle de base, c'est
+ * l'attente maximale fixe, celle d'une demande non adaptative, et le délai de détection reste le sien ; à un
+ * intervalle allongé, déjà le plus long qui laisse arriver la localisation suivante avant le bord, un lot de
+ * deux localisations dépasserait ce bord : chaque localisation est livrée sans attendre.
+ */
+public final class PlanificateurLocalisation {
+
+    /**
+     * Vitesse supposée au minimum, en mètres par seconde (marche rapide) : un usager immobile peut repartir à tout moment.
+     */
+    public static final float VITESSE_MIN_METRES_PAR_SECONDE = 2.0f;
+
+    /**
+     * Distance au bord (précision déduite) au-delà de laquelle on passe en économie d'énergie, en mètres.
+     */
+    public static final float DISTANCE_ECONOMIE_METRES = 300f;
+
+    /**
+     * Distance au bord (précision déduite) en deçà de laquelle on revient en haute précision, en mètres.
+     */
+    public static final float DISTANCE_HAUTE_PRECISION_METRES = 150f;
+
+    // Distance au-delà de laquelle les bords de salles ne sont pas recherchés, en mètres
+    private static final float RAYON_RECHERCHE_METRES = 1000f;
+
+    // Part de la vitesse précédente conservée à chaque localisation (la vitesse récente décroît lentement)
+    private static final float DECROISSANCE_VITESSE = 0.5f;
+
+    private final MoteurGeofence moteur;
+    private final long intervalleBase;
+    private final long intervalleMax;
+    private final long attenteMaxLotBase;
+
+    // Réglage courant, lu par le thread qui réémet la demande de localisation
+    private volatile long intervalle;
+    private volatile long attenteMaxLot;
+    private volatile boolean hautePrecision = true;
+
+    // Dernière localisation reçue, pour estimer la vitesse lorsque le fournisseur ne la donne pas
+    private boolean localisationPrecedente = false;
+    private double latitudePrecedente;
+    private double longitudePrecedente;
+    private long instantPrecedent;
+    private float vitesseRecente = 0f;
+    private float distanceBord = Float.NaN;
+
+    /**
+     * @param intervalleBase Intervalle près d'un bord de salle, en millisecondes (celui d'une demande non adaptative).
+     * @param intervalleMax  Intervalle maximal loin de toute salle, en millisecondes.
+     */
+    public PlanificateurLocalisation(MoteurGeofence moteur, long intervalleBase, long intervalleMax) {
+        this(moteur, intervalleBase, intervalleMax, 0);
+    }
+
+    /**
+     * @param attenteMaxLot Attente maximale d'un lot de localisations en livraison groupée, en millisecondes (0 sans
+     *                      livraison groupée) : celle d'une demande non adaptative, jamais dépassée.
+     */
+    public PlanificateurLocalisation(MoteurGeofence moteur, long intervalleBase, long intervalleMax, long attenteMaxLot) {
+        if (intervalleBase <= 0 || intervalleMax < intervalleBase || attenteMaxLot < 0) {
+            throw new IllegalArgumentException("Intervalles invalides : " + intervalleBase + ", " + intervalleMax
+                    + ", " + attenteMaxLot);
+        }
+        this.moteur = moteur;
+        this.intervalleBase = intervalleBase;
+        this.intervalleMax = intervalleMax;
+        this.attenteMaxLotBase = attenteMaxLot;
+        this.intervalle = intervalleBase;
+        this.attenteMaxLot = attenteMaxLot;
+    }
+
+    /**
+     * Intervalle à demander, en millisecondes.
+     */
+    public long intervalle() {
+        return intervalle;
+    }
+
+    /**
+     * Attente maximale d'un lot à demander, en millisecondes (0 : chaque localisation est livrée sans attendre).
+     */
+    public long attenteMaxLot() {
+        return attenteMaxLot;
+    }
+
+    /**
+     * Vrai s'il faut demander la haute précision, faux pour l'économie d'énergie.
+     */
+    public boolean hautePrecision() {
+        return hautePrecision;
+    }
+
+    /**
+     * Distance au bord de salle le plus proche lors de la dernière localisation, en mètres.
+     */
+    public float distanceBord() {
+        return distanceBord;
+    }
+
+    /**
+     * Revient au réglage de base (au démarrage de la localisation).
+     */
+    public void reinitialiser() {
+        intervalle = intervalleBase;
+        attenteMaxLot = attenteMaxLotBase;
+        hautePrecision = true;
+        localisationPrecedente = false;
+        vitesseRecente = 0f;
+        distanceBord = Float.NaN;
+    }
+
+    /**
+     * Prend en compte une nouvelle localisation.
+     *
+     * @param precisionMetres Rayon de précision de la localisation (0 si inconnu).
+     * @param vitesse         Vitesse en mètres par seconde donnée par le fournisseur, ou {@code Float.NaN} si inconnue.
+     * @param instant         Heure de la localisation, en millisecondes.
+     * @return Vrai si le réglage a changé et que la demande de localisation doit être réémise.
+     */
+    public boolean mettreAJour(double latitude, double longitude, float precisionMetres, float vitesse, long instant) {
+        // Vitesse récente : la vitesse donnée par le fournisseur, sinon celle estimée depuis la localisation précédente
+        if (Float.isNaN(vitesse) && localisationPrecedente && instant > instantPrecedent) {
+            vitesse = Distance.equirectangulaire(latitude, longitude, latitudePrecedente, longitudePrecedente,
+                    Distance.metresParDegreLatitude(latitude), Distance.metresParDegreLongitude(latitude))
+                    * 1000f / (instant - instantPrecedent);
+        }
+        vitesseRecente = Math.max(Float.isNaN(vitesse) ? 0f : vitesse, vitesseRecente * DECROISSANCE_VITESSE);
+        localisationPrecedente = true;
+        latitudePrecedente = latitude;
+        longitudePrecedente = longitude;
+        instantPrecedent = instant;
+
+        // Distance que l'on est certain de devoir parcourir avant d'atteindre un bord
+        distanceBord = moteur.distanceBordLePlusProche(latitude, longitude, RAYON_RECHERCHE_METRES);
+        float distanceSure = Math.max(0f, distanceBord - precisionMetres);
+        float vitessePrevue = Math.max(vitesseRecente, VITESSE_MIN_METRES_PAR_SECONDE);
+        double tempsAvantBord = distanceSure / vitessePrevue * 1000.0;
+
+        // Plus long intervalle (de base × 2^n) qui laisse arriver la localisation suivante avant le bord
+        long nouvelIntervalle = intervalleBase;
+        while (nouvelIntervalle * 2 <= intervalleMax && nouvelIntervalle * 2 <= tempsAvantBord) {
+            nouvelIntervalle *= 2;
+        }
+
+        // Livraison groupée à l'intervalle de base seulement, avec l'attente d'une demande non adaptative
+        long nouvelleAttente = nouvelIntervalle == intervalleBase ? attenteMaxLotBase : 0;
+
+        boolean nouvelleHautePrecision = hautePrecision
+                ? distanceSure < DISTANCE_ECONOMIE_METRES
+                : distanceSure < DISTANCE_HAUTE_PRECISION_METRES;
+
+        boolean change = nouvelIntervalle != intervalle || nouvelleAttente != attenteMaxLot
+                || nouvelleHautePrecision != hautePrecision;
+        intervalle = nouvelIntervalle;
+        attenteMaxLot = nouvelleAttente;
+        hautePrecision = nouvelleHautePrecision;
+        return change;
+    }
+}
@@ -0,0 +1,202 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Projection locale est/nord (ENU) autour d'un point d'ancrage : une coordonnée géographique devient
+ * un couple de mètres (est, nord) par rapport à l'ancre, et inversement.
+ * <p/>
+ * Les facteurs d'échelle de l'ellipsoïde WGS84 ({@link Distance#metresParDegreLatitude},
+ * {@link Distance#metresParDegreLongitude}) ne sont calculés qu'au changement d'ancre : une projection
+ * se réduit ensuite à un écart entier E7 multiplié par une constante, sans fonction trigonométrique
+ * ni allocation. Sur la centaine de mètres d'un site, l'erreur reste sous le millimètre (voir
+ * {@link ModeDistance}).
+ * <p/>
+ * C'est ce qui permet de décrire un plan de salles en mètres ({@link #ajouterSalle},
+ * {@link #ajouterGrille}) : le même plan tombe à la même distance réelle quelle que soit la latitude
+ * du site, alors qu'un écart fixe en degrés de longitude rétrécit en allant vers les pôles.
+ */
+public final class ProjectionLocale {
+
+    // Point d'ancrage
+    private int latitudeAncreE7;
+    private int longitudeAncreE7;
+    private boolean ancree;
+
+    // Facteurs d'échelle à l'ancre, en mètres par unité E7
+    private double metresParE7Latitude;
+    private double metresParE7Longitude;
+
+    public ProjectionLocale() {
+    }
+
+    public ProjectionLocale(double latitudeAncre, double longitudeAncre) {
+        ancrer(latitudeAncre, longitudeAncre);
+    }
+
+    /**
+     * Ancre la projection en (latitudeAncre, longitudeAncre), en degrés arrondis à l'unité E7.
+     */
+    public void ancrer(double latitudeAncre, double longitudeAncre) {
+        ancrerE7(CoordonneesE7.versE7(latitudeAncre), CoordonneesE7.versE7(longitudeAncre));
+    }
+
+    /**
+     * Ancre la projection en un point E7. Les facteurs d'échelle ne sont recalculés que si la latitude
+     * de l'ancre change.
+     */
+    public void ancrerE7(int latitudeE7, int longitudeE7) {
+        if (!ancree || latitudeE7 != latitudeAncreE7) {
+            double latitude = CoordonneesE7.degres(latitudeE7);
+            metresParE7Latitude = Distance.metresParDegreLatitude(latitude) / CoordonneesE7.UNITES_PAR_DEGRE;
+            metresParE7Longitude = Distance.metresParDegreLongitude(latitude) / CoordonneesE7.UNITES_PAR_DEGRE;
+        }
+        latitudeAncreE7 = latitudeE7;
+        longitudeAncreE7 = longitudeE7;
+        ancree = true;
+    }
+
+    public int latitudeAncreE7() {
+        return latitudeAncreE7;
+    }
+
+    public int longitudeAncreE7() {
+        return longitudeAncreE7;
+    }
+
+    /**
+     * Distance en mètres vers l'est depuis l'ancre (négative vers l'ouest), en passant l'antiméridien
+     * si nécessaire.
+     */
+    public double estE7(int longitudeE7) {
+        return CoordonneesE7.ecartLongitude(longitudeE7, longitudeAncreE7) * metresParE7Longitude;
+    }
+
+    /**
+     * Distance en mètres vers le nord depuis l'ancre (négative vers le sud).
+     */
+    public double nordE7(int latitudeE7) {
+        return (latitudeE7 - latitudeAncreE7) * metresParE7Latitude;
+    }
+
+    /**
+     * Comme {@link #estE7}, pour une longitude en degrés non arrondie.
+     */
+    public double est(double longitude) {
+        double ecart = longitude * CoordonneesE7.UNITES_PAR_DEGRE - longitudeAncreE7;
+        if (ecart > 180.0 * CoordonneesE7.UNITES_PAR_DEGRE) {
+            ecart -= 360.0 * CoordonneesE7.UNITES_PAR_DEGRE;
+        } else if (ecart < -180.0 * CoordonneesE7.UNITES_PAR_DEGRE) {
+            ecart += 360.0 * CoordonneesE7.UNITES_PAR_DEGRE;
+        }
+        return ecart * metresParE7Longitude;
+    }
+
+    /**
+     * Comme {@link #nordE7}, pour une latitude en degrés non arrondie.
+     */
+    public double nord(double latitude) {
+        return (latitude * CoordonneesE7.UNITES_PAR_DEGRE - latitudeAncreE7) * metresParE7Latitude;
+    }
+
+    /**
+     * Latitude en degrés du point situé à {@code nord} mètres de l'ancre, sans arrondi.
+     */
+    public double latitude(double nord) {
+        return (latitudeAncreE7 + nord / metresParE7Latitude) / CoordonneesE7.UNITES_PAR_DEGRE;
+    }
+
+    /**
+     * Longitude en degrés du point situé à {@code est} mètres de l'ancre, sans arrondi, ramenée dans
+     * [-180°, 180°].
+     */
+    public double longitude(double est) {
+        double longitude = (longitudeAncreE7 + est / metresParE7Longitude) / CoordonneesE7.UNITES_PAR_DEGRE;
+        if (longitude > 180) {
+            longitude -= 360;
+        } else if (longitude < -180) {
+            longitude += 360;
+        }
+        return longitude;
+    }
+
+    /**
+     * Latitude E7 du point situé à {@code nord} mètres de l'ancre.
+     */
+    public int latitudeE7(double nord) {
+        return CoordonneesE7.versE7(latitude(nord));
+    }
+
+    /**
+     * Longitude E7 du point situé à {@code est} mètres de l'ancre.
+     */
+    public int longitudeE7(double est) {
+        return CoordonneesE7.versE7(longitude(est));
+    }
+
+    /**
+     * Ajoute au registre une salle centrée en (est, nord) mètres de l'ancre.
+     *
+     * @return Numéro de la salle dans le registre.
+     */
+    public int ajouterSalle(RegistreSalles registre, double est, double nord, float rayonMetres, int capacite) {
+        return registre.ajouterE7(latitudeE7(nord), longitudeE7(est), rayonMetres, capacite);
+    }
+
+    /**
+     * Ajoute au registre une salle polygonale dont les sommets sont donnés en mètres de l'ancre (un
+     * plan d'étage). Son centre est celui de la boîte englobante, arrondi à l'unité E7.
+     *
+     * @return Numéro de la salle dans le registre.
+     */
+    public int ajouterPolygone(RegistreSalles registre, double[] est, double[] nord, int nombreSommets, int capacite) {
+        double estMin = Double.POSITIVE_INFINITY;
+        double estMax = Double.NEGATIVE_INFINITY;
+        double nordMin = Double.POSITIVE_INFINITY;
+        double nordMax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < nombreSommets; i++) {
+            estMin = Math.min(estMin, est[i]);
+            estMax = Math.max(estMax, est[i]);
+            nordMin = Math.min(nordMin, nord[i]);
+            nordMax = Math.max(nordMax, nord[i]);
+        }
+        int latitudeE7 = latitudeE7((nordMin + nordMax) / 2);
+        int longitudeE7 = longitudeE7((estMin + estMax) / 2);
+
+        // Sommets ramenés au centre arrondi
+        double estCentre = estE7(longitudeE7);
+        double nordCentre = nordE7(latitudeE7);
+        double[] estSommets = new double[nombreSommets];
+        double[] nordSommets = new double[nombreSommets];
+        for (int i = 0; i < nombreSommets; i++) {
+            estSommets[i] = est[i] - estCentre;
+            nordSommets[i] = nord[i] - nordCentre;
+        }
+        return registre.ajouterPolygoneE7(latitudeE7, longitudeE7, estSommets, nordSommets, nombreSommets, capacite);
+    }
+
+    /**
+     * Déplace une salle du registre en (est, nord) mètres de l'ancre. Le moteur de géorepérage doit
+     * ensuite être réindexé.
+     */
+    public void deplacerSalle(RegistreSalles registre, int salle, double est, double nord) {
+        registre.deplacerE7(salle, latitudeE7(nord), longitudeE7(est));
+    }
+
+    /**
+     * Ajoute au registre une grille de {@code colonnes} × {@code lignes} salles espacées de
+     * {@code espacementMetres}, la première centrée en (est, nord) mètres de l'ancre, les colonnes vers
+     * l'est et les lignes vers le nord.
+     *
+     * @return Numéro de la première salle ajoutée ; les suivantes sont numérotées ligne par ligne.
+     */
+    public int ajouterGrille(RegistreSalles registre, double est, double nord, int colonnes, int lignes,
+                             double espacementMetres, float rayonMetres, int capacite) {
+        int premiere = registre.taille();
+        for (int ligne = 0; ligne < lignes; ligne++) {
+            for (int colonne = 0; colonne < colonnes; colonne++) {
+                ajouterSalle(registre, est + colonne * espacementMetres, nord + ligne * espacementMetres,
+                        rayonMetres, capacite);
+            }
+        }
+        return premiere;
+    }
+}
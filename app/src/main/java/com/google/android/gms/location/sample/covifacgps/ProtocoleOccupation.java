@@ -0,0 +1,198 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Trames échangées entre les appareils ({@link ClientOccupation}) et le serveur d'agrégation de
+ * l'occupation ({@link ServeurOccupation}), sur une connexion TCP.
+ * <p/>
+ * Chaque trame (petit-boutiste) commence par sa longueur (int, octets qui suivent ce champ, au plus
+ * {@link #TAILLE_TRAME_MAX}) et son type (int), suivis de champs de taille fixe :
+ * <ul>
+ * <li>{@link #TYPE_LOT} (appareil vers serveur) : appareil (long, non nul), numéro du lot (long, croissant à
+ * partir de 1 pour un appareil), nombre d'événements (int), puis chaque événement (int : numéro de la
+ * salle pour une entrée, −1 − numéro pour une sortie, comme dans {@link JournalOccupation}) ;</li>
+ * <li>{@link #TYPE_ACQUITTEMENT} (serveur vers appareil, un par lot, dans l'ordre des lots) : appareil
+ * (long), numéro du lot (long), statut (int, {@link #STATUT_ACCEPTE}, {@link #STATUT_DOUBLON} ou
+ * {@link #STATUT_REFUSE}) ;</li>
+ * <li>{@link #TYPE_LECTURE} (appareil vers serveur) : première salle (int), nombre de salles (int) ;</li>
+ * <li>{@link #TYPE_OCCUPATIONS} (réponse à une lecture) : première salle (int), nombre de salles (int),
+ * puis l'occupation de chaque salle (int) ;</li>
+ * <li>{@link #TYPE_ABONNEMENT} (appareil vers serveur) : nombre de salles (int), puis chaque salle (int). Remplace
+ * l'abonnement précédent de la connexion ;</li>
+ * <li>{@link #TYPE_MODIFICATIONS} (serveur vers appareil abonné, à tout moment) : nombre de salles (int), puis
+ * chaque salle modifiée (int) et sa nouvelle occupation (int). La première trame après un abonnement donne
+ * l'occupation de toutes ses salles ;</li>
+ * <li>{@link #TYPE_PRESENCE} (appareil vers serveur, acquittée comme un lot) : appareil (long), numéro (long, pris
+ * dans la même suite que les lots), nombre de salles (int), puis chaque salle où se trouve l'appareil (int, répétée
+ * s'il y est compté plusieurs fois). Remplace les salles où le serveur compte l'appareil.</li>
+ * </ul>
+ * Un lot renvoyé après une erreur de connexion porte le même numéro : le serveur ne l'applique qu'une
+ * fois et l'acquitte avec {@link #STATUT_DOUBLON}.
+ */
+public final class ProtocoleOccupation {
+
+    /**
+     * Port TCP du serveur par défaut.
+     */
+    public static final int PORT_DEFAUT = 7407;
+
+    public static final int TYPE_LOT = 1;
+    public static final int TYPE_ACQUITTEMENT = 2;
+    public static final int TYPE_LECTURE = 3;
+    public static final int TYPE_OCCUPATIONS = 4;
+    public static final int TYPE_ABONNEMENT = 5;
+    public static final int TYPE_MODIFICATIONS = 6;
+    public static final int TYPE_PRESENCE = 7;
+
+    public static final int STATUT_ACCEPTE = 0;
+    public static final int STATUT_DOUBLON = 1;
+    public static final int STATUT_REFUSE = 2;
+
+    /**
+     * Longueur maximale d'une trame, sans le champ de longueur.
+     */
+    public static final int TAILLE_TRAME_MAX = 16384;
+
+    /**
+     * Champs de longueur et de type au début de chaque trame.
+     */
+    public static final int TAILLE_EN_TETE = 8;
+
+    // Longueur (champ de longueur exclu) des trames sans partie variable
+    static final int LONGUEUR_LOT_VIDE = 4 + 8 + 8 + 4;
+    static final int LONGUEUR_ACQUITTEMENT = 4 + 8 + 8 + 4;
+    static final int LONGUEUR_LECTURE = 4 + 4 + 4;
+    static final int LONGUEUR_OCCUPATIONS_VIDE = 4 + 4 + 4;
+    static final int LONGUEUR_ABONNEMENT_VIDE = 4 + 4;
+    static final int LONGUEUR_MODIFICATIONS_VIDE = 4 + 4;
+
+    public static final int EVENEMENTS_PAR_LOT_MAX = (TAILLE_TRAME_MAX - LONGUEUR_LOT_VIDE) / 4;
+
+    public static final int SALLES_PAR_PRESENCE_MAX = EVENEMENTS_PAR_LOT_MAX;
+
+    public static final int SALLES_PAR_LECTURE_MAX = (TAILLE_TRAME_MAX - LONGUEUR_OCCUPATIONS_VIDE) / 4;
+
+    public static final int SALLES_PAR_ABONNEMENT_MAX = (TAILLE_TRAME_MAX - LONGUEUR_ABONNEMENT_VIDE) / 4;
+
+    public static final int MODIFICATIONS_PAR_TRAME_MAX = (TAILLE_TRAME_MAX - LONGUEUR_MODIFICATIONS_VIDE) / 8;
+
+    private ProtocoleOccupation() {
+    }
+
+    /**
+     * Événement d'entrée dans la salle {@code salle}.
+     */
+    public static int entree(int salle) {
+        return salle;
+    }
+
+    /**
+     * Événement de sortie de la salle {@code salle}.
+     */
+    public static int sortie(int salle) {
+        return -1 - salle;
+    }
+
+    /**
+     * Salle d'un événement d'entrée ou de sortie.
+     */
+    public static int salle(int evenement) {
+        return evenement >= 0 ? evenement : -1 - evenement;
+    }
+
+    /**
+     * Taille totale, en octets, d'un lot de {@code nombre} événements.
+     */
+    public static int tailleLot(int nombre) {
+        return 4 + LONGUEUR_LOT_VIDE + 4 * nombre;
+    }
+
+    /**
+     * Taille totale, en octets, d'une réponse de {@code nombre} occupations.
+     */
+    public static int tailleOccupations(int nombre) {
+        return 4 + LONGUEUR_OCCUPATIONS_VIDE + 4 * nombre;
+    }
+
+    /**
+     * Taille totale, en octets, d'une trame de {@code nombre} modifications.
+     */
+    public static int tailleModifications(int nombre) {
+        return 4 + LONGUEUR_MODIFICATIONS_VIDE + 8 * nombre;
+    }
+
+    /**
+     * Ajoute à {@code tampon} (petit-boutiste) un lot des événements {@code evenements[debut..debut + nombre[}.
+     */
+    public static void ecrireLot(ByteBuffer tampon, long appareil, long numero, int[] evenements, int debut, int nombre) {
+        ecrireLot(tampon, TYPE_LOT, appareil, numero, evenements, debut, nombre);
+    }
+
+    /**
+     * Ajoute à {@code tampon} une présence dans les salles {@code salles[debut..debut + nombre[}.
+     */
+    public static void ecrirePresence(ByteBuffer tampon, long appareil, long numero, int[] salles, int debut, int nombre) {
+        ecrireLot(tampon, TYPE_PRESENCE, appareil, numero, salles, debut, nombre);
+    }
+
+    private static void ecrireLot(ByteBuffer tampon, int type, long appareil, long numero, int[] valeurs, int debut, int nombre) {
+        if (nombre < 0 || nombre > EVENEMENTS_PAR_LOT_MAX) {
+            throw new IllegalArgumentException("Nombre d'événements invalide : " + nombre);
+        }
+        tampon.putInt(LONGUEUR_LOT_VIDE + 4 * nombre);
+        tampon.putInt(type);
+        tampon.putLong(appareil);
+        tampon.putLong(numero);
+        tampon.putInt(nombre);
+        for (int i = debut; i < debut + nombre; i++) {
+            tampon.putInt(valeurs[i]);
+        }
+    }
+
+    public static void ecrireAcquittement(ByteBuffer tampon, long appareil, long numero, int statut) {
+        tampon.putInt(LONGUEUR_ACQUITTEMENT);
+        tampon.putInt(TYPE_ACQUITTEMENT);
+        tampon.putLong(appareil);
+        tampon.putLong(numero);
+        tampon.putInt(statut);
+    }
+
+    public static void ecrireLecture(ByteBuffer tampon, int premiere, int nombre) {
+        if (nombre < 0 || nombre > SALLES_PAR_LECTURE_MAX) {
+            throw new IllegalArgumentException("Nombre de salles invalide : " + nombre);
+        }
+        tampon.putInt(LONGUEUR_LECTURE);
+        tampon.putInt(TYPE_LECTURE);
+        tampon.putInt(premiere);
+        tampon.putInt(nombre);
+    }
+
+    public static void ecrireAbonnement(ByteBuffer tampon, int[] salles, int debut, int nombre) {
+        if (nombre < 0 || nombre > SALLES_PAR_ABONNEMENT_MAX) {
+            throw new IllegalArgumentException("Nombre de salles invalide : " + nombre);
+        }
+        tampon.putInt(LONGUEUR_ABONNEMENT_VIDE + 4 * nombre);
+        tampon.putInt(TYPE_ABONNEMENT);
+        tampon.putInt(nombre);
+        for (int i = debut; i < debut + nombre; i++) {
+            tampon.putInt(salles[i]);
+        }
+    }
+
+    /**
+     * Ajoute à {@code tampon} une trame des modifications {@code salles[debut..debut + nombre[} et de leurs occupations.
+     */
+    public static void ecrireModifications(ByteBuffer tampon, int[] salles, int[] occupations, int debut, int nombre) {
+        if (nombre < 0 || nombre > MODIFICATIONS_PAR_TRAME_MAX) {
+            throw new IllegalArgumentException("Nombre de modifications invalide : " + nombre);
+        }
+        tampon.putInt(LONGUEUR_MODIFICATIONS_VIDE + 8 * nombre);
+        tampon.putInt(TYPE_MODIFICATIONS);
+        tampon.putInt(nombre);
+        for (int i = debut; i < debut + nombre; i++) {
+            tampon.putInt(salles[i]);
+            tampon.putInt(occupations[i]);
+        }
+    }
+}
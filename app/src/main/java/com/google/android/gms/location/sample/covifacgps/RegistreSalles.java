@@ -0,0 +1,244 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Arrays;
+
+/**
+ * Registre de toutes les salles d'un site, stocké « en colonnes » : une salle est un numéro
+ * (0, 1, 2...) et chacune de ses caractéristiques est rangée dans un tableau primitif dédié.
+ * <p/>
+ * Ajouter une salle ne demande donc ni nouveau champ ni nouveau code, et aucune valeur n'est
+ * encapsulée dans un objet ({@code Integer}, {@code Double}) : un registre de 100 000 salles reste
+ * un petit nombre de tableaux contigus, et incrémenter un compteur n'alloue rien.
+ * <p/>
+ * Les centres sont rangés en virgule fixe E7 ({@link CoordonneesE7}) : deux {@code int} par salle au
+ * lieu de deux {@code double}.
+ * <p/>
+ * Une salle est un cercle, ou un polygone ({@link #ajouterPolygoneE7}) dont le contour est rangé dans
+ * un {@link ContoursSalles} ; son rayon est alors celui du cercle circonscrit, ce qui suffit à
+ * l'indexer et à l'écarter rapidement.
+ */
+public final class RegistreSalles {
+
+    private static final int CAPACITE_INITIALE = 8;
+
+    // Centre (en degrés × 10^7) et rayon (en mètres) de chaque salle
+    private int[] latitudesE7;
+    private int[] longitudesE7;
+    private float[] rayons;
+
+    // Facteurs d'échelle (mètres par unité E7) au centre de chaque salle, mis en cache pour les calculs de distance approchés
+    private double[] metresParE7Latitude;
+    private double[] metresParE7Longitude;
+
+    // Numéro du contour de chaque salle polygonale dans 'contours', -1 pour une salle circulaire
+    private int[] numerosContours;
+    private final ContoursSalles contours = new ContoursSalles();
+
+    // Nombre maximal d'usagers que peut contenir chaque salle
+    private int[] capacites;
+
+    // Nombre d'usagers simulés (générés aléatoirement) de chaque salle ; les usagers réels sont comptés par 'OccupationSalles'
+    private int[] usagersSimules;
+
+    private int taille = 0;
+
+    public RegistreSalles() {
+        this(CAPACITE_INITIALE);
+    }
+
+    /**
+     * @param capaciteInitiale Nombre de salles prévu, pour éviter les réallocations lors du chargement d'un grand site.
+     */
+    public RegistreSalles(int capaciteInitiale) {
+        int capacite = Math.max(capaciteInitiale, 1);
+        latitudesE7 = new int[capacite];
+        longitudesE7 = new int[capacite];
+        rayons = new float[capacite];
+        metresParE7Latitude = new double[capacite];
+        metresParE7Longitude = new double[capacite];
+        numerosContours = new int[capacite];
+        capacites = new int[capacite];
+        usagersSimules = new int[capacite];
+    }
+
+    /**
+     * Ajoute une salle et retourne son numéro. Le centre est arrondi au centimètre (unité E7).
+     */
+    public int ajouter(double latitude, double longitude, float rayonMetres, int capacite) {
+        return ajouterE7(CoordonneesE7.versE7(latitude), CoordonneesE7.versE7(longitude), rayonMetres, capacite);
+    }
+
+    /**
+     * Ajoute une salle de centre E7 et retourne son numéro.
+     */
+    public int ajouterE7(int latitudeE7, int longitudeE7, float rayonMetres, int capacite) {
+        if (taille == latitudesE7.length) {
+            agrandir(taille * 2);
+        }
+        int salle = taille++;
+        deplacerE7(salle, latitudeE7, longitudeE7);
+        rayons[salle] = rayonMetres;
+        numerosContours[salle] = -1;
+        capacites[salle] = capacite;
+        usagersSimules[salle] = 0;
+        return salle;
+    }
+
+    /**
+     * Ajoute une salle polygonale de centre E7 et retourne son numéro. Les sommets sont donnés en
+     * mètres autour du centre (voir {@link ContoursSalles#ajouter}) et suivent la salle si elle est
+     * déplacée.
+     */
+    public int ajouterPolygoneE7(int latitudeE7, int longitudeE7, double[] estSommets, double[] nordSommets,
+                                 int nombreSommets, int capacite) {
+        int contour = contours.ajouter(estSommets, nordSommets, nombreSommets);
+        // Rayon arrondi au float supérieur : aucun point du contour n'est hors du cercle
+        int salle = ajouterE7(latitudeE7, longitudeE7, Math.nextUp((float) contours.rayonCirconscrit(contour)), capacite);
+        numerosContours[salle] = contour;
+        return salle;
+    }
+
+    /**
+     * Déplace le centre de la salle {@code salle}. L'index spatial qui référence ce registre doit
+     * ensuite être reconstruit (voir {@link MoteurGeofence#reindexer()}).
+     */
+    public void deplacer(int salle, double latitude, double longitude) {
+        deplacerE7(salle, CoordonneesE7.versE7(latitude), CoordonneesE7.versE7(longitude));
+    }
+
+    public void deplacerE7(int salle, int latitudeE7, int longitudeE7) {
+        latitudesE7[salle] = latitudeE7;
+        longitudesE7[salle] = longitudeE7;
+        double latitude = CoordonneesE7.degres(latitudeE7);
+        metresParE7Latitude[salle] = Distance.metresParDegreLatitude(latitude) / CoordonneesE7.UNITES_PAR_DEGRE;
+        metresParE7Longitude[salle] = Distance.metresParDegreLongitude(latitude) / CoordonneesE7.UNITES_PAR_DEGRE;
+    }
+
+    /**
+     * Supprime toutes les salles, sans libérer les tableaux.
+     */
+    public void vider() {
+        taille = 0;
+        contours.vider();
+    }
+
+    public int taille() {
+        return taille;
+    }
+
+    /**
+     * Latitude du centre de la salle, en degrés.
+     */
+    public double latitude(int salle) {
+        return CoordonneesE7.degres(latitudesE7[salle]);
+    }
+
+    /**
+     * Longitude du centre de la salle, en degrés.
+     */
+    public double longitude(int salle) {
+        return CoordonneesE7.degres(longitudesE7[salle]);
+    }
+
+    public int latitudeE7(int salle) {
+        return latitudesE7[salle];
+    }
+
+    public int longitudeE7(int salle) {
+        return longitudesE7[salle];
+    }
+
+    /**
+     * Mètres par degré de latitude au centre de la salle.
+     */
+    public double metresParDegreLatitude(int salle) {
+        return metresParE7Latitude[salle] * CoordonneesE7.UNITES_PAR_DEGRE;
+    }
+
+    /**
+     * Mètres par degré de longitude au centre de la salle.
+     */
+    public double metresParDegreLongitude(int salle) {
+        return metresParE7Longitude[salle] * CoordonneesE7.UNITES_PAR_DEGRE;
+    }
+
+    public float rayon(int salle) {
+        return rayons[salle];
+    }
+
+    /**
+     * Numéro du contour de la salle dans {@link #contours()}, ou -1 si la salle est un cercle.
+     */
+    public int contour(int salle) {
+        return numerosContours[salle];
+    }
+
+    public ContoursSalles contours() {
+        return contours;
+    }
+
+    public int capacite(int salle) {
+        return capacites[salle];
+    }
+
+    public int usagersSimules(int salle) {
+        return usagersSimules[salle];
+    }
+
+    public void fixerUsagersSimules(int salle, int nombre) {
+        usagersSimules[salle] = nombre;
+    }
+
+    /**
+     * Remet à zéro les usagers simulés de toutes les salles.
+     */
+    public void remettreAZeroUsagersSimules() {
+        Arrays.fill(usagersSimules, 0, taille, 0);
+    }
+
+    /*
+     * Accès en bloc pour les boucles critiques (recherche de salles à chaque localisation) : ces
+     * tableaux sont les tableaux internes du registre, lus sans copie ni allocation. Seuls les indices
+     * [0, taille()) sont significatifs, et les tableaux peuvent être remplacés lors d'un ajout : il faut
+     * donc les relire après chaque modification du registre, et ne jamais les modifier directement.
+     */
+
+    public int[] latitudesE7() {
+        return latitudesE7;
+    }
+
+    public int[] longitudesE7() {
+        return longitudesE7;
+    }
+
+    public float[] rayons() {
+        return rayons;
+    }
+
+    public double[] metresParE7Latitude() {
+        return metresParE7Latitude;
+    }
+
+    public double[] metresParE7Longitude() {
+        return metresParE7Longitude;
+    }
+
+    public int[] numerosContours() {
+        return numerosContours;
+    }
+
+    public int[] capacites() {
+        return capacites;
+    }
+
+    private void agrandir(int capacite) {
+        latitudesE7 = Arrays.copyOf(latitudesE7, capacite);
+        longitudesE7 = Arrays.copyOf(longitudesE7, capacite);
+        rayons = Arrays.copyOf(rayons, capacite);
+        metresParE7Latitude = Arrays.copyOf(metresParE7Latitude, capacite);
+        metresParE7Longitude = Arrays.copyOf(metresParE7Longitude, capacite);
+        numerosContours = Arrays.copyOf(numerosContours, capacite);
+        capacites = Arrays.copyOf(capacites, capacite);
+        usagersSimules = Arrays.copyOf(usagersSimules, capacite);
+    }
+}
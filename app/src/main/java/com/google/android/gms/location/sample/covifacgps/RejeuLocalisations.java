@@ -0,0 +1,371 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rejoue une suite de localisations ({@link SourceLocalisations} : trace enregistrée ou suite synthétique)
+ * dans le même traitement que l'application, sans Android : chaque localisation est appliquée par
+ * {@link TraitementLocalisation#appliquer} (recherche des salles, automate d'entrée et de sortie,
+ * occupation), par lots, et l'état de rendu est rempli une fois par lot, comme à la réception d'un
+ * {@code LocationResult}.
+ * <p/>
+ * Le rejeu se fait au plus vite (mesure du débit en localisations par seconde) ou au rythme des heures
+ * des localisations, éventuellement accéléré. Il vérifie à chaque transition la cohérence de l'automate et
+ * de l'occupation (pas d'entrée dans une salle où je suis déjà, pas de sortie d'une salle où je ne suis
+ * pas, un usager compté dans une salle si et seulement si j'y suis), et compare les transitions confirmées
+ * aux transitions attendues lorsqu'elles sont connues.
+ * <p/>
+ * Une transition attendue à l'instant t est détectée si une transition de même sens est confirmée dans
+ * la même salle entre t − tolérance et t + durée de séjour + tolérance.
+ */
+public final class RejeuLocalisations {
+
+    /**
+     * Écart admis entre une transition attendue et sa détection, en plus de la durée de séjour, en millisecondes.
+     */
+    public static final long TOLERANCE_DEFAUT = 30000;
+
+    private final TraitementLocalisation traitement;
+    private final RegistreSalles registre;
+    private final EtatRendu etat;
+
+    private int tailleLot = 1;
+    private double acceleration = 0;
+    private long tolerance = TOLERANCE_DEFAUT;
+    private boolean placementSalles = false;
+
+    // Transitions confirmées pendant le dernier rejeu
+    private final ListeTransitions detectees = new ListeTransitions();
+
+    // Salles où je suis compté d'après les transitions reçues, et nombre d'incohérences constatées
+    private boolean[] presente = new boolean[0];
+    private long dernierInstant;
+    private int incoherences;
+
+    private final TransitionsSalles.Ecouteur verification = new TransitionsSalles.Ecouteur() {
+        @Override
+        public void entree(int salle, long instant) {
+            verifier(salle, instant, true);
+        }
+
+        @Override
+        public void sortie(int salle, long instant) {
+            verifier(salle, instant, false);
+        }
+    };
+
+    /**
+     * @param traitement            Traitement à alimenter ; son écouteur supplémentaire est remplacé pendant le rejeu.
+     * @param nombreSallesAffichees Nombre de salles de l'état de rendu rempli après chaque lot.
+     */
+    public RejeuLocalisations(TraitementLocalisation traitement, int nombreSallesAffichees) {
+        this.traitement = traitement;
+        this.registre = traitement.moteur().registre();
+        this.etat = new EtatRendu(nombreSallesAffichees);
+    }
+
+    /**
+     * Nombre de localisations appliquées avant chaque remplissage de l'état de rendu (1 : sans livraison groupée).
+     */
+    public void fixerTailleLot(int tailleLot) {
+        if (tailleLot < 1) {
+            throw new IllegalArgumentException("Taille de lot invalide : " + tailleLot);
+        }
+        this.tailleLot = tailleLot;
+    }
+
+    /**
+     * Rythme du rejeu : 0 au plus vite, 1 au rythme des heures des localisations, 60 une minute par seconde...
+     * Un lot est traité à l'heure de sa dernière localisation.
+     */
+    public void fixerAcceleration(double acceleration) {
+        if (!(acceleration >= 0)) {
+            throw new IllegalArgumentException("Accélération invalide : " + acceleration);
+        }
+        this.acceleration = acceleration;
+    }
+
+    /**
+     * Écart admis entre une transition attendue et sa détection, en plus de la durée de séjour, en millisecondes.
+     */
+    public void fixerTolerance(long toleranceMillisecondes) {
+        if (toleranceMillisecondes < 0) {
+            throw new IllegalArgumentException("Tolérance invalide : " + toleranceMillisecondes);
+        }
+        this.tolerance = toleranceMillisecondes;
+    }
+
+    /**
+     * Vrai pour placer les Salles 1 et 2 à la première localisation, comme l'application au démarrage
+     * (rejeu d'une trace enregistrée sur le téléphone). Faux pour garder les salles du registre.
+     */
+    public void fixerPlacementSalles(boolean placementSalles) {
+        this.placementSalles = placementSalles;
+    }
+
+    /**
+     * Transitions confirmées pendant le dernier rejeu, dans l'ordre.
+     */
+    public ListeTransitions detectees() {
+        return detectees;
+    }
+
+    /**
+     * Remet le traitement à zéro puis lui fait traiter toutes les localisations de la source, dans l'ordre.
+     *
+     * @param attendues Transitions attendues, dans l'ordre chronologique ; {@code null} si elles ne sont pas connues.
+     */
+    public Resultat rejouer(SourceLocalisations source, ListeTransitions attendues) throws InterruptedException {
+        traitement.remettreAZero();
+        Localisation.valeursLongLatAttribuees = placementSalles;
+        detectees.vider();
+        presente = new boolean[Math.max(registre.taille(), 1)];
+        dernierInstant = Long.MIN_VALUE;
+        incoherences = 0;
+
+        long nombre = source.nombre();
+        long premierInstant = nombre > 0 ? source.instant(0) : 0;
+        long lots = 0;
+        traitement.fixerEcouteur(verification);
+        long debut = System.nanoTime();
+        try {
+            long i = 0;
+            while (i < nombre) {
+                long fin = Math.min(i + tailleLot, nombre);
+                if (acceleration > 0) {
+                    attendre(debut + (long) ((source.instant(fin - 1) - premierInstant) * 1e6 / acceleration));
+                }
+                long instant = 0;
+                for (; i < fin; i++) {
+                    instant = source.instant(i);
+                    traitement.appliquer(source.latitude(i), source.longitude(i), source.precision(i), instant);
+                }
+                traitement.remplirEtat(instant, etat);
+                lots++;
+            }
+        } finally {
+            traitement.fixerEcouteur(null);
+        }
+        long duree = System.nanoTime() - debut;
+
+        // En fin de rejeu, je dois être compté exactement dans les salles où l'automate me voit
+        TransitionsSalles transitions = traitement.transitions();
+        OccupationSalles occupation = traitement.occupation();
+        for (int salle = 0; salle < registre.taille(); salle++) {
+            int attendu = transitions.present(salle) ? 1 : 0;
+            if (occupation.occupation(salle) != attendu || (salle < presente.length && presente[salle] != (attendu == 1))) {
+                incoherences++;
+            }
+        }
+
+        Resultat resultat = new Resultat(nombre, lots, duree, incoherences);
+        for (int i = 0; i < detectees.taille(); i++) {
+            if (detectees.entree(i)) {
+                resultat.entrees++;
+            } else {
+                resultat.sorties++;
+            }
+        }
+        if (attendues != null) {
+            comparer(attendues, transitions.dureeEntree(), transitions.dureeSortie(), resultat);
+        }
+        return resultat;
+    }
+
+    private void verifier(int salle, long instant, boolean entree) {
+        detectees.ajouter(salle, instant, entree, true);
+        if (salle >= presente.length || presente[salle] == entree || instant < dernierInstant
+                || traitement.transitions().present(salle) != entree
+                || traitement.occupation().occupation(salle) != (entree ? 1 : 0)) {
+            incoherences++;
+        }
+        if (salle < presente.length) {
+            presente[salle] = entree;
+        }
+        dernierInstant = instant;
+    }
+
+    /**
+     * Associe, salle par salle et dans l'ordre, chaque transition attendue à la première transition
+     * détectée de même sens dans sa fenêtre de détection.
+     */
+    private void comparer(ListeTransitions attendues, long dureeEntree, long dureeSortie, Resultat resultat) {
+        int nombreSalles = registre.taille();
+        int[] debutsAttendues = new int[nombreSalles + 1];
+        int[] debutsDetectees = new int[nombreSalles + 1];
+        int[] indicesAttendues = attendues.indicesParSalle(nombreSalles, debutsAttendues);
+        int[] indicesDetectees = detectees.indicesParSalle(nombreSalles, debutsDetectees);
+
+        resultat.comparees = true;
+        for (int salle = 0; salle < nombreSalles; salle++) {
+            int a = debutsAttendues[salle];
+            int d = debutsDetectees[salle];
+            while (a < debutsAttendues[salle + 1] && d < debutsDetectees[salle + 1]) {
+                int attendue = indicesAttendues[a];
+                int detectee = indicesDetectees[d];
+                long instantAttendu = attendues.instant(attendue);
+                long instantDetecte = detectees.instant(detectee);
+                long duree = attendues.entree(attendue) ? dureeEntree : dureeSortie;
+                if (instantDetecte < instantAttendu - tolerance) {
+                    resultat.inattendues++;
+                    d++;
+                } else if (detectees.entree(detectee) == attendues.entree(attendue)
+                        && instantDetecte <= instantAttendu + duree + tolerance) {
+                    if (attendues.certaine(attendue)) {
+                        resultat.ajouterCorrecte(instantDetecte - instantAttendu);
+                    }
+                    a++;
+                    d++;
+                } else {
+                    if (attendues.certaine(attendue)) {
+                        resultat.manquees++;
+                    }
+                    a++;
+                }
+            }
+            for (; a < debutsAttendues[salle + 1]; a++) {
+                if (attendues.certaine(indicesAttendues[a])) {
+                    resultat.manquees++;
+                }
+            }
+            resultat.inattendues += debutsDetectees[salle + 1] - d;
+        }
+    }
+
+    private static void attendre(long echeanceNanos) throws InterruptedException {
+        long attente = echeanceNanos - System.nanoTime();
+        if (attente > 0) {
+            TimeUnit.NANOSECONDS.sleep(attente);
+        }
+    }
+
+    /**
+     * Débit et exactitude d'un rejeu.
+     */
+    public static final class Resultat {
+
+        private final long localisations;
+        private final long lots;
+        private final long dureeNanos;
+        private final int incoherences;
+
+        private int entrees = 0;
+        private int sorties = 0;
+
+        // Comparaison aux transitions attendues (si elles sont connues)
+        private boolean comparees = false;
+        private int correctes = 0;
+        private int manquees = 0;
+        private int inattendues = 0;
+        private long sommeLatences = 0;
+        private long latenceMax = 0;
+
+        Resultat(long localisations, long lots, long dureeNanos, int incoherences) {
+            this.localisations = localisations;
+            this.lots = lots;
+            this.dureeNanos = dureeNanos;
+            this.incoherences = incoherences;
+        }
+
+        private void ajouterCorrecte(long latence) {
+            correctes++;
+            sommeLatences += latence;
+            latenceMax = Math.max(latenceMax, latence);
+        }
+
+        public long localisations() {
+            return localisations;
+        }
+
+        public long lots() {
+            return lots;
+        }
+
+        public long dureeNanos() {
+            return dureeNanos;
+        }
+
+        /**
+         * Localisations traitées par seconde, temps d'attente compris en rejeu cadencé.
+         */
+        public double localisationsParSeconde() {
+            return dureeNanos > 0 ? localisations * 1e9 / dureeNanos : 0;
+        }
+
+        /**
+         * Transitions incohérentes avec l'automate ou l'occupation : 0 pour un rejeu correct.
+         */
+        public int incoherences() {
+            return incoherences;
+        }
+
+        public int entrees() {
+            return entrees;
+        }
+
+        public int sorties() {
+            return sorties;
+        }
+
+        /**
+         * Vrai si les transitions détectées ont été comparées à des transitions attendues.
+         */
+        public boolean comparees() {
+            return comparees;
+        }
+
+        /**
+         * Transitions attendues certaines détectées dans leur fenêtre.
+         */
+        public int correctes() {
+            return correctes;
+        }
+
+        /**
+         * Transitions attendues certaines non détectées.
+         */
+        public int manquees() {
+            return manquees;
+        }
+
+        /**
+         * Transitions détectées qui ne correspondent à aucune transition attendue.
+         */
+        public int inattendues() {
+            return inattendues;
+        }
+
+        /**
+         * Correctes / (correctes + manquées + inattendues), 1 si aucune transition n'était attendue ni détectée.
+         */
+        public double exactitude() {
+            int total = correctes + manquees + inattendues;
+            return total > 0 ? (double) correctes / total : 1;
+        }
+
+        /**
+         * Délai moyen entre une transition attendue et sa détection, en millisecondes.
+         */
+        public double latenceMoyenne() {
+            return correctes > 0 ? (double) sommeLatences / correctes : 0;
+        }
+
+        public long latenceMax() {
+            return latenceMax;
+        }
+
+        @Override
+        public String toString() {
+            String texte = String.format(Locale.ENGLISH,
+                    "%d localisations en %d lots, %.3f s : %.0f localisations/s ; %d entrées, %d sorties, %d incohérences",
+                    localisations, lots, dureeNanos / 1e9, localisationsParSeconde(), entrees, sorties, incoherences);
+            if (!comparees) {
+                return texte;
+            }
+            return texte + String.format(Locale.ENGLISH,
+                    " ; %d correctes, %d manquées, %d inattendues (exactitude %.4f), délai moyen %.1f s, max %.1f s",
+                    correctes, manquees, inattendues, exactitude(), latenceMoyenne() / 1000, latenceMax / 1000.0);
+        }
+    }
+}
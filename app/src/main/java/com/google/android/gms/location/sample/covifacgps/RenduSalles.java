@@ -0,0 +1,319 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import android.app.Activity;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import java.util.TimeZone;
+
+/**
+ * Affiche un {@link EtatRendu} dans les vues de l'activité.
+ * <p/>
+ * Les vues et les textes des ressources sont recherchés une seule fois, à la création. À chaque
+ * rendu, l'état est comparé à l'état précédent et seules les vues dont le contenu change sont
+ * modifiées : pas de {@code findViewById}, ni de {@code setText}/{@code setVisibility} inutile
+ * (qui déclencheraient des passes de mise en page).
+ */
+public final class RenduSalles implements TraitementHorsThreadPrincipal.Afficheur {
+
+    // Identifiants des vues de chaque salle affichée, dans l'ordre des numéros de salles
+    private static final int[] IDS_SALLE_ROUGE = { R.id.imageViewSalleRouge1, R.id.imageViewSalleRouge2 };
+    private static final int[] IDS_SALLE_VERTE = { R.id.imageViewSalleVerte1, R.id.imageViewSalleVerte2 };
+    private static final int[] IDS_MOI = { R.id.moi1, R.id.moi2 };
+    private static final int[] IDS_LIBRE = { R.id.librepaslibre1, R.id.librepaslibre2 };
+    private static final int[] IDS_POSITION = { R.id.mapositionsalle1, R.id.mapositionsalle2 };
+    private static final int[] IDS_DISTANCE = { R.id.maDistanceSalle1, R.id.maDistanceSalle2 };
+    private static final int[] IDS_COMPTEUR = { R.id.nombreUsagersActuelSalle1, R.id.nombreUsagersActuelSalle2 };
+    private static final int[] IDS_LATITUDE_SALLE = { R.id.latitudeValeurSalle1, R.id.latitudeValeurSalle2 };
+    private static final int[] IDS_LONGITUDE_SALLE = { R.id.longitudeValeurSalle1, R.id.longitudeValeurSalle2 };
+
+    // Identifiants des textes de chaque salle affichée
+    private static final int[] LABELS_LIBRE = { R.string.estLibre1_label, R.string.estLibre2_label };
+    private static final int[] LABELS_PAS_LIBRE = { R.string.estPasLibre1_label, R.string.estPasLibre2_label };
+    private static final int[] LABELS_DANS = { R.string.dansSalle1_label, R.string.dansSalle2_label };
+    private static final int[] LABELS_PAS_DANS = { R.string.pasSalle1_label, R.string.pasSalle2_label };
+    private static final int[] LABELS_DISTANCE = { R.string.distanceSalle1_label, R.string.distanceSalle2_label };
+
+    /**
+     * Nombre de salles que l'écran peut afficher.
+     */
+    public static final int NOMBRE_SALLES_AFFICHEES = IDS_SALLE_ROUGE.length;
+
+    // Vues de ma localisation
+    private final TextView mLatitudeTextView;
+    private final TextView mLongitudeTextView;
+    private final TextView mLastUpdateTimeTextView;
+
+    // Vues de chaque salle
+    private final ImageView[] mSallesRouges = new ImageView[NOMBRE_SALLES_AFFICHEES];
+    private final ImageView[] mSallesVertes = new ImageView[NOMBRE_SALLES_AFFICHEES];
+    private final ImageView[] mMoi = new ImageView[NOMBRE_SALLES_AFFICHEES];
+    private final TextView[] mLibres = new TextView[NOMBRE_SALLES_AFFICHEES];
+    private final TextView[] mPositions = new TextView[NOMBRE_SALLES_AFFICHEES];
+    private final TextView[] mDistances = new TextView[NOMBRE_SALLES_AFFICHEES];
+    private final TextView[] mCompteurs = new TextView[NOMBRE_SALLES_AFFICHEES];
+    private final TextView[] mLatitudesSalles = new TextView[NOMBRE_SALLES_AFFICHEES];
+    private final TextView[] mLongitudesSalles = new TextView[NOMBRE_SALLES_AFFICHEES];
+
+    // Labels
+    private final String mLatitudeLabel;
+    private final String mLongitudeLabel;
+    private final String mLastUpdateTimeLabel;
+    private final String[] mLabelsLibre = new String[NOMBRE_SALLES_AFFICHEES];
+    private final String[] mLabelsPasLibre = new String[NOMBRE_SALLES_AFFICHEES];
+    private final String[] mLabelsDans = new String[NOMBRE_SALLES_AFFICHEES];
+    private final String[] mLabelsPasDans = new String[NOMBRE_SALLES_AFFICHEES];
+    private final String[] mLabelsDistance = new String[NOMBRE_SALLES_AFFICHEES];
+
+    // Textes construits dans des tampons réutilisés (un par vue) pour ne rien allouer entre deux rendus
+    private final TamponTexte mTexteLatitude = new TamponTexte();
+    private final TamponTexte mTexteLongitude = new TamponTexte();
+    private final TamponTexte mTexteDerniereMiseAJour = new TamponTexte();
+    private final TamponTexte[] mTextesDistances = nouveauxTampons();
+    private final TamponTexte[] mTextesCompteurs = nouveauxTampons();
+    private final TamponTexte[] mTextesLatitudesSalles = nouveauxTampons();
+    private final TamponTexte[] mTextesLongitudesSalles = nouveauxTampons();
+
+    /**
+     * Heure de la dernière mise à jour de localisation (HH:mm:ss), conservée dans le bundle de l'activité.
+     */
+    private final TamponTexte mDerniereMiseAJour = new TamponTexte(16);
+
+    /**
+     * Fuseau horaire de l'affichage de l'heure, conservé car 'TimeZone.getDefault()' en retourne une copie à chaque appel.
+     */
+    private final TimeZone mFuseauHoraire = TimeZone.getDefault();
+
+    /**
+     * Dernier état affiché, ou null si rien n'a encore été affiché.
+     */
+    private EtatRendu mEtatPrecedent;
+
+    /**
+     * Occupation de chaque salle reçue du flux d'occupation, si les compteurs en sont tirés (sinon null) :
+     * le compteur affiché est alors la somme des usagers simulés de l'état et de cette occupation.
+     */
+    private int[] mOccupationsFlux;
+
+    /**
+     * Salles affichées pleines d'après le compteur tiré du flux (avec {@link #mOccupationsFlux}) : la salle est
+     * pleine si j'y suis et que ce compteur dépasse sa capacité, comme {@link EtatRendu#pleine} pour le sien.
+     */
+    private boolean[] mPleinesFlux;
+
+    /**
+     * Durée de chaque rendu et de bout en bout (null si elles ne sont pas mesurées).
+     */
+    private MesuresPipeline mMesures;
+
+    /**
+     * Chronologie des passes de rendu (null si elle n'est pas tenue).
+     */
+    private ChronologiePipeline mChronologie;
+
+    public RenduSalles(Activity activite) {
+        mLatitudeTextView = activite.findViewById(R.id.latitude_text);
+        mLongitudeTextView = activite.findViewById(R.id.longitude_text);
+        mLastUpdateTimeTextView = activite.findViewById(R.id.last_update_time_text);
+
+        mLatitudeLabel = activite.getString(R.string.latitude_label);
+        mLongitudeLabel = activite.getString(R.string.longitude_label);
+        mLastUpdateTimeLabel = activite.getString(R.string.last_update_time_label);
+
+        for (int salle = 0; salle < NOMBRE_SALLES_AFFICHEES; salle++) {
+            mSallesRouges[salle] = activite.findViewById(IDS_SALLE_ROUGE[salle]);
+            mSallesVertes[salle] = activite.findViewById(IDS_SALLE_VERTE[salle]);
+            mMoi[salle] = activite.findViewById(IDS_MOI[salle]);
+            mLibres[salle] = activite.findViewById(IDS_LIBRE[salle]);
+            mPositions[salle] = activite.findViewById(IDS_POSITION[salle]);
+            mDistances[salle] = activite.findViewById(IDS_DISTANCE[salle]);
+            mCompteurs[salle] = activite.findViewById(IDS_COMPTEUR[salle]);
+            mLatitudesSalles[salle] = activite.findViewById(IDS_LATITUDE_SALLE[salle]);
+            mLongitudesSalles[salle] = activite.findViewById(IDS_LONGITUDE_SALLE[salle]);
+
+            mLabelsLibre[salle] = activite.getString(LABELS_LIBRE[salle]);
+            mLabelsPasLibre[salle] = activite.getString(LABELS_PAS_LIBRE[salle]);
+            mLabelsDans[salle] = activite.getString(LABELS_DANS[salle]);
+            mLabelsPasDans[salle] = activite.getString(LABELS_PAS_DANS[salle]);
+            mLabelsDistance[salle] = activite.getString(LABELS_DISTANCE[salle]);
+        }
+    }
+
+    /**
+     * Heure de la dernière mise à jour de localisation affichée.
+     */
+    public CharSequence derniereMiseAJour() {
+        return mDerniereMiseAJour;
+    }
+
+    /**
+     * Rétablit l'heure de la dernière mise à jour (depuis le bundle de l'activité).
+     */
+    public void fixerDerniereMiseAJour(CharSequence heure) {
+        mDerniereMiseAJour.vider().ajouter(heure);
+    }
+
+    /**
+     * Mesure la durée de chaque rendu, et de bout en bout celle des lots de localisations qu'il affiche.
+     */
+    public void fixerMesures(MesuresPipeline mesures) {
+        mMesures = mesures;
+    }
+
+    /**
+     * Ajoute chaque passe de rendu à {@code chronologie}.
+     */
+    public void fixerChronologie(ChronologiePipeline chronologie) {
+        mChronologie = chronologie;
+    }
+
+    /**
+     * Les compteurs affichés sont désormais tirés des occupations reçues par {@link #afficherOccupation} (abonnement
+     * à un {@link FluxOccupation} ou au serveur d'agrégation), et non plus de l'occupation de chaque état.
+     */
+    public void afficherCompteursParFlux() {
+        mOccupationsFlux = new int[NOMBRE_SALLES_AFFICHEES];
+        mPleinesFlux = new boolean[NOMBRE_SALLES_AFFICHEES];
+    }
+
+    /**
+     * Nouvelle occupation d'une salle, reçue du flux : seuls son compteur et son indicateur de salle pleine sont mis
+     * à jour. Sur le thread principal.
+     */
+    public void afficherOccupation(int salle, int occupation) {
+        if (mOccupationsFlux == null || salle >= NOMBRE_SALLES_AFFICHEES || mOccupationsFlux[salle] == occupation) {
+            return;
+        }
+        mOccupationsFlux[salle] = occupation;
+        EtatRendu etat = mEtatPrecedent;
+        if (etat == null || salle >= etat.nombreSalles()) {
+            afficher(mCompteurs[salle], mTextesCompteurs[salle].vider().ajouter(occupation));
+            return;
+        }
+        afficher(mCompteurs[salle], mTextesCompteurs[salle].vider().ajouter(etat.usagersSimules(salle) + occupation));
+        boolean pleine = pleineParFlux(etat, salle);
+        if (pleine != mPleinesFlux[salle]) {
+            afficherPleine(salle, pleine);
+        }
+    }
+
+    /**
+     * Affiche {@code etat}, en ne modifiant que les vues qui diffèrent de l'état précédent.
+     * {@code etat} ne doit plus être modifié tant qu'il n'a pas été remplacé par un rendu suivant.
+     */
+    @Override
+    public void rendre(EtatRendu etat) {
+        long debut = mMesures != null ? MesuresPipeline.maintenant() : 0;
+        if (mChronologie != null) {
+            mChronologie.debut(ChronologiePipeline.RENDU);
+        }
+        EtatRendu precedent = mEtatPrecedent;
+        boolean tout = precedent == null;
+        boolean active = etat.localisationActive();
+
+        // Ma localisation n'est affichée que pendant la localisation (l'affichage précédent est conservé à l'arrêt)
+        if (active) {
+            if (tout || !precedent.localisationActive() || etat.latitude() != precedent.latitude()) {
+                mTexteLatitude.vider().ajouter(mLatitudeLabel).ajouter(": ").ajouter(etat.latitude(), 6);
+                afficher(mLatitudeTextView, mTexteLatitude);
+            }
+            if (tout || !precedent.localisationActive() || etat.longitude() != precedent.longitude()) {
+                mTexteLongitude.vider().ajouter(mLongitudeLabel).ajouter(": ").ajouter(etat.longitude(), 6);
+                afficher(mLongitudeTextView, mTexteLongitude);
+            }
+            if (tout || etat.instant() != precedent.instant()) {
+                // Un instant nul conserve l'heure rétablie depuis le bundle
+                if (etat.instant() != 0) {
+                    mDerniereMiseAJour.vider().ajouterHeure(etat.instant(), mFuseauHoraire);
+                }
+                mTexteDerniereMiseAJour.vider().ajouter(mLastUpdateTimeLabel).ajouter(": ").ajouter(mDerniereMiseAJour);
+                afficher(mLastUpdateTimeTextView, mTexteDerniereMiseAJour);
+            }
+        }
+
+        int nombreSalles = Math.min(etat.nombreSalles(), NOMBRE_SALLES_AFFICHEES);
+        for (int salle = 0; salle < nombreSalles; salle++) {
+            if (tout || etat.latitudeSalle(salle) != precedent.latitudeSalle(salle)) {
+                afficher(mLatitudesSalles[salle], mTextesLatitudesSalles[salle].vider().ajouter(etat.latitudeSalle(salle), 7));
+            }
+            if (tout || etat.longitudeSalle(salle) != precedent.longitudeSalle(salle)) {
+                afficher(mLongitudesSalles[salle], mTextesLongitudesSalles[salle].vider().ajouter(etat.longitudeSalle(salle), 7));
+            }
+            if (mOccupationsFlux != null) {
+                if (tout || etat.usagersSimules(salle) != precedent.usagersSimules(salle)) {
+                    afficher(mCompteurs[salle], mTextesCompteurs[salle].vider()
+                            .ajouter(etat.usagersSimules(salle) + mOccupationsFlux[salle]));
+                }
+            } else if (tout || etat.compteur(salle) != precedent.compteur(salle)) {
+                afficher(mCompteurs[salle], mTextesCompteurs[salle].vider().ajouter(etat.compteur(salle)));
+            }
+
+            // Distance au centre de la salle, ou label par défaut lorsque la localisation est arrêtée
+            if (tout || active != precedent.localisationActive()
+                    || (active && etat.distance(salle) != precedent.distance(salle))) {
+                if (active) {
+                    afficher(mDistances[salle], mTextesDistances[salle].vider()
+                            .ajouter("Je suis à environ ").ajouter(etat.distance(salle), 2).ajouter(" mètres du centre de celle-ci"));
+                } else {
+                    mDistances[salle].setText(mLabelsDistance[salle]);
+                }
+            }
+
+            // La salle est rouge et indiquée indisponible lorsqu'elle a dépassé son quota maximal, verte et libre sinon,
+            // d'après le compteur affiché
+            if (mOccupationsFlux != null) {
+                boolean pleine = pleineParFlux(etat, salle);
+                if (tout || pleine != mPleinesFlux[salle]) {
+                    afficherPleine(salle, pleine);
+                }
+            } else if (tout || etat.pleine(salle) != precedent.pleine(salle)) {
+                afficherPleine(salle, etat.pleine(salle));
+            }
+
+            // L'icône de ma localisation et le texte de ma position indiquent si je suis dans la salle
+            boolean dedans = etat.dedans(salle);
+            if (tout || dedans != precedent.dedans(salle)) {
+                mMoi[salle].setVisibility(dedans ? View.VISIBLE : View.INVISIBLE);
+                mPositions[salle].setText(dedans ? mLabelsDans[salle] : mLabelsPasDans[salle]);
+            }
+        }
+
+        mEtatPrecedent = etat;
+        if (mMesures != null) {
+            mMesures.finAffichage(mMesures.enregistrer(MesuresPipeline.RENDU, debut));
+        }
+        if (mChronologie != null) {
+            mChronologie.fin(ChronologiePipeline.RENDU);
+        }
+    }
+
+    // Salle pleine d'après le compteur affiché en mode flux : usagers simulés de l'état plus occupation du flux
+    private boolean pleineParFlux(EtatRendu etat, int salle) {
+        return etat.dedans(salle) && etat.usagersSimules(salle) + mOccupationsFlux[salle] > etat.capacite(salle);
+    }
+
+    private void afficherPleine(int salle, boolean pleine) {
+        if (mPleinesFlux != null) {
+            mPleinesFlux[salle] = pleine;
+        }
+        mSallesRouges[salle].setVisibility(pleine ? View.VISIBLE : View.INVISIBLE);
+        mSallesVertes[salle].setVisibility(pleine ? View.INVISIBLE : View.VISIBLE);
+        mLibres[salle].setText(pleine ? mLabelsPasLibre[salle] : mLabelsLibre[salle]);
+    }
+
+    /**
+     * Affiche le contenu d'un tampon de texte sans le copier dans une nouvelle chaîne.
+     */
+    private static void afficher(TextView vue, TamponTexte texte) {
+        vue.setText(texte.caracteres(), 0, texte.longueur());
+    }
+
+    private static TamponTexte[] nouveauxTampons() {
+        TamponTexte[] tampons = new TamponTexte[NOMBRE_SALLES_AFFICHEES];
+        for (int i = 0; i < tampons.length; i++) {
+            tampons[i] = new TamponTexte();
+        }
+        return tampons;
+    }
+}
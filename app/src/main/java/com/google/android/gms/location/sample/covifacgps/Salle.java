@@ -1,23 +1,32 @@
 package com.google.android.gms.location.sample.covifacgps;
 
 public class Salle {
-    // Latitude et longitude de la Salle 1
-    public static double latitudeCentreSalleUneDynamique; // Centre salle1 (x) (Fixé à la même position que l'utilisateur)
-    public static double longitudeCentreSalleUneDynamique; // Centre salle1 (y) (Fixé à la même position que l'utilisateur)
+    // Numéros des Salles 1 et 2 dans le registre des salles
+    public static final int numeroSalle1 = 0;
+    public static final int numeroSalle2 = 1;
 
-    // Permet de générer la salle 2 à 15 mètres de la première salle vers l'Est
-    public static double quinzeMetresLatitude = 0.00013064998; // 15m = 0.00013064998 ; 10 m = 0.00008709999 ; 5 m = 0.00004354999 ; 1 m = 0.00000870999 -> Convertir : diviser différence latitude / 0.00000870999
-    public static double quinzeMetresLongitude = -0.00003315; // 15m = -0.00003315 ; 10 m = -0.0000221 ; 5 m = -0.00001105 ; 1 m = -0.00000221 -> Convertir : diviser différence longitude / -0.00000221
+    // Les Salles 1 et 2 sont simplifiées en cercles ; une salle d'un plan réel peut être un polygone (voir 'RegistreSalles.ajouterPolygoneE7')
+    public static final int rayonSalle = 10; // Le rayon d'une salle en mètres
 
-    // Latitude et longitude de la Salle 2
-    public static double latitudeCentreSalleDeuxDynamique; // Centre salle2 (x) (Calculé à partir de la coordonnée de l'utilisateur + 15 mètres converti en une distance en latitude)
-    public static double longitudeCentreSalleDeuxDynamique; // Centre salle2 (y) (Calculé à partir de la coordonnée de l'utilisateur + 15 mètres converti en une distance en longitude)
+    // La limite maximale du nombre d'usagers que peut contenir une salle
+    public static final int limiteNombreUsagers = 10;
 
-    // Nombre aléatoire (1-10) permettant de déterminer le nombre d'usagers dans les salles 1 et 2
-    public static Integer randomUsagersSalle1 = 0;
-    public static Integer randomUsagersSalle2 = 0;
+    // Position de la Salle 2 par rapport à la Salle 1, en mètres vers l'Est et vers le Nord (environ 15 mètres).
+    // Reprend l'écart en degrés utilisé auparavant (+0.00013065° de latitude, -0.00003315° de longitude), mesuré à Toulouse,
+    // mais le conserve en mètres où que les salles soient régénérées.
+    public static final double salle2EstMetres = -2.7;
+    public static final double salle2NordMetres = 14.5;
 
-    // Compteur du nombre d'usagers actuels dans les Salles 1 et 2
-    public static Integer compteurUsagersSalle1 = 0;
-    public static Integer compteurUsagersSalle2 = 0;
-}
\ No newline at end of file
+    // Registre de toutes les salles : centre, rayon, capacité et nombre d'usagers simulés.
+    // Les Salles 1 et 2 y sont enregistrées dès le démarrage ; leurs centres sont fixés par 'fixerPositionsSalles'.
+    public static final RegistreSalles registre = new RegistreSalles();
+
+    // Nombre d'usagers présents dans chaque salle du registre, mis à jour à chaque entrée et à chaque sortie
+    public static final OccupationSalles occupation;
+
+    static {
+        registre.ajouter(0, 0, rayonSalle, limiteNombreUsagers); // Salle 1
+        registre.ajouter(0, 0, rayonSalle, limiteNombreUsagers); // Salle 2
+        occupation = new OccupationSalles(registre.taille());
+    }
+}
@@ -0,0 +1,884 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Serveur d'agrégation de l'occupation : reçoit les entrées et sorties de salles de tous les appareils d'un
+ * site ({@link ClientOccupation}, trames de {@link ProtocoleOccupation}) et tient l'occupation de référence
+ * de chaque salle dans un {@link OccupationSalles}.
+ * <p/>
+ * Les connexions sont non bloquantes : quelques threads, chacun avec son {@link Selector}, servent des
+ * dizaines de milliers d'appareils. Le premier thread accepte aussi les connexions et les répartit à tour de
+ * rôle. Les compteurs sont ceux de {@link OccupationSalles} (une bande par thread). Chaque appareil a sa place
+ * dans une table à adressage ouvert, trouvée sans verrou : son dernier numéro de lot, son dernier contact et les
+ * salles où il est compté. Un lot est appliqué sous le verrou de son appareil, que seul un lot renvoyé sur une
+ * autre connexion peut disputer : il n'est appliqué qu'une fois, et une sortie d'une salle où l'appareil n'est pas
+ * compté est ignorée, ce qui empêche les compteurs de dériver. Une sortie suivie d'une entrée dans un lot est
+ * appliquée comme un déplacement ({@link OccupationSalles#deplacer}).
+ * <p/>
+ * Une présence ({@link ProtocoleOccupation#TYPE_PRESENCE}) remplace les salles où l'appareil est compté. Un appareil
+ * sans lot ni présence pendant le délai d'expiration (processus tué, appareil éteint) est retiré de toutes ses salles
+ * par le premier thread, et sa place peut servir à un nouvel appareil.
+ * <p/>
+ * Chaque connexion commence avec de petits tampons, agrandis pour une trame plus longue : la mémoire reste
+ * de l'ordre du kilo-octet par appareil. Si un appareil ne lit pas ses acquittements, ses trames suivantes
+ * ne sont plus lues tant que les réponses en attente n'ont pas été envoyées.
+ * <p/>
+ * Une connexion peut aussi s'abonner à un ensemble de salles ({@link ProtocoleOccupation#TYPE_ABONNEMENT}) : les
+ * changements de ces salles lui sont envoyés par le {@link FluxOccupation} du serveur, regroupés par fenêtre. Tant
+ * que les trames précédentes n'ont pas été envoyées, les changements continuent de se regrouper dans
+ * l'abonnement, qui garde au plus la dernière occupation de chacune de ses salles.
+ */
+public final class ServeurOccupation {
+
+    // Tailles initiales des tampons d'une connexion
+    private static final int TAILLE_TAMPON_INITIALE = 256;
+
+    // Réponses en attente au-delà desquelles les trames reçues ne sont plus traitées
+    private static final int SEUIL_REPONSES = 4096;
+
+    private static final int FILE_CONNEXIONS = 1024;
+
+    /**
+     * Durée par défaut pendant laquelle les changements d'occupation sont regroupés avant d'être envoyés aux abonnés.
+     */
+    public static final long FENETRE_FLUX_DEFAUT_MILLIS = 100;
+
+    /**
+     * Durée par défaut sans lot ni présence après laquelle un appareil est retiré de ses salles.
+     */
+    public static final long DELAI_EXPIRATION_DEFAUT_MILLIS = 10 * 60 * 1000;
+
+    private final OccupationSalles occupation;
+    private final FluxOccupation flux;
+    private final TableAppareils appareils;
+    private final Travailleur[] travailleurs;
+    private final long delaiExpirationNanos;
+    private volatile long expires = 0;
+
+    private ServerSocketChannel canalServeur;
+    private volatile boolean actif = false;
+    private int suivant = 0;
+
+    /**
+     * @param nombreSalles      Nombre de salles du site.
+     * @param nombreThreads     Nombre de threads servant les connexions.
+     * @param capaciteAppareils Nombre d'appareils distincts au-delà duquel les lots de nouveaux appareils sont refusés.
+     */
+    public ServeurOccupation(int nombreSalles, int nombreThreads, int capaciteAppareils) {
+        this(new OccupationSalles(nombreSalles, nombreThreads), nombreThreads, capaciteAppareils);
+    }
+
+    public ServeurOccupation(OccupationSalles occupation, int nombreThreads, int capaciteAppareils) {
+        this(occupation, nombreThreads, capaciteAppareils, FENETRE_FLUX_DEFAUT_MILLIS);
+    }
+
+    /**
+     * @param fenetreFluxMillis Durée pendant laquelle les changements d'occupation sont regroupés avant d'être
+     *                          envoyés aux connexions abonnées.
+     */
+    public ServeurOccupation(OccupationSalles occupation, int nombreThreads, int capaciteAppareils, long fenetreFluxMillis) {
+        this(occupation, nombreThreads, capaciteAppareils, fenetreFluxMillis, DELAI_EXPIRATION_DEFAUT_MILLIS);
+    }
+
+    /**
+     * @param delaiExpirationMillis Durée sans lot ni présence après laquelle un appareil est retiré de ses salles.
+     */
+    public ServeurOccupation(OccupationSalles occupation, int nombreThreads, int capaciteAppareils, long fenetreFluxMillis,
+                             long delaiExpirationMillis) {
+        if (nombreThreads <= 0 || capaciteAppareils <= 0 || delaiExpirationMillis <= 0) {
+            throw new IllegalArgumentException("Dimensions invalides : " + nombreThreads + " threads, "
+                    + capaciteAppareils + " appareils, expiration après " + delaiExpirationMillis + " ms");
+        }
+        this.occupation = occupation;
+        flux = new FluxOccupation(occupation, fenetreFluxMillis);
+        appareils = new TableAppareils(capaciteAppareils);
+        travailleurs = new Travailleur[nombreThreads];
+        delaiExpirationNanos = TimeUnit.MILLISECONDS.toNanos(delaiExpirationMillis);
+    }
+
+    /**
+     * Écoute sur {@code adresse} (port 0 pour un port libre) et démarre les threads du serveur.
+     */
+    public synchronized void demarrer(InetSocketAddress adresse) throws IOException {
+        if (actif) {
+            throw new IllegalStateException("Serveur déjà démarré");
+        }
+        canalServeur = ServerSocketChannel.open();
+        try {
+            canalServeur.configureBlocking(false);
+            canalServeur.socket().setReuseAddress(true);
+            canalServeur.socket().bind(adresse, FILE_CONNEXIONS);
+            for (int t = 0; t < travailleurs.length; t++) {
+                travailleurs[t] = new Travailleur(Selector.open());
+            }
+            // Le premier thread vérifie les expirations quatre fois par délai d'expiration
+            travailleurs[0].periodeExpirationMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(delaiExpirationNanos) / 4);
+            canalServeur.register(travailleurs[0].selecteur, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            fermerSelecteurs();
+            canalServeur.close();
+            throw e;
+        }
+        actif = true;
+        for (int t = 0; t < travailleurs.length; t++) {
+            travailleurs[t].thread = new Thread(travailleurs[t], "agregation-occupation-" + t);
+            travailleurs[t].thread.start();
+        }
+        flux.demarrer();
+    }
+
+    /**
+     * Ferme toutes les connexions et attend la fin des threads du serveur.
+     */
+    public synchronized void arreter() throws InterruptedException {
+        if (!actif) {
+            return;
+        }
+        actif = false;
+        flux.arreter();
+        for (Travailleur travailleur : travailleurs) {
+            travailleur.selecteur.wakeup();
+        }
+        for (Travailleur travailleur : travailleurs) {
+            travailleur.thread.join();
+        }
+        try {
+            canalServeur.close();
+        } catch (IOException e) {
+            // Le port est libéré même si la fermeture signale une erreur
+        }
+    }
+
+    /**
+     * Port d'écoute, utile après un démarrage sur le port 0.
+     */
+    public int port() {
+        return canalServeur.socket().getLocalPort();
+    }
+
+    /**
+     * Occupation de référence, mise à jour par les threads du serveur.
+     */
+    public OccupationSalles occupation() {
+        return occupation;
+    }
+
+    /**
+     * Flux des changements d'occupation : les producteurs qui modifient {@link #occupation()} hors du serveur
+     * doivent signaler les salles modifiées pour que les abonnés les reçoivent.
+     */
+    public FluxOccupation flux() {
+        return flux;
+    }
+
+    public int nombreConnexions() {
+        int somme = 0;
+        for (Travailleur travailleur : travailleurs) {
+            somme += travailleur.connexions;
+        }
+        return somme;
+    }
+
+    public long lotsAcceptes() {
+        long somme = 0;
+        for (Travailleur travailleur : travailleurs) {
+            somme += travailleur.acceptes;
+        }
+        return somme;
+    }
+
+    public long lotsDoublons() {
+        long somme = 0;
+        for (Travailleur travailleur : travailleurs) {
+            somme += travailleur.doublons;
+        }
+        return somme;
+    }
+
+    public long lotsRefuses() {
+        long somme = 0;
+        for (Travailleur travailleur : travailleurs) {
+            somme += travailleur.refuses;
+        }
+        return somme;
+    }
+
+    public long evenementsAppliques() {
+        long somme = 0;
+        for (Travailleur travailleur : travailleurs) {
+            somme += travailleur.evenements;
+        }
+        return somme;
+    }
+
+    /**
+     * Nombre d'appareils inscrits et pas encore expirés.
+     */
+    public int nombreAppareils() {
+        return appareils.inscrits();
+    }
+
+    /**
+     * Nombre d'appareils retirés de leurs salles faute de lot ou de présence pendant le délai d'expiration.
+     */
+    public long appareilsExpires() {
+        return expires;
+    }
+
+    /**
+     * Retire de leurs salles les appareils sans contact depuis le délai d'expiration. Sur le premier thread.
+     */
+    private void expirer() {
+        long limite = System.nanoTime() - delaiExpirationNanos;
+        for (int indice = 0; indice < appareils.taille(); indice++) {
+            Appareil appareil = appareils.appareil(indice);
+            if (appareil == null || appareil.expire) {
+                continue;
+            }
+            synchronized (appareil) {
+                if (appareil.expire || appareil.dernierContact - limite > 0) {
+                    continue;
+                }
+                retirer(appareil);
+                appareil.expire = true;
+            }
+            appareils.liberer();
+            expires++;
+        }
+    }
+
+    /**
+     * Retire {@code appareil} de toutes les salles où il est compté. Sous le verrou de l'appareil.
+     */
+    private void retirer(Appareil appareil) {
+        for (int i = 0; i < appareil.nombreSalles; i++) {
+            occupation.sortir(appareil.salles[i]);
+            flux.signaler(appareil.salles[i]);
+        }
+        appareil.nombreSalles = 0;
+    }
+
+    private void fermerSelecteurs() {
+        for (Travailleur travailleur : travailleurs) {
+            if (travailleur != null) {
+                try {
+                    travailleur.selecteur.close();
+                } catch (IOException e) {
+                    // Rien d'autre à libérer
+                }
+            }
+        }
+    }
+
+    /**
+     * Thread servant une partie des connexions avec son propre sélecteur. Exécute aussi les tâches confiées par le
+     * flux (envoi des changements aux connexions abonnées), puisque seul ce thread écrit sur ses connexions.
+     */
+    private final class Travailleur implements Runnable, Executor {
+
+        final Selector selecteur;
+        Thread thread;
+
+        // Période de vérification des expirations (0 pour les threads qui n'en font pas) et prochaine vérification
+        long periodeExpirationMillis = 0;
+        private long prochaineExpiration;
+
+        // Connexions acceptées par le premier thread, à enregistrer dans ce sélecteur
+        private final ConcurrentLinkedQueue<SocketChannel> nouvelles = new ConcurrentLinkedQueue<>();
+
+        private final ConcurrentLinkedQueue<Runnable> taches = new ConcurrentLinkedQueue<>();
+
+        // Écrits par ce seul thread, lus par les statistiques du serveur
+        volatile int connexions = 0;
+        volatile long acceptes = 0;
+        volatile long doublons = 0;
+        volatile long refuses = 0;
+        volatile long evenements = 0;
+
+        Travailleur(Selector selecteur) {
+            this.selecteur = selecteur;
+        }
+
+        void confier(SocketChannel canal) {
+            nouvelles.add(canal);
+            selecteur.wakeup();
+        }
+
+        @Override
+        public void execute(Runnable tache) {
+            taches.add(tache);
+            selecteur.wakeup();
+        }
+
+        @Override
+        public void run() {
+            prochaineExpiration = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(periodeExpirationMillis);
+            try {
+                while (actif) {
+                    selecteur.select(periodeExpirationMillis);
+                    if (periodeExpirationMillis > 0 && System.nanoTime() - prochaineExpiration >= 0) {
+                        expirer();
+                        prochaineExpiration = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(periodeExpirationMillis);
+                    }
+                    enregistrerNouvelles();
+                    Runnable tache;
+                    while ((tache = taches.poll()) != null) {
+                        tache.run();
+                    }
+                    Iterator<SelectionKey> cles = selecteur.selectedKeys().iterator();
+                    while (cles.hasNext()) {
+                        SelectionKey cle = cles.next();
+                        cles.remove();
+                        if (!cle.isValid()) {
+                            continue;
+                        }
+                        if (cle.isAcceptable()) {
+                            accepter();
+                            continue;
+                        }
+                        Connexion connexion = (Connexion) cle.attachment();
+                        try {
+                            if (cle.isReadable()) {
+                                connexion.lire();
+                            }
+                            if (cle.isValid() && cle.isWritable()) {
+                                connexion.ecrire();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            // Une trame malformée ne ferme que sa connexion, jamais le thread qui sert les autres
+                            connexion.fermer();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Sélecteur du serveur d'occupation inutilisable", e);
+            } finally {
+                for (SelectionKey cle : selecteur.keys()) {
+                    if (cle.attachment() instanceof Connexion) {
+                        ((Connexion) cle.attachment()).fermer();
+                    }
+                }
+                SocketChannel canal;
+                while ((canal = nouvelles.poll()) != null) {
+                    fermerCanal(canal);
+                }
+                try {
+                    selecteur.close();
+                } catch (IOException e) {
+                    // Le thread s'arrête de toute façon
+                }
+            }
+        }
+
+        private void accepter() throws IOException {
+            SocketChannel canal;
+            while ((canal = canalServeur.accept()) != null) {
+                try {
+                    canal.configureBlocking(false);
+                    canal.socket().setTcpNoDelay(true);
+                } catch (IOException e) {
+                    fermerCanal(canal);
+                    continue;
+                }
+                travailleurs[suivant].confier(canal);
+                suivant = (suivant + 1) % travailleurs.length;
+            }
+        }
+
+        private void enregistrerNouvelles() {
+            SocketChannel canal;
+            while ((canal = nouvelles.poll()) != null) {
+                try {
+                    Connexion connexion = new Connexion(this, canal);
+                    connexion.cle = canal.register(selecteur, SelectionKey.OP_READ, connexion);
+                    connexions++;
+                } catch (IOException e) {
+                    fermerCanal(canal);
+                }
+            }
+        }
+    }
+
+    /**
+     * Connexion d'un appareil : trames reçues pas encore traitées et réponses pas encore envoyées.
+     */
+    private final class Connexion {
+
+        private final Travailleur travailleur;
+        private final SocketChannel canal;
+        SelectionKey cle;
+
+        // Abonnement de la connexion (null sinon), changements pris pour être envoyés, envoi reporté faute de place
+        private AbonnementOccupation abonnement;
+        private int[] sallesModifiees;
+        private int[] occupationsModifiees;
+        private boolean envoiReporte = false;
+        private final Runnable envoyerModifications = new Runnable() {
+            @Override
+            public void run() {
+                envoyerModifications();
+            }
+        };
+
+        // En écriture entre deux lectures du canal
+        private ByteBuffer entree = ByteBuffer.allocate(TAILLE_TAMPON_INITIALE).order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer sortie = ByteBuffer.allocate(TAILLE_TAMPON_INITIALE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Connexion(Travailleur travailleur, SocketChannel canal) {
+            this.travailleur = travailleur;
+            this.canal = canal;
+        }
+
+        void lire() throws IOException {
+            if (canal.read(entree) < 0) {
+                fermer();
+                return;
+            }
+            traiterTrames();
+            ecrire();
+        }
+
+        /**
+         * Envoie les réponses en attente ; tant qu'il en reste, la connexion n'attend plus que de pouvoir écrire.
+         */
+        void ecrire() throws IOException {
+            while (true) {
+                sortie.flip();
+                canal.write(sortie);
+                sortie.compact();
+                if (sortie.position() > 0) {
+                    cle.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                cle.interestOps(SelectionKey.OP_READ);
+                if (envoiReporte) {
+                    envoyerModifications();
+                    return;
+                }
+                // Trames gardées pendant que les réponses attendaient
+                if (entree.position() == 0 || !traiterTrames()) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Traite les trames complètes reçues, jusqu'à {@link #SEUIL_REPONSES} octets de réponses en attente.
+         *
+         * @return Vrai si au moins une trame a été traitée.
+         */
+        private boolean traiterTrames() throws IOException {
+            boolean traitee = false;
+            entree.flip();
+            while (entree.remaining() >= 4 && sortie.position() < SEUIL_REPONSES) {
+                int longueur = entree.getInt(entree.position());
+                if (longueur < 4 || longueur > ProtocoleOccupation.TAILLE_TRAME_MAX) {
+                    throw new IOException("Trame de longueur invalide : " + longueur);
+                }
+                if (entree.remaining() < 4 + longueur) {
+                    if (entree.capacity() < 4 + longueur) {
+                        // Trame plus longue que le tampon : le tampon agrandi reste en écriture
+                        ByteBuffer agrandi = ByteBuffer.allocate(4 + longueur).order(ByteOrder.LITTLE_ENDIAN);
+                        agrandi.put(entree);
+                        entree = agrandi;
+                        return traitee;
+                    }
+                    break;
+                }
+                int fin = entree.position() + 4 + longueur;
+                entree.position(entree.position() + 4);
+                traiter(longueur);
+                entree.position(fin);
+                traitee = true;
+            }
+            entree.compact();
+            return traitee;
+        }
+
+        private void traiter(int longueur) throws IOException {
+            int type = entree.getInt();
+            switch (type) {
+                case ProtocoleOccupation.TYPE_LOT:
+                    traiterLot(longueur, false);
+                    break;
+                case ProtocoleOccupation.TYPE_PRESENCE:
+                    traiterLot(longueur, true);
+                    break;
+                case ProtocoleOccupation.TYPE_LECTURE:
+                    traiterLecture(longueur);
+                    break;
+                case ProtocoleOccupation.TYPE_ABONNEMENT:
+                    traiterAbonnement(longueur);
+                    break;
+                default:
+                    throw new IOException("Type de trame inconnu : " + type);
+            }
+        }
+
+        /**
+         * Traite un lot d'événements, ou une présence si {@code presence} est vrai (même format).
+         */
+        private void traiterLot(int longueur, boolean presence) throws IOException {
+            if (longueur < ProtocoleOccupation.LONGUEUR_LOT_VIDE) {
+                throw new IOException("Lot trop court : " + longueur);
+            }
+            long appareil = entree.getLong();
+            long numero = entree.getLong();
+            int nombre = entree.getInt();
+            // Nombre borné avant le calcul de la longueur attendue, qui déborderait sinon
+            if (nombre < 0 || nombre > ProtocoleOccupation.EVENEMENTS_PAR_LOT_MAX
+                    || longueur != ProtocoleOccupation.LONGUEUR_LOT_VIDE + 4 * nombre) {
+                throw new IOException("Longueur de lot invalide : " + longueur + " pour " + nombre + " événements");
+            }
+            int debut = entree.position();
+            int statut = appliquer(appareil, numero, debut, nombre, presence);
+            if (statut == ProtocoleOccupation.STATUT_ACCEPTE) {
+                travailleur.acceptes++;
+                travailleur.evenements += nombre;
+            } else if (statut == ProtocoleOccupation.STATUT_DOUBLON) {
+                travailleur.doublons++;
+            } else {
+                travailleur.refuses++;
+            }
+            reserver(4 + ProtocoleOccupation.LONGUEUR_ACQUITTEMENT);
+            ProtocoleOccupation.ecrireAcquittement(sortie, appareil, numero, statut);
+        }
+
+        /**
+         * Applique les {@code nombre} événements (ou salles d'une présence) lus à partir de {@code debut}, si le lot
+         * est valide et n'a pas déjà été appliqué.
+         */
+        private int appliquer(long identifiant, long numero, int debut, int nombre, boolean presence) {
+            if (identifiant == 0 || numero <= 0) {
+                return ProtocoleOccupation.STATUT_REFUSE;
+            }
+            int nombreSalles = occupation.nombreSalles();
+            for (int i = 0; i < nombre; i++) {
+                int evenement = entree.getInt(debut + 4 * i);
+                if (ProtocoleOccupation.salle(evenement) >= nombreSalles || presence && evenement < 0) {
+                    return ProtocoleOccupation.STATUT_REFUSE;
+                }
+            }
+            while (true) {
+                Appareil appareil = appareils.trouver(identifiant);
+                if (appareil == null) {
+                    return ProtocoleOccupation.STATUT_REFUSE;
+                }
+                synchronized (appareil) {
+                    // Expiré depuis qu'il a été trouvé : l'appareil est inscrit à nouveau
+                    if (appareil.expire) {
+                        continue;
+                    }
+                    if (numero <= appareil.dernierNumero) {
+                        return ProtocoleOccupation.STATUT_DOUBLON;
+                    }
+                    appareil.dernierNumero = numero;
+                    appareil.dernierContact = System.nanoTime();
+                    if (presence) {
+                        remplacerPresence(appareil, debut, nombre);
+                    } else {
+                        appliquerEvenements(appareil, debut, nombre);
+                    }
+                    return ProtocoleOccupation.STATUT_ACCEPTE;
+                }
+            }
+        }
+
+        private void appliquerEvenements(Appareil appareil, int debut, int nombre) {
+            for (int i = 0; i < nombre; i++) {
+                int evenement = entree.getInt(debut + 4 * i);
+                if (evenement >= 0) {
+                    appareil.ajouter(evenement);
+                    occupation.entrer(evenement);
+                    flux.signaler(evenement);
+                } else if (!appareil.retirer(-1 - evenement)) {
+                    // Sortie d'une salle où l'appareil n'est pas compté (présence expirée ou remplacée) : ignorée
+                    continue;
+                } else if (i + 1 < nombre && entree.getInt(debut + 4 * (i + 1)) >= 0) {
+                    int arrivee = entree.getInt(debut + 4 * (i + 1));
+                    appareil.ajouter(arrivee);
+                    occupation.deplacer(-1 - evenement, arrivee);
+                    flux.signaler(-1 - evenement);
+                    flux.signaler(arrivee);
+                    i++;
+                } else {
+                    occupation.sortir(-1 - evenement);
+                    flux.signaler(-1 - evenement);
+                }
+            }
+        }
+
+        /**
+         * Compte l'appareil dans les salles de la présence, et seulement dans celles-là : les salles où il est déjà
+         * compté ne changent pas.
+         */
+        private void remplacerPresence(Appareil appareil, int debut, int nombre) {
+            for (int i = 0; i < nombre; i++) {
+                int salle = entree.getInt(debut + 4 * i);
+                if (!appareil.retirer(salle)) {
+                    occupation.entrer(salle);
+                    flux.signaler(salle);
+                }
+            }
+            // Les salles restantes ne sont plus dans la présence
+            retirer(appareil);
+            for (int i = 0; i < nombre; i++) {
+                appareil.ajouter(entree.getInt(debut + 4 * i));
+            }
+        }
+
+        private void traiterLecture(int longueur) throws IOException {
+            if (longueur != ProtocoleOccupation.LONGUEUR_LECTURE) {
+                throw new IOException("Longueur de lecture invalide : " + longueur);
+            }
+            int premiere = entree.getInt();
+            int nombre = entree.getInt();
+            if (premiere < 0 || nombre < 0 || nombre > ProtocoleOccupation.SALLES_PAR_LECTURE_MAX) {
+                throw new IOException("Lecture invalide : " + nombre + " salles à partir de " + premiere);
+            }
+            // Les salles au-delà de la dernière ne sont pas retournées
+            nombre = Math.max(0, Math.min(nombre, occupation.nombreSalles() - premiere));
+            reserver(ProtocoleOccupation.tailleOccupations(nombre));
+            sortie.putInt(ProtocoleOccupation.LONGUEUR_OCCUPATIONS_VIDE + 4 * nombre);
+            sortie.putInt(ProtocoleOccupation.TYPE_OCCUPATIONS);
+            sortie.putInt(premiere);
+            sortie.putInt(nombre);
+            for (int salle = premiere; salle < premiere + nombre; salle++) {
+                sortie.putInt(occupation.occupation(salle));
+            }
+        }
+
+        private void traiterAbonnement(int longueur) throws IOException {
+            if (longueur < ProtocoleOccupation.LONGUEUR_ABONNEMENT_VIDE) {
+                throw new IOException("Abonnement trop court : " + longueur);
+            }
+            int nombre = entree.getInt();
+            if (nombre < 0 || nombre > ProtocoleOccupation.SALLES_PAR_ABONNEMENT_MAX
+                    || longueur != ProtocoleOccupation.LONGUEUR_ABONNEMENT_VIDE + 4 * nombre) {
+                throw new IOException("Longueur d'abonnement invalide : " + longueur + " pour " + nombre + " salles");
+            }
+            int[] salles = new int[nombre];
+            for (int i = 0; i < nombre; i++) {
+                salles[i] = entree.getInt();
+                if (salles[i] < 0 || salles[i] >= occupation.nombreSalles()) {
+                    throw new IOException("Salle d'abonnement invalide : " + salles[i]);
+                }
+            }
+            if (abonnement != null) {
+                flux.resilier(abonnement);
+            }
+            sallesModifiees = new int[nombre];
+            occupationsModifiees = new int[nombre];
+            // L'occupation actuelle des salles est envoyée par le premier envoi de l'abonnement
+            abonnement = flux.abonner(salles, travailleur, envoyerModifications);
+        }
+
+        /**
+         * Envoie les changements de l'abonnement, ou reporte l'envoi tant que des réponses attendent d'être envoyées.
+         */
+        private void envoyerModifications() {
+            if (abonnement == null || !cle.isValid()) {
+                return;
+            }
+            if (sortie.position() >= SEUIL_REPONSES) {
+                envoiReporte = true;
+                return;
+            }
+            envoiReporte = false;
+            int nombre = abonnement.prendre(sallesModifiees, occupationsModifiees);
+            for (int debut = 0; debut < nombre; debut += ProtocoleOccupation.MODIFICATIONS_PAR_TRAME_MAX) {
+                int partie = Math.min(nombre - debut, ProtocoleOccupation.MODIFICATIONS_PAR_TRAME_MAX);
+                reserver(ProtocoleOccupation.tailleModifications(partie));
+                ProtocoleOccupation.ecrireModifications(sortie, sallesModifiees, occupationsModifiees, debut, partie);
+            }
+            try {
+                ecrire();
+            } catch (IOException e) {
+                fermer();
+            }
+        }
+
+        /**
+         * Agrandit le tampon des réponses pour qu'il puisse recevoir {@code taille} octets de plus.
+         */
+        private void reserver(int taille) {
+            if (sortie.remaining() < taille) {
+                ByteBuffer agrandi = ByteBuffer.allocate(Math.max(2 * sortie.capacity(), sortie.position() + taille))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                sortie.flip();
+                agrandi.put(sortie);
+                sortie = agrandi;
+            }
+        }
+
+        void fermer() {
+            if (abonnement != null) {
+                flux.resilier(abonnement);
+                abonnement = null;
+            }
+            if (cle != null && cle.isValid()) {
+                cle.cancel();
+                travailleur.connexions--;
+            }
+            fermerCanal(canal);
+        }
+    }
+
+    private static void fermerCanal(SocketChannel canal) {
+        try {
+            canal.close();
+        } catch (IOException e) {
+            // La connexion est abandonnée de toute façon
+        }
+    }
+
+    /**
+     * Un appareil connu du serveur : dernier numéro de lot appliqué, dernier contact et salles où il est compté (une
+     * fois par entrée pas encore suivie de sa sortie). Modifié sous son propre verrou.
+     */
+    private static final class Appareil {
+
+        final long identifiant;
+
+        long dernierNumero = 0;
+        long dernierContact = System.nanoTime();
+        int[] salles = new int[2];
+        int nombreSalles = 0;
+
+        // Écrit sous le verrou de l'appareil, lu sans verrou par la table qui peut alors reprendre sa place
+        volatile boolean expire = false;
+
+        Appareil(long identifiant) {
+            this.identifiant = identifiant;
+        }
+
+        void ajouter(int salle) {
+            if (nombreSalles == salles.length) {
+                int[] agrandies = new int[2 * salles.length];
+                System.arraycopy(salles, 0, agrandies, 0, nombreSalles);
+                salles = agrandies;
+            }
+            salles[nombreSalles++] = salle;
+        }
+
+        /**
+         * @return Faux si l'appareil n'est pas compté dans {@code salle}.
+         */
+        boolean retirer(int salle) {
+            for (int i = 0; i < nombreSalles; i++) {
+                if (salles[i] == salle) {
+                    salles[i] = salles[--nombreSalles];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Appareils inscrits, dans une table à adressage ouvert. Un appareil déjà inscrit est trouvé sans verrou ;
+     * l'inscription d'un nouvel appareil, rare, se fait sous le verrou de la table et reprend la place du premier
+     * appareil expiré rencontré. Une place n'est jamais vidée : les suites de sondage restent intactes.
+     */
+    private static final class TableAppareils {
+
+        private final AtomicReferenceArray<Appareil> places;
+        private final int masque;
+        private final int capacite;
+
+        // Appareils inscrits et pas encore expirés, protégé par 'this'
+        private int inscrits = 0;
+
+        TableAppareils(int capacite) {
+            // Table remplie au plus à moitié
+            int taille = 1;
+            while (taille < 2 * capacite) {
+                taille <<= 1;
+            }
+            places = new AtomicReferenceArray<>(taille);
+            masque = taille - 1;
+            this.capacite = capacite;
+        }
+
+        int taille() {
+            return places.length();
+        }
+
+        Appareil appareil(int indice) {
+            return places.get(indice);
+        }
+
+        synchronized int inscrits() {
+            return inscrits;
+        }
+
+        /**
+         * Appareil {@code identifiant}, inscrit s'il ne l'est pas encore.
+         *
+         * @return Null si la table est pleine.
+         */
+        Appareil trouver(long identifiant) {
+            int indice = premierIndice(identifiant);
+            for (int essai = 0; essai <= masque; essai++, indice = (indice + 1) & masque) {
+                Appareil appareil = places.get(indice);
+                if (appareil == null) {
+                    break;
+                }
+                if (appareil.identifiant == identifiant && !appareil.expire) {
+                    return appareil;
+                }
+            }
+            return inscrire(identifiant);
+        }
+
+        private synchronized Appareil inscrire(long identifiant) {
+            int libre = -1;
+            int indice = premierIndice(identifiant);
+            for (int essai = 0; essai <= masque; essai++, indice = (indice + 1) & masque) {
+                Appareil appareil = places.get(indice);
+                if (appareil == null || appareil.expire) {
+                    if (libre < 0) {
+                        libre = indice;
+                    }
+                    if (appareil == null) {
+                        break;
+                    }
+                } else if (appareil.identifiant == identifiant) {
+                    // Inscrit par un autre thread entre-temps
+                    return appareil;
+                }
+            }
+            if (libre < 0 || inscrits >= capacite) {
+                return null;
+            }
+            Appareil appareil = new Appareil(identifiant);
+            places.set(libre, appareil);
+            inscrits++;
+            return appareil;
+        }
+
+        /**
+         * Compte un appareil de moins, qui vient d'expirer.
+         */
+        synchronized void liberer() {
+            inscrits--;
+        }
+
+        private int premierIndice(long identifiant) {
+            return (int) ((identifiant * 0x9E3779B97F4A7C15L) >>> 32) & masque;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Suite de localisations lue par indice, de la plus ancienne (0) à la plus récente ({@link #nombre()} − 1),
+ * à rejouer avec {@link RejeuLocalisations} : une trace enregistrée ({@link LectureTrace}) ou une suite
+ * synthétique. Les heures sont croissantes d'une localisation à l'autre.
+ */
+public interface SourceLocalisations {
+
+    /**
+     * Nombre de localisations.
+     */
+    long nombre();
+
+    /**
+     * Heure de la localisation {@code i}, en millisecondes.
+     */
+    long instant(long i);
+
+    /**
+     * Latitude de la localisation {@code i}, en degrés.
+     */
+    double latitude(long i);
+
+    /**
+     * Longitude de la localisation {@code i}, en degrés.
+     */
+    double longitude(long i);
+
+    /**
+     * Précision de la localisation {@code i} (rayon à 68 %), en mètres ({@code Float.NaN} si inconnue).
+     */
+    float precision(long i);
+}
@@ -0,0 +1,183 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Texte modifiable construit dans un tableau de caractères réutilisé, pour les textes affichés à
+ * chaque mise à jour de localisation.
+ * <p/>
+ * Contrairement à {@code String.format} ou à la concaténation, écrire un nombre ou une heure dans un
+ * tampon n'alloue aucun objet une fois le tampon dimensionné. Le contenu s'affiche sans copie avec
+ * {@code TextView.setText(tampon.caracteres(), 0, tampon.longueur())} ; chaque vue doit alors avoir
+ * son propre tampon, car la vue lit directement le tableau.
+ */
+public final class TamponTexte implements CharSequence {
+
+    // Puissances de 10 utilisées pour arrondir les parties décimales
+    private static final long[] PUISSANCES_DE_DIX = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    private char[] caracteres;
+    private int longueur = 0;
+
+    public TamponTexte() {
+        this(64);
+    }
+
+    public TamponTexte(int capacite) {
+        caracteres = new char[capacite];
+    }
+
+    /**
+     * Le tableau interne ; seuls les {@link #longueur()} premiers caractères sont significatifs.
+     */
+    public char[] caracteres() {
+        return caracteres;
+    }
+
+    @Override
+    public int length() {
+        return longueur;
+    }
+
+    public int longueur() {
+        return longueur;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= longueur) {
+            throw new IndexOutOfBoundsException("index " + index + ", longueur " + longueur);
+        }
+        return caracteres[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int debut, int fin) {
+        return new String(caracteres, debut, fin - debut);
+    }
+
+    @Override
+    public String toString() {
+        return new String(caracteres, 0, longueur);
+    }
+
+    public TamponTexte vider() {
+        longueur = 0;
+        return this;
+    }
+
+    /**
+     * Indique si le tampon contient exactement {@code texte}.
+     */
+    public boolean contenuEgal(CharSequence texte) {
+        if (texte.length() != longueur) {
+            return false;
+        }
+        for (int i = 0; i < longueur; i++) {
+            if (caracteres[i] != texte.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public TamponTexte ajouter(char c) {
+        reserver(1);
+        caracteres[longueur++] = c;
+        return this;
+    }
+
+    public TamponTexte ajouter(CharSequence texte) {
+        int taille = texte.length();
+        reserver(taille);
+        for (int i = 0; i < taille; i++) {
+            caracteres[longueur++] = texte.charAt(i);
+        }
+        return this;
+    }
+
+    public TamponTexte ajouter(long nombre) {
+        if (nombre == Long.MIN_VALUE) {
+            // -nombre n'est pas représentable : cas limite sans intérêt pour l'affichage
+            return ajouter("-9223372036854775808");
+        }
+        if (nombre < 0) {
+            ajouter('-');
+            nombre = -nombre;
+        }
+        ajouterChiffres(nombre, 1);
+        return this;
+    }
+
+    /**
+     * Ajoute {@code nombre} arrondi à {@code decimales} chiffres après le point (au plus 9), comme
+     * {@code String.format(Locale.ENGLISH, "%.<decimales>f", nombre)}.
+     */
+    public TamponTexte ajouter(double nombre, int decimales) {
+        if (Double.isNaN(nombre)) {
+            return ajouter("NaN");
+        }
+        if (Double.isInfinite(nombre)) {
+            return ajouter(nombre > 0 ? "Infinity" : "-Infinity");
+        }
+        if (nombre < 0) {
+            ajouter('-');
+            nombre = -nombre;
+        }
+        long facteur = PUISSANCES_DE_DIX[decimales];
+        long arrondi = Math.round(nombre * facteur);
+        ajouterChiffres(arrondi / facteur, 1);
+        if (decimales > 0) {
+            ajouter('.');
+            ajouterChiffres(arrondi % facteur, decimales);
+        }
+        return this;
+    }
+
+    /**
+     * Ajoute l'heure locale de l'instant {@code millis} au format HH:mm:ss.
+     *
+     * @param fuseau Fuseau horaire à conserver par l'appelant ({@code TimeZone.getDefault()} retourne une copie à chaque appel).
+     */
+    public TamponTexte ajouterHeure(long millis, TimeZone fuseau) {
+        long local = millis + fuseau.getOffset(millis);
+        // Division arrondie vers le bas, pour les instants antérieurs à 1970
+        long secondes = local / 1000L - (local % 1000L < 0 ? 1 : 0);
+        int secondesDuJour = (int) (secondes % 86400L);
+        if (secondesDuJour < 0) {
+            secondesDuJour += 86400;
+        }
+        ajouterChiffres(secondesDuJour / 3600, 2);
+        ajouter(':');
+        ajouterChiffres((secondesDuJour / 60) % 60, 2);
+        ajouter(':');
+        ajouterChiffres(secondesDuJour % 60, 2);
+        return this;
+    }
+
+    /**
+     * Écrit un entier positif avec au moins {@code chiffresMin} chiffres (complété par des zéros à gauche).
+     */
+    private void ajouterChiffres(long nombre, int chiffresMin) {
+        int chiffres = 1;
+        for (long reste = nombre / 10; reste > 0; reste /= 10) {
+            chiffres++;
+        }
+        chiffres = Math.max(chiffres, chiffresMin);
+        reserver(chiffres);
+        for (int i = longueur + chiffres - 1; i >= longueur; i--) {
+            caracteres[i] = (char) ('0' + (nombre % 10));
+            nombre /= 10;
+        }
+        longueur += chiffres;
+    }
+
+    private void reserver(int supplement) {
+        if (longueur + supplement > caracteres.length) {
+            caracteres = Arrays.copyOf(caracteres, Math.max(caracteres.length * 2, longueur + supplement));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Exécute le {@link TraitementLocalisation} sur un thread de traitement dédié et ne confie au thread
+ * principal que l'affichage du dernier {@link EtatRendu}.
+ * <p/>
+ * Les localisations doivent être livrées directement sur le thread de traitement (sous Android, en
+ * passant le {@code Looper} d'un {@code HandlerThread} à {@code requestLocationUpdates}) : arrondi,
+ * distances, recherche des salles et compteurs y sont calculés, puis l'état produit est publié dans un
+ * {@link EchangeEtatsRendu}. Une seule tâche d'affichage est en attente à la fois sur le thread
+ * principal, quel que soit le nombre d'états publiés entre-temps.
+ * <p/>
+ * Le registre des salles et la {@link Localisation} ne sont alors modifiés que par le thread de
+ * traitement : les actions de l'utilisateur qui les modifient passent par {@link #executer(Runnable)}.
+ */
+public final class TraitementHorsThreadPrincipal {
+
+    /**
+     * Affichage d'un état sur le thread principal.
+     */
+    public interface Afficheur {
+        void rendre(EtatRendu etat);
+    }
+
+    private final TraitementLocalisation traitement;
+    private final EchangeEtatsRendu echange;
+    private final Executor executeurTraitement;
+    private final Executor executeurPrincipal;
+    private final Afficheur afficheur;
+
+    // Une tâche d'affichage est déjà en attente sur le thread principal
+    private final AtomicBoolean affichageEnAttente = new AtomicBoolean(false);
+
+    // Tâches réutilisées, pour ne rien allouer à chaque localisation
+    private final Runnable afficherDernierEtat = new Runnable() {
+        @Override
+        public void run() {
+            affichageEnAttente.set(false);
+            EtatRendu etat = echange.prendre();
+            if (etat != null) {
+                afficheur.rendre(etat);
+            }
+        }
+    };
+    private final Runnable publierEtatArrete = new Runnable() {
+        @Override
+        public void run() {
+            traitement.remplirEtatArrete(echange.aRemplir());
+            publier();
+        }
+    };
+
+    /**
+     * @param executeurTraitement Exécute les tâches sur le thread de traitement (celui où sont livrées les localisations).
+     * @param executeurPrincipal  Exécute les tâches sur le thread principal.
+     */
+    public TraitementHorsThreadPrincipal(TraitementLocalisation traitement, int nombreSalles,
+                                         Executor executeurTraitement, Executor executeurPrincipal,
+                                         Afficheur afficheur) {
+        this.traitement = traitement;
+        this.echange = new EchangeEtatsRendu(nombreSalles);
+        this.executeurTraitement = executeurTraitement;
+        this.executeurPrincipal = executeurPrincipal;
+        this.afficheur = afficheur;
+    }
+
+    public TraitementLocalisation traitement() {
+        return traitement;
+    }
+
+    /**
+     * Traite une localisation et en fait afficher le résultat. À appeler sur le thread de traitement.
+     */
+    public void traiter(double latitude, double longitude, long instant) {
+        traitement.traiter(latitude, longitude, instant, echange.aRemplir());
+        publier();
+    }
+
+    /**
+     * Fait afficher l'état de la dernière localisation appliquée avec {@link TraitementLocalisation#appliquer},
+     * après un lot de localisations. À appeler sur le thread de traitement.
+     */
+    public void afficherEtat(long instant) {
+        traitement.remplirEtat(instant, echange.aRemplir());
+        publier();
+    }
+
+    /**
+     * Fait afficher, depuis n'importe quel thread, l'état d'une localisation arrêtée.
+     */
+    public void afficherEtatArrete() {
+        executeurTraitement.execute(publierEtatArrete);
+    }
+
+    /**
+     * Exécute une tâche sur le thread de traitement, dans l'ordre des localisations reçues.
+     */
+    public void executer(Runnable tache) {
+        executeurTraitement.execute(tache);
+    }
+
+    private void publier() {
+        echange.publier();
+        if (affichageEnAttente.compareAndSet(false, true)) {
+            executeurPrincipal.execute(afficherDernierEtat);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+/**
+ * Traitement d'une mise à jour de localisation, indépendant d'Android : filtrage facultatif de la
+ * localisation ({@link FiltreKalman}), réduction de la précision, placement des salles, automate
+ * d'entrée et de sortie des salles ({@link TransitionsSalles}), mise à jour des compteurs, puis
+ * production de l'{@link EtatRendu} à afficher.
+ * <p/>
+ * Les compteurs et l'état affiché ne changent que sur une entrée ou une sortie confirmée par
+ * l'automate : les oscillations de la localisation au bord d'une salle ne modifient ni l'occupation
+ * ni les vues.
+ * <p/>
+ * Le traitement n'alloue rien : les tableaux de travail sont créés une fois pour toutes et l'état de
+ * rendu est fourni par l'appelant.
+ */
+public final class TraitementLocalisation {
+
+    private final MoteurGeofence moteur;
+    private final RegistreSalles registre;
+    private final OccupationSalles occupation;
+    private final TransitionsSalles transitions;
+
+    // Filtre des localisations brutes, appliqué avant la recherche des salles s'il est activé
+    private final FiltreKalman filtre = new FiltreKalman();
+    private boolean filtrage = false;
+
+    // Projection locale ancrée sur le point de régénération des salles
+    private final ProjectionLocale plan = new ProjectionLocale();
+
+    // Écouteur supplémentaire des entrées et sorties confirmées (null si aucun)
+    private TransitionsSalles.Ecouteur ecouteur;
+
+    // Durées des étapes (null si elles ne sont pas mesurées), et durée des mises à jour de l'occupation pendant
+    // l'automate, retirée de la durée de contenance
+    private MesuresPipeline mesures;
+    private long dureeOccupation;
+
+    // Chronologie des placements de salles, entrées et sorties (null si elle n'est pas tenue)
+    private ChronologiePipeline chronologie;
+
+    // Dernière localisation appliquée, avant réduction de la précision (affichée telle quelle)
+    private double derniereLatitude;
+    private double derniereLongitude;
+
+    // Dernière localisation appliquée, réduite au centimètre (unités E7)
+    private int derniereLatitudeE7;
+    private int derniereLongitudeE7;
+    private boolean localisationAppliquee = false;
+
+    /**
+     * @param occupation Compteurs des usagers présents dans les salles du registre du moteur (un compteur par
+     *                   salle du registre), auxquels mes entrées et sorties sont ajoutées.
+     */
+    public TraitementLocalisation(MoteurGeofence moteur, OccupationSalles occupation) {
+        this.moteur = moteur;
+        this.registre = moteur.registre();
+        this.occupation = occupation;
+        this.transitions = new TransitionsSalles(moteur, new TransitionsSalles.Ecouteur() {
+            @Override
+            public void entree(int salle, long instant) {
+                long debut = mesures != null ? MesuresPipeline.maintenant() : 0;
+                if (chronologie != null) {
+                    chronologie.instant(ChronologiePipeline.ENTREE, salle);
+                }
+                TraitementLocalisation.this.occupation.entrer(salle);
+                if (ecouteur != null) {
+                    ecouteur.entree(salle, instant);
+                }
+                mesurerOccupation(debut);
+            }
+
+            @Override
+            public void sortie(int salle, long instant) {
+                long debut = mesures != null ? MesuresPipeline.maintenant() : 0;
+                if (chronologie != null) {
+                    chronologie.instant(ChronologiePipeline.SORTIE, salle);
+                }
+                TraitementLocalisation.this.occupation.sortir(salle);
+                if (ecouteur != null) {
+                    ecouteur.sortie(salle, instant);
+                }
+                mesurerOccupation(debut);
+            }
+        });
+    }
+
+    public MoteurGeofence moteur() {
+        return moteur;
+    }
+
+    public OccupationSalles occupation() {
+        return occupation;
+    }
+
+    /**
+     * Automate d'entrée et de sortie des salles, pour en choisir l'hystérésis et les durées de séjour.
+     */
+    public TransitionsSalles transitions() {
+        return transitions;
+    }
+
+    /**
+     * Filtre des localisations, pour en choisir le bruit d'accélération.
+     */
+    public FiltreKalman filtre() {
+        return filtre;
+    }
+
+    public boolean filtrage() {
+        return filtrage;
+    }
+
+    /**
+     * Active ou désactive le filtrage des localisations, à tout moment (sur le thread qui applique les
+     * localisations). Le filtre repart de la localisation suivante.
+     */
+    public void fixerFiltrage(boolean filtrage) {
+        this.filtrage = filtrage;
+        filtre.reinitialiser();
+    }
+
+    /**
+     * Reçoit aussi les entrées et sorties confirmées (après la mise à jour de l'occupation), sur le
+     * thread qui applique les localisations. {@code null} pour n'en recevoir aucune.
+     */
+    public void fixerEcouteur(TransitionsSalles.Ecouteur ecouteur) {
+        this.ecouteur = ecouteur;
+    }
+
+    /**
+     * Mesure la durée des étapes du traitement dans {@code mesures} ({@code null} pour ne plus les mesurer),
+     * sur le thread qui applique les localisations.
+     */
+    public void fixerMesures(MesuresPipeline mesures) {
+        this.mesures = mesures;
+    }
+
+    /**
+     * Ajoute à {@code chronologie} les placements des salles, les entrées et les sorties ({@code null} pour ne plus
+     * les y ajouter), sur le thread qui applique les localisations.
+     */
+    public void fixerChronologie(ChronologiePipeline chronologie) {
+        this.chronologie = chronologie;
+    }
+
+    /**
+     * Traite une nouvelle localisation et remplit {@code etat} pour ses {@link EtatRendu#nombreSalles()} premières salles.
+     */
+    public void traiter(double latitude, double longitude, long instant, EtatRendu etat) {
+        appliquer(latitude, longitude, instant);
+        remplirEtat(instant, etat);
+    }
+
+    /**
+     * Applique une localisation aux salles (entrée, sortie, compteurs) sans produire d'état de rendu.
+     * Pour un lot de localisations, chacune est appliquée dans l'ordre, puis {@link #remplirEtat} n'est
+     * appelé qu'une fois : aucune entrée ni sortie de salle n'est manquée, et l'écran n'est mis à jour
+     * qu'une fois par lot.
+     *
+     * @param instant Heure de la localisation, en millisecondes (durées de séjour de l'automate).
+     */
+    public void appliquer(double latitude, double longitude, long instant) {
+        appliquer(latitude, longitude, Float.NaN, instant);
+    }
+
+    /**
+     * Applique une localisation dont la précision est connue : le filtre, s'il est activé, la pondère
+     * par cette précision.
+     *
+     * @param precisionMetres Précision de la localisation (rayon à 68 %), en mètres ; {@code Float.NaN} si inconnue.
+     */
+    public void appliquer(double latitude, double longitude, float precisionMetres, long instant) {
+        MesuresPipeline mesures = this.mesures;
+        long debut = mesures != null ? MesuresPipeline.maintenant() : 0;
+        if (filtrage) {
+            filtre.mettreAJour(latitude, longitude, precisionMetres, instant);
+            latitude = filtre.latitude();
+            longitude = filtre.longitude();
+        }
+
+        /* Pour éviter des problèmes de calcul de distance entre ma position (> 7 chiffres à la virgule)
+        et celle d'une coordonnée géographique Google Maps (7 chiffres après la virgule) :
+        - On réduit la précision de la géolocalisation à 7 chiffres après la virgules (précision acceptable).
+        - La coordonnée est gardée sous forme d'entier (degrés × 10^7) jusqu'aux calculs de distance, qui
+          se font sur des écarts entiers ; les degrés ne servent qu'à l'affichage.
+         */
+        int maLatitudeE7 = CoordonneesE7.versE7(latitude);
+        int maLongitudeE7 = CoordonneesE7.versE7(longitude);
+        Localisation.latitudeTempsT = CoordonneesE7.degres(maLatitudeE7);
+        Localisation.longitudeTempsT = CoordonneesE7.degres(maLongitudeE7);
+        derniereLatitude = latitude;
+        derniereLongitude = longitude;
+        derniereLatitudeE7 = maLatitudeE7;
+        derniereLongitudeE7 = maLongitudeE7;
+        localisationAppliquee = true;
+        if (mesures != null) {
+            debut = mesures.enregistrer(MesuresPipeline.ARRONDI_FILTRAGE, debut);
+        }
+
+        // Permet de rédéclencher le bouton 'regenererPositionsSalles' entre chaque mise à jour de localisation
+        if (Localisation.valeursLongLatAttribuees) {
+            if (chronologie != null) {
+                chronologie.debut(ChronologiePipeline.POSITIONS_SALLES);
+            }
+            fixerPositionsSalles(maLatitudeE7, maLongitudeE7);
+            Localisation.valeursLongLatAttribuees = false;
+            if (chronologie != null) {
+                chronologie.fin(ChronologiePipeline.POSITIONS_SALLES);
+            }
+            // Le placement des salles n'est pas compté dans la contenance
+            if (mesures != null) {
+                debut = MesuresPipeline.maintenant();
+            }
+        }
+
+        // L'automate ne retient que les entrées et sorties confirmées, qui mettent à jour l'occupation
+        if (mesures == null) {
+            transitions.mettreAJourE7(maLatitudeE7, maLongitudeE7, instant);
+            return;
+        }
+        dureeOccupation = 0;
+        transitions.mettreAJourE7(maLatitudeE7, maLongitudeE7, instant);
+        mesures.enregistrerDuree(MesuresPipeline.CONTENANCE, MesuresPipeline.maintenant() - debut - dureeOccupation);
+    }
+
+    /**
+     * Reprend une localisation déjà traitée (sauvegardée avec l'activité) pour l'afficher, si aucune n'a encore
+     * été appliquée : ni le filtre ni l'automate ne la reçoivent, les durées de séjour n'avancent pas.
+     */
+    public void reprendreLocalisation(double latitude, double longitude) {
+        if (localisationAppliquee) {
+            return;
+        }
+        derniereLatitude = latitude;
+        derniereLongitude = longitude;
+        derniereLatitudeE7 = CoordonneesE7.versE7(latitude);
+        derniereLongitudeE7 = CoordonneesE7.versE7(longitude);
+    }
+
+    /**
+     * Remplit {@code etat} à partir de la dernière localisation appliquée.
+     *
+     * @param instant Heure de la mise à jour (millisecondes depuis le 1er janvier 1970).
+     */
+    public void remplirEtat(long instant, EtatRendu etat) {
+        etat.fixerLocalisation(true, derniereLatitude, derniereLongitude, instant);
+        for (int salle = 0; salle < etat.nombreSalles(); salle++) {
+            boolean dedans = transitions.present(salle);
+            int compteur = compteur(salle);
+            etat.fixerSalle(salle, registre.latitude(salle), registre.longitude(salle),
+                    moteur.distanceE7(salle, derniereLatitudeE7, derniereLongitudeE7),
+                    registre.usagersSimules(salle), compteur, registre.capacite(salle),
+                    dedans && compteur > registre.capacite(salle), dedans);
+        }
+    }
+
+    /**
+     * Remplit {@code etat} pour une localisation arrêtée : je ne suis dans aucune salle, et chaque salle
+     * affiche son nombre d'usagers actuels.
+     */
+    public void remplirEtatArrete(EtatRendu etat) {
+        etat.fixerLocalisation(false, Localisation.latitudeTempsT, Localisation.longitudeTempsT, 0);
+        for (int salle = 0; salle < etat.nombreSalles(); salle++) {
+            etat.fixerSalle(salle, registre.latitude(salle), registre.longitude(salle), 0,
+                    registre.usagersSimules(salle), compteur(salle), registre.capacite(salle), false, false);
+        }
+    }
+
+    /**
+     * Quitte les salles où je suis, oublie les localisations filtrées et remet à zéro l'occupation et les
+     * usagers simulés de toutes les salles (à l'arrêt de la localisation).
+     */
+    public void remettreAZero() {
+        transitions.reinitialiser();
+        filtre.reinitialiser();
+        occupation.remettreAZero();
+        registre.remettreAZeroUsagersSimules();
+    }
+
+    /**
+     * Arrêt de la localisation : oublie les localisations filtrées et remet à zéro les usagers simulés.
+     * L'occupation et les salles où je suis sont conservées (et journalisées, voir {@link JournalOccupation}) :
+     * l'automate reprend au redémarrage de la localisation et émet les sorties si j'ai quitté les salles.
+     */
+    public void suspendre() {
+        filtre.reinitialiser();
+        registre.remettreAZeroUsagersSimules();
+    }
+
+    /**
+     * Reprend l'occupation relue d'un journal au démarrage de l'application. Les événements journalisés
+     * sont mes propres entrées et sorties : je suis encore dans les salles d'occupation positive, où
+     * l'automate me replace sans compter de nouvelle entrée.
+     */
+    public void restaurer(int[] occupations) {
+        occupation.restaurer(occupations);
+        for (int salle = 0; salle < Math.min(occupations.length, registre.taille()); salle++) {
+            if (occupations[salle] > 0) {
+                transitions.restaurerPresence(salle);
+            }
+        }
+    }
+
+    /**
+     * Nombre d'usagers actuels d'une salle : usagers simulés (bouton 'genererNombreUsagesParSalle') et usagers présents.
+     */
+    private int compteur(int salle) {
+        return registre.usagersSimules(salle) + occupation.occupation(salle);
+    }
+
+    private void mesurerOccupation(long debut) {
+        if (mesures != null) {
+            long duree = MesuresPipeline.maintenant() - debut;
+            mesures.enregistrerDuree(MesuresPipeline.OCCUPATION, duree);
+            dureeOccupation += duree;
+        }
+    }
+
+    private void fixerPositionsSalles(int latitudeE7, int longitudeE7) {
+        // Les coordonnées géographiques de la Salle 1 sont fixés à ma position lorsque j'appuie sur le bouton 'regenererPositionsSalles'
+        registre.deplacerE7(Salle.numeroSalle1, latitudeE7, longitudeE7);
+
+        // Les coordonnées géographiques de la Salle 2 sont fixés à environ 15 mètres de ma position, l'écart étant donné en mètres
+        plan.ancrerE7(latitudeE7, longitudeE7);
+        plan.deplacerSalle(registre, Salle.numeroSalle2, Salle.salle2EstMetres, Salle.salle2NordMetres);
+
+        // Les salles ayant été déplacées, le moteur de géorepérage doit les réindexer
+        moteur.reindexer();
+    }
+}
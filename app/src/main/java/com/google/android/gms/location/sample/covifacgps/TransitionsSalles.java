@@ -0,0 +1,295 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Arrays;
+
+/**
+ * Automate de présence dans les salles : pour chaque salle, DEHORS → ENTREE → DEDANS → SORTIE → DEHORS.
+ * <p/>
+ * Près du bord d'une salle, l'imprécision du GPS fait osciller la localisation de part et d'autre du
+ * rayon. Pour ne pas compter une entrée et une sortie à chaque localisation, l'automate combine :
+ * <ul>
+ * <li>une hystérésis : on n'entre qu'à plus de la marge d'entrée à l'intérieur du bord (rayon − marge
+ * d'entrée du centre pour un cercle), on ne sort qu'au-delà de la marge de sortie à l'extérieur ;</li>
+ * <li>une durée de séjour : une entrée (ou une sortie) n'est confirmée que si la localisation reste du
+ * bon côté pendant la durée d'entrée (ou de sortie). Une seule localisation de l'autre côté annule la
+ * transition en attente, sans aucun événement.</li>
+ * </ul>
+ * Seules les transitions confirmées sont émises vers l'{@link Ecouteur}, dans l'ordre des localisations.
+ * Les salles ne sont pas mutuellement exclusives : je peux être dans plusieurs salles qui se recouvrent.
+ * <p/>
+ * Une mise à jour ne recherche que les salles proches dans le {@link MoteurGeofence} et ne suit que les
+ * salles qui ne sont pas DEHORS : son coût ne dépend pas du nombre total de salles. Elle n'alloue rien,
+ * sauf pour agrandir les tableaux lorsque le registre a grandi.
+ */
+public final class TransitionsSalles {
+
+    /**
+     * État d'une salle pour l'automate.
+     */
+    public enum Etat {
+        /**
+         * Je ne suis pas dans la salle.
+         */
+        DEHORS,
+
+        /**
+         * Entrée en attente de confirmation (pas encore comptée).
+         */
+        ENTREE,
+
+        /**
+         * Je suis dans la salle.
+         */
+        DEDANS,
+
+        /**
+         * Sortie en attente de confirmation (je suis toujours compté dans la salle).
+         */
+        SORTIE
+    }
+
+    /**
+     * Reçoit les entrées et sorties confirmées, sur le thread qui appelle {@link #mettreAJour}.
+     */
+    public interface Ecouteur {
+        void entree(int salle, long instant);
+
+        void sortie(int salle, long instant);
+    }
+
+    /**
+     * Distance en deçà du rayon à atteindre pour entrer, en mètres.
+     */
+    public static final float MARGE_ENTREE_DEFAUT_METRES = 1f;
+
+    /**
+     * Distance au-delà du rayon à dépasser pour sortir, en mètres.
+     */
+    public static final float MARGE_SORTIE_DEFAUT_METRES = 3f;
+
+    /**
+     * Durée pendant laquelle la localisation doit rester dans la salle avant que l'entrée soit confirmée, en millisecondes.
+     */
+    public static final long DUREE_ENTREE_DEFAUT = 5000;
+
+    /**
+     * Durée pendant laquelle la localisation doit rester hors de la salle avant que la sortie soit confirmée, en millisecondes.
+     */
+    public static final long DUREE_SORTIE_DEFAUT = 10000;
+
+    private final MoteurGeofence moteur;
+    private final RegistreSalles registre;
+    private final Ecouteur ecouteur;
+
+    private float margeEntree = MARGE_ENTREE_DEFAUT_METRES;
+    private float margeSortie = MARGE_SORTIE_DEFAUT_METRES;
+    private long dureeEntree = DUREE_ENTREE_DEFAUT;
+    private long dureeSortie = DUREE_SORTIE_DEFAUT;
+
+    // État de chaque salle, et instant où la transition en attente a commencé
+    private Etat[] etats;
+    private long[] debuts;
+
+    // Salles qui ne sont pas DEHORS, et position de chaque salle dans ce tableau (-1 si elle est DEHORS)
+    private int[] suivies;
+    private int nombreSuivies = 0;
+    private int[] positions;
+
+    // Tableau réutilisé à chaque mise à jour pour recevoir les salles où l'on peut entrer
+    private final int[] candidates = new int[16];
+
+    public TransitionsSalles(MoteurGeofence moteur, Ecouteur ecouteur) {
+        this.moteur = moteur;
+        this.registre = moteur.registre();
+        this.ecouteur = ecouteur;
+        etats = new Etat[0];
+        debuts = new long[0];
+        suivies = new int[0];
+        positions = new int[0];
+        agrandir();
+    }
+
+    /**
+     * Choisit les marges d'hystérésis, en mètres (positives ou nulles).
+     */
+    public void fixerHysteresis(float margeEntreeMetres, float margeSortieMetres) {
+        if (!(margeEntreeMetres >= 0f) || !(margeSortieMetres >= 0f)) {
+            throw new IllegalArgumentException("Marges invalides : " + margeEntreeMetres + ", " + margeSortieMetres);
+        }
+        margeEntree = margeEntreeMetres;
+        margeSortie = margeSortieMetres;
+    }
+
+    /**
+     * Choisit les durées de séjour avant de confirmer une entrée ou une sortie, en millisecondes (0 : dès la première localisation).
+     */
+    public void fixerDurees(long dureeEntreeMillisecondes, long dureeSortieMillisecondes) {
+        if (dureeEntreeMillisecondes < 0 || dureeSortieMillisecondes < 0) {
+            throw new IllegalArgumentException("Durées invalides : " + dureeEntreeMillisecondes + ", " + dureeSortieMillisecondes);
+        }
+        dureeEntree = dureeEntreeMillisecondes;
+        dureeSortie = dureeSortieMillisecondes;
+    }
+
+    /**
+     * Durée de séjour avant de confirmer une entrée, en millisecondes.
+     */
+    public long dureeEntree() {
+        return dureeEntree;
+    }
+
+    /**
+     * Durée de séjour avant de confirmer une sortie, en millisecondes.
+     */
+    public long dureeSortie() {
+        return dureeSortie;
+    }
+
+    public Etat etat(int salle) {
+        return salle < etats.length ? etats[salle] : Etat.DEHORS;
+    }
+
+    /**
+     * Vrai si je suis compté dans la salle : entrée confirmée, et sortie pas encore confirmée.
+     */
+    public boolean present(int salle) {
+        Etat etat = etat(salle);
+        return etat == Etat.DEDANS || etat == Etat.SORTIE;
+    }
+
+    /**
+     * Nombre de salles qui ne sont pas DEHORS.
+     */
+    public int nombreSuivies() {
+        return nombreSuivies;
+    }
+
+    /**
+     * Fait avancer l'automate de toutes les salles avec une nouvelle localisation.
+     *
+     * @param instant Heure de la localisation, en millisecondes (croissante d'une localisation à l'autre).
+     */
+    public void mettreAJour(double latitude, double longitude, long instant) {
+        mettreAJourE7(CoordonneesE7.versE7(latitude), CoordonneesE7.versE7(longitude), instant);
+    }
+
+    /**
+     * {@link #mettreAJour} pour une localisation en unités E7 ({@link CoordonneesE7}).
+     */
+    public void mettreAJourE7(int latitudeE7, int longitudeE7, long instant) {
+        if (registre.taille() > etats.length) {
+            agrandir();
+        }
+
+        // Salles suivies, parcourues à rebours : une salle qui redevient DEHORS est remplacée par la dernière, déjà vue
+        for (int i = nombreSuivies - 1; i >= 0; i--) {
+            int salle = suivies[i];
+            if (salle >= registre.taille()) {
+                // Salle supprimée du registre
+                retirer(salle);
+                continue;
+            }
+            // Distance au bord de la salle, négative à l'intérieur (cercle ou polygone)
+            float bord = moteur.distanceBordE7(salle, latitudeE7, longitudeE7);
+            switch (etats[salle]) {
+                case ENTREE:
+                    if (bord >= -margeEntree) {
+                        // Ressorti avant la fin de la durée d'entrée : l'entrée est abandonnée
+                        retirer(salle);
+                    } else if (instant - debuts[salle] >= dureeEntree) {
+                        etats[salle] = Etat.DEDANS;
+                        ecouteur.entree(salle, instant);
+                    }
+                    break;
+                case DEDANS:
+                    if (bord > margeSortie) {
+                        if (dureeSortie == 0) {
+                            retirer(salle);
+                            ecouteur.sortie(salle, instant);
+                        } else {
+                            etats[salle] = Etat.SORTIE;
+                            debuts[salle] = instant;
+                        }
+                    }
+                    break;
+                case SORTIE:
+                    if (bord <= margeSortie) {
+                        // Revenu avant la fin de la durée de sortie : la sortie est abandonnée
+                        etats[salle] = Etat.DEDANS;
+                    } else if (instant - debuts[salle] >= dureeSortie) {
+                        retirer(salle);
+                        ecouteur.sortie(salle, instant);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // Salles où l'on peut entrer : celles qui contiennent la localisation, réduites de la marge d'entrée
+        int nombreCandidates = moteur.sallesContenantE7(latitudeE7, longitudeE7, -margeEntree, candidates);
+        for (int i = 0; i < nombreCandidates; i++) {
+            int salle = candidates[i];
+            if (etats[salle] != Etat.DEHORS) {
+                continue;
+            }
+            suivre(salle);
+            if (dureeEntree == 0) {
+                etats[salle] = Etat.DEDANS;
+                ecouteur.entree(salle, instant);
+            } else {
+                etats[salle] = Etat.ENTREE;
+                debuts[salle] = instant;
+            }
+        }
+    }
+
+    /**
+     * Remet toutes les salles DEHORS sans émettre de sortie (à l'arrêt de la localisation, lorsque
+     * l'occupation est elle-même remise à zéro).
+     */
+    public void reinitialiser() {
+        while (nombreSuivies > 0) {
+            retirer(suivies[nombreSuivies - 1]);
+        }
+    }
+
+    /**
+     * Me place DEDANS la salle {@code salle} sans émettre d'entrée : présence relue d'un journal au
+     * redémarrage de l'application, déjà comptée dans l'occupation. La sortie sera émise normalement.
+     */
+    public void restaurerPresence(int salle) {
+        if (salle >= etats.length) {
+            agrandir();
+        }
+        if (etats[salle] == Etat.DEHORS) {
+            suivre(salle);
+        }
+        etats[salle] = Etat.DEDANS;
+    }
+
+    private void suivre(int salle) {
+        positions[salle] = nombreSuivies;
+        suivies[nombreSuivies++] = salle;
+    }
+
+    private void retirer(int salle) {
+        int position = positions[salle];
+        int derniere = suivies[--nombreSuivies];
+        suivies[position] = derniere;
+        positions[derniere] = position;
+        positions[salle] = -1;
+        etats[salle] = Etat.DEHORS;
+    }
+
+    private void agrandir() {
+        int ancienneTaille = etats.length;
+        int taille = Math.max(registre.taille(), 1);
+        etats = Arrays.copyOf(etats, taille);
+        Arrays.fill(etats, ancienneTaille, taille, Etat.DEHORS);
+        debuts = Arrays.copyOf(debuts, taille);
+        suivies = Arrays.copyOf(suivies, taille);
+        positions = Arrays.copyOf(positions, taille);
+        Arrays.fill(positions, ancienneTaille, taille, -1);
+    }
+}
@@ -0,0 +1,43 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Octets alloués par le thread courant pendant une tâche, lus avec {@code ThreadMXBean#getThreadAllocatedBytes}.
+ * <p/>
+ * Les classes de test partagent la même JVM : le compilateur peut encore recompiler ou désoptimiser une méthode
+ * (profil de types élargi par un test précédent, compilation sur la pile) pendant une mesure, et ce tour-là
+ * alloue quelques centaines d'octets sans que la tâche y soit pour rien. La mesure est donc répétée, échauffement
+ * compris, jusqu'à un tour sans allocation : une tâche qui alloue vraiment alloue à chaque tour.
+ */
+final class AllocationsThread {
+
+    /**
+     * Nombre maximal de tours (échauffement et mesure).
+     */
+    static final int TOURS_MAX = 10;
+
+    private AllocationsThread() {
+    }
+
+    /**
+     * Exécute {@code echauffement} puis mesure {@code mesure}, jusqu'à {@link #TOURS_MAX} fois.
+     *
+     * @return Le plus petit nombre d'octets alloués par {@code mesure} sur un tour (0 dès qu'un tour n'alloue rien).
+     */
+    static long minimum(Runnable echauffement, Runnable mesure) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long minimum = Long.MAX_VALUE;
+        for (int tour = 0; tour < TOURS_MAX && minimum > 0; tour++) {
+            echauffement.run();
+            // Premier appel (chargement des classes de la mesure elle-même) hors de la mesure
+            threads.getThreadAllocatedBytes(thread);
+            long avant = threads.getThreadAllocatedBytes(thread);
+            mesure.run();
+            long apres = threads.getThreadAllocatedBytes(thread);
+            minimum = Math.min(minimum, apres - avant);
+        }
+        return minimum;
+    }
+}
@@ -0,0 +1,279 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Un catalogue écrit par {@link EcritureCatalogue} se relit à l'identique par {@link CatalogueSalles}, noms
+ * accentués compris, malgré le rangement des salles par cellule, et se charge entier dans un registre.
+ * {@link CatalogueSalles#chargerAutourE7} charge toutes les salles qui peuvent recouvrir le cercle demandé, et
+ * seulement des salles du carré qui l'entoure, élargi du plus grand rayon. Un nombre de sommets corrompu
+ * (trop grand pour les tableaux, ou moins de 3) ou un contour qui sort des sommets du fichier donne une
+ * {@link IOException} au chargement.
+ */
+public class CatalogueSallesTest {
+
+    private static final double LATITUDE = 43.6045;
+    private static final double LONGITUDE = 1.4440;
+    private static final int NOMBRE = 600;
+    // Salles réparties sur 3 km de côté, soit une trentaine de cellules par ligne et par colonne
+    private static final double ETENDUE = 3000;
+
+    private final ProjectionLocale plan = new ProjectionLocale(LATITUDE, LONGITUDE);
+    private final Random aleatoire = new Random(20);
+
+    // Salles écrites, dans l'ordre d'ajout (0 sommet pour un cercle)
+    private final int[] latitudesE7 = new int[NOMBRE];
+    private final int[] longitudesE7 = new int[NOMBRE];
+    private final float[] rayons = new float[NOMBRE];
+    private final int[] capacites = new int[NOMBRE];
+    private final double[][] estSommets = new double[NOMBRE][];
+    private final double[][] nordSommets = new double[NOMBRE][];
+    private final Map<String, Integer> parNom = new HashMap<>();
+
+    private File repertoire;
+    private File fichier;
+
+    /**
+     * Un catalogue de cercles et de polygones réguliers de 3 à 8 sommets, de 4 à 30 m de rayon.
+     */
+    @Before
+    public void preparer() throws IOException {
+        repertoire = repertoireTemporaire();
+        fichier = new File(repertoire, "salles.cat");
+        EcritureCatalogue ecriture = new EcritureCatalogue(16);
+        for (int i = 0; i < NOMBRE; i++) {
+            String nom = "Salle n°" + i + (i % 3 == 0 ? " – étage é" : "");
+            latitudesE7[i] = plan.latitudeE7((aleatoire.nextDouble() - 0.5) * ETENDUE);
+            longitudesE7[i] = plan.longitudeE7((aleatoire.nextDouble() - 0.5) * ETENDUE);
+            capacites[i] = 1 + aleatoire.nextInt(50);
+            double rayon = 4 + aleatoire.nextDouble() * 26;
+            if (i % 2 == 0) {
+                rayons[i] = (float) rayon;
+                ecriture.ajouterSalleE7(nom, latitudesE7[i], longitudesE7[i], rayons[i], capacites[i]);
+            } else {
+                int nombre = 3 + aleatoire.nextInt(6);
+                double depart = aleatoire.nextDouble() * 2 * Math.PI;
+                estSommets[i] = new double[nombre];
+                nordSommets[i] = new double[nombre];
+                for (int j = 0; j < nombre; j++) {
+                    estSommets[i][j] = rayon * Math.cos(depart + 2 * Math.PI * j / nombre);
+                    nordSommets[i][j] = rayon * Math.sin(depart + 2 * Math.PI * j / nombre);
+                }
+                ecriture.ajouterPolygoneE7(nom, latitudesE7[i], longitudesE7[i], estSommets[i], nordSommets[i], nombre,
+                        capacites[i]);
+            }
+            parNom.put(nom, i);
+        }
+        ecriture.ecrire(fichier);
+    }
+
+    @After
+    public void nettoyer() {
+        supprimer(repertoire);
+    }
+
+    @Test
+    public void relitLeCatalogueEcrit() throws IOException {
+        CatalogueSalles catalogue = new CatalogueSalles(fichier);
+        assertEquals(NOMBRE, catalogue.nombre());
+        boolean[] lues = new boolean[NOMBRE];
+        for (int numero = 0; numero < NOMBRE; numero++) {
+            Integer salle = parNom.get(catalogue.nom(numero));
+            assertTrue("Nom inconnu : " + catalogue.nom(numero), salle != null);
+            assertFalse(lues[salle]);
+            lues[salle] = true;
+            assertEquals(latitudesE7[salle], catalogue.latitudeE7(numero));
+            assertEquals(longitudesE7[salle], catalogue.longitudeE7(numero));
+            assertEquals(capacites[salle], catalogue.capacite(numero));
+            if (estSommets[salle] == null) {
+                assertEquals(0, catalogue.nombreSommets(numero));
+                assertEquals(rayons[salle], catalogue.rayon(numero), 0f);
+            } else {
+                assertEquals(estSommets[salle].length, catalogue.nombreSommets(numero));
+                for (int j = 0; j < estSommets[salle].length; j++) {
+                    assertEquals((float) estSommets[salle][j], catalogue.estSommet(numero, j), 0f);
+                    assertEquals((float) nordSommets[salle][j], catalogue.nordSommet(numero, j), 0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void chargeToutLeCatalogue() throws IOException {
+        CatalogueSalles catalogue = new CatalogueSalles(fichier);
+        RegistreSalles registre = new RegistreSalles(4);
+        registre.ajouterE7(0, 0, 1f, 1);
+        assertEquals(NOMBRE, catalogue.charger(registre));
+        assertEquals(NOMBRE, registre.taille());
+        for (int salle = 0; salle < NOMBRE; salle++) {
+            assertEquals(salle, catalogue.numeroCatalogue(salle));
+            assertChargee(catalogue, registre, salle);
+        }
+    }
+
+    @Test
+    public void chargeLesSallesAutourDUnPoint() throws IOException {
+        CatalogueSalles catalogue = new CatalogueSalles(fichier);
+        float rayonMax = 0;
+        for (int numero = 0; numero < NOMBRE; numero++) {
+            rayonMax = Math.max(rayonMax, catalogue.rayon(numero));
+        }
+        RegistreSalles registre = new RegistreSalles();
+        ProjectionLocale autour = new ProjectionLocale();
+        int partielles = 0;
+        for (int essai = 0; essai < 200; essai++) {
+            // Centres jusqu'au-delà du bord du site, rayons de 0 à 500 m
+            int latitudeE7 = plan.latitudeE7((aleatoire.nextDouble() - 0.5) * ETENDUE * 1.2);
+            int longitudeE7 = plan.longitudeE7((aleatoire.nextDouble() - 0.5) * ETENDUE * 1.2);
+            double rayonMetres = essai % 10 == 0 ? 0 : aleatoire.nextDouble() * 500;
+            int chargees = catalogue.chargerAutourE7(registre, latitudeE7, longitudeE7, rayonMetres);
+            assertEquals(registre.taille(), chargees);
+
+            autour.ancrerE7(latitudeE7, longitudeE7);
+            double marge = rayonMetres + rayonMax;
+            boolean[] dedans = new boolean[NOMBRE];
+            for (int salle = 0; salle < chargees; salle++) {
+                int numero = catalogue.numeroCatalogue(salle);
+                assertFalse("Salle " + numero + " chargée deux fois", dedans[numero]);
+                dedans[numero] = true;
+                assertChargee(catalogue, registre, salle);
+                // Dans le carré élargi, au centimètre près (arrondis E7 des bornes)
+                assertTrue(Math.abs(autour.estE7(catalogue.longitudeE7(numero))) <= marge + 0.01);
+                assertTrue(Math.abs(autour.nordE7(catalogue.latitudeE7(numero))) <= marge + 0.01);
+            }
+            for (int numero = 0; numero < NOMBRE; numero++) {
+                double distance = Math.hypot(autour.estE7(catalogue.longitudeE7(numero)),
+                        autour.nordE7(catalogue.latitudeE7(numero)));
+                if (distance <= rayonMetres + catalogue.rayon(numero)) {
+                    assertTrue("Essai " + essai + " : salle " + numero + " à " + distance + " m non chargée",
+                            dedans[numero]);
+                }
+            }
+            if (chargees > 0 && chargees < NOMBRE) {
+                partielles++;
+            }
+        }
+        assertTrue(partielles > 100);
+    }
+
+    @Test
+    public void unNombreDeSommetsCorrompuEstRejete() throws IOException {
+        CatalogueSalles catalogue = new CatalogueSalles(fichier);
+        int polygone = 0;
+        while (catalogue.nombreSommets(polygone) == 0) {
+            polygone++;
+        }
+        int latitudeE7 = catalogue.latitudeE7(polygone);
+        int longitudeE7 = catalogue.longitudeE7(polygone);
+        int position = EcritureCatalogue.TAILLE_EN_TETE + polygone * EcritureCatalogue.TAILLE_ENREGISTREMENT;
+        int sommetsMax = lireEntier(EcritureCatalogue.POSITION_SOMMETS_MAX);
+        int premier = lireEntier(position + EcritureCatalogue.CHAMP_PREMIER_SOMMET);
+        int nombreSommets = lireEntier(EcritureCatalogue.POSITION_NOMBRE_SOMMETS);
+        assertEquals(8, sommetsMax);
+
+        int[][] corruptions = {
+                {EcritureCatalogue.CHAMP_NOMBRE_SOMMETS, sommetsMax + 1},
+                {EcritureCatalogue.CHAMP_NOMBRE_SOMMETS, 2},
+                {EcritureCatalogue.CHAMP_NOMBRE_SOMMETS, -1},
+                {EcritureCatalogue.CHAMP_PREMIER_SOMMET, nombreSommets - 2},
+                {EcritureCatalogue.CHAMP_PREMIER_SOMMET, -1},
+        };
+        for (int[] corruption : corruptions) {
+            int champ = position + corruption[0];
+            int valeur = lireEntier(champ);
+            ecrireEntier(champ, corruption[1]);
+            String message = "Champ " + corruption[0] + " à " + corruption[1];
+            CatalogueSalles corrompu = new CatalogueSalles(fichier);
+            try {
+                corrompu.charger(new RegistreSalles());
+                fail(message);
+            } catch (IOException e) {
+                // Attendue
+            }
+            try {
+                corrompu.chargerAutourE7(new RegistreSalles(), latitudeE7, longitudeE7, 0);
+                fail(message);
+            } catch (IOException e) {
+                // Attendue
+            }
+            ecrireEntier(champ, valeur);
+        }
+        // Rétabli, le fichier se charge de nouveau
+        assertEquals(premier, lireEntier(position + EcritureCatalogue.CHAMP_PREMIER_SOMMET));
+        assertEquals(NOMBRE, new CatalogueSalles(fichier).charger(new RegistreSalles()));
+    }
+
+    // La salle du registre a le centre, la capacité, le rayon et le contour de la salle du catalogue
+    private static void assertChargee(CatalogueSalles catalogue, RegistreSalles registre, int salle) {
+        int numero = catalogue.numeroCatalogue(salle);
+        assertEquals(catalogue.latitudeE7(numero), registre.latitudeE7(salle));
+        assertEquals(catalogue.longitudeE7(numero), registre.longitudeE7(salle));
+        assertEquals(catalogue.capacite(numero), registre.capacite(salle));
+        assertEquals(catalogue.rayon(numero), registre.rayon(salle), 0f);
+        int contour = registre.contour(salle);
+        if (catalogue.nombreSommets(numero) == 0) {
+            assertEquals(-1, contour);
+            return;
+        }
+        ContoursSalles contours = registre.contours();
+        assertEquals(catalogue.nombreSommets(numero), contours.nombreSommets(contour));
+        for (int j = 0; j < contours.nombreSommets(contour); j++) {
+            assertEquals(catalogue.estSommet(numero, j), contours.estSommet(contour, j), 0);
+            assertEquals(catalogue.nordSommet(numero, j), contours.nordSommet(contour, j), 0);
+        }
+    }
+
+    private int lireEntier(int position) throws IOException {
+        RandomAccessFile acces = new RandomAccessFile(fichier, "r");
+        try {
+            byte[] octets = new byte[4];
+            acces.seek(position);
+            acces.readFully(octets);
+            return ByteBuffer.wrap(octets).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        } finally {
+            acces.close();
+        }
+    }
+
+    private void ecrireEntier(int position, int valeur) throws IOException {
+        RandomAccessFile acces = new RandomAccessFile(fichier, "rw");
+        try {
+            acces.seek(position);
+            acces.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(valeur).array());
+        } finally {
+            acces.close();
+        }
+    }
+
+    private static File repertoireTemporaire() throws IOException {
+        File repertoire = File.createTempFile("catalogue", "");
+        assertTrue(repertoire.delete() && repertoire.mkdir());
+        return repertoire;
+    }
+
+    private static void supprimer(File repertoire) {
+        File[] fichiers = repertoire.listFiles();
+        if (fichiers != null) {
+            for (File fichier : fichiers) {
+                fichier.delete();
+            }
+        }
+        repertoire.delete();
+    }
+}
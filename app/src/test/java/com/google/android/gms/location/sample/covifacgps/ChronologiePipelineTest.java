@@ -0,0 +1,148 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Une {@link ChronologiePipeline} garde les derniers événements dans l'ordre, l'export Chrome les décrit tous, une
+ * lecture pendant que plusieurs threads écrivent ne rend jamais d'événement déchiré, et écrire n'alloue rien.
+ */
+public class ChronologiePipelineTest {
+
+    private static final int ECHAUFFEMENT = 50000;
+    private static final int MESURES = 20000;
+
+    @Test
+    public void exportTraceChrome() throws IOException {
+        ChronologiePipeline chronologie = new ChronologiePipeline(16);
+        chronologie.debut(ChronologiePipeline.APPEL_RETOUR);
+        chronologie.debut(ChronologiePipeline.POSITIONS_SALLES);
+        chronologie.fin(ChronologiePipeline.POSITIONS_SALLES);
+        chronologie.instant(ChronologiePipeline.ENTREE, 42);
+        chronologie.fin(ChronologiePipeline.APPEL_RETOUR);
+
+        StringWriter sortie = new StringWriter();
+        assertEquals(5, chronologie.exporterTraceChrome(sortie));
+        String json = sortie.toString();
+        long thread = Thread.currentThread().getId();
+        assertTrue(json, json.startsWith("{\"traceEvents\":["));
+        assertTrue(json, json.trim().endsWith("],\"displayTimeUnit\":\"ns\"}"));
+        assertTrue(json, json.contains("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + thread));
+        assertTrue(json, json.contains("{\"name\":\"appel_retour\",\"cat\":\"localisation\",\"ph\":\"B\",\"ts\":0.000,\"pid\":1,\"tid\":" + thread + "}"));
+        assertTrue(json, json.contains("\"name\":\"positions_salles\",\"cat\":\"traitement\",\"ph\":\"E\""));
+        assertTrue(json, json.contains("\"name\":\"entree\",\"cat\":\"salles\",\"ph\":\"i\""));
+        assertTrue(json, json.contains(",\"s\":\"t\",\"args\":{\"salle\":42}}"));
+        // Un seul nom pour le thread, un événement par ligne
+        assertEquals(json.indexOf("thread_name"), json.lastIndexOf("thread_name"));
+        assertEquals(1 + 1 + 5, json.split("\n").length - 1);
+    }
+
+    @Test
+    public void lAnneauGardeLesDerniersDansLOrdre() {
+        ChronologiePipeline chronologie = new ChronologiePipeline(100);
+        int capacite = chronologie.capacite();
+        assertEquals(128, capacite);
+        int ecrits = capacite * 3 + 17;
+        for (int i = 0; i < ecrits; i++) {
+            chronologie.instant(ChronologiePipeline.SORTIE, i);
+        }
+        assertEquals(ecrits, chronologie.nombreEcrits());
+
+        long[] instants = new long[capacite];
+        long[] threads = new long[capacite];
+        int[] codes = new int[capacite];
+        long[] arguments = new long[capacite];
+        assertEquals(capacite, chronologie.copier(instants, threads, codes, arguments));
+        for (int i = 0; i < capacite; i++) {
+            assertEquals(ecrits - capacite + i, arguments[i]);
+            assertEquals(ChronologiePipeline.SORTIE << 2 | ChronologiePipeline.PHASE_INSTANT, codes[i]);
+            assertTrue(i == 0 || instants[i] >= instants[i - 1]);
+        }
+
+        chronologie.vider();
+        assertEquals(0, chronologie.copier(instants, threads, codes, arguments));
+    }
+
+    @Test
+    public void lectureSansEvenementDechirePendantLesEcritures() throws InterruptedException {
+        final ChronologiePipeline chronologie = new ChronologiePipeline(64);
+        final AtomicBoolean arret = new AtomicBoolean();
+        Thread[] producteurs = new Thread[4];
+        for (int p = 0; p < producteurs.length; p++) {
+            producteurs[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // L'argument répète le thread : un événement déchiré mêlerait deux producteurs
+                    long thread = Thread.currentThread().getId();
+                    for (long i = 0; !arret.get(); i++) {
+                        chronologie.instant(ChronologiePipeline.ENTREE, thread << 32 | (i & 0xFFFFFFFFL));
+                    }
+                }
+            });
+            producteurs[p].start();
+        }
+
+        int capacite = chronologie.capacite();
+        long[] instants = new long[capacite];
+        long[] threads = new long[capacite];
+        int[] codes = new int[capacite];
+        long[] arguments = new long[capacite];
+        long lus = 0;
+        try {
+            for (int lecture = 0; lecture < 2000; lecture++) {
+                int nombre = chronologie.copier(instants, threads, codes, arguments);
+                for (int i = 0; i < nombre; i++) {
+                    assertEquals(threads[i], arguments[i] >>> 32);
+                    assertEquals(ChronologiePipeline.ENTREE << 2 | ChronologiePipeline.PHASE_INSTANT, codes[i]);
+                }
+                lus += nombre;
+                Thread.yield();
+            }
+        } finally {
+            arret.set(true);
+            for (Thread producteur : producteurs) {
+                producteur.join();
+            }
+        }
+        assertTrue(lus > 0);
+        assertTrue(chronologie.nombreEcrits() > capacite);
+    }
+
+    @Test
+    public void ecrireNAlloueRien() {
+        final ChronologiePipeline chronologie = new ChronologiePipeline(1024);
+        final long[] duree = {Long.MAX_VALUE};
+
+        long octets = AllocationsThread.minimum(new Runnable() {
+            @Override
+            public void run() {
+                ecrire(chronologie, ECHAUFFEMENT);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                long debut = System.nanoTime();
+                ecrire(chronologie, MESURES);
+                duree[0] = Math.min(duree[0], System.nanoTime() - debut);
+            }
+        });
+
+        assertEquals("Octets alloués pour " + MESURES + " événements", 0, octets);
+        // Borne large : quelques dizaines de nanosecondes par événement attendues
+        assertTrue("Durée moyenne d'un événement : " + duree[0] / (3L * MESURES) + " ns", duree[0] < 3L * MESURES * 1000);
+    }
+
+    private static void ecrire(ChronologiePipeline chronologie, int nombre) {
+        for (int i = 0; i < nombre; i++) {
+            chronologie.debut(ChronologiePipeline.RENDU);
+            chronologie.instant(ChronologiePipeline.ENTREE, i);
+            chronologie.fin(ChronologiePipeline.RENDU);
+        }
+    }
+}
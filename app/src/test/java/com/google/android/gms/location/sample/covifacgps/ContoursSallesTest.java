@@ -0,0 +1,165 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ContoursSalles#contient} donne, sur une grille de points et pour plusieurs marges, le même résultat qu'un
+ * calcul direct (angle total autour du point, distance à chaque arête) : par demi-plans pour les contours convexes,
+ * par nombre de croisements pour les contours en L, avec le cercle inscrit réduit de la marge, et quel que soit le
+ * sens dans lequel les sommets sont donnés.
+ */
+public class ContoursSallesTest {
+
+    private static final double[] MARGES = {0, -0.5, -2};
+
+    // Rectangle de 20 m sur 10 m centré sur la salle
+    private static final double[] RECTANGLE_EST = {-10, 10, 10, -10};
+    private static final double[] RECTANGLE_NORD = {-5, -5, 5, 5};
+
+    // Carré de 20 m privé de son quart nord-est : le centre est dans le L, à 2,83 m du coin rentrant (2, 2)
+    private static final double[] L_EST = {-10, 10, 10, 2, 2, -10};
+    private static final double[] L_NORD = {-10, -10, 2, 2, 10, 10};
+
+    // Le même L décalé de 6 m au sud-ouest : le centre de la salle tombe dans l'encoche
+    private static final double[] L_DECALE_EST = {-16, 4, 4, -4, -4, -16};
+    private static final double[] L_DECALE_NORD = {-16, -16, -4, -4, 4, 4};
+
+    @Test
+    public void contoursConvexesParDemiPlans() {
+        double[] hexagoneEst = new double[6];
+        double[] hexagoneNord = new double[6];
+        for (int i = 0; i < 6; i++) {
+            double angle = Math.toRadians(10 + 60 * i);
+            hexagoneEst[i] = 8 * Math.cos(angle);
+            hexagoneNord[i] = 8 * Math.sin(angle);
+        }
+
+        ContoursSalles contours = new ContoursSalles();
+        int rectangle = contours.ajouter(RECTANGLE_EST, RECTANGLE_NORD, 4);
+        int hexagone = contours.ajouter(hexagoneEst, hexagoneNord, 6);
+        assertTrue(contours.convexe(rectangle));
+        assertTrue(contours.convexe(hexagone));
+
+        comparer(contours, rectangle, RECTANGLE_EST, RECTANGLE_NORD);
+        comparer(contours, hexagone, hexagoneEst, hexagoneNord);
+    }
+
+    @Test
+    public void contoursEnLParNombreDeCroisements() {
+        ContoursSalles contours = new ContoursSalles();
+        int l = contours.ajouter(L_EST, L_NORD, 6);
+        int decale = contours.ajouter(L_DECALE_EST, L_DECALE_NORD, 6);
+        assertFalse(contours.convexe(l));
+        assertFalse(contours.convexe(decale));
+
+        comparer(contours, l, L_EST, L_NORD);
+        comparer(contours, decale, L_DECALE_EST, L_DECALE_NORD);
+        // Centre dans l'encoche : pas de cercle inscrit qui accepterait les points autour du centre
+        assertFalse(contours.contient(decale, 0, 0, 0));
+        assertFalse(contours.contient(decale, 0.5, -0.5, 0));
+    }
+
+    @Test
+    public void sommetsDonnesEnSensHoraire() {
+        ContoursSalles contours = new ContoursSalles();
+        double[] rectangleEst = inverser(RECTANGLE_EST);
+        double[] rectangleNord = inverser(RECTANGLE_NORD);
+        double[] lEst = inverser(L_EST);
+        double[] lNord = inverser(L_NORD);
+        int rectangle = contours.ajouter(rectangleEst, rectangleNord, 4);
+        int l = contours.ajouter(lEst, lNord, 6);
+        assertTrue(contours.convexe(rectangle));
+        assertFalse(contours.convexe(l));
+
+        // Sommets rangés en sens trigonométrique
+        for (int contour : new int[]{rectangle, l}) {
+            double doubleAire = 0;
+            int nombre = contours.nombreSommets(contour);
+            for (int i = 0, j = nombre - 1; i < nombre; j = i++) {
+                doubleAire += contours.estSommet(contour, j) * contours.nordSommet(contour, i)
+                        - contours.estSommet(contour, i) * contours.nordSommet(contour, j);
+            }
+            assertTrue(doubleAire > 0);
+        }
+
+        comparer(contours, rectangle, rectangleEst, rectangleNord);
+        comparer(contours, l, lEst, lNord);
+    }
+
+    @Test
+    public void cercleInscritReduitDeLaMarge() {
+        ContoursSalles contours = new ContoursSalles();
+        int l = contours.ajouter(L_EST, L_NORD, 6);
+        double diagonale = Math.sqrt(0.5);
+
+        // Vers le coin rentrant, à 2,83 m du centre : dedans jusqu'au coin sans marge
+        assertTrue(contours.contient(l, 2.8 * diagonale, 2.8 * diagonale, 0));
+        assertFalse(contours.contient(l, 2.9 * diagonale, 2.9 * diagonale, 0));
+        // Avec 1 m de marge, le cercle inscrit ne va plus que jusqu'à 1,83 m
+        assertTrue(contours.contient(l, 1.8 * diagonale, 1.8 * diagonale, -1));
+        assertFalse(contours.contient(l, 1.9 * diagonale, 1.9 * diagonale, -1));
+        // Plus grande que le cercle inscrit, la marge l'annule sans empêcher le reste du contour d'être dedans
+        assertFalse(contours.contient(l, 0, 0, -3));
+        assertTrue(contours.contient(l, -5, -5, -3));
+        assertFalse(contours.contient(l, -5, -5, -5.5));
+    }
+
+    /**
+     * Compare {@link ContoursSalles#contient} au calcul direct sur une grille qui déborde du contour, pour chaque marge.
+     */
+    private static void comparer(ContoursSalles contours, int contour, double[] est, double[] nord) {
+        int dedans = 0;
+        int dansLaMarge = 0;
+        for (double marge : MARGES) {
+            // Pas et origine choisis pour qu'aucun point ne tombe exactement sur un bord
+            for (double x = -18.013; x < 18; x += 0.37) {
+                for (double y = -18.029; y < 18; y += 0.41) {
+                    boolean attendu = dedansReference(est, nord, x, y, marge);
+                    assertEquals("Point (" + x + ", " + y + "), marge " + marge, attendu, contours.contient(contour, x, y, marge));
+                    if (attendu) {
+                        dedans++;
+                    } else if (marge < 0 && dedansReference(est, nord, x, y, 0)) {
+                        dansLaMarge++;
+                    }
+                }
+            }
+        }
+        assertTrue(dedans > 0);
+        assertTrue(dansLaMarge > 0);
+    }
+
+    // Dedans si l'angle total parcouru autour du point vaut ±2π, et à plus de -marge de chaque arête
+    private static boolean dedansReference(double[] est, double[] nord, double x, double y, double marge) {
+        double angle = 0;
+        double distance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < est.length; i++) {
+            int j = (i + 1) % est.length;
+            double ax = est[i] - x;
+            double ay = nord[i] - y;
+            double bx = est[j] - x;
+            double by = nord[j] - y;
+            angle += Math.atan2(ax * by - ay * bx, ax * bx + ay * by);
+            distance = Math.min(distance, distanceSegment(x, y, est[i], nord[i], est[j], nord[j]));
+        }
+        return Math.abs(angle) > Math.PI && distance > -marge;
+    }
+
+    private static double distanceSegment(double x, double y, double ax, double ay, double bx, double by) {
+        double ex = bx - ax;
+        double ey = by - ay;
+        double t = Math.max(0, Math.min(1, ((x - ax) * ex + (y - ay) * ey) / (ex * ex + ey * ey)));
+        return Math.hypot(x - ax - t * ex, y - ay - t * ey);
+    }
+
+    private static double[] inverser(double[] valeurs) {
+        double[] inverses = new double[valeurs.length];
+        for (int i = 0; i < valeurs.length; i++) {
+            inverses[i] = valeurs[valeurs.length - 1 - i];
+        }
+        return inverses;
+    }
+}
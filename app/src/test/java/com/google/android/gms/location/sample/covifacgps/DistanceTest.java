@@ -0,0 +1,143 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compare chaque {@link ModeDistance} du {@link MoteurGeofence} à la formule de Vincenty ({@link Distance#entre})
+ * sur une grille couvrant tout le globe (latitudes de 1 en 1 degré, longitudes de 7,5 en 7,5 degrés, 16 directions
+ * par point), et vérifie les bornes d'erreur documentées sur {@link ModeDistance}.
+ */
+public class DistanceTest {
+
+    private static final int DIRECTIONS = 16;
+    private static final double PAS_LONGITUDE = 7.5;
+
+    @Test
+    public void vincentyEgaleDistanceEntre() {
+        for (int latitude = -85; latitude <= 85; latitude += 5) {
+            for (double longitude = -180; longitude < 180; longitude += PAS_LONGITUDE) {
+                Moteur moteur = new Moteur(ModeDistance.VINCENTY, latitude, longitude);
+                for (int direction = 0; direction < DIRECTIONS; direction++) {
+                    double[] point = moteur.point(1000, direction);
+                    assertEquals(moteur.vincenty(point), moteur.distance(point), 0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void equirectangulaireRespecteLesBornes() {
+        verifierBornes(ModeDistance.EQUIRECTANGULAIRE);
+    }
+
+    @Test
+    public void carreEquirectangulaireRespecteLesBornes() {
+        verifierBornes(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+    }
+
+    /**
+     * Le mode {@link ModeDistance#CARRE_EQUIRECTANGULAIRE} ne sert qu'à la contenance : une salle de 100 m de rayon
+     * contient un point à 99,9 m (Vincenty) et pas un point à 100,1 m, partout jusqu'à 85° de latitude.
+     */
+    @Test
+    public void carreEquirectangulaireContientCommeVincenty() {
+        for (int latitude = -85; latitude <= 85; latitude++) {
+            for (double longitude = -180; longitude < 180; longitude += PAS_LONGITUDE) {
+                Moteur moteur = new Moteur(ModeDistance.CARRE_EQUIRECTANGULAIRE, latitude, longitude);
+                for (int direction = 0; direction < DIRECTIONS; direction++) {
+                    for (double rayon = 99.9; rayon <= 100.1; rayon += 0.2) {
+                        double[] point = moteur.point(rayon, direction);
+                        boolean dedans = moteur.vincenty(point) < 100f;
+                        assertEquals("latitude " + latitude + ", longitude " + longitude + ", direction " + direction,
+                                dedans, moteur.contient(point));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bornes communes aux deux modes équirectangulaires, qui calculent la même distance.
+     */
+    private static void verifierBornes(ModeDistance mode) {
+        assertTrue(erreurMax(mode, 100, 80, false) < 0.002);
+        assertTrue(erreurMax(mode, 100, 85, false) < 0.004);
+        assertTrue(erreurMax(mode, 1000, 60, false) < 0.05);
+        assertTrue(erreurMax(mode, 1000, 80, false) < 0.16);
+        assertTrue(erreurMax(mode, 1000, 85, false) < 0.32);
+        assertTrue(erreurMax(mode, 10000, 60, true) < 0.0005);
+        assertTrue(erreurMax(mode, 10000, 80, true) < 0.0016);
+        // À l'échelle d'une salle : moins d'un dixième de millimètre
+        assertTrue(erreurMax(mode, 15, 85, false) < 0.0001);
+    }
+
+    /**
+     * Plus grand écart (en mètres, ou relatif si {@code relative}) entre le mode et Vincenty pour des points à
+     * {@code distance} mètres de chaque point de la grille, jusqu'à {@code latitudeMax} degrés.
+     */
+    private static double erreurMax(ModeDistance mode, double distance, int latitudeMax, boolean relative) {
+        double erreurMax = 0;
+        for (int latitude = -latitudeMax; latitude <= latitudeMax; latitude++) {
+            for (double longitude = -180; longitude < 180; longitude += PAS_LONGITUDE) {
+                Moteur moteur = new Moteur(mode, latitude, longitude);
+                for (int direction = 0; direction < DIRECTIONS; direction++) {
+                    double[] point = moteur.point(distance, direction);
+                    double reference = moteur.vincenty(point);
+                    double erreur = Math.abs(moteur.distance(point) - reference);
+                    erreurMax = Math.max(erreurMax, relative ? erreur / reference : erreur);
+                }
+            }
+        }
+        return erreurMax;
+    }
+
+    /**
+     * Moteur d'une salle centrée sur un point de la grille, et points placés autour d'elle.
+     */
+    private static final class Moteur {
+        final MoteurGeofence moteur;
+        final RegistreSalles registre = new RegistreSalles(1);
+
+        Moteur(ModeDistance mode, double latitude, double longitude) {
+            registre.ajouter(latitude, longitude, 100f, 1);
+            moteur = new MoteurGeofence(registre, 500);
+            moteur.fixerModeDistance(mode);
+        }
+
+        /**
+         * Position (latitude, longitude) à {@code distance} mètres du centre, dans la direction {@code direction}
+         * sur 16, placée avec les facteurs d'échelle du centre.
+         */
+        double[] point(double distance, int direction) {
+            double angle = 2 * Math.PI * direction / DIRECTIONS;
+            double latitude = registre.latitude(0) + distance * Math.cos(angle) / registre.metresParDegreLatitude(0);
+            double longitude = registre.longitude(0) + distance * Math.sin(angle) / registre.metresParDegreLongitude(0);
+            if (longitude >= 180) {
+                longitude -= 360;
+            } else if (longitude < -180) {
+                longitude += 360;
+            }
+            return new double[]{latitude, longitude};
+        }
+
+        float distance(double[] point) {
+            return moteur.distance(0, point[0], point[1]);
+        }
+
+        /**
+         * Contenance calculée comme {@link MoteurGeofence#sallesContenant} dans ce mode.
+         */
+        boolean contient(double[] point) {
+            double rayon = registre.rayon(0);
+            return Distance.carreEquirectangulaire(point[0], point[1], registre.latitude(0), registre.longitude(0),
+                    registre.metresParDegreLatitude(0), registre.metresParDegreLongitude(0)) < rayon * rayon;
+        }
+
+        float vincenty(double[] point) {
+            return Distance.entre(point[0], point[1], registre.latitude(0), registre.longitude(0));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Une trace rouverte continue son dernier segment ; un dernier segment vide ou tronqué (arrêt entre la création
+ * du fichier et sa mise à la taille) est réécrit sans empêcher l'ouverture, et un segment d'une autre taille est
+ * gardé.
+ */
+public class EnregistreurTraceTest {
+
+    private static final int TAILLE_SEGMENT = EnregistreurTrace.TAILLE_EN_TETE + 8 * EnregistreurTrace.TAILLE_ENREGISTREMENT;
+    private static final long BUDGET = 16L * TAILLE_SEGMENT;
+
+    @Test
+    public void uneTraceRouverteContinueSonDernierSegment() throws IOException {
+        File repertoire = repertoireTemporaire();
+        try {
+            enregistrer(new EnregistreurTrace(repertoire, TAILLE_SEGMENT, BUDGET), 0, 3);
+            enregistrer(new EnregistreurTrace(repertoire, TAILLE_SEGMENT, BUDGET), 3, 7);
+
+            assertEquals(2, EnregistreurTrace.numerosSegments(repertoire).length);
+            verifier(repertoire, 10);
+        } finally {
+            supprimer(repertoire);
+        }
+    }
+
+    @Test
+    public void unDernierSegmentTronqueEstReecrit() throws IOException {
+        for (int longueur : new int[]{0, 6, EnregistreurTrace.TAILLE_EN_TETE - 1}) {
+            File repertoire = repertoireTemporaire();
+            try {
+                enregistrer(new EnregistreurTrace(repertoire, TAILLE_SEGMENT, BUDGET), 0, 8);
+                // Segment suivant créé mais pas encore mis à la taille
+                RandomAccessFile fichier = new RandomAccessFile(EnregistreurTrace.fichierSegment(repertoire, 2), "rw");
+                try {
+                    fichier.setLength(longueur);
+                } finally {
+                    fichier.close();
+                }
+
+                enregistrer(new EnregistreurTrace(repertoire, TAILLE_SEGMENT, BUDGET), 8, 3);
+
+                assertEquals("Longueur " + longueur, 2, EnregistreurTrace.numerosSegments(repertoire).length);
+                assertEquals(TAILLE_SEGMENT, EnregistreurTrace.fichierSegment(repertoire, 2).length());
+                verifier(repertoire, 11);
+            } finally {
+                supprimer(repertoire);
+            }
+        }
+    }
+
+    @Test
+    public void unSegmentDUneAutreTailleEstGarde() throws IOException {
+        File repertoire = repertoireTemporaire();
+        try {
+            enregistrer(new EnregistreurTrace(repertoire, 2 * TAILLE_SEGMENT, 2 * BUDGET), 0, 3);
+            enregistrer(new EnregistreurTrace(repertoire, TAILLE_SEGMENT, BUDGET), 3, 2);
+
+            assertEquals(2, EnregistreurTrace.numerosSegments(repertoire).length);
+            verifier(repertoire, 5);
+        } finally {
+            supprimer(repertoire);
+        }
+    }
+
+    /**
+     * Enregistre {@code nombre} localisations numérotées à partir de {@code premiere} (heure = numéro).
+     */
+    private static void enregistrer(EnregistreurTrace enregistreur, int premiere, int nombre) throws IOException {
+        for (int i = premiere; i < premiere + nombre; i++) {
+            enregistreur.enregistrerE7(i, 436045000 + i, 14440000 - i, 5f, Float.NaN);
+        }
+        enregistreur.forcer();
+    }
+
+    private static void verifier(File repertoire, int nombre) throws IOException {
+        LectureTrace lecture = new LectureTrace(repertoire);
+        assertEquals(nombre, lecture.nombre());
+        for (int i = 0; i < nombre; i++) {
+            assertEquals(i, lecture.instant(i));
+            assertEquals(436045000 + i, lecture.latitudeE7(i));
+            assertEquals(14440000 - i, lecture.longitudeE7(i));
+        }
+    }
+
+    private static File repertoireTemporaire() throws IOException {
+        File repertoire = File.createTempFile("trace", "");
+        assertTrue(repertoire.delete() && repertoire.mkdir());
+        return repertoire;
+    }
+
+    private static void supprimer(File repertoire) {
+        File[] fichiers = repertoire.listFiles();
+        if (fichiers != null) {
+            for (File fichier : fichiers) {
+                fichier.delete();
+            }
+        }
+        repertoire.delete();
+    }
+}
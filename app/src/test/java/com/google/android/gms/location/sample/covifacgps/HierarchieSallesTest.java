@@ -0,0 +1,216 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MoteurGeofence#sallesContenantE7} donne les mêmes salles par la {@link HierarchieSalles} que par la grille,
+ * pour des localisations tirées au hasard sur le site comme le long d'un trajet à pied (où le bâtiment, l'étage et
+ * la zone mémorisés restent le plus souvent les bons), avec des bâtiments et des zones qui se chevauchent. Un étage
+ * fixé écarte les salles des autres étages, même quand elles recouvrent celles de l'étage courant, et garde celles
+ * qui ne sont rattachées à aucun étage.
+ */
+public class HierarchieSallesTest {
+
+    private static final double LATITUDE = 43.6045;
+    private static final double LONGITUDE = 1.4440;
+    private static final float[] MARGES = {0f, -1f};
+
+    // Emprise du site en mètres, un peu débordée pour tirer aussi des localisations hors de toute salle
+    private static final double EST_MIN = -40;
+    private static final double EST_MAX = 200;
+    private static final double NORD_MIN = -40;
+    private static final double NORD_MAX = 110;
+
+    private final ProjectionLocale plan = new ProjectionLocale(LATITUDE, LONGITUDE);
+    private final int[] parGrille = new int[64];
+    private final int[] parArbre = new int[64];
+    private RegistreSalles registre;
+    private HierarchieSalles hierarchie;
+    private MoteurGeofence grille;
+    private MoteurGeofence arbre;
+
+    /**
+     * Bâtiment A : deux étages de 4 × 4 salles de 12 m de rayon espacées de 20 m (les voisines se recouvrent), l'étage
+     * du haut décalé de 7 m, chacun en deux zones qui se chevauchent. Bâtiment B, qui chevauche A : un étage de salles
+     * polygonales, et un hall rattaché au bâtiment. Deux salles rattachées au site.
+     */
+    @Before
+    public void preparer() {
+        registre = new RegistreSalles(64);
+        hierarchie = new HierarchieSalles("Site");
+        int batimentA = hierarchie.ajouterBatiment("A");
+        int etageBas = hierarchie.ajouterEtage(batimentA, "A0", 0);
+        int etageHaut = hierarchie.ajouterEtage(batimentA, "A1", 1);
+        for (int etage : new int[]{etageBas, etageHaut}) {
+            double decalage = etage == etageHaut ? 7 : 0;
+            int ouest = hierarchie.ajouterZone(etage, hierarchie.nom(etage) + " ouest");
+            int est = hierarchie.ajouterZone(etage, hierarchie.nom(etage) + " est");
+            int premiere = plan.ajouterGrille(registre, decalage, decalage, 4, 4, 20, 12f, 10);
+            for (int salle = premiere; salle < premiere + 16; salle++) {
+                hierarchie.rattacher(salle, (salle - premiere) % 4 < 2 ? ouest : est);
+            }
+        }
+
+        int batimentB = hierarchie.ajouterBatiment("B");
+        int etageB = hierarchie.ajouterEtage(batimentB, "B0", 0);
+        for (int i = 0; i < 4; i++) {
+            double x = 80 + 25 * i;
+            hierarchie.rattacher(plan.ajouterPolygone(registre, new double[]{x, x + 22, x + 22, x},
+                    new double[]{0, 0, 30, 30}, 4, 10), etageB);
+        }
+        // Salle en L, dont l'encoche est occupée par la salle voisine
+        hierarchie.rattacher(plan.ajouterPolygone(registre, new double[]{80, 180, 180, 140, 140, 80},
+                new double[]{35, 35, 60, 60, 80, 80}, 6, 10), etageB);
+        hierarchie.rattacher(plan.ajouterPolygone(registre, new double[]{145, 180, 180, 145},
+                new double[]{65, 65, 80, 80}, 4, 10), etageB);
+        hierarchie.rattacher(plan.ajouterSalle(registre, 95, 45, 15f, 10), batimentB);
+
+        plan.ajouterSalle(registre, -20, 90, 10f, 10);
+        plan.ajouterSalle(registre, 30, -30, 8f, 10);
+
+        grille = new MoteurGeofence(registre);
+        arbre = new MoteurGeofence(registre);
+        arbre.fixerHierarchie(hierarchie);
+    }
+
+    @Test
+    public void memesSallesQueLaGrilleSurDesLocalisationsAuHasard() {
+        Random aleatoire = new Random(19);
+        int[] localisations = new int[2 * 20000];
+        for (int i = 0; i < localisations.length; i += 2) {
+            localisations[i] = plan.latitudeE7(NORD_MIN + aleatoire.nextDouble() * (NORD_MAX - NORD_MIN));
+            localisations[i + 1] = plan.longitudeE7(EST_MIN + aleatoire.nextDouble() * (EST_MAX - EST_MIN));
+        }
+        comparer(localisations);
+    }
+
+    @Test
+    public void memesSallesQueLaGrilleLeLongDUnTrajet() {
+        comparer(trajet(new Random(20), 40000));
+    }
+
+    @Test
+    public void unEtageFixeEcarteLesSallesDesAutresEtages() {
+        // Recouvert par une salle de chaque étage de A (au centre de la première salle du bas, à 9,9 m de celle du haut)
+        int latitudeE7 = plan.latitudeE7(0);
+        int longitudeE7 = plan.longitudeE7(0);
+        int basse = 0;
+        int haute = 16;
+        assertSalles(arbre.sallesContenantE7(latitudeE7, longitudeE7, 0f, parArbre), basse, haute);
+        hierarchie.fixerEtage(0);
+        assertSalles(arbre.sallesContenantE7(latitudeE7, longitudeE7, 0f, parArbre), basse);
+        hierarchie.fixerEtage(1);
+        assertSalles(arbre.sallesContenantE7(latitudeE7, longitudeE7, 0f, parArbre), haute);
+        // Un étage sans nœud n'écarte pas les salles rattachées au site
+        hierarchie.fixerEtage(5);
+        assertEquals(0, arbre.sallesContenantE7(latitudeE7, longitudeE7, 0f, parArbre));
+        assertSalles(arbre.sallesContenantE7(plan.latitudeE7(90), plan.longitudeE7(-20), 0f, parArbre), 39);
+
+        // Le long d'un trajet, en changeant d'étage en chemin : les salles de la grille qui ne sont pas sur un autre étage
+        Random aleatoire = new Random(21);
+        int[] localisations = trajet(aleatoire, 40000);
+        int ecartees = 0;
+        int gardees = 0;
+        for (int i = 0; i < localisations.length; i += 2) {
+            if (i % 2000 == 0) {
+                hierarchie.fixerEtage(aleatoire.nextInt(3) == 0 ? HierarchieSalles.AUCUN_ETAGE : aleatoire.nextInt(2));
+            }
+            int attendues = grille.sallesContenantE7(localisations[i], localisations[i + 1], 0f, parGrille);
+            int nombre = 0;
+            for (int j = 0; j < attendues; j++) {
+                if (surEtage(parGrille[j])) {
+                    parGrille[nombre++] = parGrille[j];
+                } else {
+                    ecartees++;
+                }
+            }
+            gardees += nombre;
+            int trouvees = arbre.sallesContenantE7(localisations[i], localisations[i + 1], 0f, parArbre);
+            assertMemes("Localisation " + i / 2 + ", étage " + hierarchie.etageCourant(), nombre, trouvees);
+        }
+        assertTrue(ecartees > 0);
+        assertTrue(gardees > 0);
+    }
+
+    /**
+     * Compare les salles trouvées par l'arbre et par la grille pour chaque localisation et chaque marge, avec des
+     * localisations dans plusieurs salles à la fois.
+     */
+    private void comparer(int[] localisations) {
+        int dansUneSalle = 0;
+        int dansPlusieurs = 0;
+        for (float marge : MARGES) {
+            for (int i = 0; i < localisations.length; i += 2) {
+                int attendues = grille.sallesContenantE7(localisations[i], localisations[i + 1], marge, parGrille);
+                int trouvees = arbre.sallesContenantE7(localisations[i], localisations[i + 1], marge, parArbre);
+                assertMemes("Localisation " + i / 2 + ", marge " + marge, attendues, trouvees);
+                if (attendues > 0) {
+                    dansUneSalle++;
+                }
+                if (attendues > 1) {
+                    dansPlusieurs++;
+                }
+            }
+        }
+        assertTrue(dansUneSalle > 0);
+        assertTrue(dansPlusieurs > 0);
+    }
+
+    /**
+     * Marche au hasard sur le site, par pas de 0,7 m avec un cap qui varie peu, renvoyée vers l'intérieur au bord.
+     */
+    private int[] trajet(Random aleatoire, int nombre) {
+        int[] localisations = new int[2 * nombre];
+        double est = 0;
+        double nord = 0;
+        double cap = 0;
+        for (int i = 0; i < localisations.length; i += 2) {
+            cap += aleatoire.nextGaussian() * 0.2;
+            est += 0.7 * Math.cos(cap);
+            nord += 0.7 * Math.sin(cap);
+            if (est < EST_MIN || est > EST_MAX || nord < NORD_MIN || nord > NORD_MAX) {
+                est = Math.max(EST_MIN, Math.min(EST_MAX, est));
+                nord = Math.max(NORD_MIN, Math.min(NORD_MAX, nord));
+                cap += Math.PI;
+            }
+            localisations[i] = plan.latitudeE7(nord);
+            localisations[i + 1] = plan.longitudeE7(est);
+        }
+        return localisations;
+    }
+
+    // Vrai si aucun ancêtre de la salle n'est un étage autre que l'étage courant
+    private boolean surEtage(int salle) {
+        int courant = hierarchie.etageCourant();
+        for (int noeud = hierarchie.noeud(salle); noeud >= 0; noeud = hierarchie.parent(noeud)) {
+            int etage = hierarchie.etage(noeud);
+            if (courant != HierarchieSalles.AUCUN_ETAGE && etage != HierarchieSalles.AUCUN_ETAGE && etage != courant) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void assertMemes(String message, int attendues, int trouvees) {
+        assertEquals(message, attendues, trouvees);
+        int[] a = Arrays.copyOf(parGrille, attendues);
+        int[] b = Arrays.copyOf(parArbre, trouvees);
+        Arrays.sort(a);
+        Arrays.sort(b);
+        assertArrayEquals(message, a, b);
+    }
+
+    private void assertSalles(int trouvees, int... attendues) {
+        int[] salles = Arrays.copyOf(parArbre, trouvees);
+        Arrays.sort(salles);
+        assertArrayEquals(attendues, salles);
+    }
+}
@@ -0,0 +1,117 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Un {@link HistogrammeLatences} retrouve chaque durée à 1/16 près, ses percentiles sont ceux d'une distribution
+ * connue à cette précision près, et mesurer les étapes du traitement ({@link MesuresPipeline}) n'alloue rien. La
+ * durée de bout en bout d'un affichage part du plus ancien lot qu'il montre, et chaque lot n'est compté qu'une fois.
+ */
+public class HistogrammeLatencesTest {
+
+    private static final int ECHAUFFEMENT = 50000;
+    private static final int MESURES = 20000;
+
+    @Test
+    public void classesCroissantesAUnSeiziemePres() {
+        int precedente = 0;
+        for (long nanos = 0; nanos < HistogrammeLatences.DUREE_MAX_NANOS; nanos += 1 + nanos / 37) {
+            int classe = HistogrammeLatences.classe(nanos);
+            assertTrue("classe de " + nanos, classe >= precedente && classe < HistogrammeLatences.NOMBRE_CLASSES);
+            long borne = HistogrammeLatences.borneSuperieure(classe);
+            assertTrue("borne de " + nanos + " : " + borne, borne >= nanos && borne - nanos <= nanos / 16);
+            // La borne supérieure appartient à la même classe
+            assertEquals(classe, HistogrammeLatences.classe(borne));
+            precedente = classe;
+        }
+        assertEquals(HistogrammeLatences.NOMBRE_CLASSES - 1, HistogrammeLatences.classe(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesDUneDistributionUniforme() {
+        HistogrammeLatences histogramme = new HistogrammeLatences();
+        assertEquals(0, histogramme.percentile(0.5));
+        // Durées de 1 µs à 100 ms
+        for (long i = 1; i <= 100000; i++) {
+            histogramme.enregistrer(i * 1000);
+        }
+        assertEquals(100000, histogramme.nombre());
+        assertEquals(50000500, histogramme.moyenne());
+        assertEquals(100000000, histogramme.maximum());
+        double[] quantiles = {0.5, 0.99, 0.999, 1};
+        for (double quantile : quantiles) {
+            long attendu = (long) (quantile * 100000) * 1000;
+            long percentile = histogramme.percentile(quantile);
+            assertTrue("p" + quantile + " = " + percentile, percentile >= attendu && percentile <= attendu + attendu / 16);
+        }
+
+        histogramme.remettreAZero();
+        assertEquals(0, histogramme.nombre());
+        assertEquals(0, histogramme.maximum());
+    }
+
+    @Test
+    public void boutEnBoutDepuisLePlusAncienLotAffiche() {
+        MesuresPipeline mesures = new MesuresPipeline();
+        HistogrammeLatences boutEnBout = mesures.histogramme(MesuresPipeline.BOUT_EN_BOUT);
+        // Un affichage sans lot en attente n'enregistre rien
+        mesures.finAffichage(1000);
+        assertEquals(0, boutEnBout.nombre());
+
+        // Deux lots affichés ensemble comptent pour le plus ancien
+        mesures.debutLot(2000);
+        mesures.debutLot(5000);
+        mesures.finAffichage(9000);
+        mesures.finAffichage(12000);
+        assertEquals(1, boutEnBout.nombre());
+        assertEquals(7000, boutEnBout.maximum());
+
+        // Le lot suivant part de son propre début, même en attente pendant une remise à zéro
+        mesures.debutLot(20000);
+        mesures.remettreAZero();
+        mesures.finAffichage(21000);
+        assertEquals(1, boutEnBout.nombre());
+        assertEquals(1000, boutEnBout.maximum());
+    }
+
+    @Test
+    public void mesurerNAlloueRien() {
+        final MesuresPipeline mesures = new MesuresPipeline();
+        final TamponTexte resume = new TamponTexte(1024);
+
+        long octets = AllocationsThread.minimum(new Runnable() {
+            @Override
+            public void run() {
+                mesurer(mesures, resume, ECHAUFFEMENT);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                mesurer(mesures, resume, MESURES);
+            }
+        });
+
+        assertEquals("Octets alloués pour " + MESURES + " mesures", 0, octets);
+        assertEquals(0, mesures.histogramme(MesuresPipeline.RENDU).nombre() % (ECHAUFFEMENT + MESURES));
+        assertEquals(mesures.histogramme(MesuresPipeline.RENDU).nombre(),
+                mesures.histogramme(MesuresPipeline.BOUT_EN_BOUT).nombre());
+        assertTrue(mesures.rapportJson().startsWith("{\"reception\":{\"nombre\":"));
+    }
+
+    private static void mesurer(MesuresPipeline mesures, TamponTexte resume, int nombre) {
+        for (int i = 0; i < nombre; i++) {
+            long debut = MesuresPipeline.maintenant();
+            mesures.debutLot(debut);
+            long fin = mesures.enregistrer(MesuresPipeline.ARRONDI_FILTRAGE, debut);
+            fin = mesures.enregistrer(MesuresPipeline.CONTENANCE, fin);
+            mesures.finAffichage(mesures.enregistrer(MesuresPipeline.RENDU, fin));
+            // La surcouche est rafraîchie bien moins souvent que les étapes ne sont mesurées
+            if (i % 1000 == 0) {
+                mesures.ecrireResume(resume);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * La reprise d'un {@link JournalOccupation} après un arrêt brutal retrouve l'occupation attendue : le rejeu s'arrête
+ * à un enregistrement déchiré, un arrêt entre le renommage de l'instantané et la création du nouveau segment ne
+ * compte aucun événement deux fois, un segment d'une autre taille est rejoué puis remplacé, et un instantané d'un
+ * autre nombre de salles est relu pour les salles communes.
+ */
+public class JournalOccupationTest {
+
+    private static final int SALLES = 4;
+    private static final int CAPACITE = 8;
+
+    @Test
+    public void unEnregistrementDechireArreteLeRejeu() throws IOException {
+        File repertoire = repertoireTemporaire();
+        try {
+            JournalOccupation journal = ouvrir(repertoire, SALLES, CAPACITE);
+            journal.entree(1, 0);
+            journal.entree(2, 1);
+            journal.entree(3, 1);
+            journal.sortie(4, 1);
+            journal.entree(5, 2);
+            // Quatrième enregistrement à moitié écrit : son contrôle ne correspond plus à l'heure et à l'événement
+            File segment = JournalOccupation.fichierSegment(repertoire, journal.generation());
+            ecrireInt(segment, position(3) + JournalOccupation.CHAMP_CONTROLE, JournalOccupation.controle(4, -2) ^ 2);
+
+            JournalOccupation reprise = ouvrir(repertoire, SALLES, CAPACITE);
+            assertEquals(3, reprise.rejoues());
+            assertOccupations(reprise, 1, 2, 0, 0);
+
+            // Le journal repris écrit à la place de l'enregistrement déchiré ; le suivant, encore valide, n'est plus annoncé
+            reprise.sortie(6, 0);
+            reprise = ouvrir(repertoire, SALLES, CAPACITE);
+            assertEquals(4, reprise.rejoues());
+            assertOccupations(reprise, 0, 2, 0, 0);
+        } finally {
+            supprimer(repertoire);
+        }
+    }
+
+    @Test
+    public void arretEntreLInstantaneEtLeNouveauSegment() throws IOException {
+        for (boolean nouveauCree : new boolean[]{false, true}) {
+            File repertoire = repertoireTemporaire();
+            try {
+                JournalOccupation journal = ouvrir(repertoire, SALLES, CAPACITE);
+                for (int i = 0; i < CAPACITE; i++) {
+                    journal.entree(i, i % SALLES);
+                }
+                int generation = journal.generation();
+                File ancien = JournalOccupation.fichierSegment(repertoire, generation);
+                byte[] octets = lire(ancien);
+                journal.compacter();
+
+                // Arrêt juste après le renommage : l'ancien segment, déjà compté dans l'instantané, est encore là, et le
+                // nouveau n'existe pas ou n'a pas encore sa taille
+                File nouveau = JournalOccupation.fichierSegment(repertoire, generation + 1);
+                assertTrue(nouveau.delete());
+                if (nouveauCree) {
+                    assertTrue(nouveau.createNewFile());
+                }
+                ecrire(ancien, octets);
+
+                JournalOccupation reprise = ouvrir(repertoire, SALLES, CAPACITE);
+                assertEquals("Nouveau segment créé : " + nouveauCree, 0, reprise.rejoues());
+                assertOccupations(reprise, 2, 2, 2, 2);
+                assertFalse(ancien.exists());
+                assertEquals(1, EnregistreurTrace.numerosSegments(repertoire, JournalOccupation.PREFIXE,
+                        JournalOccupation.SUFFIXE).length);
+
+                reprise.entree(CAPACITE, 3);
+                assertOccupations(ouvrir(repertoire, SALLES, CAPACITE), 2, 2, 2, 3);
+            } finally {
+                supprimer(repertoire);
+            }
+        }
+    }
+
+    @Test
+    public void unSegmentDUneAutreTailleEstRejouePuisRemplace() throws IOException {
+        // Plus petit, puis plus grand et plus rempli que le segment attendu
+        for (int capacite : new int[]{CAPACITE / 2, 2 * CAPACITE}) {
+            File repertoire = repertoireTemporaire();
+            try {
+                JournalOccupation journal = ouvrir(repertoire, SALLES, capacite);
+                int[] attendues = new int[SALLES];
+                for (int i = 0; i < capacite - 1; i++) {
+                    journal.entree(i, i % SALLES);
+                    attendues[i % SALLES]++;
+                }
+
+                JournalOccupation reprise = ouvrir(repertoire, SALLES, CAPACITE);
+                assertEquals("Capacité " + capacite, capacite - 1, reprise.rejoues());
+                assertOccupations(reprise, attendues);
+                assertEquals(taille(CAPACITE), JournalOccupation.fichierSegment(repertoire, reprise.generation()).length());
+
+                reprise.sortie(capacite, 0);
+                attendues[0]--;
+                reprise = ouvrir(repertoire, SALLES, CAPACITE);
+                assertEquals(1, reprise.rejoues());
+                assertOccupations(reprise, attendues);
+            } finally {
+                supprimer(repertoire);
+            }
+        }
+    }
+
+    @Test
+    public void unInstantaneDUnAutreNombreDeSalles() throws IOException {
+        File repertoire = repertoireTemporaire();
+        try {
+            JournalOccupation journal = ouvrir(repertoire, SALLES, CAPACITE);
+            journal.entree(1, 0);
+            journal.entree(2, 1);
+            journal.entree(3, 2);
+            journal.entree(4, 3);
+            journal.entree(5, 3);
+            journal.compacter();
+            journal.entree(6, 1);
+            journal.entree(7, 3);
+
+            // Registre agrandi : les nouvelles salles sont vides
+            assertOccupations(ouvrir(repertoire, SALLES + 2, CAPACITE), 1, 2, 1, 3, 0, 0);
+
+            // Registre réduit : les salles disparues sont ignorées, dans l'instantané comme dans le segment
+            JournalOccupation reduit = ouvrir(repertoire, 2, CAPACITE);
+            assertEquals(2, reduit.rejoues());
+            assertOccupations(reduit, 1, 2);
+            reduit.entree(8, 0);
+            assertOccupations(ouvrir(repertoire, 2, CAPACITE), 2, 2);
+        } finally {
+            supprimer(repertoire);
+        }
+    }
+
+    /**
+     * Journal dont chaque événement est forcé sur le disque, avec des segments de {@code capacite} événements.
+     */
+    private static JournalOccupation ouvrir(File repertoire, int salles, int capacite) throws IOException {
+        return new JournalOccupation(repertoire, salles, taille(capacite), 1, 0);
+    }
+
+    private static int taille(int capacite) {
+        return JournalOccupation.TAILLE_EN_TETE + capacite * JournalOccupation.TAILLE_ENREGISTREMENT;
+    }
+
+    private static int position(int enregistrement) {
+        return JournalOccupation.TAILLE_EN_TETE + enregistrement * JournalOccupation.TAILLE_ENREGISTREMENT;
+    }
+
+    private static void assertOccupations(JournalOccupation journal, int... attendues) {
+        assertEquals(attendues.length, journal.nombreSalles());
+        for (int salle = 0; salle < attendues.length; salle++) {
+            assertEquals("Salle " + salle, attendues[salle], journal.occupation(salle));
+        }
+    }
+
+    private static void ecrireInt(File fichier, long position, int valeur) throws IOException {
+        RandomAccessFile acces = new RandomAccessFile(fichier, "rw");
+        try {
+            ByteBuffer tampon = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            tampon.putInt(0, valeur);
+            acces.getChannel().write(tampon, position);
+        } finally {
+            acces.close();
+        }
+    }
+
+    private static byte[] lire(File fichier) throws IOException {
+        RandomAccessFile acces = new RandomAccessFile(fichier, "r");
+        try {
+            byte[] octets = new byte[(int) acces.length()];
+            acces.readFully(octets);
+            return octets;
+        } finally {
+            acces.close();
+        }
+    }
+
+    private static void ecrire(File fichier, byte[] octets) throws IOException {
+        RandomAccessFile acces = new RandomAccessFile(fichier, "rw");
+        try {
+            acces.setLength(0);
+            acces.write(octets);
+        } finally {
+            acces.close();
+        }
+    }
+
+    private static File repertoireTemporaire() throws IOException {
+        File repertoire = File.createTempFile("journal", "");
+        assertTrue(repertoire.delete() && repertoire.mkdir());
+        return repertoire;
+    }
+
+    private static void supprimer(File repertoire) {
+        File[] fichiers = repertoire.listFiles();
+        if (fichiers != null) {
+            for (File fichier : fichiers) {
+                fichier.delete();
+            }
+        }
+        repertoire.delete();
+    }
+}
@@ -0,0 +1,286 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulation de journées de déplacements pour comparer l'échantillonnage fixe (une localisation toutes les 10 s)
+ * et le {@link PlanificateurLocalisation} : nombre de localisations par heure, et délai de détection des entrées et
+ * sorties de salles, livraison groupée comprise.
+ * <p/>
+ * Le site compte quelques bâtiments espacés de plusieurs centaines de mètres, chacun regroupant des salles.
+ * L'usager marche (1,4 m/s) ou se déplace à vélo (5 m/s) d'une salle à une autre, puis y reste de 5 à 45 minutes.
+ * La trajectoire réelle est calculée à la seconde : une entrée ou une sortie a lieu à la seconde où la salle
+ * commence ou cesse de contenir l'usager. Elle est détectée à la livraison de la première localisation (non
+ * bruitée) qui observe le nouvel état ; un passage trop bref pour être observé est compté comme manqué.
+ * <p/>
+ * En livraison groupée, les localisations d'un lot sont prises à chaque intervalle et livrées ensemble à la fin de
+ * l'attente maximale ; le réglage n'est réémis qu'à la livraison, après la dernière localisation du lot.
+ */
+public class PlanificateurLocalisationTest {
+
+    private static final long INTERVALLE_BASE = 10000;
+    private static final long INTERVALLE_MAX = 16 * INTERVALLE_BASE;
+    private static final long ATTENTE_MAX_LOT = 5 * INTERVALLE_BASE;
+    private static final int DUREE_SECONDES = 12 * 3600;
+    private static final int NOMBRE_JOURNEES = 10;
+
+    // Site : bâtiments de salles répartis sur 3 km × 3 km
+    private static final double LATITUDE_CENTRE = 43.6045;
+    private static final double LONGITUDE_CENTRE = 1.4440;
+    private static final int NOMBRE_BATIMENTS = 8;
+    private static final int SALLES_PAR_BATIMENT = 12;
+    private static final double COTE_SITE_METRES = 3000;
+
+    // Précision annoncée des localisations selon la priorité demandée
+    private static final float PRECISION_HAUTE_METRES = 8f;
+    private static final float PRECISION_ECONOMIE_METRES = 40f;
+
+    // Réglages comparés
+    private static final int FIXE = 0;
+    private static final int ADAPTATIF = 1;
+    // Attente maximale proportionnelle à l'intervalle adaptatif (5 intervalles), pour comparaison
+    private static final int ADAPTATIF_ATTENTE_PROPORTIONNELLE = 2;
+
+    @Test
+    public void sansLivraisonGroupeeMoinsDeLocalisationsPourLeMemeDelai() {
+        Resultat fixe = simulerJournees(FIXE, false);
+        Resultat adaptatif = simulerJournees(ADAPTATIF, false);
+
+        assertEquals(360.0, fixe.localisationsParHeure(), 0.1);
+        assertTrue("Localisations par heure : " + adaptatif.localisationsParHeure(),
+                adaptatif.localisationsParHeure() < 0.8 * fixe.localisationsParHeure());
+        // Même délai de détection dans le pire cas : une localisation arrive toujours avant le bord
+        assertTrue("Délai max : " + adaptatif.delaiMax() + " s", adaptatif.delaiMax() <= fixe.delaiMax());
+        assertTrue(fixe.delaiMax() < INTERVALLE_BASE / 1000);
+        assertEquals(fixe.manquees, adaptatif.manquees);
+        assertEquals(fixe.nombreDelais, adaptatif.nombreDelais);
+    }
+
+    @Test
+    public void enLivraisonGroupeeMemeDelaiQuUneDemandeFixe() {
+        Resultat fixe = simulerJournees(FIXE, true);
+        Resultat adaptatif = simulerJournees(ADAPTATIF, true);
+        Resultat proportionnelle = simulerJournees(ADAPTATIF_ATTENTE_PROPORTIONNELLE, true);
+
+        // Le lot retarde la détection au plus de l'attente maximale
+        assertTrue("Délai max fixe : " + fixe.delaiMax() + " s",
+                fixe.delaiMax() > INTERVALLE_BASE / 1000 && fixe.delaiMax() <= (INTERVALLE_BASE + ATTENTE_MAX_LOT) / 1000);
+        assertTrue("Localisations par heure : " + adaptatif.localisationsParHeure(),
+                adaptatif.localisationsParHeure() < 0.8 * fixe.localisationsParHeure());
+        assertTrue("Délai max adaptatif : " + adaptatif.delaiMax() + " s", adaptatif.delaiMax() <= fixe.delaiMax());
+        assertTrue("Délai p95 adaptatif : " + adaptatif.delai(0.95) + " s", adaptatif.delai(0.95) <= fixe.delai(0.95));
+        // Une attente de 5 intervalles allongés retarde des entrées ou sorties de plusieurs minutes
+        assertTrue("Délai max proportionnel : " + proportionnelle.delaiMax() + " s",
+                proportionnelle.delaiMax() > 2 * fixe.delaiMax());
+    }
+
+    @Test
+    public void lAttenteDUnLotNeSuitPasLIntervalle() {
+        RegistreSalles registre = new RegistreSalles(1);
+        ProjectionLocale plan = new ProjectionLocale(LATITUDE_CENTRE, LONGITUDE_CENTRE);
+        plan.ajouterSalle(registre, 0, 0, 10f, 10);
+        MoteurGeofence moteur = new MoteurGeofence(registre);
+        PlanificateurLocalisation planificateur = new PlanificateurLocalisation(moteur, INTERVALLE_BASE, INTERVALLE_MAX, ATTENTE_MAX_LOT);
+        assertEquals(ATTENTE_MAX_LOT, planificateur.attenteMaxLot());
+
+        // Dans la salle : intervalle de base, attente fixe d'une demande non adaptative
+        planificateur.mettreAJour(plan.latitude(0), plan.longitude(0), 5f, 0f, 0);
+        assertEquals(INTERVALLE_BASE, planificateur.intervalle());
+        assertEquals(ATTENTE_MAX_LOT, planificateur.attenteMaxLot());
+
+        // À 60 m du bord, immobile (2 m/s supposés) : 30 s avant le bord, intervalle de 20 s, un lot dépasserait le bord
+        planificateur.mettreAJour(plan.latitude(70), plan.longitude(0), 0f, 0f, 1000);
+        assertEquals(2 * INTERVALLE_BASE, planificateur.intervalle());
+        assertEquals(0, planificateur.attenteMaxLot());
+
+        // Loin de toute salle : intervalle maximal, l'attente ne le suit pas
+        for (int i = 0; i < 10; i++) {
+            planificateur.mettreAJour(plan.latitude(900), plan.longitude(0), 0f, 0f, 2000 + i * 1000);
+        }
+        assertEquals(INTERVALLE_MAX, planificateur.intervalle());
+        assertEquals(0, planificateur.attenteMaxLot());
+
+        planificateur.reinitialiser();
+        assertEquals(ATTENTE_MAX_LOT, planificateur.attenteMaxLot());
+    }
+
+    private static Resultat simulerJournees(int reglage, boolean livraisonGroupee) {
+        Resultat resultat = new Resultat();
+        for (int journee = 0; journee < NOMBRE_JOURNEES; journee++) {
+            simuler(journee, reglage, livraisonGroupee, resultat);
+        }
+        return resultat;
+    }
+
+    private static void simuler(int graine, int reglage, boolean livraisonGroupee, Resultat resultat) {
+        Random aleatoire = new Random(graine);
+        ProjectionLocale plan = new ProjectionLocale(LATITUDE_CENTRE, LONGITUDE_CENTRE);
+
+        // Salles, en mètres (est, nord) autour du centre du site
+        int nombreSalles = NOMBRE_BATIMENTS * SALLES_PAR_BATIMENT;
+        double[] est = new double[nombreSalles];
+        double[] nord = new double[nombreSalles];
+        float[] rayons = new float[nombreSalles];
+        RegistreSalles registre = new RegistreSalles(nombreSalles);
+        for (int b = 0; b < NOMBRE_BATIMENTS; b++) {
+            double estBatiment = (aleatoire.nextDouble() - 0.5) * COTE_SITE_METRES;
+            double nordBatiment = (aleatoire.nextDouble() - 0.5) * COTE_SITE_METRES;
+            for (int i = 0; i < SALLES_PAR_BATIMENT; i++) {
+                int salle = b * SALLES_PAR_BATIMENT + i;
+                est[salle] = estBatiment + (i % 4) * 30;
+                nord[salle] = nordBatiment + (i / 4) * 30;
+                rayons[salle] = 8 + aleatoire.nextInt(6);
+                plan.ajouterSalle(registre, est[salle], nord[salle], rayons[salle], 10);
+            }
+        }
+        MoteurGeofence moteur = new MoteurGeofence(registre);
+        moteur.fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        long attenteMax = livraisonGroupee ? ATTENTE_MAX_LOT : 0;
+        PlanificateurLocalisation planificateur = new PlanificateurLocalisation(moteur, INTERVALLE_BASE, INTERVALLE_MAX, attenteMax);
+
+        // Trajectoire à la seconde : position et vitesse
+        double[] positionsEst = new double[DUREE_SECONDES];
+        double[] positionsNord = new double[DUREE_SECONDES];
+        float[] vitesses = new float[DUREE_SECONDES];
+        int depart = aleatoire.nextInt(nombreSalles);
+        double x = est[depart];
+        double y = nord[depart];
+        int t = 0;
+        while (t < DUREE_SECONDES) {
+            // Séjour dans la salle courante, en restant près du centre
+            int sejour = 300 + aleatoire.nextInt(2400);
+            for (int s = 0; s < sejour && t < DUREE_SECONDES; s++, t++) {
+                positionsEst[t] = x;
+                positionsNord[t] = y;
+            }
+            // Déplacement vers une autre salle, à pied ou à vélo
+            int cible = aleatoire.nextInt(nombreSalles);
+            float vitesse = aleatoire.nextInt(4) == 0 ? 5.0f : 1.4f;
+            double dx = est[cible] - x;
+            double dy = nord[cible] - y;
+            double longueur = Math.sqrt(dx * dx + dy * dy);
+            int duree = (int) Math.ceil(longueur / vitesse);
+            for (int s = 1; s <= duree && t < DUREE_SECONDES; s++, t++) {
+                positionsEst[t] = x + dx * s / duree;
+                positionsNord[t] = y + dy * s / duree;
+                vitesses[t] = vitesse;
+            }
+            x = est[cible];
+            y = nord[cible];
+        }
+
+        // Entrées et sorties réelles : pour chaque salle, instant du dernier changement d'état non encore détecté
+        boolean[] dedansReel = new boolean[nombreSalles];
+        boolean[] dedansDetecte = new boolean[nombreSalles];
+        int[] changementEnAttente = new int[nombreSalles];
+        Arrays.fill(changementEnAttente, -1);
+
+        int[] sallesContenant = new int[16];
+        long intervalle = INTERVALLE_BASE;
+        long attente = attenteMax;
+        long prochaineLocalisation = 0;
+        // Livraison du lot en cours (la localisation prise à cet instant est la dernière du lot)
+        long finLot = 0;
+        for (t = 0; t < DUREE_SECONDES; t++) {
+            for (int salle = 0; salle < nombreSalles; salle++) {
+                double dx = positionsEst[t] - est[salle];
+                double dy = positionsNord[t] - nord[salle];
+                boolean dedans = dx * dx + dy * dy < (double) rayons[salle] * rayons[salle];
+                if (t > 0 && dedans != dedansReel[salle]) {
+                    if (changementEnAttente[salle] >= 0) {
+                        // L'état précédent n'a jamais été observé : deux transitions manquées
+                        resultat.manquees += 2;
+                        changementEnAttente[salle] = -1;
+                    } else {
+                        changementEnAttente[salle] = t;
+                    }
+                }
+                dedansReel[salle] = dedans;
+            }
+
+            long instant = t * 1000L;
+            if (instant < prochaineLocalisation) {
+                continue;
+            }
+
+            // Localisation : détection des changements d'état des salles, connue à la livraison de son lot
+            resultat.localisations++;
+            boolean derniereDuLot = attente == 0 || instant >= finLot;
+            long livraison = derniereDuLot ? instant : finLot;
+            double latitude = plan.latitude(positionsNord[t]);
+            double longitude = plan.longitude(positionsEst[t]);
+            int trouvees = moteur.sallesContenant(latitude, longitude, sallesContenant);
+            for (int salle = 0; salle < nombreSalles; salle++) {
+                boolean dedans = false;
+                for (int i = 0; i < trouvees; i++) {
+                    dedans |= sallesContenant[i] == salle;
+                }
+                if (dedans != dedansDetecte[salle]) {
+                    dedansDetecte[salle] = dedans;
+                    if (changementEnAttente[salle] >= 0) {
+                        resultat.ajouterDelai((int) (livraison / 1000 - changementEnAttente[salle]));
+                        changementEnAttente[salle] = -1;
+                    }
+                }
+            }
+
+            if (reglage != FIXE) {
+                float precision = planificateur.hautePrecision() ? PRECISION_HAUTE_METRES : PRECISION_ECONOMIE_METRES;
+                planificateur.mettreAJour(latitude, longitude, precision, vitesses[t], instant);
+            }
+            // Le réglage n'est réémis qu'à la livraison, et le lot suivant commence
+            if (derniereDuLot) {
+                if (reglage == ADAPTATIF) {
+                    intervalle = planificateur.intervalle();
+                    attente = planificateur.attenteMaxLot();
+                } else if (reglage == ADAPTATIF_ATTENTE_PROPORTIONNELLE) {
+                    intervalle = planificateur.intervalle();
+                    attente = livraisonGroupee ? 5 * intervalle : 0;
+                }
+                // Le fournisseur livre le lot à la dernière localisation prise avant la fin de l'attente
+                finLot = instant + attente / intervalle * intervalle;
+            }
+            prochaineLocalisation = instant + intervalle;
+        }
+        resultat.heures += DUREE_SECONDES / 3600.0;
+    }
+
+    private static final class Resultat {
+
+        double heures = 0;
+        long localisations = 0;
+        long manquees = 0;
+        int[] delais = new int[1024];
+        int nombreDelais = 0;
+
+        void ajouterDelai(int secondes) {
+            if (nombreDelais == delais.length) {
+                delais = Arrays.copyOf(delais, delais.length * 2);
+            }
+            delais[nombreDelais++] = secondes;
+        }
+
+        double localisationsParHeure() {
+            return localisations / heures;
+        }
+
+        /**
+         * Délai de détection sous lequel se trouve la fraction {@code quantile} des entrées et sorties, en secondes.
+         */
+        int delai(double quantile) {
+            int[] tries = Arrays.copyOf(delais, nombreDelais);
+            Arrays.sort(tries);
+            return tries[Math.min(tries.length - 1, (int) (tries.length * quantile))];
+        }
+
+        int delaiMax() {
+            return delai(1);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Un trajet synthétique rejoué par {@link RejeuLocalisations} donne les entrées et sorties attendues, aux heures
+ * que fixent les marges et les durées de séjour de l'automate, avec une exactitude de 1, par lots ou non. Avec un
+ * bruit fort, le filtre de Kalman supprime les fausses sorties pendant un séjour au centre d'une salle ; arrêté
+ * juste hors du bord, il produit au contraire plus de fausses entrées que les localisations brutes, ce qui le
+ * laisse désactivé par défaut dans l'application.
+ */
+public class RejeuLocalisationsTest {
+
+    private static final double LATITUDE = 43.6045;
+    private static final double LONGITUDE = 1.4440;
+    private static final long INTERVALLE = 1000;
+
+    // Salle 0 centrée sur l'origine, salle 1 à 60 m à l'est, toutes deux de 10 m de rayon
+    private static final double[] SALLES_EST = {0, 60};
+    private static final double[] SALLES_NORD = {0, 0};
+    private static final float RAYON = 10f;
+
+    private final ProjectionLocale plan = new ProjectionLocale(LATITUDE, LONGITUDE);
+    private TraitementLocalisation traitement;
+    private RejeuLocalisations rejeu;
+
+    @Before
+    public void preparer() {
+        RegistreSalles registre = new RegistreSalles(SALLES_EST.length);
+        for (int salle = 0; salle < SALLES_EST.length; salle++) {
+            plan.ajouterSalle(registre, SALLES_EST[salle], SALLES_NORD[salle], RAYON, 5);
+        }
+        MoteurGeofence moteur = new MoteurGeofence(registre);
+        moteur.fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        traitement = new TraitementLocalisation(moteur, new OccupationSalles(registre.taille()));
+        rejeu = new RejeuLocalisations(traitement, 2);
+    }
+
+    @Test
+    public void trajetSansBruit() throws InterruptedException {
+        // Une minute dans la salle 0, vers la salle 1 à 1 m/s, une minute dedans, puis 70 m plus à l'est
+        Trajet trajet = new Trajet(0, 0);
+        trajet.rester(0, 0, 60);
+        trajet.marcher(60, 0, 60);
+        trajet.rester(60, 0, 60);
+        trajet.marcher(130, 0, 70);
+
+        for (int lot : new int[]{1, 5}) {
+            rejeu.fixerTailleLot(lot);
+            RejeuLocalisations.Resultat resultat = rejeu.rejouer(trajet, trajet.attendues);
+
+            // Entrée à plus de 1 m à l'intérieur du bord, confirmée 5 s plus tard ; sortie à plus de 3 m à
+            // l'extérieur, confirmée 10 s plus tard
+            assertEquals("Lot de " + lot, Arrays.asList("entree 0 @5000", "sortie 0 @83000", "entree 1 @116000",
+                    "sortie 1 @203000"), transitions(rejeu.detectees()));
+            assertEquals(0, resultat.incoherences());
+            assertEquals(4, resultat.correctes());
+            assertEquals(0, resultat.manquees());
+            assertEquals(0, resultat.inattendues());
+            assertEquals(1.0, resultat.exactitude(), 0);
+            // Sortie réelle à 10 m du centre, détectée à 13 m puis confirmée 10 s plus tard
+            assertEquals(14000, resultat.latenceMax());
+        }
+    }
+
+    @Test
+    public void leFiltreEviteLesTransitionsInattendues() throws InterruptedException {
+        int inattenduesSansFiltre = 0;
+        for (long graine = 1; graine <= 3; graine++) {
+            // Une demi-heure au centre de chaque salle, avec 8 m de bruit : des localisations sortent souvent du rayon
+            Trajet trajet = new Trajet(8, graine);
+            trajet.rester(0, 0, 1800);
+            trajet.marcher(60, 0, 43);
+            trajet.rester(60, 0, 1800);
+            trajet.marcher(130, 0, 50);
+
+            traitement.fixerFiltrage(false);
+            RejeuLocalisations.Resultat sansFiltre = rejeu.rejouer(trajet, trajet.attendues);
+            traitement.fixerFiltrage(true);
+            RejeuLocalisations.Resultat avecFiltre = rejeu.rejouer(trajet, trajet.attendues);
+
+            assertEquals(0, sansFiltre.incoherences());
+            assertEquals(0, avecFiltre.incoherences());
+            assertEquals("Graine " + graine + " : " + avecFiltre, 0, avecFiltre.inattendues());
+            assertEquals("Graine " + graine + " : " + avecFiltre, 4, avecFiltre.correctes());
+            inattenduesSansFiltre += sansFiltre.inattendues();
+        }
+        // Sans filtre, le bruit produit bien de fausses sorties suivies d'entrées
+        assertTrue(inattenduesSansFiltre > 0);
+    }
+
+    @Test
+    public void arreteJusteHorsDuBordLeFiltreFaitPire() throws InterruptedException {
+        int inattenduesSansFiltre = 0;
+        int inattenduesAvecFiltre = 0;
+        for (long graine = 1; graine <= 3; graine++) {
+            // Une demi-heure à 1 m hors du bord de la salle 0, avec 5 m de bruit, entre deux vraies visites
+            Trajet trajet = new Trajet(5, graine);
+            trajet.rester(60, 0, 120);
+            trajet.marcher(11, 0, 49);
+            trajet.rester(11, 0, 1800);
+            trajet.marcher(0, 0, 11);
+            trajet.rester(0, 0, 120);
+            trajet.marcher(-60, 0, 60);
+
+            traitement.fixerFiltrage(false);
+            RejeuLocalisations.Resultat sansFiltre = rejeu.rejouer(trajet, trajet.attendues);
+            traitement.fixerFiltrage(true);
+            RejeuLocalisations.Resultat avecFiltre = rejeu.rejouer(trajet, trajet.attendues);
+
+            assertEquals(0, sansFiltre.incoherences());
+            assertEquals(0, avecFiltre.incoherences());
+            // Sans filtre, les durées de séjour absorbent le bruit, indépendant d'une localisation à l'autre
+            assertTrue("Graine " + graine + " : " + sansFiltre, sansFiltre.inattendues() <= 2);
+            inattenduesSansFiltre += sansFiltre.inattendues();
+            inattenduesAvecFiltre += avecFiltre.inattendues();
+        }
+        // L'erreur du filtre, lente à varier, dure plus que la durée d'entrée : de fausses entrées sont confirmées
+        assertTrue(inattenduesSansFiltre + " sans filtre, " + inattenduesAvecFiltre + " avec",
+                inattenduesAvecFiltre > inattenduesSansFiltre);
+    }
+
+    private static List<String> transitions(ListeTransitions liste) {
+        List<String> textes = new ArrayList<>();
+        for (int i = 0; i < liste.taille(); i++) {
+            textes.add((liste.entree(i) ? "entree " : "sortie ") + liste.salle(i) + " @" + liste.instant(i));
+        }
+        return textes;
+    }
+
+    /**
+     * Trajet d'une localisation par seconde, construit position réelle par position réelle (en mètres autour de
+     * l'origine), avec un bruit gaussien sur chaque axe. Les transitions attendues sont calculées sur la position
+     * réelle, comme dans {@code TrajetSimule} : entrée à la première localisation dans le rayon, sortie à la
+     * première localisation hors du rayon.
+     */
+    private final class Trajet implements SourceLocalisations {
+
+        private final double bruit;
+        private final float precision;
+        private final Random aleatoire;
+        private final List<double[]> localisations = new ArrayList<>();
+        private final boolean[] dedans = new boolean[SALLES_EST.length];
+        private final ListeTransitions attendues = new ListeTransitions();
+        private double est;
+        private double nord;
+
+        Trajet(double bruitMetres, long graine) {
+            this.bruit = bruitMetres;
+            this.precision = bruitMetres > 0 ? (float) (bruitMetres * 1.515) : Float.NaN;
+            this.aleatoire = new Random(graine);
+        }
+
+        void rester(double est, double nord, int secondes) {
+            for (int i = 0; i < secondes; i++) {
+                ajouter(est, nord);
+            }
+        }
+
+        /**
+         * Va en ligne droite de la dernière position jusqu'à (est, nord), atteint à la dernière seconde.
+         */
+        void marcher(double est, double nord, int secondes) {
+            double departEst = this.est;
+            double departNord = this.nord;
+            for (int i = 1; i <= secondes; i++) {
+                ajouter(departEst + (est - departEst) * i / secondes, departNord + (nord - departNord) * i / secondes);
+            }
+        }
+
+        private void ajouter(double est, double nord) {
+            this.est = est;
+            this.nord = nord;
+            long instant = localisations.size() * INTERVALLE;
+            for (int salle = 0; salle < SALLES_EST.length; salle++) {
+                double dx = est - SALLES_EST[salle];
+                double dy = nord - SALLES_NORD[salle];
+                boolean maintenant = dx * dx + dy * dy < (double) RAYON * RAYON;
+                if (maintenant != dedans[salle]) {
+                    attendues.ajouter(salle, instant, maintenant, true);
+                    dedans[salle] = maintenant;
+                }
+            }
+            localisations.add(new double[]{est + aleatoire.nextGaussian() * bruit, nord + aleatoire.nextGaussian() * bruit});
+        }
+
+        @Override
+        public long nombre() {
+            return localisations.size();
+        }
+
+        @Override
+        public long instant(long i) {
+            return i * INTERVALLE;
+        }
+
+        @Override
+        public double latitude(long i) {
+            return plan.latitude(localisations.get((int) i)[1]);
+        }
+
+        @Override
+        public double longitude(long i) {
+            return plan.longitude(localisations.get((int) i)[0]);
+        }
+
+        @Override
+        public float precision(long i) {
+            return precision;
+        }
+    }
+}
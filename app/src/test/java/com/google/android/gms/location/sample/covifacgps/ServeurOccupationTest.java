@@ -0,0 +1,459 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Le serveur d'agrégation et les clients des appareils, reliés par une vraie connexion TCP sur l'adresse
+ * locale : les lots de plusieurs appareils sont additionnés, un lot renvoyé n'est appliqué qu'une fois,
+ * un client démarré avant le serveur finit par envoyer tous ses événements, un abonné ne reçoit que les
+ * changements de ses salles, regroupés, et une trame malformée ne ferme que sa connexion. Une sortie d'une salle où
+ * l'appareil n'est pas compté est ignorée, une présence remplace ses salles, un appareil silencieux est retiré de ses
+ * salles et libère sa place, et un client redémarré garde son identifiant et corrige ce que le serveur lui comptait.
+ */
+public class ServeurOccupationTest {
+
+    private static final int NOMBRE_SALLES = 10;
+    private static final long DELAI_MILLIS = 10000;
+
+    @Test
+    public void lesLotsDeTousLesAppareilsSontAdditionnes() throws Exception {
+        ServeurOccupation serveur = demarrerServeur(0);
+        ClientOccupation premier = client(serveur.port(), 1);
+        ClientOccupation second = client(serveur.port(), 2);
+        try {
+            premier.demarrer();
+            second.demarrer();
+            premier.entree(3);
+            second.entree(3);
+            premier.sortie(3);
+            premier.entree(4);
+            for (int i = 0; i < 1000; i++) {
+                second.sortie(3);
+                second.entree(3);
+            }
+            assertTrue(premier.attendreEnvoi(DELAI_MILLIS));
+            assertTrue(second.attendreEnvoi(DELAI_MILLIS));
+
+            assertEquals(1, serveur.occupation().occupation(3));
+            assertEquals(1, serveur.occupation().occupation(4));
+            assertEquals(2004, serveur.evenementsAppliques());
+            int[] occupations = new int[NOMBRE_SALLES + 5];
+            assertEquals(NOMBRE_SALLES, premier.lireOccupations(0, occupations.length, occupations));
+            assertEquals(1, occupations[3]);
+            assertEquals(1, occupations[4]);
+            assertEquals(0, occupations[5]);
+        } finally {
+            premier.arreter();
+            second.arreter();
+            serveur.arreter();
+        }
+    }
+
+    @Test
+    public void unLotRenvoyeNestAppliqueQuUneFois() throws Exception {
+        ServeurOccupation serveur = demarrerServeur(0);
+        try {
+            int[] evenements = {ProtocoleOccupation.entree(2), ProtocoleOccupation.entree(7)};
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 42, 1, evenements));
+            // Renvoi sur une nouvelle connexion, comme après une coupure avant l'acquittement
+            assertEquals(ProtocoleOccupation.STATUT_DOUBLON, envoyerLot(serveur.port(), 42, 1, evenements));
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 42, 2, evenements));
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 43, 1, evenements));
+
+            assertEquals(3, serveur.occupation().occupation(2));
+            assertEquals(3, serveur.occupation().occupation(7));
+            assertEquals(3, serveur.lotsAcceptes());
+            assertEquals(1, serveur.lotsDoublons());
+        } finally {
+            serveur.arreter();
+        }
+    }
+
+    @Test
+    public void unLotAvecUneSalleInconnueEstRefuse() throws Exception {
+        ServeurOccupation serveur = demarrerServeur(0);
+        try {
+            int[] evenements = {ProtocoleOccupation.entree(2), ProtocoleOccupation.sortie(NOMBRE_SALLES)};
+            assertEquals(ProtocoleOccupation.STATUT_REFUSE, envoyerLot(serveur.port(), 42, 1, evenements));
+            assertEquals(0, serveur.occupation().occupation(2));
+            // Le numéro du lot refusé n'a pas été consommé
+            evenements[1] = ProtocoleOccupation.sortie(2);
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 42, 1, evenements));
+            assertEquals(0, serveur.occupation().occupation(2));
+        } finally {
+            serveur.arreter();
+        }
+    }
+
+    @Test
+    public void uneTrameMalformeeNeFermeQueSaConnexion() throws Exception {
+        ServeurOccupation serveur = demarrerServeur(0);
+        try {
+            // Nombres choisis pour que la longueur attendue déborde et retombe sur la longueur de la trame
+            int nombre = 0x40000001;
+            for (int essai = 0; essai < 4; essai++) {
+                ByteBuffer lot = ByteBuffer.allocate(4 + ProtocoleOccupation.LONGUEUR_LOT_VIDE + 4).order(ByteOrder.LITTLE_ENDIAN);
+                lot.putInt(ProtocoleOccupation.LONGUEUR_LOT_VIDE + 4 * nombre);
+                lot.putInt(ProtocoleOccupation.TYPE_LOT).putLong(42).putLong(1).putInt(nombre).putInt(ProtocoleOccupation.entree(2));
+                assertTrue(envoyerTrameFermee(serveur.port(), lot));
+
+                ByteBuffer abonnement = ByteBuffer.allocate(4 + ProtocoleOccupation.LONGUEUR_ABONNEMENT_VIDE + 4).order(ByteOrder.LITTLE_ENDIAN);
+                abonnement.putInt(ProtocoleOccupation.LONGUEUR_ABONNEMENT_VIDE + 4 * nombre);
+                abonnement.putInt(ProtocoleOccupation.TYPE_ABONNEMENT).putInt(nombre).putInt(1);
+                assertTrue(envoyerTrameFermee(serveur.port(), abonnement));
+            }
+
+            // Les threads du serveur acceptent et servent toujours les connexions
+            int[] evenements = {ProtocoleOccupation.entree(2)};
+            for (int numero = 1; numero <= 4; numero++) {
+                assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 42, numero, evenements));
+            }
+            assertEquals(4, serveur.occupation().occupation(2));
+        } finally {
+            serveur.arreter();
+        }
+    }
+
+    @Test
+    public void unClientDemarreAvantLeServeurReessaie() throws Exception {
+        int port;
+        ServerSocket libre = new ServerSocket(0);
+        try {
+            port = libre.getLocalPort();
+        } finally {
+            libre.close();
+        }
+        ClientOccupation client = client(port, 7);
+        ServeurOccupation serveur = null;
+        try {
+            client.demarrer();
+            for (int salle = 0; salle < NOMBRE_SALLES; salle++) {
+                client.entree(salle);
+            }
+            // Serveur injoignable : le client réessaie avec une attente croissante
+            long fin = System.currentTimeMillis() + DELAI_MILLIS;
+            while (client.renvois() < 2 && System.currentTimeMillis() < fin) {
+                Thread.sleep(10);
+            }
+            assertTrue(client.renvois() >= 2);
+            assertEquals(0, client.lotsAcquittes());
+            serveur = demarrerServeur(port);
+
+            assertTrue(client.attendreEnvoi(DELAI_MILLIS));
+            assertEquals(1, client.lotsAcquittes());
+            for (int salle = 0; salle < NOMBRE_SALLES; salle++) {
+                assertEquals(1, serveur.occupation().occupation(salle));
+            }
+        } finally {
+            client.arreter();
+            if (serveur != null) {
+                serveur.arreter();
+            }
+        }
+    }
+
+    @Test
+    public void unAbonneNeRecoitQueSesSallesRegroupees() throws Exception {
+        ServeurOccupation serveur = demarrerServeur(0);
+        ClientOccupation client = client(serveur.port(), 9);
+        final int[] signaux = new int[1];
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable tache) {
+                tache.run();
+            }
+        };
+        AbonnementDistant distant = new AbonnementDistant(new InetSocketAddress(InetAddress.getLoopbackAddress(), serveur.port()),
+                new int[]{1, 2}, direct, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (signaux) {
+                    signaux[0]++;
+                }
+            }
+        }, 200);
+        try {
+            distant.demarrer();
+            int[] salles = new int[2];
+            int[] occupations = new int[2];
+            // L'occupation actuelle des salles est reçue à l'abonnement
+            assertEquals(2, attendreModifications(distant.abonnement(), salles, occupations));
+            assertEquals(1, salles[0]);
+            assertEquals(0, occupations[0]);
+            assertEquals(2, salles[1]);
+
+            // Une rafale d'entrées dans la salle 1, et des salles hors de l'abonnement
+            client.demarrer();
+            for (int i = 0; i < 100; i++) {
+                client.entree(1);
+                client.entree(3);
+                client.sortie(3);
+            }
+            assertTrue(client.attendreEnvoi(DELAI_MILLIS));
+            int notifications = 0;
+            int derniere = 0;
+            while (derniere != 100) {
+                assertEquals(1, attendreModifications(distant.abonnement(), salles, occupations));
+                assertEquals(1, salles[0]);
+                assertTrue(occupations[0] > derniere);
+                derniere = occupations[0];
+                notifications++;
+            }
+            // Les lots reçus dans une même fenêtre ne produisent qu'une notification
+            assertTrue(notifications < 10);
+            Thread.sleep(3 * ServeurOccupation.FENETRE_FLUX_DEFAUT_MILLIS);
+            assertEquals(0, distant.abonnement().prendre(salles, occupations));
+        } finally {
+            distant.arreter();
+            client.arreter();
+            serveur.arreter();
+        }
+    }
+
+    @Test
+    public void uneSortieDUneSalleNonCompteeEstIgnoree() throws Exception {
+        ServeurOccupation serveur = demarrerServeur(0);
+        try {
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 42, 1,
+                    new int[]{ProtocoleOccupation.sortie(2), ProtocoleOccupation.entree(3)}));
+            assertEquals(0, serveur.occupation().occupation(2));
+            assertEquals(1, serveur.occupation().occupation(3));
+            // Deux sorties pour une entrée : la seconde est ignorée, y compris suivie d'une entrée (pas de déplacement)
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 42, 2, new int[]{
+                    ProtocoleOccupation.sortie(3), ProtocoleOccupation.sortie(3), ProtocoleOccupation.entree(4)}));
+            assertEquals(0, serveur.occupation().occupation(3));
+            assertEquals(1, serveur.occupation().occupation(4));
+        } finally {
+            serveur.arreter();
+        }
+    }
+
+    @Test
+    public void unePresenceRemplaceLesSallesDeLAppareil() throws Exception {
+        ServeurOccupation serveur = demarrerServeur(0);
+        try {
+            int[] evenements = {ProtocoleOccupation.entree(2), ProtocoleOccupation.entree(3), ProtocoleOccupation.entree(3)};
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 42, 1, evenements));
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 43, 1, evenements));
+
+            int[] salles = {3, 5};
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerPresence(serveur.port(), 42, 2, salles));
+            assertEquals(ProtocoleOccupation.STATUT_DOUBLON, envoyerPresence(serveur.port(), 42, 2, salles));
+            assertEquals(1, serveur.occupation().occupation(2));
+            assertEquals(3, serveur.occupation().occupation(3));
+            assertEquals(1, serveur.occupation().occupation(5));
+            // Une présence ne contient que des salles, pas de sorties
+            assertEquals(ProtocoleOccupation.STATUT_REFUSE, envoyerPresence(serveur.port(), 42, 3, new int[]{-1}));
+
+            // La sortie suivante ne porte plus que sur les salles de la présence
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 42, 3,
+                    new int[]{ProtocoleOccupation.sortie(3), ProtocoleOccupation.sortie(3)}));
+            assertEquals(2, serveur.occupation().occupation(3));
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerPresence(serveur.port(), 42, 4, new int[0]));
+            assertEquals(1, serveur.occupation().occupation(2));
+            assertEquals(2, serveur.occupation().occupation(3));
+            assertEquals(0, serveur.occupation().occupation(5));
+        } finally {
+            serveur.arreter();
+        }
+    }
+
+    @Test
+    public void unAppareilSilencieuxExpire() throws Exception {
+        ServeurOccupation serveur = new ServeurOccupation(new OccupationSalles(NOMBRE_SALLES, 2), 2, 2,
+                ServeurOccupation.FENETRE_FLUX_DEFAUT_MILLIS, 400);
+        serveur.demarrer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        ClientOccupation client = new ClientOccupation(new InetSocketAddress(InetAddress.getLoopbackAddress(), serveur.port()),
+                new IdentiteAppareil(3), 64, 5, 50, 200);
+        try {
+            int[] entree = {ProtocoleOccupation.entree(4)};
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 1, 1, entree));
+            client.demarrer();
+            client.entree(4);
+            assertTrue(client.attendreEnvoi(DELAI_MILLIS));
+            assertEquals(2, serveur.nombreAppareils());
+            // Table pleine pour un nouvel appareil
+            assertEquals(ProtocoleOccupation.STATUT_REFUSE, envoyerLot(serveur.port(), 2, 1, entree));
+
+            // Le client renvoie sa présence : seul l'appareil 1, silencieux, expire
+            attendreExpirations(serveur, 1);
+            Thread.sleep(1000);
+            assertEquals(1, serveur.appareilsExpires());
+            assertEquals(1, serveur.occupation().occupation(4));
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 2, 1, entree));
+            assertEquals(2, serveur.occupation().occupation(4));
+
+            // Table de nouveau pleine quand l'appareil 1 revient ; il ne l'est plus une fois les deux autres expirés
+            assertEquals(ProtocoleOccupation.STATUT_REFUSE, envoyerLot(serveur.port(), 1, 2,
+                    new int[]{ProtocoleOccupation.sortie(4)}));
+            client.arreter();
+            attendreExpirations(serveur, 3);
+            assertEquals(0, serveur.occupation().occupation(4));
+            assertEquals(0, serveur.nombreAppareils());
+            // Sa sortie porte sur une salle qui ne lui est plus comptée
+            assertEquals(ProtocoleOccupation.STATUT_ACCEPTE, envoyerLot(serveur.port(), 1, 2,
+                    new int[]{ProtocoleOccupation.sortie(4)}));
+            assertEquals(0, serveur.occupation().occupation(4));
+        } finally {
+            client.arreter();
+            serveur.arreter();
+        }
+    }
+
+    @Test
+    public void unClientRedemarreGardeSonIdentite() throws Exception {
+        File repertoire = repertoireTemporaire();
+        ServeurOccupation serveur = demarrerServeur(0);
+        try {
+            File fichier = new File(repertoire, "appareil.bin");
+            IdentiteAppareil identite = new IdentiteAppareil(fichier, 4);
+            long appareil = identite.appareil();
+            for (int numero = 1; numero <= 6; numero++) {
+                assertEquals(numero, identite.numeroSuivant());
+            }
+            // Les numéros reprennent après le dernier bloc réservé
+            IdentiteAppareil reprise = new IdentiteAppareil(fichier, 4);
+            assertEquals(appareil, reprise.appareil());
+            assertEquals(9, reprise.numeroSuivant());
+
+            ClientOccupation client = new ClientOccupation(new InetSocketAddress(InetAddress.getLoopbackAddress(), serveur.port()),
+                    new IdentiteAppareil(fichier, 4), 64, 5, 0, 200);
+            try {
+                client.demarrer();
+                client.entree(1);
+                client.entree(2);
+                assertTrue(client.attendreEnvoi(DELAI_MILLIS));
+            } finally {
+                client.arreter();
+            }
+            // Processus tué après la sortie de la salle 2, perdue : le journal relu ne contient que la salle 1
+            client = new ClientOccupation(new InetSocketAddress(InetAddress.getLoopbackAddress(), serveur.port()),
+                    new IdentiteAppareil(fichier, 4), 64, 5, 0, 200);
+            try {
+                client.reprendre(new int[]{0, 1, 0});
+                client.demarrer();
+                assertTrue(client.attendreEnvoi(DELAI_MILLIS));
+                assertEquals(1, client.lotsAcquittes());
+            } finally {
+                client.arreter();
+            }
+            assertEquals(1, serveur.nombreAppareils());
+            assertEquals(0, serveur.lotsDoublons());
+            assertEquals(1, serveur.occupation().occupation(1));
+            assertEquals(0, serveur.occupation().occupation(2));
+        } finally {
+            serveur.arreter();
+            supprimer(repertoire);
+        }
+    }
+
+    private static void attendreExpirations(ServeurOccupation serveur, long expirations) throws InterruptedException {
+        long fin = System.currentTimeMillis() + DELAI_MILLIS;
+        while (serveur.appareilsExpires() < expirations && System.currentTimeMillis() < fin) {
+            Thread.sleep(10);
+        }
+        assertEquals(expirations, serveur.appareilsExpires());
+    }
+
+    /**
+     * Prend les modifications de l'abonnement, en attendant au plus {@link #DELAI_MILLIS} qu'il y en ait.
+     */
+    private static int attendreModifications(AbonnementOccupation abonnement, int[] salles, int[] occupations)
+            throws InterruptedException {
+        long fin = System.currentTimeMillis() + DELAI_MILLIS;
+        int nombre;
+        while ((nombre = abonnement.prendre(salles, occupations)) == 0 && System.currentTimeMillis() < fin) {
+            Thread.sleep(5);
+        }
+        return nombre;
+    }
+
+    private static ServeurOccupation demarrerServeur(int port) throws IOException {
+        ServeurOccupation serveur = new ServeurOccupation(NOMBRE_SALLES, 2, 16);
+        serveur.demarrer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        return serveur;
+    }
+
+    private static ClientOccupation client(int port, long appareil) {
+        return new ClientOccupation(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), appareil, 64, 5, 200);
+    }
+
+    /**
+     * Envoie une trame sur une nouvelle connexion.
+     *
+     * @return Vrai si le serveur a fermé la connexion sans répondre.
+     */
+    private static boolean envoyerTrameFermee(int port, ByteBuffer trame) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            socket.setSoTimeout((int) DELAI_MILLIS);
+            socket.getOutputStream().write(trame.array());
+            return socket.getInputStream().read() < 0;
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Envoie un lot sur une nouvelle connexion et retourne le statut de son acquittement.
+     */
+    private static int envoyerLot(int port, long appareil, long numero, int[] evenements) throws IOException {
+        return envoyer(port, appareil, numero, evenements, false);
+    }
+
+    private static int envoyerPresence(int port, long appareil, long numero, int[] salles) throws IOException {
+        return envoyer(port, appareil, numero, salles, true);
+    }
+
+    private static int envoyer(int port, long appareil, long numero, int[] valeurs, boolean presence) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            ByteBuffer tampon = ByteBuffer.allocate(ProtocoleOccupation.tailleLot(valeurs.length)).order(ByteOrder.LITTLE_ENDIAN);
+            if (presence) {
+                ProtocoleOccupation.ecrirePresence(tampon, appareil, numero, valeurs, 0, valeurs.length);
+            } else {
+                ProtocoleOccupation.ecrireLot(tampon, appareil, numero, valeurs, 0, valeurs.length);
+            }
+            socket.getOutputStream().write(tampon.array());
+            byte[] acquittement = new byte[4 + ProtocoleOccupation.LONGUEUR_ACQUITTEMENT];
+            new DataInputStream(socket.getInputStream()).readFully(acquittement);
+            ByteBuffer reponse = ByteBuffer.wrap(acquittement).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(ProtocoleOccupation.TYPE_ACQUITTEMENT, reponse.getInt(4));
+            assertEquals(appareil, reponse.getLong(8));
+            assertEquals(numero, reponse.getLong(16));
+            return reponse.getInt(24);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static File repertoireTemporaire() throws IOException {
+        File repertoire = File.createTempFile("appareil", "");
+        assertTrue(repertoire.delete() && repertoire.mkdir());
+        return repertoire;
+    }
+
+    private static void supprimer(File repertoire) {
+        File[] fichiers = repertoire.listFiles();
+        if (fichiers != null) {
+            for (File fichier : fichiers) {
+                fichier.delete();
+            }
+        }
+        repertoire.delete();
+    }
+}
@@ -0,0 +1,141 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Les textes écrits dans un {@link TamponTexte} sont ceux de {@code String.format} et de {@code SimpleDateFormat},
+ * et les écrire, comme chercher les salles contenant une position, n'alloue rien une fois le tampon dimensionné.
+ */
+public class TamponTexteTest {
+
+    private static final int ECHAUFFEMENT = 50000;
+    private static final int MESURES = 20000;
+
+    @Test
+    public void entiersCommeLongToString() {
+        long[] valeurs = {0, 7, -7, 10, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE};
+        TamponTexte tampon = new TamponTexte(2);
+        for (long valeur : valeurs) {
+            assertEquals(Long.toString(valeur), tampon.vider().ajouter(valeur).toString());
+        }
+    }
+
+    /**
+     * Même arrondi que {@code String.format(Locale.ENGLISH, "%.nf")}, sauf à un cheveu d'une demi-unité où le
+     * produit en virgule flottante peut tomber de l'autre côté.
+     */
+    @Test
+    public void decimauxCommeStringFormat() {
+        TamponTexte tampon = new TamponTexte();
+        assertEquals("NaN", tampon.vider().ajouter(Double.NaN, 2).toString());
+        assertEquals("-Infinity", tampon.vider().ajouter(Double.NEGATIVE_INFINITY, 2).toString());
+        assertEquals("0.13", tampon.vider().ajouter(0.125, 2).toString());
+        assertEquals("-43.604556", tampon.vider().ajouter(-43.60455617391, 6).toString());
+        assertEquals("8", tampon.vider().ajouter(7.5, 0).toString());
+        Random aleatoire = new Random(71);
+        for (int i = 0; i < 100000; i++) {
+            double valeur = (aleatoire.nextDouble() - 0.5) * Math.pow(10, aleatoire.nextInt(8));
+            int decimales = aleatoire.nextInt(8);
+            String attendu = String.format(Locale.ENGLISH, "%." + decimales + "f", valeur);
+            String obtenu = tampon.vider().ajouter(valeur, decimales).toString();
+            if (!attendu.equals(obtenu)) {
+                double echelle = Math.abs(valeur) * Math.pow(10, decimales);
+                assertTrue(attendu + " / " + obtenu, Math.abs(echelle - Math.floor(echelle) - 0.5) < 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void heureCommeSimpleDateFormat() {
+        TamponTexte tampon = new TamponTexte();
+        Random aleatoire = new Random(73);
+        for (String identifiant : new String[]{"UTC", "Europe/Paris", "America/St_Johns", "Asia/Kolkata"}) {
+            TimeZone fuseau = TimeZone.getTimeZone(identifiant);
+            SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss", Locale.ENGLISH);
+            format.setTimeZone(fuseau);
+            for (int i = 0; i < 10000; i++) {
+                long millis = (long) (aleatoire.nextDouble() * 4e12) - 1000000000000L;
+                assertEquals(identifiant, format.format(new Date(millis)), tampon.vider().ajouterHeure(millis, fuseau).toString());
+            }
+        }
+    }
+
+    /**
+     * Textes d'une mise à jour de localisation et recherche des salles contenant la position : aucun octet alloué
+     * autour de N mises à jour ({@link AllocationsThread}).
+     */
+    @Test
+    public void miseAJourNAlloueRien() {
+        RegistreSalles registre = new RegistreSalles(8);
+        for (int salle = 0; salle < 8; salle++) {
+            registre.ajouter(48.8566, 2.3522 + salle * 0.0005, 10f, 5);
+        }
+        MoteurGeofence moteur = new MoteurGeofence(registre);
+        moteur.fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        final Textes textes = new Textes(moteur);
+
+        long octets = AllocationsThread.minimum(new Runnable() {
+            @Override
+            public void run() {
+                textes.mettreAJour(ECHAUFFEMENT);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                textes.mettreAJour(MESURES);
+            }
+        });
+
+        assertEquals("Octets alloués pour " + MESURES + " mises à jour", 0, octets);
+        assertTrue(textes.trouvees > 0);
+    }
+
+    /**
+     * Les textes affichés par l'activité à chaque localisation, un tampon par vue.
+     */
+    private static final class Textes {
+        final MoteurGeofence moteur;
+        final TimeZone fuseau = TimeZone.getDefault();
+        final TamponTexte latitude = new TamponTexte();
+        final TamponTexte longitude = new TamponTexte();
+        final TamponTexte heure = new TamponTexte();
+        final TamponTexte distance = new TamponTexte();
+        final TamponTexte compteur = new TamponTexte();
+        final int[] sortie = new int[8];
+        int suivante = 0;
+        long trouvees = 0;
+
+        Textes(MoteurGeofence moteur) {
+            this.moteur = moteur;
+        }
+
+        /**
+         * Aller-retour le long des salles, une localisation par seconde.
+         */
+        void mettreAJour(int nombre) {
+            for (int i = 0; i < nombre; i++, suivante++) {
+                double lat = 48.8566 + ((suivante & 1) == 0 ? 1e-5 : -1e-5);
+                double lon = 2.3522 + (suivante % 400) * 0.00001;
+                latitude.vider().ajouter("Ma latitude: ").ajouter(lat, 6);
+                longitude.vider().ajouter("Ma longitude: ").ajouter(lon, 6);
+                heure.vider().ajouterHeure(suivante * 1000L, fuseau);
+                int nombreSalles = moteur.sallesContenant(lat, lon, sortie);
+                trouvees += nombreSalles;
+                for (int s = 0; s < nombreSalles; s++) {
+                    distance.vider().ajouter("Je suis à environ ").ajouter(moteur.distance(sortie[s], lat, lon), 2)
+                            .ajouter(" mètres du centre de celle-ci");
+                    compteur.vider().ajouter(trouvees);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Le traitement d'une localisation n'alloue rien une fois les tableaux de travail dimensionnés : autour de N
+ * appels à {@link TraitementLocalisation#traiter}, le thread n'a alloué aucun octet ({@link AllocationsThread}),
+ * y compris pendant les entrées et sorties de salles.
+ */
+public class TraitementLocalisationTest {
+
+    private static final int NOMBRE_SALLES = 8;
+    private static final double ECART_SALLES_METRES = 40;
+    private static final int ECHAUFFEMENT = 50000;
+    private static final int MESURES = 20000;
+    private static final double LATITUDE = 48.8566;
+    private static final double LONGITUDE = 2.3522;
+
+    private TraitementLocalisation traitement;
+    private final double metresParDegreLatitude = Distance.metresParDegreLatitude(LATITUDE);
+    private final double metresParDegreLongitude = Distance.metresParDegreLongitude(LATITUDE);
+    private final EtatRendu[] etats = { new EtatRendu(2), new EtatRendu(2) };
+    private int entrees = 0;
+    private int sorties = 0;
+    private int suivante = 0;
+
+    @Before
+    public void preparer() {
+        // Salles de 10 m de rayon alignées d'ouest en est, tous les 40 m
+        RegistreSalles registre = new RegistreSalles(NOMBRE_SALLES);
+        for (int salle = 0; salle < NOMBRE_SALLES; salle++) {
+            registre.ajouter(LATITUDE, LONGITUDE + salle * ECART_SALLES_METRES / metresParDegreLongitude, 10f, 5);
+        }
+        MoteurGeofence moteur = new MoteurGeofence(registre);
+        moteur.fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        traitement = new TraitementLocalisation(moteur, new OccupationSalles(NOMBRE_SALLES));
+        traitement.fixerEcouteur(new TransitionsSalles.Ecouteur() {
+            @Override
+            public void entree(int salle, long instant) {
+                entrees++;
+            }
+
+            @Override
+            public void sortie(int salle, long instant) {
+                sorties++;
+            }
+        });
+        // Les salles ne doivent pas être déplacées sur la première localisation
+        Localisation.valeursLongLatAttribuees = false;
+    }
+
+    @Test
+    public void traiterNAlloueRien() {
+        verifierSansAllocation();
+    }
+
+    private void verifierSansAllocation() {
+        final int[] avant = new int[2];
+        long octets = AllocationsThread.minimum(new Runnable() {
+            @Override
+            public void run() {
+                traiter(ECHAUFFEMENT);
+                avant[0] = entrees;
+                avant[1] = sorties;
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                traiter(MESURES);
+            }
+        });
+
+        assertEquals("Octets alloués pour " + MESURES + " localisations", 0, octets);
+        // Le trajet traverse les salles : les entrées et sorties font partie de la mesure
+        assertTrue(entrees - avant[0] > 0);
+        assertTrue(sorties - avant[1] > 0);
+    }
+
+    /**
+     * Aller-retour à 2 m/s (une localisation par seconde) le long des salles, avec un bruit de ±2 m en zigzag.
+     */
+    private void traiter(int nombre) {
+        double longueur = (NOMBRE_SALLES - 1) * ECART_SALLES_METRES + 40;
+        for (int i = 0; i < nombre; i++, suivante++) {
+            double parcouru = (suivante * 2.0) % (2 * longueur);
+            double est = (parcouru < longueur ? parcouru : 2 * longueur - parcouru) - 20;
+            double nord = (suivante & 1) == 0 ? 2 : -2;
+            traitement.traiter(LATITUDE + nord / metresParDegreLatitude, LONGITUDE + est / metresParDegreLongitude,
+                    suivante * 1000L, etats[suivante & 1]);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * L'automate de {@link TransitionsSalles} n'entre qu'à plus de la marge d'entrée à l'intérieur du bord et ne sort
+ * qu'au-delà de la marge de sortie, confirme entrées et sorties après leur durée de séjour, abandonne une transition
+ * en attente sur une seule localisation de l'autre côté, et suit séparément des salles qui se recouvrent.
+ */
+public class TransitionsSallesTest {
+
+    private static final double LATITUDE = 43.6045;
+    private static final double LONGITUDE = 1.4440;
+    private static final float RAYON = 10f;
+
+    private final ProjectionLocale plan = new ProjectionLocale(LATITUDE, LONGITUDE);
+    private final List<String> evenements = new ArrayList<>();
+    private TransitionsSalles transitions;
+
+    /**
+     * Salle 0 centrée sur l'origine, salle 1 à 12 m à l'est (elles se recouvrent), salle 2 à 500 m au nord.
+     */
+    @Before
+    public void preparer() {
+        RegistreSalles registre = new RegistreSalles(3);
+        plan.ajouterSalle(registre, 0, 0, RAYON, 10);
+        plan.ajouterSalle(registre, 12, 0, RAYON, 10);
+        plan.ajouterSalle(registre, 0, 500, RAYON, 10);
+        transitions = new TransitionsSalles(new MoteurGeofence(registre), new TransitionsSalles.Ecouteur() {
+            @Override
+            public void entree(int salle, long instant) {
+                evenements.add("entree " + salle + " @" + instant);
+            }
+
+            @Override
+            public void sortie(int salle, long instant) {
+                evenements.add("sortie " + salle + " @" + instant);
+            }
+        });
+    }
+
+    @Test
+    public void margesDHysteresis() {
+        transitions.fixerDurees(0, 0);
+
+        // Dans le rayon, mais à moins de la marge d'entrée (1 m) du bord : pas d'entrée
+        localisation(-9.5, 0, 0);
+        assertEquals(TransitionsSalles.Etat.DEHORS, transitions.etat(0));
+        localisation(-8.5, 0, 1000);
+        assertEvenements("entree 0 @1000");
+
+        // Hors du rayon, mais à moins de la marge de sortie (3 m) du bord : toujours dedans
+        localisation(-11, 0, 2000);
+        localisation(-12.5, 0, 3000);
+        assertTrue(transitions.present(0));
+        localisation(-13.5, 0, 4000);
+        assertEvenements("entree 0 @1000", "sortie 0 @4000");
+        assertEquals(0, transitions.nombreSuivies());
+    }
+
+    @Test
+    public void dureesDeSejourDEntreeEtDeSortie() {
+        localisation(-5, 0, 0);
+        assertEquals(TransitionsSalles.Etat.ENTREE, transitions.etat(0));
+        assertFalse(transitions.present(0));
+        localisation(-5, 0, TransitionsSalles.DUREE_ENTREE_DEFAUT - 1);
+        assertEvenements();
+        localisation(-5, 0, TransitionsSalles.DUREE_ENTREE_DEFAUT);
+        assertEvenements("entree 0 @5000");
+        assertEquals(TransitionsSalles.Etat.DEDANS, transitions.etat(0));
+
+        localisation(-20, 0, 6000);
+        assertEquals(TransitionsSalles.Etat.SORTIE, transitions.etat(0));
+        // Toujours compté dans la salle tant que la sortie n'est pas confirmée
+        assertTrue(transitions.present(0));
+        localisation(-20, 0, 6000 + TransitionsSalles.DUREE_SORTIE_DEFAUT - 1);
+        assertEvenements("entree 0 @5000");
+        localisation(-20, 0, 6000 + TransitionsSalles.DUREE_SORTIE_DEFAUT);
+        assertEvenements("entree 0 @5000", "sortie 0 @16000");
+        assertEquals(TransitionsSalles.Etat.DEHORS, transitions.etat(0));
+    }
+
+    @Test
+    public void uneLocalisationOpposeeAnnuleLaTransitionEnAttente() {
+        localisation(-5, 0, 0);
+        // Une seule localisation à 0,5 m hors du bord abandonne l'entrée, sans événement
+        localisation(-10.5, 0, 2000);
+        assertEquals(TransitionsSalles.Etat.DEHORS, transitions.etat(0));
+        // L'entrée suivante repart de zéro
+        localisation(-5, 0, 3000);
+        localisation(-5, 0, 7999);
+        assertEvenements();
+        localisation(-5, 0, 8000);
+        assertEvenements("entree 0 @8000");
+
+        localisation(-20, 0, 9000);
+        // Une seule localisation revenue à moins de la marge de sortie abandonne la sortie
+        localisation(-12, 0, 10000);
+        assertEquals(TransitionsSalles.Etat.DEDANS, transitions.etat(0));
+        localisation(-20, 0, 19500);
+        assertEquals(TransitionsSalles.Etat.SORTIE, transitions.etat(0));
+        localisation(-20, 0, 29499);
+        assertEvenements("entree 0 @8000");
+        localisation(-20, 0, 29500);
+        assertEvenements("entree 0 @8000", "sortie 0 @29500");
+    }
+
+    @Test
+    public void sallesQuiSeRecouvrent() {
+        transitions.fixerDurees(0, 0);
+
+        // À 6 m des deux centres : dans les deux salles
+        localisation(6, 0, 0);
+        assertTrue(transitions.present(0));
+        assertTrue(transitions.present(1));
+        assertEquals(2, transitions.nombreSuivies());
+
+        // À 17 m du centre de la salle 1 : on n'en sort que d'elle
+        localisation(-5, 0, 1000);
+        assertTrue(transitions.present(0));
+        assertFalse(transitions.present(1));
+        assertFalse(transitions.present(2));
+        assertEquals(1, transitions.nombreSuivies());
+
+        localisation(18, 0, 2000);
+        assertEvenements("entree 0 @0", "entree 1 @0", "sortie 1 @1000", "sortie 0 @2000", "entree 1 @2000");
+    }
+
+    private void localisation(double est, double nord, long instant) {
+        transitions.mettreAJour(plan.latitude(nord), plan.longitude(est), instant);
+    }
+
+    private void assertEvenements(String... attendus) {
+        assertEquals(Arrays.asList(attendus), evenements);
+    }
+}
@@ -0,0 +1,37 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Réduction de la précision d'une coordonnée à 7 chiffres après la virgule.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ArrondiE7Benchmark {
+
+    private double latitude = 43.60455617391;
+
+    /**
+     * Arrondi d'origine de 'mettreAjourUILocalisation' : arrondi entier puis division pour revenir en degrés.
+     */
+    @Benchmark
+    public double arrondiDivision() {
+        return (int) (Math.round(latitude * 10000000)) / 10000000.0;
+    }
+
+    /**
+     * Arrondi entier seul (coordonnée conservée en 1e-7 degré, sans division), celui de {@link CoordonneesE7}.
+     */
+    @Benchmark
+    public int arrondiEntierE7() {
+        return CoordonneesE7.versE7(latitude);
+    }
+}
@@ -0,0 +1,78 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Démarrage d'un site de salles jusqu'à la première recherche de salles : lecture d'un catalogue JSON,
+ * ou ouverture du catalogue binaire ({@link CatalogueSalles}) puis chargement de toutes les salles ou
+ * des seules salles à moins de 300 m de l'usager. Chaque appel est mesuré seul (pas de régime établi) ;
+ * {@link OutilCatalogue} mesure aussi le tout premier démarrage et le tas retenu.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CatalogueBenchmark {
+
+    private static final double RAYON_CHARGEMENT = 300;
+
+    @Param({"1000", "100000"})
+    public int nombreSalles;
+
+    @Param({"json", "catalogue", "zone"})
+    public String chargement;
+
+    private File fichierJson;
+    private File fichierCatalogue;
+    private final int latitudeE7 = CoordonneesE7.versE7(SiteSimule.LATITUDE_CENTRE);
+    private final int longitudeE7 = CoordonneesE7.versE7(SiteSimule.LONGITUDE_CENTRE);
+    private final int[] sallesContenant = new int[16];
+
+    @Setup(Level.Trial)
+    public void preparer() throws IOException {
+        RegistreSalles registre = SiteSimule.creerRegistre(nombreSalles);
+        fichierJson = File.createTempFile("salles", ".json");
+        CatalogueJson.ecrire(registre, "Salle ", fichierJson);
+        fichierCatalogue = File.createTempFile("salles", ".bin");
+        EcritureCatalogue ecriture = new EcritureCatalogue(nombreSalles);
+        ecriture.ajouterRegistre(registre, "Salle ");
+        ecriture.ecrire(fichierCatalogue);
+    }
+
+    @TearDown(Level.Trial)
+    public void nettoyer() {
+        fichierJson.delete();
+        fichierCatalogue.delete();
+    }
+
+    @Benchmark
+    public int demarrer() throws IOException {
+        RegistreSalles registre = new RegistreSalles();
+        switch (chargement) {
+            case "json":
+                CatalogueJson.lire(fichierJson, CatalogueJson.versRegistre(registre, new ArrayList<String>()));
+                break;
+            case "catalogue":
+                new CatalogueSalles(fichierCatalogue).charger(registre);
+                break;
+            default:
+                new CatalogueSalles(fichierCatalogue).chargerAutourE7(registre, latitudeE7, longitudeE7, RAYON_CHARGEMENT);
+        }
+        MoteurGeofence moteur = new MoteurGeofence(registre);
+        moteur.fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        return moteur.sallesContenantE7(latitudeE7, longitudeE7, 0f, sallesContenant);
+    }
+}
@@ -0,0 +1,376 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Catalogue de salles au format JSON, source de {@link OutilCatalogue} et référence des mesures de
+ * démarrage à froid :
+ * <pre>
+ * {"salles": [
+ *   {"nom": "Salle 1", "latitude": 43.6045000, "longitude": 1.4440000, "rayon": 7, "capacite": 20},
+ *   {"nom": "Salle 2", "latitude": ..., "longitude": ..., "capacite": 20, "contour": [[-3.5, 2], [4, 2], ...]}
+ * ]}
+ * </pre>
+ * Le contour d'une salle polygonale est donné en mètres (est, nord) autour de son centre. La lecture est
+ * un analyseur à descente récursive qui transmet chaque salle dès qu'elle est lue, sans arbre d'objets :
+ * c'est le cas le plus favorable au JSON.
+ */
+final class CatalogueJson {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Reçoit les salles lues, dans l'ordre du fichier.
+     */
+    interface Destination {
+        /**
+         * @param nombreSommets 0 pour une salle circulaire ; sinon, sommets dans {@code est} et {@code nord}
+         *                      (tableaux réutilisés d'une salle à l'autre).
+         */
+        void salle(String nom, int latitudeE7, int longitudeE7, float rayonMetres, int capacite,
+                   double[] est, double[] nord, int nombreSommets);
+    }
+
+    private CatalogueJson() {
+    }
+
+    /**
+     * Destination qui ajoute les salles à un registre, et leurs noms à {@code noms}.
+     */
+    static Destination versRegistre(final RegistreSalles registre, final List<String> noms) {
+        return new Destination() {
+            @Override
+            public void salle(String nom, int latitudeE7, int longitudeE7, float rayonMetres, int capacite,
+                              double[] est, double[] nord, int nombreSommets) {
+                if (nombreSommets == 0) {
+                    registre.ajouterE7(latitudeE7, longitudeE7, rayonMetres, capacite);
+                } else {
+                    registre.ajouterPolygoneE7(latitudeE7, longitudeE7, est, nord, nombreSommets, capacite);
+                }
+                noms.add(nom);
+            }
+        };
+    }
+
+    /**
+     * Destination qui ajoute les salles à un catalogue binaire en construction.
+     */
+    static Destination versCatalogue(final EcritureCatalogue catalogue) {
+        return new Destination() {
+            @Override
+            public void salle(String nom, int latitudeE7, int longitudeE7, float rayonMetres, int capacite,
+                              double[] est, double[] nord, int nombreSommets) {
+                if (nombreSommets == 0) {
+                    catalogue.ajouterSalleE7(nom, latitudeE7, longitudeE7, rayonMetres, capacite);
+                } else {
+                    catalogue.ajouterPolygoneE7(nom, latitudeE7, longitudeE7, est, nord, nombreSommets, capacite);
+                }
+            }
+        };
+    }
+
+    /**
+     * Écrit les salles d'un registre, nommées {@code prefixeNom} suivi de leur numéro à partir de 1.
+     */
+    static void ecrire(RegistreSalles registre, String prefixeNom, File fichier) throws IOException {
+        ContoursSalles contours = registre.contours();
+        StringBuilder ligne = new StringBuilder(256);
+        Writer sortie = new OutputStreamWriter(new FileOutputStream(fichier), UTF_8);
+        try {
+            sortie.write("{\"salles\": [\n");
+            for (int salle = 0; salle < registre.taille(); salle++) {
+                ligne.setLength(0);
+                ligne.append("  {\"nom\": \"").append(prefixeNom).append(salle + 1).append("\", \"latitude\": ");
+                ajouterE7(ligne, registre.latitudeE7(salle));
+                ligne.append(", \"longitude\": ");
+                ajouterE7(ligne, registre.longitudeE7(salle));
+                int contour = registre.contour(salle);
+                if (contour < 0) {
+                    ligne.append(", \"rayon\": ").append(registre.rayon(salle));
+                }
+                ligne.append(", \"capacite\": ").append(registre.capacite(salle));
+                if (contour >= 0) {
+                    ligne.append(", \"contour\": [");
+                    for (int i = 0; i < contours.nombreSommets(contour); i++) {
+                        ligne.append(i == 0 ? "[" : ", [").append((float) contours.estSommet(contour, i))
+                                .append(", ").append((float) contours.nordSommet(contour, i)).append(']');
+                    }
+                    ligne.append(']');
+                }
+                ligne.append(salle + 1 < registre.taille() ? "},\n" : "}\n");
+                sortie.append(ligne);
+            }
+            sortie.write("]}\n");
+        } finally {
+            sortie.close();
+        }
+    }
+
+    /**
+     * Lit un catalogue JSON et transmet chaque salle à {@code destination}.
+     *
+     * @return Nombre de salles lues.
+     */
+    static int lire(File fichier, Destination destination) throws IOException {
+        Reader entree = new InputStreamReader(new FileInputStream(fichier), UTF_8);
+        char[] texte = new char[(int) Math.min(Integer.MAX_VALUE - 8, fichier.length())];
+        int longueur = 0;
+        try {
+            int lus;
+            while ((lus = entree.read(texte, longueur, texte.length - longueur)) > 0) {
+                longueur += lus;
+                if (longueur == texte.length) {
+                    texte = Arrays.copyOf(texte, texte.length * 2 + 16);
+                }
+            }
+        } finally {
+            entree.close();
+        }
+        return new Analyseur(texte, longueur).lireCatalogue(destination);
+    }
+
+    // Degrés E7 écrits avec exactement 7 décimales : relus sans perte
+    private static void ajouterE7(StringBuilder texte, int e7) {
+        long valeur = e7;
+        if (valeur < 0) {
+            texte.append('-');
+            valeur = -valeur;
+        }
+        texte.append(valeur / CoordonneesE7.UNITES_PAR_DEGRE).append('.');
+        String decimales = Long.toString(valeur % CoordonneesE7.UNITES_PAR_DEGRE);
+        for (int i = decimales.length(); i < 7; i++) {
+            texte.append('0');
+        }
+        texte.append(decimales);
+    }
+
+    private static final class Analyseur {
+
+        private final char[] texte;
+        private final int fin;
+        private int position = 0;
+
+        // Sommets de la salle en cours de lecture
+        private double[] est = new double[16];
+        private double[] nord = new double[16];
+
+        Analyseur(char[] texte, int fin) {
+            this.texte = texte;
+            this.fin = fin;
+        }
+
+        int lireCatalogue(Destination destination) throws IOException {
+            int nombre = 0;
+            attendre('{');
+            if (!suivantEst('}')) {
+                do {
+                    if (chaine().equals("salles")) {
+                        attendre(':');
+                        attendre('[');
+                        if (!suivantEst(']')) {
+                            do {
+                                lireSalle(destination);
+                                nombre++;
+                            } while (suivantEst(','));
+                            attendre(']');
+                        }
+                    } else {
+                        attendre(':');
+                        ignorerValeur();
+                    }
+                } while (suivantEst(','));
+                attendre('}');
+            }
+            return nombre;
+        }
+
+        private void lireSalle(Destination destination) throws IOException {
+            String nom = null;
+            double latitude = Double.NaN;
+            double longitude = Double.NaN;
+            double rayon = 0;
+            int capacite = 0;
+            int nombreSommets = 0;
+            attendre('{');
+            if (!suivantEst('}')) {
+                do {
+                    String cle = chaine();
+                    attendre(':');
+                    switch (cle) {
+                        case "nom":
+                            nom = chaine();
+                            break;
+                        case "latitude":
+                            latitude = nombre();
+                            break;
+                        case "longitude":
+                            longitude = nombre();
+                            break;
+                        case "rayon":
+                            rayon = nombre();
+                            break;
+                        case "capacite":
+                            capacite = (int) nombre();
+                            break;
+                        case "contour":
+                            nombreSommets = lireContour();
+                            break;
+                        default:
+                            ignorerValeur();
+                    }
+                } while (suivantEst(','));
+                attendre('}');
+            }
+            if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                throw erreur("Salle sans latitude ou longitude");
+            }
+            destination.salle(nom, CoordonneesE7.versE7(latitude), CoordonneesE7.versE7(longitude), (float) rayon,
+                    capacite, est, nord, nombreSommets);
+        }
+
+        private int lireContour() throws IOException {
+            int nombre = 0;
+            attendre('[');
+            if (!suivantEst(']')) {
+                do {
+                    if (nombre == est.length) {
+                        est = Arrays.copyOf(est, nombre * 2);
+                        nord = Arrays.copyOf(nord, nombre * 2);
+                    }
+                    attendre('[');
+                    est[nombre] = nombre();
+                    attendre(',');
+                    nord[nombre] = nombre();
+                    attendre(']');
+                    nombre++;
+                } while (suivantEst(','));
+                attendre(']');
+            }
+            return nombre;
+        }
+
+        private void ignorerValeur() throws IOException {
+            char c = prochain();
+            if (c == '"') {
+                chaine();
+            } else if (c == '{' || c == '[') {
+                char fermant = c == '{' ? '}' : ']';
+                position++;
+                if (!suivantEst(fermant)) {
+                    do {
+                        if (c == '{') {
+                            chaine();
+                            attendre(':');
+                        }
+                        ignorerValeur();
+                    } while (suivantEst(','));
+                    attendre(fermant);
+                }
+            } else if (c == 't' || c == 'f' || c == 'n') {
+                while (position < fin && Character.isLetter(texte[position])) {
+                    position++;
+                }
+            } else {
+                nombre();
+            }
+        }
+
+        private String chaine() throws IOException {
+            attendre('"');
+            StringBuilder resultat = null;
+            int debut = position;
+            while (true) {
+                if (position >= fin) {
+                    throw erreur("Chaîne non terminée");
+                }
+                char c = texte[position++];
+                if (c == '"') {
+                    return resultat == null ? new String(texte, debut, position - 1 - debut) : resultat.toString();
+                }
+                if (c == '\\') {
+                    if (resultat == null) {
+                        resultat = new StringBuilder().append(texte, debut, position - 1 - debut);
+                    }
+                    char echappe = texte[position++];
+                    switch (echappe) {
+                        case 'n':
+                            resultat.append('\n');
+                            break;
+                        case 't':
+                            resultat.append('\t');
+                            break;
+                        case 'r':
+                            resultat.append('\r');
+                            break;
+                        case 'b':
+                            resultat.append('\b');
+                            break;
+                        case 'f':
+                            resultat.append('\f');
+                            break;
+                        case 'u':
+                            resultat.append((char) Integer.parseInt(new String(texte, position, 4), 16));
+                            position += 4;
+                            break;
+                        default:
+                            resultat.append(echappe);
+                    }
+                } else if (resultat != null) {
+                    resultat.append(c);
+                }
+            }
+        }
+
+        private double nombre() throws IOException {
+            prochain();
+            int debut = position;
+            while (position < fin && "+-0123456789.eE".indexOf(texte[position]) >= 0) {
+                position++;
+            }
+            if (position == debut) {
+                throw erreur("Nombre attendu");
+            }
+            return Double.parseDouble(new String(texte, debut, position - debut));
+        }
+
+        // Consomme le caractère suivant s'il vaut 'c'
+        private boolean suivantEst(char c) throws IOException {
+            if (prochain() == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void attendre(char c) throws IOException {
+            if (!suivantEst(c)) {
+                throw erreur("'" + c + "' attendu");
+            }
+        }
+
+        // Caractère suivant après les blancs, sans le consommer
+        private char prochain() throws IOException {
+            while (position < fin && Character.isWhitespace(texte[position])) {
+                position++;
+            }
+            if (position >= fin) {
+                throw erreur("Fin de fichier inattendue");
+            }
+            return texte[position];
+        }
+
+        private IOException erreur(String message) {
+            return new IOException("JSON invalide (caractère " + position + ") : " + message);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coût de l'écriture d'un événement dans la {@link ChronologiePipeline} (lecture de l'horloge comprise), par un
+ * seul thread puis par quatre threads qui se disputent le numéro du prochain événement. Le profileur 'gc' doit
+ * indiquer 0 octet alloué par opération.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChronologieBenchmark {
+
+    private final ChronologiePipeline chronologie = new ChronologiePipeline(8192);
+
+    @Benchmark
+    @Threads(1)
+    public void instant() {
+        chronologie.instant(ChronologiePipeline.ENTREE, 42);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void instantQuatreThreads() {
+        chronologie.instant(ChronologiePipeline.ENTREE, 42);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void trancheVide() {
+        chronologie.debut(ChronologiePipeline.RENDU);
+        chronologie.fin(ChronologiePipeline.RENDU);
+    }
+}
@@ -0,0 +1,83 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Décision « dans quelles salles suis-je ? » pour une localisation, selon le nombre de salles du site.
+ * <p/>
+ * {@link #balayageLineaire()} reproduit la méthode d'origine (un calcul de distance par salle),
+ * {@link #grille()} interroge le {@link MoteurGeofence} en degrés et {@link #grilleE7()} avec une
+ * localisation déjà en unités E7 (forme dans laquelle le traitement la conserve).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ContenanceBenchmark {
+
+    private static final int NOMBRE_LOCALISATIONS = 1024;
+
+    @Param({"2", "100", "10000", "1000000"})
+    public int nombreSalles;
+
+    @Param({"VINCENTY", "EQUIRECTANGULAIRE", "CARRE_EQUIRECTANGULAIRE"})
+    public ModeDistance modeDistance;
+
+    private RegistreSalles registre;
+    private MoteurGeofence moteur;
+    private double[] localisations;
+    private int[] localisationsE7;
+    private int[] sallesContenant = new int[16];
+    private int suivante = 0;
+
+    @Setup
+    public void preparer() {
+        registre = SiteSimule.creerRegistre(nombreSalles);
+        moteur = new MoteurGeofence(registre);
+        moteur.fixerModeDistance(modeDistance);
+        localisations = SiteSimule.creerLocalisations(nombreSalles, NOMBRE_LOCALISATIONS);
+        localisationsE7 = new int[localisations.length];
+        for (int i = 0; i < localisations.length; i++) {
+            localisationsE7[i] = CoordonneesE7.versE7(localisations[i]);
+        }
+    }
+
+    @Benchmark
+    public int grille() {
+        int i = prochaineLocalisation();
+        return moteur.sallesContenant(localisations[i], localisations[i + 1], sallesContenant);
+    }
+
+    @Benchmark
+    public int grilleE7() {
+        int i = prochaineLocalisation();
+        return moteur.sallesContenantE7(localisationsE7[i], localisationsE7[i + 1], 0f, sallesContenant);
+    }
+
+    @Benchmark
+    public int balayageLineaire() {
+        int i = prochaineLocalisation();
+        double latitude = localisations[i];
+        double longitude = localisations[i + 1];
+        int trouvees = 0;
+        for (int salle = 0; salle < registre.taille(); salle++) {
+            if (moteur.distance(salle, latitude, longitude) < registre.rayon(salle)) {
+                trouvees++;
+            }
+        }
+        return trouvees;
+    }
+
+    private int prochaineLocalisation() {
+        suivante = (suivante + 1) & (NOMBRE_LOCALISATIONS - 1);
+        return suivante * 2;
+    }
+}
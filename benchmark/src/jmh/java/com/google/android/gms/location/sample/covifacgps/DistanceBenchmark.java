@@ -0,0 +1,63 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calcul de la distance entre ma localisation et le centre d'une salle située à une dizaine de mètres.
+ * <p/>
+ * {@code Location.distanceBetween} n'existe pas hors d'Android : {@link Distance#entre} en est la
+ * transposition exacte (même formule de Vincenty), sans le tableau {@code float[1]} alloué par l'appelant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DistanceBenchmark {
+
+    private double latitude = SiteSimule.LATITUDE_CENTRE + 0.00007;
+    private double longitude = SiteSimule.LONGITUDE_CENTRE - 0.00004;
+    private double latitudeSalle = SiteSimule.LATITUDE_CENTRE;
+    private double longitudeSalle = SiteSimule.LONGITUDE_CENTRE;
+    private double metresParDegreLatitude;
+    private double metresParDegreLongitude;
+
+    @Setup
+    public void preparer() {
+        metresParDegreLatitude = Distance.metresParDegreLatitude(latitudeSalle);
+        metresParDegreLongitude = Distance.metresParDegreLongitude(latitudeSalle);
+    }
+
+    /**
+     * Équivalent de l'appel actuel : un tableau de résultat alloué par salle et par localisation.
+     */
+    @Benchmark
+    public float[] vincentyAvecTableau() {
+        float[] distance = new float[1];
+        distance[0] = Distance.entre(latitude, longitude, latitudeSalle, longitudeSalle);
+        return distance;
+    }
+
+    @Benchmark
+    public float vincenty() {
+        return Distance.entre(latitude, longitude, latitudeSalle, longitudeSalle);
+    }
+
+    @Benchmark
+    public float equirectangulaire() {
+        return Distance.equirectangulaire(latitude, longitude, latitudeSalle, longitudeSalle,
+                metresParDegreLatitude, metresParDegreLongitude);
+    }
+
+    @Benchmark
+    public double carreEquirectangulaire() {
+        return Distance.carreEquirectangulaire(latitude, longitude, latitudeSalle, longitudeSalle,
+                metresParDegreLatitude, metresParDegreLongitude);
+    }
+}
@@ -0,0 +1,64 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coût par localisation du {@link FiltreKalman}, seul puis dans le traitement complet d'une mise à jour
+ * (avec et sans filtrage), sur une marche bruitée d'une localisation par seconde. Le profileur 'gc' doit
+ * indiquer 0 octet alloué par opération.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FiltreBenchmark {
+
+    private static final int NOMBRE_LOCALISATIONS = 1024;
+
+    @Param({"false", "true"})
+    public boolean filtrage;
+
+    private final FiltreKalman filtre = new FiltreKalman();
+    private TraitementLocalisation traitement;
+    private final EtatRendu etat = new EtatRendu(2);
+    private TrajetSimule trajet;
+    private int suivante = 0;
+    private long instant = 0;
+
+    @Setup
+    public void preparer() {
+        trajet = new TrajetSimule(NOMBRE_LOCALISATIONS, 5, 1000, 1);
+        MoteurGeofence moteur = new MoteurGeofence(trajet.registre());
+        moteur.fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        traitement = new TraitementLocalisation(moteur, new OccupationSalles(trajet.registre().taille()));
+        traitement.fixerFiltrage(filtrage);
+
+        // Les salles du trajet simulé ne doivent pas être déplacées sur la première localisation
+        Localisation.valeursLongLatAttribuees = false;
+    }
+
+    @Benchmark
+    public double filtrer() {
+        suivante = (suivante + 1) & (NOMBRE_LOCALISATIONS - 1);
+        instant += 1000;
+        filtre.mettreAJour(trajet.latitude(suivante), trajet.longitude(suivante), trajet.precision(suivante), instant);
+        return filtre.latitude() + filtre.longitude();
+    }
+
+    @Benchmark
+    public EtatRendu traiter() {
+        suivante = (suivante + 1) & (NOMBRE_LOCALISATIONS - 1);
+        instant += 1000;
+        traitement.appliquer(trajet.latitude(suivante), trajet.longitude(suivante), trajet.precision(suivante), instant);
+        traitement.remplirEtat(instant, etat);
+        return etat;
+    }
+}
@@ -0,0 +1,89 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mise en forme des textes affichés à chaque mise à jour de localisation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormatageBenchmark {
+
+    private String mLatitudeLabel = "Ma latitude";
+    private double latitude = 43.60455617391;
+    private float distance = 7.2543f;
+
+    private final StringBuilder tampon = new StringBuilder(64);
+    private final TamponTexte tamponTexte = new TamponTexte();
+    private final TimeZone fuseauHoraire = TimeZone.getDefault();
+
+    /**
+     * Mise en forme actuelle des labels de latitude et de longitude.
+     */
+    @Benchmark
+    public String stringFormat() {
+        return String.format(Locale.ENGLISH, "%s: %f", mLatitudeLabel, latitude);
+    }
+
+    /**
+     * Concaténation actuelle du texte de distance à une salle.
+     */
+    @Benchmark
+    public String concatenationDistance() {
+        return "Je suis à environ " + distance + " mètres du centre de celle-ci";
+    }
+
+    /**
+     * Même label que {@link #stringFormat()}, écrit dans un {@code StringBuilder} réutilisé.
+     */
+    @Benchmark
+    public CharSequence stringBuilderReutilise() {
+        tampon.setLength(0);
+        tampon.append(mLatitudeLabel).append(": ").append(latitude);
+        return tampon;
+    }
+
+    /**
+     * Même label que {@link #stringFormat()}, écrit dans un {@link TamponTexte} : aucune allocation.
+     */
+    @Benchmark
+    public CharSequence tamponTexte() {
+        return tamponTexte.vider().ajouter(mLatitudeLabel).ajouter(": ").ajouter(latitude, 6);
+    }
+
+    /**
+     * Même texte que {@link #concatenationDistance()}, écrit dans un {@link TamponTexte}.
+     */
+    @Benchmark
+    public CharSequence tamponTexteDistance() {
+        return tamponTexte.vider().ajouter("Je suis à environ ").ajouter(distance, 2).ajouter(" mètres du centre de celle-ci");
+    }
+
+    /**
+     * Heure de la dernière mise à jour, telle que calculée auparavant à chaque localisation.
+     */
+    @Benchmark
+    public String heureDateFormat() {
+        return DateFormat.getTimeInstance().format(new Date());
+    }
+
+    /**
+     * Heure de la dernière mise à jour écrite dans un {@link TamponTexte}.
+     */
+    @Benchmark
+    public CharSequence heureTamponTexte() {
+        return tamponTexte.vider().ajouterHeure(System.currentTimeMillis(), fuseauHoraire);
+    }
+}
@@ -0,0 +1,149 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Temps passé sur le thread principal pour chaque localisation, selon que le traitement s'exécute sur
+ * le thread principal (comme avant) ou sur un thread dédié avec {@link TraitementHorsThreadPrincipal}.
+ * <p/>
+ * Le thread principal et le thread de traitement sont simulés par deux exécuteurs mono-thread ; le
+ * temps de chaque tâche exécutée est mesuré. L'affichage est simulé par un {@link AfficheurSimule}
+ * qui compare chaque état au précédent comme {@code RenduSalles}. Toutes les 20 localisations, les
+ * salles sont repositionnées (bouton 'regenererPositionsSalles'), ce qui réindexe tout le site.
+ * <p/>
+ * Lancement : ./gradlew :benchmark:threadPrincipal
+ */
+public final class HarnaisThreadPrincipal {
+
+    private static final int[] NOMBRES_SALLES = { 2, 10000, 1000000 };
+    private static final int NOMBRE_LOCALISATIONS = 2000;
+    private static final int REPOSITIONNEMENT_TOUTES_LES = 20;
+
+    // Intervalle entre deux localisations livrées (les localisations ne s'accumulent pas)
+    private static final long INTERVALLE_NANOSECONDES = TimeUnit.MICROSECONDS.toNanos(500);
+
+    private HarnaisThreadPrincipal() {
+    }
+
+    public static void main(String[] arguments) throws Exception {
+        System.out.println("salles      mode               principal (µs/loc.)  traitement (µs/loc.)");
+        for (int nombreSalles : NOMBRES_SALLES) {
+            for (int passe = 0; passe < 2; passe++) {
+                // La première passe sert de préchauffage et n'est pas affichée
+                mesurer(nombreSalles, false, passe == 1);
+                mesurer(nombreSalles, true, passe == 1);
+            }
+        }
+    }
+
+    private static void mesurer(int nombreSalles, boolean horsThreadPrincipal, boolean afficher) throws Exception {
+        MoteurGeofence moteur = new MoteurGeofence(SiteSimule.creerRegistre(nombreSalles));
+        moteur.fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        final TraitementLocalisation traitement = new TraitementLocalisation(moteur, new OccupationSalles(nombreSalles));
+        final double[] localisations = SiteSimule.creerLocalisations(nombreSalles, NOMBRE_LOCALISATIONS);
+        final AfficheurSimule afficheur = new AfficheurSimule();
+        Localisation.valeursLongLatAttribuees = false;
+
+        ExecuteurMesure principal = new ExecuteurMesure();
+        ExecuteurMesure threadTraitement = new ExecuteurMesure();
+        final TraitementHorsThreadPrincipal horsThread = new TraitementHorsThreadPrincipal(
+                traitement, 2, threadTraitement, principal, afficheur);
+        final EtatRendu[] etats = { new EtatRendu(2), new EtatRendu(2) };
+
+        for (int i = 0; i < NOMBRE_LOCALISATIONS; i++) {
+            final int n = i;
+            if (n % REPOSITIONNEMENT_TOUTES_LES == 0) {
+                Localisation.valeursLongLatAttribuees = true;
+            }
+            if (horsThreadPrincipal) {
+                // La localisation est livrée sur le thread de traitement, qui ne poste que l'affichage
+                threadTraitement.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        horsThread.traiter(localisations[2 * n], localisations[2 * n + 1], n + 1);
+                    }
+                });
+            } else {
+                // La localisation est livrée, traitée et affichée sur le thread principal
+                principal.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        EtatRendu etat = etats[n & 1];
+                        traitement.traiter(localisations[2 * n], localisations[2 * n + 1], n + 1, etat);
+                        afficheur.rendre(etat);
+                    }
+                });
+            }
+            LockSupport.parkNanos(INTERVALLE_NANOSECONDES);
+        }
+        threadTraitement.arreter();
+        principal.arreter();
+
+        if (afficher) {
+            System.out.println(String.format(Locale.ENGLISH, "%-11d %-18s %20.2f %21.2f", nombreSalles,
+                    horsThreadPrincipal ? "hors thread" : "thread principal",
+                    principal.nanosecondes() / 1000.0 / NOMBRE_LOCALISATIONS,
+                    threadTraitement.nanosecondes() / 1000.0 / NOMBRE_LOCALISATIONS));
+        }
+    }
+
+    /**
+     * Exécuteur mono-thread qui cumule le temps d'exécution de ses tâches.
+     */
+    private static final class ExecuteurMesure implements Executor {
+
+        private final ExecutorService executeur;
+        private long nanosecondes = 0;
+
+        ExecuteurMesure() {
+            executeur = Executors.newSingleThreadExecutor();
+        }
+
+        @Override
+        public void execute(final Runnable tache) {
+            executeur.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long debut = System.nanoTime();
+                    tache.run();
+                    nanosecondes += System.nanoTime() - debut;
+                }
+            });
+        }
+
+        void arreter() throws InterruptedException {
+            executeur.shutdown();
+            executeur.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        long nanosecondes() {
+            return nanosecondes;
+        }
+    }
+
+    /**
+     * Affichage simulé : compare chaque état au précédent, comme le rendu des vues.
+     */
+    private static final class AfficheurSimule implements TraitementHorsThreadPrincipal.Afficheur {
+
+        private EtatRendu precedent;
+        private long modifications = 0;
+
+        @Override
+        public void rendre(EtatRendu etat) {
+            for (int salle = 0; salle < etat.nombreSalles(); salle++) {
+                if (precedent == null || etat.compteur(salle) != precedent.compteur(salle)
+                        || etat.distance(salle) != precedent.distance(salle)
+                        || etat.dedans(salle) != precedent.dedans(salle)) {
+                    modifications++;
+                }
+            }
+            precedent = etat;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recherche des salles contenant une localisation par la grille ou par la {@link HierarchieSalles}
+ * (bâtiments de 8 × 8 salles, zones de 4 × 4), pour des localisations tirées au hasard sur le site ou
+ * le long d'un trajet à pied, où le bâtiment et la zone mémorisés restent le plus souvent les bons.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HierarchieBenchmark {
+
+    private static final int NOMBRE_LOCALISATIONS = 1024;
+
+    @Param({"100", "10000"})
+    public int nombreSalles;
+
+    @Param({"false", "true"})
+    public boolean hierarchie;
+
+    @Param({"false", "true"})
+    public boolean trajet;
+
+    private MoteurGeofence moteur;
+    private int[] localisationsE7;
+    private int[] sallesContenant = new int[16];
+    private int suivante = 0;
+
+    @Setup
+    public void preparer() {
+        moteur = new MoteurGeofence(SiteSimule.creerRegistre(nombreSalles));
+        moteur.fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        if (hierarchie) {
+            moteur.fixerHierarchie(SiteSimule.creerHierarchie(nombreSalles));
+        }
+        double[] localisations = trajet
+                ? SiteSimule.creerTrajet(nombreSalles, NOMBRE_LOCALISATIONS)
+                : SiteSimule.creerLocalisations(nombreSalles, NOMBRE_LOCALISATIONS);
+        localisationsE7 = new int[localisations.length];
+        for (int i = 0; i < localisations.length; i++) {
+            localisationsE7[i] = CoordonneesE7.versE7(localisations[i]);
+        }
+    }
+
+    @Benchmark
+    public int sallesContenant() {
+        suivante = (suivante + 1) & (NOMBRE_LOCALISATIONS - 1);
+        return moteur.sallesContenantE7(localisationsE7[2 * suivante], localisationsE7[2 * suivante + 1], 0f, sallesContenant);
+    }
+}
@@ -0,0 +1,70 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coût de la journalisation d'une entrée ou d'une sortie de salle ({@link JournalOccupation}), forçage
+ * groupé et compactages compris, selon la taille des lots écrits sur le disque. Seuls les compactages
+ * allouent (l'instantané et le nouveau segment).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JournalBenchmark {
+
+    private static final int NOMBRE_SALLES = 1000;
+
+    // Segments de 256 Kio comme dans l'application
+    private static final int TAILLE_SEGMENT = 256 * 1024;
+
+    @Param({"16", "256", "4096"})
+    public int lot;
+
+    private File repertoire;
+    private JournalOccupation journal;
+    private int salle = 0;
+    private long instant = 0;
+
+    @Setup(Level.Trial)
+    public void preparer() throws IOException {
+        repertoire = Files.createTempDirectory("journal").toFile();
+        journal = new JournalOccupation(repertoire, NOMBRE_SALLES, TAILLE_SEGMENT, lot, 60000);
+    }
+
+    @TearDown(Level.Trial)
+    public void nettoyer() {
+        File[] fichiers = repertoire.listFiles();
+        if (fichiers != null) {
+            for (File fichier : fichiers) {
+                fichier.delete();
+            }
+        }
+        repertoire.delete();
+    }
+
+    @Benchmark
+    public void entreeSortie() throws IOException {
+        // Entrée dans une salle, puis sortie au passage suivant : l'occupation reste bornée
+        salle = salle + 1 < 2 * NOMBRE_SALLES ? salle + 1 : 0;
+        instant += 1000;
+        if (salle < NOMBRE_SALLES) {
+            journal.entree(instant, salle);
+        } else {
+            journal.sortie(instant, salle - NOMBRE_SALLES);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coût de la mesure d'une étape ({@link MesuresPipeline#enregistrer}, lecture de l'horloge comprise) et de la
+ * lecture des percentiles pour la surcouche de débogage. Le profileur 'gc' doit indiquer 0 octet alloué par opération.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MesuresBenchmark {
+
+    private final MesuresPipeline mesures = new MesuresPipeline();
+    private final TamponTexte resume = new TamponTexte(1024);
+
+    @Setup
+    public void preparer() {
+        for (int i = 0; i < 100000; i++) {
+            mesures.enregistrerDuree(MesuresPipeline.CONTENANCE, 1000 + (i * 7919L) % 1000000);
+        }
+    }
+
+    @Benchmark
+    public long enregistrer() {
+        return mesures.enregistrer(MesuresPipeline.CONTENANCE, MesuresPipeline.maintenant());
+    }
+
+    @Benchmark
+    public long horloge() {
+        return MesuresPipeline.maintenant();
+    }
+
+    @Benchmark
+    public TamponTexte resume() {
+        return mesures.ecrireResume(resume);
+    }
+}
@@ -0,0 +1,88 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Entrées et sorties concurrentes dans les salles : {@link OccupationSalles} (compteurs en bandes)
+ * comparé à un simple {@link AtomicIntegerArray} partagé, où tous les threads écrivent dans les mêmes
+ * lignes de cache. Le groupe {@code instantaneSousCharge} mesure le coût d'un instantané cohérent
+ * pendant que trois threads modifient les compteurs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OccupationBenchmark {
+
+    @Param({"16", "10000"})
+    public int nombreSalles;
+
+    private OccupationSalles occupation;
+    private AtomicIntegerArray tableau;
+    private int[] instantane;
+
+    @Setup
+    public void preparer() {
+        occupation = new OccupationSalles(nombreSalles);
+        tableau = new AtomicIntegerArray(nombreSalles);
+        instantane = new int[nombreSalles];
+    }
+
+    /**
+     * Salle visitée par chaque thread (générateur congruentiel propre au thread).
+     */
+    @State(Scope.Thread)
+    public static class Producteur {
+        private int graine = (int) Thread.currentThread().getId() * 0x9E3779B9;
+
+        int prochaineSalle(int nombreSalles) {
+            graine = graine * 1664525 + 1013904223;
+            return (graine >>> 1) % nombreSalles;
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void bandes(Producteur producteur) {
+        int salle = producteur.prochaineSalle(nombreSalles);
+        occupation.entrer(salle);
+        occupation.sortir(salle);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void tableauAtomique(Producteur producteur) {
+        int salle = producteur.prochaineSalle(nombreSalles);
+        tableau.incrementAndGet(salle);
+        tableau.decrementAndGet(salle);
+    }
+
+    @Benchmark
+    @Group("instantaneSousCharge")
+    @GroupThreads(3)
+    public void modifications(Producteur producteur) {
+        int salle = producteur.prochaineSalle(nombreSalles);
+        occupation.entrer(salle);
+        occupation.sortir(salle);
+    }
+
+    @Benchmark
+    @Group("instantaneSousCharge")
+    @GroupThreads(1)
+    public int[] instantane() {
+        occupation.instantane(instantane);
+        return instantane;
+    }
+}
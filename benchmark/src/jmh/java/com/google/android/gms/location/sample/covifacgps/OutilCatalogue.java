@@ -0,0 +1,193 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Construit un catalogue binaire de salles ({@link EcritureCatalogue}) à partir d'un catalogue JSON
+ * ({@link CatalogueJson}) ou d'un site simulé, puis compare le démarrage à froid : lecture du JSON,
+ * chargement de tout le catalogue binaire, ou des seules salles proches de l'usager. Chaque démarrage
+ * va jusqu'à une première recherche des salles contenant une localisation. Pour chacun sont affichés
+ * la durée du premier démarrage, la plus courte des suivantes, les octets alloués et le tas retenu
+ * après un ramasse-miettes.
+ * <p/>
+ * Options :
+ * <ul>
+ * <li>{@code --json <fichier>} : catalogue JSON à convertir (sinon, site simulé écrit en JSON) ;</li>
+ * <li>{@code --salles <n>} (100 000), {@code --forme cercle|convexe|concave} (cercle), {@code --sommets <n>} (8) :
+ * site simulé ({@link SiteSimule}) ;</li>
+ * <li>{@code --sortie <fichier>} : catalogue binaire écrit (fichier temporaire sinon) ;</li>
+ * <li>{@code --rayon <mètres>} (300) : rayon des salles chargées autour de l'usager ;</li>
+ * <li>{@code --repetitions <n>} (5) : nombre de démarrages mesurés par méthode.</li>
+ * </ul>
+ * Lancement : ./gradlew :benchmark:catalogue -Pcatalogue="--json salles.json --sortie salles.bin"
+ */
+public final class OutilCatalogue {
+
+    private static final String PREFIXE_NOM = "Salle ";
+
+    private OutilCatalogue() {
+    }
+
+    public static void main(String[] arguments) throws IOException {
+        String json = null;
+        String sortie = null;
+        int nombreSalles = 100000;
+        SiteSimule.FormeSalle forme = SiteSimule.FormeSalle.CERCLE;
+        int sommets = 8;
+        double rayon = 300;
+        int repetitions = 5;
+        for (int i = 0; i < arguments.length; i++) {
+            switch (arguments[i]) {
+                case "--json":
+                    json = arguments[++i];
+                    break;
+                case "--sortie":
+                    sortie = arguments[++i];
+                    break;
+                case "--salles":
+                    nombreSalles = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--forme":
+                    forme = SiteSimule.FormeSalle.valueOf(arguments[++i].toUpperCase(Locale.ROOT));
+                    break;
+                case "--sommets":
+                    sommets = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--rayon":
+                    rayon = Double.parseDouble(arguments[++i]);
+                    break;
+                case "--repetitions":
+                    repetitions = Integer.parseInt(arguments[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Option inconnue : " + arguments[i]);
+            }
+        }
+
+        File fichierJson;
+        if (json != null) {
+            fichierJson = new File(json);
+        } else {
+            fichierJson = File.createTempFile("salles", ".json");
+            fichierJson.deleteOnExit();
+            CatalogueJson.ecrire(SiteSimule.creerRegistre(nombreSalles, forme, sommets), PREFIXE_NOM, fichierJson);
+        }
+        File fichierCatalogue;
+        if (sortie != null) {
+            fichierCatalogue = new File(sortie);
+        } else {
+            fichierCatalogue = File.createTempFile("salles", ".bin");
+            fichierCatalogue.deleteOnExit();
+        }
+
+        long debut = System.nanoTime();
+        EcritureCatalogue ecriture = new EcritureCatalogue();
+        CatalogueJson.lire(fichierJson, CatalogueJson.versCatalogue(ecriture));
+        ecriture.ecrire(fichierCatalogue);
+        System.out.println(String.format(Locale.FRANCE, "%d salles : JSON %,d octets, catalogue %,d octets (construit en %.0f ms)",
+                ecriture.taille(), fichierJson.length(), fichierCatalogue.length(), (System.nanoTime() - debut) / 1e6));
+
+        // Usager au centre du site (ou de la première salle d'un catalogue JSON)
+        CatalogueSalles apercu = new CatalogueSalles(fichierCatalogue);
+        int latitudeE7 = json != null ? apercu.latitudeE7(0) : CoordonneesE7.versE7(SiteSimule.LATITUDE_CENTRE);
+        int longitudeE7 = json != null ? apercu.longitudeE7(0) : CoordonneesE7.versE7(SiteSimule.LONGITUDE_CENTRE);
+
+        // Le catalogue binaire est mesuré en premier : la lecture du JSON profite du code déjà compilé
+        Demarrage[] demarrages = {
+                new Demarrage("catalogue, salles à " + (int) rayon + " m", fichierCatalogue, latitudeE7, longitudeE7, rayon),
+                new Demarrage("catalogue complet", fichierCatalogue, latitudeE7, longitudeE7, -1),
+                new Demarrage("JSON", fichierJson, latitudeE7, longitudeE7, -1),
+        };
+        for (Demarrage demarrage : demarrages) {
+            demarrage.mesurer(repetitions);
+            System.out.println(demarrage);
+        }
+    }
+
+    /**
+     * Démarrages répétés d'une même méthode de chargement.
+     */
+    private static final class Demarrage {
+
+        private final String nom;
+        private final File fichier;
+        private final int latitudeE7;
+        private final int longitudeE7;
+        // Rayon de chargement autour de l'usager, négatif pour tout charger
+        private final double rayon;
+
+        private double premier;
+        private double meilleur = Double.MAX_VALUE;
+        private long alloues;
+        private long retenus;
+        private int nombreSalles;
+
+        // Moteur démarré, gardé dans un champ pour rester atteignable pendant la mesure du tas
+        private MoteurGeofence moteur;
+
+        Demarrage(String nom, File fichier, int latitudeE7, int longitudeE7, double rayon) {
+            this.nom = nom;
+            this.fichier = fichier;
+            this.latitudeE7 = latitudeE7;
+            this.longitudeE7 = longitudeE7;
+            this.rayon = rayon;
+        }
+
+        void mesurer(int repetitions) throws IOException {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long thread = Thread.currentThread().getId();
+            for (int r = 0; r < repetitions; r++) {
+                long allouesAvant = threads.getThreadAllocatedBytes(thread);
+                long debut = System.nanoTime();
+                moteur = demarrer();
+                double duree = (System.nanoTime() - debut) / 1e6;
+                alloues = threads.getThreadAllocatedBytes(thread) - allouesAvant;
+                nombreSalles = moteur.registre().taille();
+                // Tas retenu : différence entre le tas avec et sans le moteur démarré
+                long tasAvec = tasUtilise();
+                moteur = null;
+                retenus = tasAvec - tasUtilise();
+                if (r == 0) {
+                    premier = duree;
+                }
+                meilleur = Math.min(meilleur, duree);
+            }
+        }
+
+        private MoteurGeofence demarrer() throws IOException {
+            RegistreSalles registre = new RegistreSalles();
+            if (fichier.getName().endsWith(".json")) {
+                CatalogueJson.lire(fichier, CatalogueJson.versRegistre(registre, new ArrayList<String>()));
+            } else {
+                CatalogueSalles catalogue = new CatalogueSalles(fichier);
+                if (rayon < 0) {
+                    catalogue.charger(registre);
+                } else {
+                    catalogue.chargerAutourE7(registre, latitudeE7, longitudeE7, rayon);
+                }
+            }
+            MoteurGeofence moteur = new MoteurGeofence(registre);
+            moteur.fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+            moteur.sallesContenantE7(latitudeE7, longitudeE7, 0f, new int[16]);
+            return moteur;
+        }
+
+        private static long tasUtilise() {
+            Runtime runtime = Runtime.getRuntime();
+            for (int i = 0; i < 2; i++) {
+                System.gc();
+            }
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.FRANCE, "%-26s %7d salles : premier %8.2f ms, meilleur %8.2f ms, alloués %,13d octets, retenus %,12d octets",
+                    nom, nombreSalles, premier, meilleur, alloues, retenus);
+        }
+    }
+}
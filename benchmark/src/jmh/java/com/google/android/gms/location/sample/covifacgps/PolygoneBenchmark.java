@@ -0,0 +1,68 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Décision « dans quelles salles suis-je ? » sur un même site dont les salles sont des cercles, des
+ * polygones convexes (test par demi-plans) ou des étoiles concaves (nombre de croisements), selon le
+ * nombre de sommets par salle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PolygoneBenchmark {
+
+    private static final int NOMBRE_LOCALISATIONS = 1024;
+
+    @Param({"100", "10000"})
+    public int nombreSalles;
+
+    @Param({"CERCLE", "CONVEXE", "CONCAVE"})
+    public String forme;
+
+    @Param({"8", "32"})
+    public int sommets;
+
+    private MoteurGeofence moteur;
+    private int[] localisationsE7;
+    private int[] sallesContenant = new int[16];
+    private int suivante = 0;
+
+    @Setup
+    public void preparer() {
+        RegistreSalles registre = SiteSimule.creerRegistre(nombreSalles, SiteSimule.FormeSalle.valueOf(forme), sommets);
+        moteur = new MoteurGeofence(registre);
+        moteur.fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        double[] localisations = SiteSimule.creerLocalisations(nombreSalles, NOMBRE_LOCALISATIONS);
+        localisationsE7 = new int[localisations.length];
+        for (int i = 0; i < localisations.length; i++) {
+            localisationsE7[i] = CoordonneesE7.versE7(localisations[i]);
+        }
+    }
+
+    @Benchmark
+    public int grilleE7() {
+        int i = prochaineLocalisation();
+        return moteur.sallesContenantE7(localisationsE7[i], localisationsE7[i + 1], 0f, sallesContenant);
+    }
+
+    @Benchmark
+    public float distanceBord() {
+        int i = prochaineLocalisation();
+        return moteur.distanceBordLePlusProcheE7(localisationsE7[i], localisationsE7[i + 1], 30f);
+    }
+
+    private int prochaineLocalisation() {
+        suivante = (suivante + 1) & (NOMBRE_LOCALISATIONS - 1);
+        return suivante * 2;
+    }
+}
@@ -0,0 +1,76 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+/**
+ * Lance le serveur d'agrégation de l'occupation ({@link ServeurOccupation}) jusqu'à l'arrêt du processus, et
+ * affiche chaque seconde le nombre de connexions et le débit de lots et d'événements appliqués. Sert de
+ * serveur aux appareils de test et à {@link SimulationAppareils} lancé dans un autre processus.
+ * <p/>
+ * Options : {@code --port <n>} ({@link ProtocoleOccupation#PORT_DEFAUT}), {@code --salles <n>} (1 000),
+ * {@code --threads <n>} (un par cœur), {@code --appareils <n>} (1 000 000, appareils distincts acceptés).
+ * <p/>
+ * Lancement : ./gradlew :benchmark:serveurOccupation -PserveurOccupation="--port 7407 --salles 1000"
+ */
+public final class ServeurLocal {
+
+    private ServeurLocal() {
+    }
+
+    public static void main(String[] arguments) throws Exception {
+        int port = ProtocoleOccupation.PORT_DEFAUT;
+        int nombreSalles = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int appareils = 1000000;
+        for (int i = 0; i < arguments.length; i++) {
+            switch (arguments[i]) {
+                case "--port":
+                    port = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--salles":
+                    nombreSalles = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--appareils":
+                    appareils = Integer.parseInt(arguments[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Option inconnue : " + arguments[i]);
+            }
+        }
+
+        final ServeurOccupation serveur = new ServeurOccupation(nombreSalles, threads, appareils);
+        serveur.demarrer(new InetSocketAddress(port));
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    serveur.arreter();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        System.out.println(String.format(Locale.FRANCE, "serveur d'occupation sur le port %d : %,d salles, %d threads",
+                serveur.port(), nombreSalles, threads));
+
+        long lots = 0;
+        long evenements = 0;
+        while (true) {
+            Thread.sleep(1000);
+            long nouveauxLots = serveur.lotsAcceptes();
+            long nouveauxEvenements = serveur.evenementsAppliques();
+            if (nouveauxLots != lots) {
+                System.out.println(String.format(Locale.FRANCE,
+                        "%,7d connexions, %,9d lots/s, %,10d événements/s (%,d doublons, %,d refusés)",
+                        serveur.nombreConnexions(), nouveauxLots - lots, nouveauxEvenements - evenements,
+                        serveur.lotsDoublons(), serveur.lotsRefuses()));
+            }
+            lots = nouveauxLots;
+            evenements = nouveauxEvenements;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Générateur de charge du serveur d'agrégation ({@link ServeurOccupation}) : des dizaines de milliers
+ * d'appareils simulés envoient chacun un lot d'entrées et de sorties de salles à intervalle régulier (les
+ * départs sont étalés sur l'intervalle), et attendent son acquittement avant d'envoyer le suivant. Un
+ * appareil dont l'acquittement n'est pas arrivé à l'heure de son lot suivant saute ce lot (compté en retard).
+ * <p/>
+ * Les connexions sont non bloquantes et servies par quelques threads générateurs ; plusieurs appareils
+ * peuvent partager une connexion ({@code --connexions}), comme derrière une passerelle, pour dépasser la
+ * limite de descripteurs de fichiers d'un processus qui héberge aussi le serveur. Chaque appareil garde son
+ * identifiant et ses numéros de lot.
+ * <p/>
+ * Affiche le débit de lots et d'événements, la latence des acquittements (p50, p99, p99,9, maximum) et
+ * vérifie que l'occupation lue sur le serveur à la fin est exactement celle des appareils simulés.
+ * <p/>
+ * Options : {@code --appareils <n>} (20 000), {@code --connexions <n>} (une par appareil),
+ * {@code --salles <n>} (1 000), {@code --duree <secondes>} (10), {@code --intervalle <ms>} (1 000),
+ * {@code --deplacements <n>} (4, par lot), {@code --generateurs <n>} (1), {@code --threads <n>} (threads du
+ * serveur, un par cœur), {@code --hote <nom>} et {@code --port <n>} pour un serveur déjà lancé
+ * ({@link ServeurLocal}), sinon un serveur est démarré dans ce processus. Le code de sortie est 1 si
+ * l'occupation est fausse.
+ * <p/>
+ * Lancement : ./gradlew :benchmark:appareils -Pappareils="--appareils 50000 --connexions 5000"
+ */
+public final class SimulationAppareils {
+
+    private static final long ATTENTE_FIN_NANOS = 30000000000L;
+
+    private SimulationAppareils() {
+    }
+
+    public static void main(String[] arguments) throws Exception {
+        int nombreAppareils = 20000;
+        int nombreConnexions = -1;
+        int nombreSalles = 1000;
+        int duree = 10;
+        int intervalle = 1000;
+        int deplacements = 4;
+        int nombreGenerateurs = 1;
+        int threadsServeur = Runtime.getRuntime().availableProcessors();
+        String hote = null;
+        int port = ProtocoleOccupation.PORT_DEFAUT;
+        for (int i = 0; i < arguments.length; i++) {
+            switch (arguments[i]) {
+                case "--appareils":
+                    nombreAppareils = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--connexions":
+                    nombreConnexions = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--salles":
+                    nombreSalles = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--duree":
+                    duree = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--intervalle":
+                    intervalle = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--deplacements":
+                    deplacements = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--generateurs":
+                    nombreGenerateurs = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--threads":
+                    threadsServeur = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--hote":
+                    hote = arguments[++i];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(arguments[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Option inconnue : " + arguments[i]);
+            }
+        }
+        if (nombreConnexions <= 0 || nombreConnexions > nombreAppareils) {
+            nombreConnexions = nombreAppareils;
+        }
+        nombreGenerateurs = Math.min(nombreGenerateurs, nombreConnexions);
+
+        ServeurOccupation serveur = null;
+        InetSocketAddress adresse;
+        if (hote == null) {
+            serveur = new ServeurOccupation(nombreSalles, threadsServeur, nombreAppareils);
+            serveur.demarrer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            adresse = new InetSocketAddress(InetAddress.getLoopbackAddress(), serveur.port());
+        } else {
+            adresse = new InetSocketAddress(hote, port);
+        }
+
+        // Occupation déjà présente sur un serveur lancé à part
+        ClientOccupation lecteur = new ClientOccupation(adresse, Long.MAX_VALUE, 1, 0, 0);
+        int[] avant = new int[nombreSalles];
+        lecteur.lireOccupations(0, nombreSalles, avant);
+
+        // Identifiants tirés au hasard : un serveur lancé à part peut avoir déjà vu des appareils simulés
+        long baseAppareils = (new Random().nextLong() >>> 2) + 1;
+        long debutConnexions = System.nanoTime();
+        Generateur[] generateurs = new Generateur[nombreGenerateurs];
+        int premiereConnexion = 0;
+        for (int g = 0; g < nombreGenerateurs; g++) {
+            int connexions = (nombreConnexions - premiereConnexion) / (nombreGenerateurs - g);
+            int premierAppareil = (int) ((long) premiereConnexion * nombreAppareils / nombreConnexions);
+            int dernierAppareil = (int) ((long) (premiereConnexion + connexions) * nombreAppareils / nombreConnexions);
+            generateurs[g] = new Generateur(g, baseAppareils, premierAppareil, dernierAppareil - premierAppareil, connexions,
+                    nombreAppareils, nombreSalles, deplacements, intervalle, duree);
+            generateurs[g].connecter(adresse);
+            premiereConnexion += connexions;
+        }
+        System.out.println(String.format(Locale.FRANCE, "%,d appareils sur %,d connexions ouvertes en %.1f s",
+                nombreAppareils, nombreConnexions, (System.nanoTime() - debutConnexions) / 1e9));
+
+        long debut = System.nanoTime();
+        Thread[] threads = new Thread[nombreGenerateurs];
+        for (int g = 0; g < nombreGenerateurs; g++) {
+            generateurs[g].debut = debut;
+            threads[g] = new Thread(generateurs[g], "generateur-" + g);
+            threads[g].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long lots = 0;
+        long evenements = 0;
+        long retards = 0;
+        long nonAcquittes = 0;
+        long refuses = 0;
+        int nombreLatences = 0;
+        for (Generateur generateur : generateurs) {
+            lots += generateur.lots;
+            evenements += generateur.evenements;
+            retards += generateur.retards;
+            nonAcquittes += generateur.enAttente;
+            refuses += generateur.refuses;
+            nombreLatences += generateur.nombreLatences;
+        }
+        long[] latences = new long[nombreLatences];
+        nombreLatences = 0;
+        for (Generateur generateur : generateurs) {
+            System.arraycopy(generateur.latences, 0, latences, nombreLatences, generateur.nombreLatences);
+            nombreLatences += generateur.nombreLatences;
+        }
+        Arrays.sort(latences);
+        System.out.println(String.format(Locale.FRANCE,
+                "%,d lots (%,.0f lots/s), %,d événements (%,.0f événements/s) en %d s ; %,d lots sautés en attente d'acquittement",
+                lots, lots / (double) duree, evenements, evenements / (double) duree, duree, retards));
+        System.out.println(String.format(Locale.FRANCE,
+                "acquittement : p50 %.2f ms, p99 %.2f ms, p99,9 %.2f ms, max %.2f ms",
+                centile(latences, 0.5), centile(latences, 0.99), centile(latences, 0.999), centile(latences, 1)));
+        if (serveur != null) {
+            System.out.println(String.format(Locale.FRANCE,
+                    "serveur : %,d connexions, %,d lots acceptés, %,d doublons, %,d refusés, %,d événements appliqués",
+                    serveur.nombreConnexions(), serveur.lotsAcceptes(), serveur.lotsDoublons(), serveur.lotsRefuses(),
+                    serveur.evenementsAppliques()));
+        }
+
+        // Occupation attendue : chaque appareil est dans la salle de son dernier lot acquitté
+        int[] attendues = avant.clone();
+        for (Generateur generateur : generateurs) {
+            for (int salle : generateur.salles) {
+                if (salle >= 0) {
+                    attendues[salle]++;
+                }
+            }
+        }
+        int[] occupations = new int[nombreSalles];
+        lecteur.lireOccupations(0, nombreSalles, occupations);
+        lecteur.arreter();
+        boolean exacte = nonAcquittes == 0 && refuses == 0 && Arrays.equals(attendues, occupations);
+        System.out.println(exacte ? "occupation du serveur exacte"
+                : String.format(Locale.FRANCE, "OCCUPATION FAUSSE (%,d lots non acquittés, %,d refusés)", nonAcquittes, refuses));
+
+        for (Generateur generateur : generateurs) {
+            generateur.fermer();
+        }
+        if (serveur != null) {
+            serveur.arreter();
+        }
+        if (!exacte) {
+            System.exit(1);
+        }
+    }
+
+    private static double centile(long[] triees, double centile) {
+        if (triees.length == 0) {
+            return Double.NaN;
+        }
+        int indice = (int) Math.min(triees.length - 1, Math.ceil(centile * triees.length) - 1);
+        return triees[Math.max(0, indice)] / 1e6;
+    }
+
+    /**
+     * Thread simulant une suite contiguë d'appareils, répartis sur ses connexions.
+     */
+    private static final class Generateur implements Runnable {
+
+        private final long baseAppareils;
+        private final int premierAppareil;
+        private final int nombreAppareils;
+        private final int nombreSalles;
+        private final int deplacements;
+        private final long intervalleNanos;
+        private final long dureeNanos;
+        private final Random aleatoire;
+
+        private final SocketChannel[] canaux;
+        private final ByteBuffer[] entrees;
+        private final ByteBuffer[] sorties;
+        private final boolean[] aEcrire;
+        private final int[] connexionsAEcrire;
+        private int nombreAEcrire = 0;
+        private Selector selecteur;
+
+        // Par appareil (indice local) : salle actuelle, numéro du dernier lot, heure d'envoi du lot en attente (0 sinon)
+        final int[] salles;
+        private final long[] numeros;
+        private final long[] envois;
+        private final int[] evenementsLot;
+
+        long debut;
+        long lots = 0;
+        long evenements = 0;
+        long retards = 0;
+        long refuses = 0;
+        int enAttente = 0;
+        final long[] latences;
+        int nombreLatences = 0;
+
+        Generateur(int numero, long baseAppareils, int premierAppareil, int nombreAppareils, int nombreConnexions,
+                   int totalAppareils, int nombreSalles, int deplacements, int intervalleMillis, int dureeSecondes) {
+            this.baseAppareils = baseAppareils;
+            this.premierAppareil = premierAppareil;
+            this.nombreAppareils = nombreAppareils;
+            this.nombreSalles = nombreSalles;
+            this.deplacements = deplacements;
+            this.intervalleNanos = intervalleMillis * 1000000L;
+            this.dureeNanos = dureeSecondes * 1000000000L;
+            aleatoire = new Random(numero);
+            canaux = new SocketChannel[nombreConnexions];
+            entrees = new ByteBuffer[nombreConnexions];
+            sorties = new ByteBuffer[nombreConnexions];
+            aEcrire = new boolean[nombreConnexions];
+            connexionsAEcrire = new int[nombreConnexions];
+            salles = new int[nombreAppareils];
+            Arrays.fill(salles, -1);
+            numeros = new long[nombreAppareils];
+            envois = new long[nombreAppareils];
+            evenementsLot = new int[2 * deplacements + 1];
+            long lotsPrevus = (long) nombreAppareils * (dureeNanos / intervalleNanos + 1);
+            latences = new long[(int) Math.min(lotsPrevus, 20000000)];
+        }
+
+        void connecter(InetSocketAddress adresse) throws IOException {
+            selecteur = Selector.open();
+            // Place pour deux lots en attente par appareil de la connexion
+            int appareilsParConnexion = (nombreAppareils + canaux.length - 1) / canaux.length;
+            int taille = 2 * appareilsParConnexion * Math.max(ProtocoleOccupation.tailleLot(evenementsLot.length),
+                    4 + ProtocoleOccupation.LONGUEUR_ACQUITTEMENT);
+            for (int c = 0; c < canaux.length; c++) {
+                SocketChannel canal = SocketChannel.open(adresse);
+                canal.socket().setTcpNoDelay(true);
+                canal.configureBlocking(false);
+                canal.register(selecteur, SelectionKey.OP_READ, c);
+                canaux[c] = canal;
+                entrees[c] = ByteBuffer.allocate(taille).order(ByteOrder.LITTLE_ENDIAN);
+                sorties[c] = ByteBuffer.allocate(taille).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        private int connexion(int appareil) {
+            return (int) ((long) appareil * canaux.length / nombreAppareils);
+        }
+
+        @Override
+        public void run() {
+            try {
+                simuler();
+            } catch (IOException e) {
+                throw new IllegalStateException("Simulation interrompue", e);
+            }
+        }
+
+        private void simuler() throws IOException {
+            // Départs étalés sur l'intervalle : l'appareil a envoie à debut + a * intervalle / n + k * intervalle
+            long fin = debut + dureeNanos;
+            long envoisFaits = 0;
+            long envoisPrevus = (long) nombreAppareils * (dureeNanos / intervalleNanos);
+            while (true) {
+                long maintenant = System.nanoTime();
+                while (envoisFaits < envoisPrevus && debut + envoisFaits * intervalleNanos / nombreAppareils <= maintenant) {
+                    envoyer((int) (envoisFaits % nombreAppareils), maintenant);
+                    envoisFaits++;
+                }
+                ecrireConnexions();
+                if (envoisFaits >= envoisPrevus && (enAttente == 0 || maintenant > fin + ATTENTE_FIN_NANOS)) {
+                    return;
+                }
+                selecteur.select(1);
+                Iterator<SelectionKey> cles = selecteur.selectedKeys().iterator();
+                while (cles.hasNext()) {
+                    SelectionKey cle = cles.next();
+                    cles.remove();
+                    int c = (Integer) cle.attachment();
+                    if (cle.isReadable()) {
+                        lire(c);
+                    }
+                    if (cle.isValid() && cle.isWritable()) {
+                        ecrire(c);
+                    }
+                }
+            }
+        }
+
+        private void envoyer(int appareil, long maintenant) {
+            int c = connexion(appareil);
+            ByteBuffer sortie = sorties[c];
+            // Lot sauté si l'acquittement du précédent n'est pas arrivé ou si la connexion est saturée
+            if (envois[appareil] != 0 || sortie.remaining() < ProtocoleOccupation.tailleLot(evenementsLot.length)) {
+                retards++;
+                return;
+            }
+            int nombre = 0;
+            int salle = salles[appareil];
+            if (salle < 0) {
+                salle = aleatoire.nextInt(nombreSalles);
+                evenementsLot[nombre++] = ProtocoleOccupation.entree(salle);
+            }
+            for (int d = 0; d < deplacements; d++) {
+                int arrivee = aleatoire.nextInt(nombreSalles);
+                evenementsLot[nombre++] = ProtocoleOccupation.sortie(salle);
+                evenementsLot[nombre++] = ProtocoleOccupation.entree(arrivee);
+                salle = arrivee;
+            }
+            salles[appareil] = salle;
+            ProtocoleOccupation.ecrireLot(sortie, baseAppareils + premierAppareil + appareil, ++numeros[appareil],
+                    evenementsLot, 0, nombre);
+            envois[appareil] = maintenant;
+            enAttente++;
+            lots++;
+            evenements += nombre;
+            if (!aEcrire[c]) {
+                aEcrire[c] = true;
+                connexionsAEcrire[nombreAEcrire++] = c;
+            }
+        }
+
+        private void ecrireConnexions() throws IOException {
+            for (int i = 0; i < nombreAEcrire; i++) {
+                aEcrire[connexionsAEcrire[i]] = false;
+                ecrire(connexionsAEcrire[i]);
+            }
+            nombreAEcrire = 0;
+        }
+
+        private void ecrire(int c) throws IOException {
+            ByteBuffer sortie = sorties[c];
+            sortie.flip();
+            canaux[c].write(sortie);
+            sortie.compact();
+            canaux[c].keyFor(selecteur).interestOps(sortie.position() > 0
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        private void lire(int c) throws IOException {
+            ByteBuffer entree = entrees[c];
+            if (canaux[c].read(entree) < 0) {
+                throw new IOException("Connexion fermée par le serveur");
+            }
+            long maintenant = System.nanoTime();
+            entree.flip();
+            while (entree.remaining() >= 4 + ProtocoleOccupation.LONGUEUR_ACQUITTEMENT) {
+                if (entree.getInt() != ProtocoleOccupation.LONGUEUR_ACQUITTEMENT
+                        || entree.getInt() != ProtocoleOccupation.TYPE_ACQUITTEMENT) {
+                    throw new IOException("Acquittement invalide");
+                }
+                int appareil = (int) (entree.getLong() - baseAppareils - premierAppareil);
+                entree.getLong();
+                if (entree.getInt() == ProtocoleOccupation.STATUT_REFUSE) {
+                    refuses++;
+                }
+                if (nombreLatences < latences.length) {
+                    latences[nombreLatences++] = maintenant - envois[appareil];
+                }
+                envois[appareil] = 0;
+                enAttente--;
+            }
+            entree.compact();
+        }
+
+        void fermer() throws IOException {
+            for (SocketChannel canal : canaux) {
+                canal.close();
+            }
+            selecteur.close();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Coût du flux d'occupation ({@link FluxOccupation}) selon le nombre total de salles : à chaque fenêtre, une rafale
+ * d'entrées et de sorties dans quelques salles est signalée puis publiée aux abonnés de ces salles. La publication
+ * est comparée à la relecture de l'occupation de toutes les salles, que ferait un affichage qui recalcule tout.
+ * <p/>
+ * Chaque abonné rapide prend ses changements dès qu'il est signalé ; un abonné lent, abonné à toutes les salles
+ * modifiées, n'est jamais exécuté : ses changements en attente restent bornés par son nombre de salles. À la fin,
+ * l'occupation prise par chaque abonné est comparée à l'occupation réelle.
+ * <p/>
+ * Options : {@code --salles <n,n,...>} (1 000, 100 000 et 1 000 000 salles), {@code --abonnes <n>} (1 000),
+ * {@code --sallesParAbonne <n>} (4), {@code --modifiees <n>} (salles modifiées par fenêtre, 100),
+ * {@code --evenements <n>} (par fenêtre, 10 000), {@code --fenetres <n>} (200). Le code de sortie est 1 si une
+ * occupation prise est fausse.
+ * <p/>
+ * Lancement : ./gradlew :benchmark:flux -Pflux="--salles 1000,1000000 --abonnes 1000"
+ */
+public final class SimulationFlux {
+
+    private SimulationFlux() {
+    }
+
+    public static void main(String[] arguments) {
+        int[] nombresSalles = {1000, 100000, 1000000};
+        int abonnes = 1000;
+        int sallesParAbonne = 4;
+        int modifiees = 100;
+        int evenements = 10000;
+        int fenetres = 200;
+        for (int i = 0; i < arguments.length; i++) {
+            switch (arguments[i]) {
+                case "--salles":
+                    String[] valeurs = arguments[++i].split(",");
+                    nombresSalles = new int[valeurs.length];
+                    for (int j = 0; j < valeurs.length; j++) {
+                        nombresSalles[j] = Integer.parseInt(valeurs[j]);
+                    }
+                    break;
+                case "--abonnes":
+                    abonnes = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--sallesParAbonne":
+                    sallesParAbonne = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--modifiees":
+                    modifiees = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--evenements":
+                    evenements = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--fenetres":
+                    fenetres = Integer.parseInt(arguments[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Option inconnue : " + arguments[i]);
+            }
+        }
+
+        boolean echec = false;
+        for (int nombreSalles : nombresSalles) {
+            // Une passe de chauffe, puis la passe mesurée
+            mesurer(nombreSalles, abonnes, sallesParAbonne, modifiees, evenements, fenetres / 4, false);
+            echec |= !mesurer(nombreSalles, abonnes, sallesParAbonne, modifiees, evenements, fenetres, true);
+        }
+        if (echec) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Tâches confiées par le flux, exécutées après chaque publication comme par la boucle d'un thread d'affichage.
+     */
+    private static final class FileTaches implements Executor {
+
+        private final Runnable[] taches;
+        private int nombre = 0;
+
+        FileTaches(int capacite) {
+            taches = new Runnable[capacite];
+        }
+
+        @Override
+        public void execute(Runnable tache) {
+            taches[nombre++] = tache;
+        }
+
+        void executer() {
+            for (int i = 0; i < nombre; i++) {
+                taches[i].run();
+                taches[i] = null;
+            }
+            nombre = 0;
+        }
+    }
+
+    /**
+     * Abonné qui prend ses changements dès qu'il est exécuté, et garde la dernière occupation prise de chaque salle.
+     */
+    private static final class AbonneRapide implements Runnable {
+
+        AbonnementOccupation abonnement;
+        int[] dernieres;
+        long notifications = 0;
+        private final int[] salles;
+        private final int[] occupations;
+
+        AbonneRapide(int nombreSalles) {
+            salles = new int[nombreSalles];
+            occupations = new int[nombreSalles];
+        }
+
+        @Override
+        public void run() {
+            int nombre = abonnement.prendre(salles, occupations);
+            notifications += nombre;
+            for (int k = 0; k < nombre; k++) {
+                for (int i = 0; i < abonnement.nombreSalles(); i++) {
+                    if (abonnement.salle(i) == salles[k]) {
+                        dernieres[i] = occupations[k];
+                    }
+                }
+            }
+        }
+
+        boolean exact(OccupationSalles occupation) {
+            for (int i = 0; i < abonnement.nombreSalles(); i++) {
+                if (dernieres[i] != occupation.occupation(abonnement.salle(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static boolean mesurer(int nombreSalles, int nombreAbonnes, int sallesParAbonne, int modifiees,
+                                   int evenements, int fenetres, boolean afficher) {
+        Random aleatoire = new Random(7);
+        OccupationSalles occupation = new OccupationSalles(nombreSalles);
+        FluxOccupation flux = new FluxOccupation(occupation, 0);
+
+        // Salles suivies : chaque abonné en suit quelques-unes, les rafales n'en touchent qu'une partie
+        int[] suivies = new int[Math.min(nombreSalles, Math.max(modifiees, nombreAbonnes * sallesParAbonne / 4))];
+        for (int i = 0; i < suivies.length; i++) {
+            suivies[i] = aleatoire.nextInt(nombreSalles);
+        }
+        FileTaches file = new FileTaches(nombreAbonnes);
+        AbonneRapide[] rapides = new AbonneRapide[nombreAbonnes];
+        for (int a = 0; a < nombreAbonnes; a++) {
+            int[] salles = new int[sallesParAbonne];
+            for (int i = 0; i < salles.length; i++) {
+                salles[i] = suivies[aleatoire.nextInt(suivies.length)];
+            }
+            AbonneRapide abonne = new AbonneRapide(sallesParAbonne);
+            abonne.abonnement = flux.abonner(salles, file, abonne);
+            abonne.dernieres = new int[abonne.abonnement.nombreSalles()];
+            rapides[a] = abonne;
+        }
+        // L'abonné lent reçoit ses signaux, mais ne les exécute jamais
+        final long[] signauxLent = new long[1];
+        AbonnementOccupation lent = flux.abonner(suivies, new Executor() {
+            @Override
+            public void execute(Runnable tache) {
+                signauxLent[0]++;
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        file.executer();
+        long notificationsInitiales = 0;
+        for (AbonneRapide abonne : rapides) {
+            notificationsInitiales += abonne.notifications;
+        }
+
+        long dureeSignaux = 0;
+        long dureePublications = 0;
+        long dureeRelectures = 0;
+        long publiees = 0;
+        long somme = 0;
+        int[] touchees = new int[modifiees];
+        for (int f = 0; f < fenetres; f++) {
+            for (int i = 0; i < touchees.length; i++) {
+                touchees[i] = suivies[aleatoire.nextInt(suivies.length)];
+            }
+            // Rafale : deux entrées pour une sortie dans les salles touchées, chacune signalée
+            long debut = System.nanoTime();
+            for (int e = 0; e < evenements; e++) {
+                int salle = touchees[e % touchees.length];
+                if (e % 3 != 2) {
+                    occupation.entrer(salle);
+                } else if (occupation.occupation(salle) > 0) {
+                    occupation.sortir(salle);
+                }
+                flux.signaler(salle);
+            }
+            long milieu = System.nanoTime();
+            publiees += flux.publier();
+            file.executer();
+            long fin = System.nanoTime();
+            // Un affichage qui recalcule tout relit l'occupation de chaque salle à chaque fenêtre
+            for (int salle = 0; salle < nombreSalles; salle++) {
+                somme += occupation.occupation(salle);
+            }
+            dureeSignaux += milieu - debut;
+            dureePublications += fin - milieu;
+            dureeRelectures += System.nanoTime() - fin;
+        }
+
+        // La somme relue est utilisée, pour que la relecture ne soit pas éliminée
+        boolean exacte = somme >= 0;
+        long notifications = -notificationsInitiales;
+        for (AbonneRapide abonne : rapides) {
+            exacte &= abonne.exact(occupation);
+            notifications += abonne.notifications;
+        }
+        int[] sallesLent = new int[lent.nombreSalles()];
+        int[] occupationsLent = new int[lent.nombreSalles()];
+        int enAttente = lent.prendre(sallesLent, occupationsLent);
+        for (int i = 0; i < enAttente; i++) {
+            exacte &= occupationsLent[i] == occupation.occupation(sallesLent[i]);
+        }
+        if (afficher) {
+            System.out.println(String.format(Locale.FRANCE,
+                    "%,9d salles : signal %5.1f ns/événement, publication %7.2f µs/fenêtre (%,4d salles), relecture de tout %10.2f µs/fenêtre ;"
+                            + " %,d événements -> %,d notifications ; abonné lent : %d signal, %,d en attente sur %,d reçues%s",
+                    nombreSalles, (double) dureeSignaux / ((long) evenements * fenetres),
+                    dureePublications / 1e3 / fenetres, publiees / fenetres, dureeRelectures / 1e3 / fenetres,
+                    (long) evenements * fenetres, notifications, signauxLent[0], enAttente, lent.recues(),
+                    exacte ? "" : " OCCUPATION FAUSSE"));
+        }
+        return exacte;
+    }
+}
@@ -0,0 +1,74 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Montée en charge de l'occupation et du contrôle de capacité sous une {@link FouleSimulee} : de
+ * 10 000 à 1 000 000 d'usagers virtuels (une salle de {@link Salle#limiteNombreUsagers} places pour 8
+ * usagers, sur le {@link SiteSimule}), deux heures simulées par pas de 10 s, avec 1 thread puis jusqu'au
+ * nombre de cœurs, pour chaque modèle de mobilité.
+ * <p/>
+ * Pour chaque cas : mouvements (entrées et sorties) par seconde, entrées refusées, dépassements de
+ * capacité dus aux entrées simultanées, et vérification qu'un instantané de l'occupation compte bien
+ * chaque usager qui n'est pas en trajet.
+ * <p/>
+ * Lancement : ./gradlew :benchmark:foule
+ */
+public final class SimulationFoule {
+
+    private static final int[] NOMBRES_USAGERS = {10000, 100000, 1000000};
+    private static final int USAGERS_PAR_SALLE = 8;
+    private static final int DUREE_SECONDES = 2 * 3600;
+    private static final int PAS_SECONDES = 10;
+
+    private SimulationFoule() {
+    }
+
+    public static void main(String[] arguments) throws InterruptedException {
+        int coeurs = Runtime.getRuntime().availableProcessors();
+        System.out.println(coeurs + " cœur(s)");
+        System.out.println("usagers    mobilité        threads  mouvements/s    mouvements       refus  dépassements  cohérent");
+        for (int nombreUsagers : NOMBRES_USAGERS) {
+            RegistreSalles registre = SiteSimule.creerRegistre(nombreUsagers / USAGERS_PAR_SALLE);
+            for (FouleSimulee.Mobilite mobilite : FouleSimulee.Mobilite.values()) {
+                // 1, 2, 4... threads, puis le nombre de cœurs
+                for (int threads = 1; ; threads = Math.min(threads * 2, coeurs)) {
+                    mesurer(registre, nombreUsagers, mobilite, threads);
+                    if (threads == coeurs) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void mesurer(RegistreSalles registre, int nombreUsagers, FouleSimulee.Mobilite mobilite, int threads)
+            throws InterruptedException {
+        OccupationSalles occupation = new OccupationSalles(registre.taille(), threads);
+        // Quelques tranches par thread, pour équilibrer la charge entre threads
+        FouleSimulee foule = new FouleSimulee(registre, occupation, nombreUsagers, threads * 4, 1);
+        foule.fixerMobilite(mobilite);
+        ExecutorService executeur = Executors.newFixedThreadPool(threads);
+        long debut = System.nanoTime();
+        try {
+            foule.avancer(DUREE_SECONDES, PAS_SECONDES, executeur);
+        } finally {
+            executeur.shutdown();
+        }
+        long duree = System.nanoTime() - debut;
+
+        int[] instantane = new int[registre.taille()];
+        occupation.instantane(instantane);
+        long presents = 0;
+        for (int nombre : instantane) {
+            presents += nombre;
+        }
+        boolean coherent = presents == nombreUsagers - foule.enTrajet();
+
+        System.out.println(String.format(Locale.ENGLISH, "%-10d %-15s %7d %13.0f %13d %11d %13d  %s", nombreUsagers,
+                mobilite, threads, foule.mouvements() * 1e9 / duree, foule.mouvements(), foule.refus(),
+                foule.depassements(), coherent ? "oui" : "NON"));
+    }
+}
@@ -0,0 +1,117 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Débit du journal d'occupation ({@link JournalOccupation}) selon la taille des lots écrits sur le disque,
+ * puis durée de la reprise après un arrêt brutal : relecture de l'instantané et rejeu du dernier segment,
+ * comparée au rejeu de tous les événements d'un journal jamais compacté. L'occupation reprise est
+ * comparée à celle attendue.
+ * <p/>
+ * Options : {@code --evenements <n>} (1 000 000), {@code --salles <n>} (1 000), {@code --segment <octets>}
+ * (1 Mio, comme dans l'application). Avec un forçage à chaque événement, le nombre d'événements est
+ * limité à {@link #LIMITE_FORCAGE_UNITAIRE}. Le code de sortie est 1 si une occupation reprise est fausse.
+ * <p/>
+ * Lancement : ./gradlew :benchmark:journal -Pjournal="--evenements 1000000"
+ */
+public final class SimulationJournal {
+
+    private static final int[] LOTS = {1, 16, 256, 4096};
+
+    private static final int LIMITE_FORCAGE_UNITAIRE = 20000;
+
+    // Délai de forçage assez long pour que seuls les lots déclenchent l'écriture
+    private static final long DELAI_FORCAGE_MILLIS = 60000;
+
+    private SimulationJournal() {
+    }
+
+    public static void main(String[] arguments) throws IOException {
+        int nombre = 1000000;
+        int nombreSalles = 1000;
+        int tailleSegment = 1024 * 1024;
+        for (int i = 0; i < arguments.length; i++) {
+            switch (arguments[i]) {
+                case "--evenements":
+                    nombre = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--salles":
+                    nombreSalles = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--segment":
+                    tailleSegment = Integer.parseInt(arguments[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Option inconnue : " + arguments[i]);
+            }
+        }
+
+        boolean echec = false;
+        for (int lot : LOTS) {
+            int evenements = lot == 1 ? Math.min(nombre, LIMITE_FORCAGE_UNITAIRE) : nombre;
+            echec |= !mesurer(evenements, nombreSalles, tailleSegment, lot);
+        }
+        // Journal jamais compacté : tous les événements sont rejoués à la reprise
+        long segmentUnique = JournalOccupation.TAILLE_EN_TETE + (long) (nombre + 1) * JournalOccupation.TAILLE_ENREGISTREMENT;
+        if (segmentUnique <= Integer.MAX_VALUE) {
+            echec |= !mesurer(nombre, nombreSalles, (int) segmentUnique, LOTS[LOTS.length - 1]);
+        }
+        if (echec) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Journalise {@code nombre} entrées et sorties, rouvre le journal comme après un arrêt brutal et
+     * retourne vrai si l'occupation reprise est exacte.
+     */
+    private static boolean mesurer(int nombre, int nombreSalles, int tailleSegment, int lot) throws IOException {
+        File repertoire = Files.createTempDirectory("journal").toFile();
+        try {
+            Random aleatoire = new Random(3);
+            int[] attendues = new int[nombreSalles];
+            JournalOccupation journal = new JournalOccupation(repertoire, nombreSalles, tailleSegment, lot, DELAI_FORCAGE_MILLIS);
+            long debut = System.nanoTime();
+            for (int i = 0; i < nombre; i++) {
+                // Un usager entre dans une salle, ou sort d'une salle occupée
+                int salle = aleatoire.nextInt(nombreSalles);
+                if (attendues[salle] > 0 && aleatoire.nextBoolean()) {
+                    attendues[salle]--;
+                    journal.sortie(i, salle);
+                } else {
+                    attendues[salle]++;
+                    journal.entree(i, salle);
+                }
+            }
+            double ecriture = (System.nanoTime() - debut) / 1e9;
+            int generations = journal.generation();
+
+            // Arrêt brutal : le journal n'est ni forcé ni fermé avant d'être rouvert
+            debut = System.nanoTime();
+            JournalOccupation reprise = new JournalOccupation(repertoire, nombreSalles, tailleSegment, lot, DELAI_FORCAGE_MILLIS);
+            double duree = (System.nanoTime() - debut) / 1e6;
+            int[] occupations = new int[nombreSalles];
+            reprise.copierOccupations(occupations);
+            boolean exacte = Arrays.equals(attendues, occupations);
+
+            System.out.println(String.format(Locale.FRANCE,
+                    "segment %,11d o, lot %5d : %,9d événements, %,11.0f événements/s, %4d compactages ; reprise %7.2f ms (%,9d rejoués)%s",
+                    tailleSegment, lot, nombre, nombre / ecriture, generations, duree, reprise.rejoues(),
+                    exacte ? "" : " OCCUPATION FAUSSE"));
+            return exacte;
+        } finally {
+            File[] fichiers = repertoire.listFiles();
+            if (fichiers != null) {
+                for (File fichier : fichiers) {
+                    fichier.delete();
+                }
+            }
+            repertoire.delete();
+        }
+    }
+}
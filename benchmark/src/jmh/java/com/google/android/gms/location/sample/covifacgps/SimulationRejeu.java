@@ -0,0 +1,122 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Rejoue des localisations dans le traitement de l'application, sans Android ni téléphone : une suite
+ * synthétique ({@link TrajetSimule}, transitions attendues connues) ou une trace enregistrée par
+ * l'application ({@link LectureTrace}, Salles 1 et 2 placées à la première localisation comme au
+ * démarrage). Affiche le débit en localisations par seconde et l'exactitude des entrées et sorties.
+ * <p/>
+ * Options :
+ * <ul>
+ * <li>{@code --trace <fichier ou répertoire>} : rejoue une trace au lieu d'une suite synthétique ;</li>
+ * <li>{@code --localisations <n>} (1 000 000), {@code --bruit <mètres>} (3), {@code --intervalle <ms>} (1000),
+ * {@code --graine <n>} (1) : suite synthétique ;</li>
+ * <li>{@code --lot <n>} (1) : localisations par lot, comme un {@code LocationResult} groupé ;</li>
+ * <li>{@code --acceleration <x>} (0 : au plus vite) ou {@code --temps-reel} (1) : rythme du rejeu ;</li>
+ * <li>{@code --repetitions <n>} (1) : nombre de rejeux (les premiers mesurent aussi la compilation à la volée) ;</li>
+ * <li>{@code --filtre} : filtre les localisations ({@link FiltreKalman}) avant la recherche des salles ;</li>
+ * <li>{@code --exactitude-min <x>} (0) : exactitude minimale exigée.</li>
+ * </ul>
+ * Le code de sortie est 1 si un rejeu présente une incohérence ou une exactitude insuffisante, pour une
+ * utilisation en intégration continue.
+ * <p/>
+ * Lancement : ./gradlew :benchmark:rejeu -Prejeu="--localisations 10000000 --lot 5"
+ */
+public final class SimulationRejeu {
+
+    private SimulationRejeu() {
+    }
+
+    public static void main(String[] arguments) throws IOException, InterruptedException {
+        String trace = null;
+        int nombre = 1000000;
+        double bruit = 3;
+        long intervalle = 1000;
+        long graine = 1;
+        int lot = 1;
+        double acceleration = 0;
+        int repetitions = 1;
+        double exactitudeMin = 0;
+        boolean filtrage = false;
+        for (int i = 0; i < arguments.length; i++) {
+            switch (arguments[i]) {
+                case "--trace":
+                    trace = arguments[++i];
+                    break;
+                case "--localisations":
+                    nombre = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--bruit":
+                    bruit = Double.parseDouble(arguments[++i]);
+                    break;
+                case "--intervalle":
+                    intervalle = Long.parseLong(arguments[++i]);
+                    break;
+                case "--graine":
+                    graine = Long.parseLong(arguments[++i]);
+                    break;
+                case "--lot":
+                    lot = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--acceleration":
+                    acceleration = Double.parseDouble(arguments[++i]);
+                    break;
+                case "--temps-reel":
+                    acceleration = 1;
+                    break;
+                case "--repetitions":
+                    repetitions = Integer.parseInt(arguments[++i]);
+                    break;
+                case "--filtre":
+                    filtrage = true;
+                    break;
+                case "--exactitude-min":
+                    exactitudeMin = Double.parseDouble(arguments[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Option inconnue : " + arguments[i]);
+            }
+        }
+
+        SourceLocalisations source;
+        ListeTransitions attendues;
+        TraitementLocalisation traitement;
+        boolean placementSalles;
+        if (trace != null) {
+            source = new LectureTrace(new File(trace));
+            attendues = null;
+            traitement = new TraitementLocalisation(new MoteurGeofence(Salle.registre), Salle.occupation);
+            placementSalles = true;
+        } else {
+            long debut = System.nanoTime();
+            TrajetSimule trajet = new TrajetSimule(nombre, bruit, intervalle, graine);
+            System.out.println(String.format("Suite synthétique : %d localisations, %d transitions attendues (%.1f s)",
+                    trajet.nombre(), trajet.attendues().taille(), (System.nanoTime() - debut) / 1e9));
+            source = trajet;
+            attendues = trajet.attendues();
+            RegistreSalles registre = trajet.registre();
+            traitement = new TraitementLocalisation(new MoteurGeofence(registre), new OccupationSalles(registre.taille()));
+            placementSalles = false;
+        }
+        // Même méthode de calcul de distance que l'application
+        traitement.moteur().fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        traitement.fixerFiltrage(filtrage);
+
+        RejeuLocalisations rejeu = new RejeuLocalisations(traitement, 2);
+        rejeu.fixerTailleLot(lot);
+        rejeu.fixerAcceleration(acceleration);
+        rejeu.fixerPlacementSalles(placementSalles);
+        boolean echec = false;
+        for (int r = 0; r < repetitions; r++) {
+            RejeuLocalisations.Resultat resultat = rejeu.rejouer(source, attendues);
+            System.out.println(resultat);
+            echec |= resultat.incoherences() > 0 || resultat.exactitude() < exactitudeMin;
+        }
+        if (echec) {
+            System.exit(1);
+        }
+    }
+}
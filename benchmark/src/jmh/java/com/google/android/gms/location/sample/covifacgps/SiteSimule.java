@@ -0,0 +1,139 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Site fictif utilisé par les mesures de performance : des salles circulaires réparties sur une grille
+ * perturbée (une salle tous les 20 mètres environ), et des localisations tirées uniformément sur le site.
+ * La densité de salles reste constante : un site de 1 000 000 de salles couvre environ 20 km × 20 km.
+ */
+final class SiteSimule {
+
+    // Centre du site
+    static final double LATITUDE_CENTRE = 43.6045;
+    static final double LONGITUDE_CENTRE = 1.4440;
+
+    // Espacement moyen entre deux centres de salles, en mètres
+    private static final double ESPACEMENT_METRES = 20.0;
+
+    /**
+     * Forme des salles d'un site simulé.
+     */
+    enum FormeSalle {
+        CERCLE,
+        CONVEXE,
+        CONCAVE
+    }
+
+    private SiteSimule() {
+    }
+
+    /**
+     * Crée un registre de {@code nombreSalles} salles (graine fixe : le site est identique d'une mesure à l'autre).
+     */
+    static RegistreSalles creerRegistre(int nombreSalles) {
+        return creerRegistre(nombreSalles, FormeSalle.CERCLE, 0);
+    }
+
+    /**
+     * Crée le même site que {@link #creerRegistre(int)}, chaque salle ayant la forme {@code forme} : un
+     * polygone régulier de {@code sommets} sommets inscrit dans le cercle de la salle, ou une étoile
+     * (concave) dont un sommet sur deux est ramené aux 6/10 du rayon.
+     */
+    static RegistreSalles creerRegistre(int nombreSalles, FormeSalle forme, int sommets) {
+        Random aleatoire = new Random(42);
+        RegistreSalles registre = new RegistreSalles(nombreSalles);
+        int cote = (int) Math.ceil(Math.sqrt(nombreSalles));
+        ProjectionLocale plan = new ProjectionLocale(LATITUDE_CENTRE, LONGITUDE_CENTRE);
+        double[] estSommets = new double[sommets];
+        double[] nordSommets = new double[sommets];
+        for (int i = 0; i < nombreSalles; i++) {
+            double nord = ((i / cote) - cote / 2.0 + aleatoire.nextDouble() * 0.5) * ESPACEMENT_METRES;
+            double est = ((i % cote) - cote / 2.0 + aleatoire.nextDouble() * 0.5) * ESPACEMENT_METRES;
+            int rayon = 5 + aleatoire.nextInt(8);
+            if (forme == FormeSalle.CERCLE) {
+                plan.ajouterSalle(registre, est, nord, rayon, Salle.limiteNombreUsagers);
+                continue;
+            }
+            for (int j = 0; j < sommets; j++) {
+                double angle = 2 * Math.PI * j / sommets;
+                double r = forme == FormeSalle.CONCAVE && j % 2 == 1 ? rayon * 0.6 : rayon;
+                estSommets[j] = est + r * Math.cos(angle);
+                nordSommets[j] = nord + r * Math.sin(angle);
+            }
+            plan.ajouterPolygone(registre, estSommets, nordSommets, sommets, Salle.limiteNombreUsagers);
+        }
+        return registre;
+    }
+
+    /**
+     * Range les salles d'un site créé par {@link #creerRegistre} en campus : des bâtiments de 8 × 8
+     * salles voisines, découpés chacun en 4 zones de 4 × 4 salles.
+     */
+    static HierarchieSalles creerHierarchie(int nombreSalles) {
+        HierarchieSalles hierarchie = new HierarchieSalles("Site");
+        int cote = (int) Math.ceil(Math.sqrt(nombreSalles));
+        int batimentsParLigne = (cote + 7) / 8;
+        int[] zones = new int[batimentsParLigne * batimentsParLigne * 4];
+        Arrays.fill(zones, -1);
+        for (int salle = 0; salle < nombreSalles; salle++) {
+            int ligne = salle / cote;
+            int colonne = salle % cote;
+            int batiment = (ligne / 8) * batimentsParLigne + colonne / 8;
+            int zone = batiment * 4 + ((ligne / 4) % 2) * 2 + (colonne / 4) % 2;
+            if (zones[zone] < 0) {
+                // Le bâtiment et ses 4 zones sont créés à la première de ses salles
+                int noeudBatiment = hierarchie.ajouterBatiment("Bâtiment " + batiment);
+                for (int z = 0; z < 4; z++) {
+                    zones[batiment * 4 + z] = hierarchie.ajouterZone(noeudBatiment, "Zone " + z);
+                }
+            }
+            hierarchie.rattacher(salle, zones[zone]);
+        }
+        return hierarchie;
+    }
+
+    /**
+     * Trajet à pied de {@code nombre} localisations, une par seconde à 1,4 m/s, qui change lentement de
+     * direction et rebondit sur les bords du site. Même disposition que {@link #creerLocalisations}.
+     */
+    static double[] creerTrajet(int nombreSalles, int nombre) {
+        Random aleatoire = new Random(11);
+        double demiCote = Math.ceil(Math.sqrt(nombreSalles)) * ESPACEMENT_METRES / 2.0;
+        ProjectionLocale plan = new ProjectionLocale(LATITUDE_CENTRE, LONGITUDE_CENTRE);
+        double[] localisations = new double[nombre * 2];
+        double est = 0;
+        double nord = 0;
+        double cap = aleatoire.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < nombre; i++) {
+            cap += aleatoire.nextGaussian() * 0.2;
+            est += 1.4 * Math.cos(cap);
+            nord += 1.4 * Math.sin(cap);
+            if (Math.abs(est) > demiCote || Math.abs(nord) > demiCote) {
+                est = Math.max(-demiCote, Math.min(demiCote, est));
+                nord = Math.max(-demiCote, Math.min(demiCote, nord));
+                cap += Math.PI;
+            }
+            localisations[2 * i] = plan.latitude(nord);
+            localisations[2 * i + 1] = plan.longitude(est);
+        }
+        return localisations;
+    }
+
+    /**
+     * Tire {@code nombre} localisations uniformément sur l'emprise d'un site de {@code nombreSalles} salles.
+     * Les latitudes sont rangées aux indices pairs, les longitudes aux indices impairs.
+     */
+    static double[] creerLocalisations(int nombreSalles, int nombre) {
+        Random aleatoire = new Random(7);
+        double demiCote = Math.ceil(Math.sqrt(nombreSalles)) * ESPACEMENT_METRES / 2.0;
+        ProjectionLocale plan = new ProjectionLocale(LATITUDE_CENTRE, LONGITUDE_CENTRE);
+        double[] localisations = new double[nombre * 2];
+        for (int i = 0; i < nombre; i++) {
+            localisations[2 * i] = plan.latitude((aleatoire.nextDouble() * 2 - 1) * demiCote);
+            localisations[2 * i + 1] = plan.longitude((aleatoire.nextDouble() * 2 - 1) * demiCote);
+        }
+        return localisations;
+    }
+}
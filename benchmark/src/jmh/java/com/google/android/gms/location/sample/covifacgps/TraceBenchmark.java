@@ -0,0 +1,76 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coût de l'enregistrement d'une localisation dans la trace (rotation des segments et budget disque
+ * compris) et de sa relecture sans copie. Seule la rotation d'un segment alloue (quelques objets
+ * pour créer le fichier) : le profileur 'gc' doit indiquer moins d'un octet alloué par opération.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceBenchmark {
+
+    private static final int NOMBRE_LOCALISATIONS = 1024;
+
+    // Segments de 1 Mio comme dans l'application : une rotation toutes les 43 690 localisations
+    private static final int TAILLE_SEGMENT = 1024 * 1024;
+    private static final long BUDGET = 4 * TAILLE_SEGMENT;
+
+    private File repertoire;
+    private EnregistreurTrace enregistreur;
+    private LectureTrace lecture;
+    private double[] localisations;
+    private int suivante = 0;
+    private long instant = 0;
+    private long lue = 0;
+
+    @Setup(Level.Trial)
+    public void preparer() throws IOException {
+        repertoire = Files.createTempDirectory("trace").toFile();
+        enregistreur = new EnregistreurTrace(repertoire, TAILLE_SEGMENT, BUDGET);
+        localisations = SiteSimule.creerLocalisations(2, NOMBRE_LOCALISATIONS);
+        for (int i = 0; i < 3 * enregistreur.capaciteSegment(); i++) {
+            enregistrer();
+        }
+        lecture = new LectureTrace(repertoire);
+    }
+
+    @TearDown(Level.Trial)
+    public void nettoyer() {
+        File[] fichiers = repertoire.listFiles();
+        if (fichiers != null) {
+            for (File fichier : fichiers) {
+                fichier.delete();
+            }
+        }
+        repertoire.delete();
+    }
+
+    @Benchmark
+    public void enregistrer() throws IOException {
+        suivante = (suivante + 1) & (NOMBRE_LOCALISATIONS - 1);
+        instant += 1000;
+        enregistreur.enregistrer(instant, localisations[2 * suivante], localisations[2 * suivante + 1], 8f, Float.NaN);
+    }
+
+    @Benchmark
+    public long lire() {
+        lue = lue + 1 < lecture.nombre() ? lue + 1 : 0;
+        return lecture.instant(lue) + lecture.latitudeE7(lue) + lecture.longitudeE7(lue);
+    }
+}
@@ -0,0 +1,61 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Traitement complet d'une mise à jour de localisation jusqu'à l'{@link EtatRendu} (sans les vues
+ * Android), avec les deux états utilisés à tour de rôle comme dans l'activité, avec ou sans la mesure
+ * de la durée de chaque étape ({@link MesuresPipeline}). Le profileur 'gc' doit indiquer 0 octet alloué
+ * par opération.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraitementBenchmark {
+
+    private static final int NOMBRE_LOCALISATIONS = 1024;
+
+    @Param({"2", "10000"})
+    public int nombreSalles;
+
+    @Param({"false", "true"})
+    public boolean mesures;
+
+    private TraitementLocalisation traitement;
+    private final EtatRendu[] etats = { new EtatRendu(2), new EtatRendu(2) };
+    private double[] localisations;
+    private int suivante = 0;
+    private long instant = 0;
+
+    @Setup
+    public void preparer() {
+        MoteurGeofence moteur = new MoteurGeofence(SiteSimule.creerRegistre(nombreSalles));
+        moteur.fixerModeDistance(ModeDistance.CARRE_EQUIRECTANGULAIRE);
+        traitement = new TraitementLocalisation(moteur, new OccupationSalles(nombreSalles));
+        localisations = SiteSimule.creerLocalisations(nombreSalles, NOMBRE_LOCALISATIONS);
+        if (mesures) {
+            traitement.fixerMesures(new MesuresPipeline());
+        }
+
+        // Les salles du site simulé ne doivent pas être déplacées sur la première localisation
+        Localisation.valeursLongLatAttribuees = false;
+    }
+
+    @Benchmark
+    public EtatRendu traiter() {
+        suivante = (suivante + 1) & (NOMBRE_LOCALISATIONS - 1);
+        EtatRendu etat = etats[suivante & 1];
+        instant += 1000;
+        traitement.traiter(localisations[2 * suivante], localisations[2 * suivante + 1], instant, etat);
+        return etat;
+    }
+}
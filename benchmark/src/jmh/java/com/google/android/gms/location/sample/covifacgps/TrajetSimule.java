@@ -0,0 +1,178 @@
+package com.google.android.gms.location.sample.covifacgps;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Suite synthétique de localisations bruitées, avec ses transitions attendues, à rejouer avec
+ * {@link RejeuLocalisations}.
+ * <p/>
+ * Le site compte quelques bâtiments de salles circulaires (comme la simulation de {@code PlanificateurLocalisationTest}).
+ * L'usager reste de 5 à 45 minutes au centre d'une salle, puis marche (1,4 m/s) ou se déplace à vélo
+ * (5 m/s) en ligne droite vers une autre salle, en traversant éventuellement d'autres salles. Chaque
+ * localisation est sa position réelle plus un bruit gaussien sur chaque axe, et annonce la précision
+ * correspondante (rayon à 68 %, environ 1,5 écart type).
+ * <p/>
+ * Les transitions attendues sont calculées sur la position réelle, sans bruit : entrée à la première
+ * localisation dans le rayon, sortie à la première localisation hors du rayon. Une visite de moins de
+ * {@link #DUREE_VISITE_CERTAINE} (traversée d'une salle, passage au bord) est incertaine : l'automate peut
+ * légitimement la confirmer ou non.
+ * <p/>
+ * Les localisations sont stockées en degrés × 10^7 (8 octets par localisation), les heures sont
+ * régulières : 10 millions de localisations tiennent en 80 Mo.
+ */
+final class TrajetSimule implements SourceLocalisations {
+
+    /**
+     * Durée minimale d'une visite dont l'entrée et la sortie doivent être détectées, en millisecondes.
+     */
+    static final long DUREE_VISITE_CERTAINE = 30000;
+
+    // Heure de la première localisation (millisecondes)
+    private static final long INSTANT_DEBUT = 1600000000000L;
+
+    // Site : bâtiments de salles répartis sur 3 km × 3 km
+    private static final int NOMBRE_BATIMENTS = 8;
+    private static final int SALLES_PAR_BATIMENT = 12;
+    private static final double COTE_SITE_METRES = 3000;
+
+    private final RegistreSalles registre;
+    private final ListeTransitions attendues = new ListeTransitions();
+    private final long intervalle;
+    private final float precision;
+    private final int[] latitudesE7;
+    private final int[] longitudesE7;
+
+    /**
+     * @param nombre      Nombre de localisations.
+     * @param bruitMetres Écart type du bruit sur chaque axe, en mètres.
+     * @param intervalle  Intervalle entre deux localisations, en millisecondes.
+     * @param graine      Graine du site, du trajet et du bruit.
+     */
+    TrajetSimule(int nombre, double bruitMetres, long intervalle, long graine) {
+        this.intervalle = intervalle;
+        this.precision = bruitMetres > 0 ? (float) (bruitMetres * 1.515) : Float.NaN;
+        Random aleatoire = new Random(graine);
+        ProjectionLocale plan = new ProjectionLocale(SiteSimule.LATITUDE_CENTRE, SiteSimule.LONGITUDE_CENTRE);
+
+        // Salles, en mètres (est, nord) autour du centre du site
+        int nombreSalles = NOMBRE_BATIMENTS * SALLES_PAR_BATIMENT;
+        double[] est = new double[nombreSalles];
+        double[] nord = new double[nombreSalles];
+        float[] rayons = new float[nombreSalles];
+        registre = new RegistreSalles(nombreSalles);
+        for (int b = 0; b < NOMBRE_BATIMENTS; b++) {
+            double estBatiment = (aleatoire.nextDouble() - 0.5) * COTE_SITE_METRES;
+            double nordBatiment = (aleatoire.nextDouble() - 0.5) * COTE_SITE_METRES;
+            for (int i = 0; i < SALLES_PAR_BATIMENT; i++) {
+                int salle = b * SALLES_PAR_BATIMENT + i;
+                est[salle] = estBatiment + (i % 4) * 30;
+                nord[salle] = nordBatiment + (i / 4) * 30;
+                rayons[salle] = 8 + aleatoire.nextInt(6);
+                plan.ajouterSalle(registre, est[salle], nord[salle], rayons[salle], Salle.limiteNombreUsagers);
+            }
+        }
+
+        // Visite en cours dans chaque salle : indice de son entrée dans les transitions attendues (-1 si aucune)
+        int[] entreesEnCours = new int[nombreSalles];
+        Arrays.fill(entreesEnCours, -1);
+
+        latitudesE7 = new int[nombre];
+        longitudesE7 = new int[nombre];
+        double secondes = intervalle / 1000.0;
+        int salleCourante = aleatoire.nextInt(nombreSalles);
+        double x = est[salleCourante];
+        double y = nord[salleCourante];
+        double sejourRestant = 300 + aleatoire.nextInt(2400);
+        int cible = -1;
+        double vitesse = 0;
+        for (int i = 0; i < nombre; i++) {
+            // Déplacement réel pendant l'intervalle : séjour dans une salle, puis trajet vers une autre
+            if (cible < 0) {
+                sejourRestant -= secondes;
+                if (sejourRestant <= 0) {
+                    cible = aleatoire.nextInt(nombreSalles);
+                    vitesse = aleatoire.nextInt(4) == 0 ? 5.0 : 1.4;
+                }
+            } else {
+                double dx = est[cible] - x;
+                double dy = nord[cible] - y;
+                double longueur = Math.sqrt(dx * dx + dy * dy);
+                double pas = vitesse * secondes;
+                if (longueur <= pas) {
+                    x = est[cible];
+                    y = nord[cible];
+                    cible = -1;
+                    sejourRestant = 300 + aleatoire.nextInt(2400);
+                } else {
+                    x += dx * pas / longueur;
+                    y += dy * pas / longueur;
+                }
+            }
+
+            // Transitions attendues, sur la position réelle
+            long instant = instant(i);
+            for (int salle = 0; salle < nombreSalles; salle++) {
+                double dx = x - est[salle];
+                double dy = y - nord[salle];
+                boolean dedans = dx * dx + dy * dy < (double) rayons[salle] * rayons[salle];
+                if (dedans && entreesEnCours[salle] < 0) {
+                    entreesEnCours[salle] = attendues.taille();
+                    attendues.ajouter(salle, instant, true, true);
+                } else if (!dedans && entreesEnCours[salle] >= 0) {
+                    boolean certaine = instant - attendues.instant(entreesEnCours[salle]) >= DUREE_VISITE_CERTAINE;
+                    if (!certaine) {
+                        attendues.rendreIncertaine(entreesEnCours[salle]);
+                    }
+                    attendues.ajouter(salle, instant, false, certaine);
+                    entreesEnCours[salle] = -1;
+                }
+            }
+
+            // Localisation bruitée
+            double nordBruite = y + aleatoire.nextGaussian() * bruitMetres;
+            double estBruite = x + aleatoire.nextGaussian() * bruitMetres;
+            latitudesE7[i] = plan.latitudeE7(nordBruite);
+            longitudesE7[i] = plan.longitudeE7(estBruite);
+        }
+
+        // Fin du trajet : l'automate n'a pas forcément eu le temps de confirmer les dernières transitions
+        long fin = instant(nombre);
+        for (int t = attendues.taille() - 1; t >= 0 && fin - attendues.instant(t) < DUREE_VISITE_CERTAINE; t--) {
+            attendues.rendreIncertaine(t);
+        }
+    }
+
+    RegistreSalles registre() {
+        return registre;
+    }
+
+    ListeTransitions attendues() {
+        return attendues;
+    }
+
+    @Override
+    public long nombre() {
+        return latitudesE7.length;
+    }
+
+    @Override
+    public long instant(long i) {
+        return INSTANT_DEBUT + i * intervalle;
+    }
+
+    @Override
+    public double latitude(long i) {
+        return CoordonneesE7.degres(latitudesE7[(int) i]);
+    }
+
+    @Override
+    public double longitude(long i) {
+        return CoordonneesE7.degres(longitudesE7[(int) i]);
+    }
+
+    @Override
+    public float precision(long i) {
+        return precision;
+    }
+}